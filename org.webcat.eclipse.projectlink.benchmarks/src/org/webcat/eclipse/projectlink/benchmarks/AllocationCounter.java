@@ -0,0 +1,208 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+import java.lang.management.ManagementFactory;
+import java.lang.management.ThreadMXBean;
+import java.lang.reflect.Method;
+import java.util.HashMap;
+import java.util.Map;
+
+//--------------------------------------------------------------------------
+/**
+ * Measures the number of bytes allocated on the heap by all live threads,
+ * using the per-thread allocation counters of the HotSpot virtual machine.
+ * Those counters are not part of the standard management API, so they are
+ * looked up reflectively; on virtual machines that do not have them,
+ * {@link #isSupported()} returns false and no allocation rates are reported.
+ *
+ * Threads that end between two snapshots take their allocations with them,
+ * so work handed to short-lived threads is undercounted. The helper threads
+ * used for extraction outlive a single invocation, so this does not affect
+ * the benchmarks here.
+ *
+ * @author Web-CAT Development Team
+ */
+public class AllocationCounter
+{
+	//~ Instance/static variables .............................................
+
+	private ThreadMXBean threads;
+	private Method getThreadAllocatedBytes;
+	private long overhead;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	public AllocationCounter()
+	{
+		threads = ManagementFactory.getThreadMXBean();
+
+		try
+		{
+			Class<?> hotspotBean =
+					Class.forName("com.sun.management.ThreadMXBean");
+
+			if (hotspotBean.isInstance(threads))
+			{
+				Method isSupported = hotspotBean.getMethod(
+						"isThreadAllocatedMemorySupported");
+				Method setEnabled = hotspotBean.getMethod(
+						"setThreadAllocatedMemoryEnabled", boolean.class);
+
+				if (Boolean.TRUE.equals(isSupported.invoke(threads)))
+				{
+					setEnabled.invoke(threads, Boolean.TRUE);
+					getThreadAllocatedBytes = hotspotBean.getMethod(
+							"getThreadAllocatedBytes", long[].class);
+				}
+			}
+		}
+		catch (Exception e)
+		{
+			getThreadAllocatedBytes = null;
+		}
+
+		calibrate();
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether allocations can be measured on this
+	 * virtual machine.
+	 *
+	 * @return true if allocations can be measured; otherwise, false
+	 */
+	public boolean isSupported()
+	{
+		return getThreadAllocatedBytes != null;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Takes a snapshot of the number of bytes allocated so far by each live
+	 * thread.
+	 *
+	 * @return the snapshot, mapping thread IDs to allocated bytes, or null
+	 *     if allocations cannot be measured
+	 */
+	public Map<Long, Long> snapshot()
+	{
+		if (getThreadAllocatedBytes == null)
+		{
+			return null;
+		}
+
+		long[] ids = threads.getAllThreadIds();
+		long[] bytes;
+
+		try
+		{
+			bytes = (long[]) getThreadAllocatedBytes.invoke(threads, ids);
+		}
+		catch (Exception e)
+		{
+			return null;
+		}
+
+		Map<Long, Long> snapshot = new HashMap<Long, Long>(ids.length * 2);
+
+		for (int i = 0; i < ids.length; i++)
+		{
+			if (bytes[i] >= 0)
+			{
+				snapshot.put(ids[i], bytes[i]);
+			}
+		}
+
+		return snapshot;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Computes the number of bytes allocated between two snapshots by the
+	 * threads that were alive at the end, not counting the snapshots
+	 * themselves.
+	 *
+	 * @param before the earlier snapshot
+	 * @param after the later snapshot
+	 * @return the number of bytes allocated, or -1 if either snapshot is
+	 *     missing
+	 */
+	public long difference(Map<Long, Long> before, Map<Long, Long> after)
+	{
+		long raw = rawDifference(before, after);
+
+		return (raw < 0) ? -1 : Math.max(0, raw - overhead);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Measures how much taking a pair of snapshots allocates by itself, so
+	 * that it can be subtracted from the measurements.
+	 */
+	private void calibrate()
+	{
+		overhead = 0;
+
+		if (getThreadAllocatedBytes == null)
+		{
+			return;
+		}
+
+		long least = Long.MAX_VALUE;
+
+		for (int i = 0; i < 20; i++)
+		{
+			least = Math.min(least, rawDifference(snapshot(), snapshot()));
+		}
+
+		overhead = Math.max(0, least);
+	}
+
+
+	// ----------------------------------------------------------
+	private long rawDifference(Map<Long, Long> before, Map<Long, Long> after)
+	{
+		if (before == null || after == null)
+		{
+			return -1;
+		}
+
+		long total = 0;
+
+		for (Map.Entry<Long, Long> entry : after.entrySet())
+		{
+			Long previous = before.get(entry.getKey());
+
+			total += entry.getValue()
+					- (previous == null ? 0 : previous.longValue());
+		}
+
+		return total;
+	}
+}
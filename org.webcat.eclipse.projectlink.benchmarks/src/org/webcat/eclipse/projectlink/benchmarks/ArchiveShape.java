@@ -0,0 +1,218 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+//--------------------------------------------------------------------------
+/**
+ * The shapes of the synthetic project archives used by the benchmarks. Each
+ * archive holds a {@code .project} file and a number of files of the same
+ * size, spread across directories that are either siblings or nested inside
+ * one another. The file contents are random words, which compress about as
+ * well as source code does. The same shape always generates the same
+ * archive.
+ *
+ * @author Web-CAT Development Team
+ */
+public enum ArchiveShape
+{
+	//~ Constants .............................................................
+
+	/** A few large files, such as bundled data sets or libraries. */
+	FEW_LARGE_FILES("few-large", 4, 8 * 1024 * 1024, 4, false),
+
+	/** Many tiny files in a handful of sibling directories. */
+	MANY_TINY_FILES("many-tiny", 5000, 256, 100, false),
+
+	/** Small files in a tree 32 directories deep. */
+	DEEP_TREE("deep-tree", 512, 4096, 16, true);
+
+
+	//~ Instance/static variables .............................................
+
+	private static final String[] WORDS = {
+		"public", "private", "static", "final", "class", "void", "int",
+		"return", "if", "else", "for", "while", "new", "this", "null",
+		"import", "package", "String", "List", "Map", "get", "set", "size",
+		"{", "}", "(", ")", ";", "=", "+", "0", "1", "//", "*", "\n", "\t"
+	};
+
+	private static final String PROJECT_DESCRIPTION =
+			"<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n"
+			+ "<projectDescription>\n"
+			+ "\t<name>Benchmark</name>\n"
+			+ "\t<comment></comment>\n"
+			+ "\t<projects>\n\t</projects>\n"
+			+ "\t<buildSpec>\n\t</buildSpec>\n"
+			+ "\t<natures>\n\t</natures>\n"
+			+ "</projectDescription>\n";
+
+	private String label;
+	private int fileCount;
+	private int fileSize;
+	private int filesPerDirectory;
+	private boolean nested;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	private ArchiveShape(String label, int fileCount, int fileSize,
+			int filesPerDirectory, boolean nested)
+	{
+		this.label = label;
+		this.fileCount = fileCount;
+		this.fileSize = fileSize;
+		this.filesPerDirectory = filesPerDirectory;
+		this.nested = nested;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	public String getLabel()
+	{
+		return label;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Generates an archive of this shape.
+	 *
+	 * @param directory the directory in which to create the archive
+	 * @param singleRoot true to put everything inside a single directory at
+	 *     the root of the archive, as exported projects usually are; false to
+	 *     put the files at the root
+	 * @return the generated archive
+	 * @throws IOException if the archive could not be written
+	 */
+	public GeneratedArchive generate(File directory, boolean singleRoot)
+			throws IOException
+	{
+		File file = new File(directory, label
+				+ (singleRoot ? "-rooted" : "-flat") + ".zip");
+
+		String root = singleRoot ? "Benchmark/" : "";
+		Random random = new Random(fileCount * 31L + fileSize);
+		byte[] contents = new byte[fileSize];
+		Set<String> directories = new HashSet<String>();
+		long totalSize = 0;
+
+		ZipOutputStream zip = new ZipOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+
+		try
+		{
+			if (singleRoot)
+			{
+				zip.putNextEntry(new ZipEntry(root));
+				zip.closeEntry();
+			}
+
+			byte[] description = PROJECT_DESCRIPTION.getBytes("UTF-8");
+			zip.putNextEntry(new ZipEntry(root + ".project"));
+			zip.write(description);
+			zip.closeEntry();
+			totalSize += description.length;
+
+			for (int i = 0; i < fileCount; i++)
+			{
+				String path = root + directoryOf(i / filesPerDirectory);
+
+				if (path.length() > root.length() && directories.add(path))
+				{
+					zip.putNextEntry(new ZipEntry(path));
+					zip.closeEntry();
+				}
+
+				fill(contents, random);
+
+				zip.putNextEntry(new ZipEntry(path + "File" + i + ".java"));
+				zip.write(contents);
+				zip.closeEntry();
+				totalSize += contents.length;
+			}
+		}
+		finally
+		{
+			zip.close();
+		}
+
+		return new GeneratedArchive(file, this, singleRoot,
+				fileCount + 1, totalSize);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the path, ending in a slash, of the directory that holds the
+	 * files with the specified directory index.
+	 */
+	private String directoryOf(int index)
+	{
+		if (!nested)
+		{
+			return (fileCount <= filesPerDirectory) ? "" : "dir" + index + "/";
+		}
+
+		StringBuffer path = new StringBuffer();
+
+		for (int level = 0; level <= index; level++)
+		{
+			path.append("d").append(level).append('/');
+		}
+
+		return path.toString();
+	}
+
+
+	// ----------------------------------------------------------
+	private static void fill(byte[] contents, Random random)
+	{
+		int position = 0;
+
+		while (position < contents.length)
+		{
+			String word = WORDS[random.nextInt(WORDS.length)];
+
+			for (int i = 0; i < word.length() && position < contents.length;
+					i++)
+			{
+				contents[position++] = (byte) word.charAt(i);
+			}
+
+			if (position < contents.length)
+			{
+				contents[position++] = ' ';
+			}
+		}
+	}
+}
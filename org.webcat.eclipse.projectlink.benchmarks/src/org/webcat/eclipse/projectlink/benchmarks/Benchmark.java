@@ -0,0 +1,144 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+//--------------------------------------------------------------------------
+/**
+ * A single operation to be measured by a {@link BenchmarkRunner}. Only
+ * {@link #run()} is timed; the other methods prepare for and clean up after
+ * it, outside of the measurement.
+ *
+ * @author Web-CAT Development Team
+ */
+public abstract class Benchmark
+{
+	//~ Instance/static variables .............................................
+
+	private String name;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new benchmark.
+	 *
+	 * @param name the name of the benchmark, as shown in the report
+	 */
+	protected Benchmark(String name)
+	{
+		this.name = name;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	public String getName()
+	{
+		return name;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Called once before the benchmark is run for the first time.
+	 *
+	 * @throws Exception if an error occurs
+	 */
+	public void setUp() throws Exception
+	{
+		// Do nothing.
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Called before each invocation of {@link #run()}.
+	 *
+	 * @throws Exception if an error occurs
+	 */
+	public void beforeRun() throws Exception
+	{
+		// Do nothing.
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Performs the operation being measured.
+	 *
+	 * @throws Exception if an error occurs
+	 */
+	public abstract void run() throws Exception;
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Called after each invocation of {@link #run()}.
+	 *
+	 * @throws Exception if an error occurs
+	 */
+	public void afterRun() throws Exception
+	{
+		// Do nothing.
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Called once after the benchmark has been run for the last time.
+	 *
+	 * @throws Exception if an error occurs
+	 */
+	public void tearDown() throws Exception
+	{
+		// Do nothing.
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of bytes of data processed by one invocation, from
+	 * which the throughput in megabytes per second is computed.
+	 *
+	 * @return the number of bytes, or zero if the benchmark does not
+	 *     process data
+	 */
+	public long getBytesPerRun()
+	{
+		return 0;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of items (files, tree nodes, and so on) processed by
+	 * one invocation, from which the throughput in items per second is
+	 * computed.
+	 *
+	 * @return the number of items, or zero if the benchmark does not work
+	 *     on separate items
+	 */
+	public int getItemsPerRun()
+	{
+		return 0;
+	}
+}
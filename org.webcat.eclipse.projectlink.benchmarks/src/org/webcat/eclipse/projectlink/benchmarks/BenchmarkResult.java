@@ -0,0 +1,197 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+//--------------------------------------------------------------------------
+/**
+ * The measurements of one benchmark, summed over all of its measurement
+ * iterations.
+ *
+ * @author Web-CAT Development Team
+ */
+public class BenchmarkResult
+{
+	//~ Instance/static variables .............................................
+
+	private static final double NANOS_PER_SECOND = 1e9;
+	private static final double BYTES_PER_MEGABYTE = 1024 * 1024;
+
+	private String name;
+	private long bytesPerRun;
+	private int itemsPerRun;
+	private long invocations;
+	private long nanos;
+	private long allocatedBytes;
+	private double[] iterationRates;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new result.
+	 *
+	 * @param benchmark the benchmark that was measured
+	 * @param invocations the number of times it was run
+	 * @param nanos the total time taken by those runs
+	 * @param allocatedBytes the total number of bytes they allocated, or -1
+	 *     if allocations could not be measured
+	 * @param iterationRates the number of runs per second in each
+	 *     measurement iteration
+	 */
+	public BenchmarkResult(Benchmark benchmark, long invocations, long nanos,
+			long allocatedBytes, double[] iterationRates)
+	{
+		this.name = benchmark.getName();
+		this.bytesPerRun = benchmark.getBytesPerRun();
+		this.itemsPerRun = benchmark.getItemsPerRun();
+		this.invocations = invocations;
+		this.nanos = nanos;
+		this.allocatedBytes = allocatedBytes;
+		this.iterationRates = iterationRates;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	public String getName()
+	{
+		return name;
+	}
+
+
+	// ----------------------------------------------------------
+	public long getInvocations()
+	{
+		return invocations;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the average number of runs per second.
+	 *
+	 * @return the number of runs per second
+	 */
+	public double getRunsPerSecond()
+	{
+		return (nanos == 0) ? 0 : invocations * NANOS_PER_SECOND / nanos;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the spread of the number of runs per second across measurement
+	 * iterations, as a percentage of the average, so that noisy results
+	 * stand out.
+	 *
+	 * @return the standard deviation, as a percentage of the mean
+	 */
+	public double getRunsPerSecondDeviation()
+	{
+		if (iterationRates.length < 2)
+		{
+			return 0;
+		}
+
+		double mean = 0;
+
+		for (double rate : iterationRates)
+		{
+			mean += rate;
+		}
+
+		mean /= iterationRates.length;
+
+		double variance = 0;
+
+		for (double rate : iterationRates)
+		{
+			variance += (rate - mean) * (rate - mean);
+		}
+
+		variance /= iterationRates.length - 1;
+
+		return (mean == 0) ? 0 : 100 * Math.sqrt(variance) / mean;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the data throughput.
+	 *
+	 * @return the number of megabytes processed per second, or zero if the
+	 *     benchmark does not process data
+	 */
+	public double getMegabytesPerSecond()
+	{
+		return getRunsPerSecond() * bytesPerRun / BYTES_PER_MEGABYTE;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the item throughput.
+	 *
+	 * @return the number of items processed per second, or zero if the
+	 *     benchmark does not work on separate items
+	 */
+	public double getItemsPerSecond()
+	{
+		return getRunsPerSecond() * itemsPerRun;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of bytes allocated by each run.
+	 *
+	 * @return the number of bytes allocated per run, or -1 if allocations
+	 *     could not be measured
+	 */
+	public long getAllocatedBytesPerRun()
+	{
+		if (allocatedBytes < 0 || invocations == 0)
+		{
+			return -1;
+		}
+
+		return allocatedBytes / invocations;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the allocation rate while the benchmark was running.
+	 *
+	 * @return the number of megabytes allocated per second, or -1 if
+	 *     allocations could not be measured
+	 */
+	public double getAllocationRate()
+	{
+		if (allocatedBytes < 0 || nanos == 0)
+		{
+			return -1;
+		}
+
+		return allocatedBytes * NANOS_PER_SECOND / nanos / BYTES_PER_MEGABYTE;
+	}
+}
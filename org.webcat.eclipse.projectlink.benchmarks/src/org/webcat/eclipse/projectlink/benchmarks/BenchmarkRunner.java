@@ -0,0 +1,296 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+import java.io.PrintStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+
+//--------------------------------------------------------------------------
+/**
+ * Runs benchmarks and prints a table of their results. Each benchmark is
+ * run for a number of warm-up iterations, whose results are thrown away so
+ * that the JIT compiler has settled, and then for a number of measurement
+ * iterations. An iteration keeps invoking the benchmark until a given time
+ * has passed. Only the benchmark's {@link Benchmark#run()} method is timed,
+ * and only the allocations made while it runs are counted.
+ *
+ * The iteration counts and time can be changed with the system properties
+ * {@code benchmark.warmup}, {@code benchmark.iterations} and
+ * {@code benchmark.time} (in milliseconds). The arguments to
+ * {@link #runFromCommandLine} are substrings of the names of the
+ * benchmarks to run; with none, all are run.
+ *
+ * @author Web-CAT Development Team
+ */
+public class BenchmarkRunner
+{
+	//~ Instance/static variables .............................................
+
+	private static final String ROW_FORMAT =
+			"%-56s %12s %7s %10s %12s %11s %13s%n";
+
+	private int warmupIterations;
+	private int measurementIterations;
+	private long iterationTime;
+	private PrintStream out;
+	private AllocationCounter allocations;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new runner.
+	 *
+	 * @param warmupIterations the number of warm-up iterations
+	 * @param measurementIterations the number of measurement iterations
+	 * @param iterationTime the length of each iteration, in milliseconds
+	 * @param out the stream to which the results are printed
+	 */
+	public BenchmarkRunner(int warmupIterations, int measurementIterations,
+			long iterationTime, PrintStream out)
+	{
+		this.warmupIterations = warmupIterations;
+		this.measurementIterations = Math.max(1, measurementIterations);
+		this.iterationTime = iterationTime;
+		this.out = out;
+		this.allocations = new AllocationCounter();
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Runs the benchmarks whose names contain one of the specified filters,
+	 * with the iteration settings taken from the system properties, and
+	 * prints their results to the standard output.
+	 *
+	 * @param filters the filters, or an empty array to run every benchmark
+	 * @param benchmarks the benchmarks
+	 * @throws Exception if a benchmark fails
+	 */
+	public static void runFromCommandLine(String[] filters,
+			List<Benchmark> benchmarks)
+			throws Exception
+	{
+		BenchmarkRunner runner = new BenchmarkRunner(
+				Integer.getInteger("benchmark.warmup", 3),
+				Integer.getInteger("benchmark.iterations", 5),
+				Long.getLong("benchmark.time", 1000),
+				System.out);
+
+		List<Benchmark> selected = new ArrayList<Benchmark>();
+
+		for (Benchmark benchmark : benchmarks)
+		{
+			if (matches(benchmark.getName(), filters))
+			{
+				selected.add(benchmark);
+			}
+		}
+
+		runner.runAll(selected);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Runs each of the benchmarks in turn, printing each result as soon as
+	 * it is available.
+	 *
+	 * @param benchmarks the benchmarks to run
+	 * @return the results
+	 * @throws Exception if a benchmark fails
+	 */
+	public List<BenchmarkResult> runAll(List<Benchmark> benchmarks)
+			throws Exception
+	{
+		List<BenchmarkResult> results = new ArrayList<BenchmarkResult>();
+
+		if (!allocations.isSupported())
+		{
+			out.println("Allocation counters are not available on this VM; "
+					+ "allocation rates will not be reported.");
+		}
+
+		out.printf(ROW_FORMAT, "Benchmark", "runs/s", "+-%",
+				"MB/s", "items/s", "alloc MB/s", "alloc B/run");
+
+		for (Benchmark benchmark : benchmarks)
+		{
+			BenchmarkResult result = run(benchmark);
+			results.add(result);
+			print(result);
+		}
+
+		return results;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Runs a single benchmark.
+	 *
+	 * @param benchmark the benchmark
+	 * @return the result
+	 * @throws Exception if the benchmark fails
+	 */
+	public BenchmarkResult run(Benchmark benchmark) throws Exception
+	{
+		benchmark.setUp();
+
+		try
+		{
+			for (int i = 0; i < warmupIterations; i++)
+			{
+				iterate(benchmark);
+			}
+
+			long invocations = 0;
+			long nanos = 0;
+			long allocated = 0;
+			double[] rates = new double[measurementIterations];
+
+			for (int i = 0; i < measurementIterations; i++)
+			{
+				long[] iteration = iterate(benchmark);
+
+				invocations += iteration[0];
+				nanos += iteration[1];
+				allocated = (allocated < 0 || iteration[2] < 0)
+						? -1 : allocated + iteration[2];
+				rates[i] = (iteration[1] == 0)
+						? 0 : iteration[0] * 1e9 / iteration[1];
+			}
+
+			return new BenchmarkResult(benchmark, invocations, nanos,
+					allocated, rates);
+		}
+		finally
+		{
+			benchmark.tearDown();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Runs one iteration of a benchmark.
+	 *
+	 * @return the number of invocations, the time they took in nanoseconds,
+	 *     and the number of bytes they allocated (or -1)
+	 */
+	private long[] iterate(Benchmark benchmark) throws Exception
+	{
+		long invocations = 0;
+		long nanos = 0;
+		long allocated = 0;
+		long end = System.currentTimeMillis() + iterationTime;
+
+		do
+		{
+			benchmark.beforeRun();
+
+			Map<Long, Long> before = allocations.snapshot();
+			long start = System.nanoTime();
+
+			benchmark.run();
+
+			nanos += System.nanoTime() - start;
+			long bytes = allocations.difference(
+					before, allocations.snapshot());
+
+			allocated = (allocated < 0 || bytes < 0) ? -1 : allocated + bytes;
+			invocations++;
+
+			benchmark.afterRun();
+		}
+		while (System.currentTimeMillis() < end);
+
+		return new long[] { invocations, nanos, allocated };
+	}
+
+
+	// ----------------------------------------------------------
+	private void print(BenchmarkResult result)
+	{
+		out.printf(ROW_FORMAT,
+				result.getName(),
+				format(result.getRunsPerSecond()),
+				String.format("%.1f", result.getRunsPerSecondDeviation()),
+				format(result.getMegabytesPerSecond()),
+				format(result.getItemsPerSecond()),
+				format(result.getAllocationRate()),
+				(result.getAllocatedBytesPerRun() < 0)
+						? "-" : Long.toString(result.getAllocatedBytesPerRun()));
+	}
+
+
+	// ----------------------------------------------------------
+	private static String format(double value)
+	{
+		if (value < 0)
+		{
+			return "-";
+		}
+		else if (value == 0)
+		{
+			return "";
+		}
+		else if (value < 100)
+		{
+			return String.format("%.2f", value);
+		}
+		else
+		{
+			return String.format("%.0f", value);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Checks whether a name contains any of the specified filters.
+	 *
+	 * @param name the name of a benchmark
+	 * @param filters the filters given on the command line
+	 * @return true if there are no filters or the name contains one of them
+	 */
+	public static boolean matches(String name, String[] filters)
+	{
+		if (filters.length == 0)
+		{
+			return true;
+		}
+
+		for (String filter : filters)
+		{
+			if (name.contains(filter))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+}
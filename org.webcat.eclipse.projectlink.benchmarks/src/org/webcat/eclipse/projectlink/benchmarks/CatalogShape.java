@@ -0,0 +1,206 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+import java.io.UnsupportedEncodingException;
+import java.text.DateFormat;
+import java.util.Date;
+import java.util.Random;
+
+//--------------------------------------------------------------------------
+/**
+ * The shape of a synthetic {@code project-imports} document, as served to
+ * the importer by a department-wide catalog. The projects are split evenly
+ * across a tree of project groups of the given depth, each group having
+ * the given number of subgroups. Each project depends on up to the given
+ * number of projects that come before it in the document, so the
+ * dependencies never form a cycle. There is a preference file at the root
+ * and in every top-level group, and one project in ten becomes available
+ * at a date, since those attributes take the longest to parse. The same
+ * shape always generates the same document.
+ *
+ * @author Web-CAT Development Team
+ */
+public class CatalogShape
+{
+	//~ Instance/static variables .............................................
+
+	private static final int GROUPS_PER_LEVEL = 4;
+
+	private int projectCount;
+	private int depth;
+	private int fanOut;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new catalog shape.
+	 *
+	 * @param projectCount the number of projects
+	 * @param depth the depth of the project groups; zero puts all of the
+	 *     projects at the root
+	 * @param fanOut the number of projects each project depends on
+	 */
+	public CatalogShape(int projectCount, int depth, int fanOut)
+	{
+		this.projectCount = projectCount;
+		this.depth = depth;
+		this.fanOut = fanOut;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	public int getProjectCount()
+	{
+		return projectCount;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a short description of the shape, for use in benchmark names.
+	 *
+	 * @return the description
+	 */
+	public String getLabel()
+	{
+		return "projects=" + projectCount + ",depth=" + depth
+				+ ",fanOut=" + fanOut;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Generates a document of this shape.
+	 *
+	 * @return the document, encoded in UTF-8
+	 */
+	public byte[] generate()
+	{
+		StringBuffer xml = new StringBuffer(projectCount * 200);
+		Random random = new Random(projectCount * 31L + depth * 7L + fanOut);
+
+		String date = DateFormat.getDateTimeInstance(
+				DateFormat.SHORT, DateFormat.SHORT).format(new Date(0));
+
+		xml.append("<?xml version=\"1.0\" encoding=\"UTF-8\"?>\n");
+		xml.append("<project-imports>\n");
+		xml.append("<preferences name=\"Course\" ")
+			.append("uri=\"http://example.com/prefs/course.epf\"/>\n");
+
+		appendGroup(xml, 0, 0, projectCount, "", random, date);
+
+		xml.append("</project-imports>\n");
+
+		try
+		{
+			return xml.toString().getBytes("UTF-8");
+		}
+		catch (UnsupportedEncodingException e)
+		{
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Appends the projects in the specified range, nested in project groups
+	 * down to the shape's depth.
+	 */
+	private void appendGroup(StringBuffer xml, int level, int first, int end,
+			String path, Random random, String date)
+	{
+		if (level == depth)
+		{
+			for (int i = first; i < end; i++)
+			{
+				appendProject(xml, i, random, date);
+			}
+
+			return;
+		}
+
+		int count = end - first;
+
+		for (int g = 0; g < GROUPS_PER_LEVEL; g++)
+		{
+			String name = path + (char) ('A' + g);
+
+			xml.append("<project-group name=\"Group ")
+				.append(name).append("\">\n");
+
+			if (level == 0)
+			{
+				xml.append("<preferences name=\"").append(name)
+					.append("\" uri=\"http://example.com/prefs/")
+					.append(name).append(".epf\"/>\n");
+			}
+
+			appendGroup(xml, level + 1,
+					first + count * g / GROUPS_PER_LEVEL,
+					first + count * (g + 1) / GROUPS_PER_LEVEL,
+					name, random, date);
+
+			xml.append("</project-group>\n");
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void appendProject(StringBuffer xml, int index, Random random,
+			String date)
+	{
+		xml.append("<project id=\"p").append(index)
+			.append("\" name=\"Project ").append(index)
+			.append("\" uri=\"http://example.com/projects/p")
+			.append(index).append(".zip\"");
+
+		if (index % 10 == 9)
+		{
+			xml.append(" availability=\"").append(date).append('"');
+		}
+
+		int depends = Math.min(fanOut, index);
+
+		if (depends > 0)
+		{
+			xml.append(" depends=\"");
+
+			for (int d = 0; d < depends; d++)
+			{
+				if (d > 0)
+				{
+					xml.append(", ");
+				}
+
+				xml.append('p').append(random.nextInt(index));
+			}
+
+			xml.append('"');
+		}
+
+		xml.append("/>\n");
+	}
+}
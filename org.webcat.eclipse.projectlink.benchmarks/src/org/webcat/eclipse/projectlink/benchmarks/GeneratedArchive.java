@@ -0,0 +1,99 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+import java.io.File;
+
+//--------------------------------------------------------------------------
+/**
+ * An archive generated by {@link ArchiveShape#generate(File, boolean)}.
+ *
+ * @author Web-CAT Development Team
+ */
+public class GeneratedArchive
+{
+	//~ Instance/static variables .............................................
+
+	private File file;
+	private ArchiveShape shape;
+	private boolean singleRoot;
+	private int fileCount;
+	private long totalSize;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	public GeneratedArchive(File file, ArchiveShape shape, boolean singleRoot,
+			int fileCount, long totalSize)
+	{
+		this.file = file;
+		this.shape = shape;
+		this.singleRoot = singleRoot;
+		this.fileCount = fileCount;
+		this.totalSize = totalSize;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	public File getFile()
+	{
+		return file;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of files in the archive, not counting directories.
+	 *
+	 * @return the number of files
+	 */
+	public int getFileCount()
+	{
+		return fileCount;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the total uncompressed size of the files in the archive.
+	 *
+	 * @return the total size, in bytes
+	 */
+	public long getTotalSize()
+	{
+		return totalSize;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a short description of the archive's shape and layout, for use
+	 * in benchmark names.
+	 *
+	 * @return the description
+	 */
+	public String getLabel()
+	{
+		return shape.getLabel() + (singleRoot ? ",rooted" : ",flat");
+	}
+}
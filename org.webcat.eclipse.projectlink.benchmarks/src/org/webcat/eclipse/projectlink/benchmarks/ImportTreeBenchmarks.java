@@ -0,0 +1,602 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.webcat.eclipse.projectlink.importer.ImportPlanner;
+import org.webcat.eclipse.projectlink.importer.Importer;
+import org.webcat.eclipse.projectlink.importer.ImporterContentProvider;
+import org.webcat.eclipse.projectlink.importer.model.ImportNode;
+import org.webcat.eclipse.projectlink.importer.model.ImportTreeSnapshot;
+import org.webcat.eclipse.projectlink.importer.model.ProjectNode;
+import org.webcat.eclipse.projectlink.importer.model.RootImportNode;
+
+//--------------------------------------------------------------------------
+/**
+ * Benchmarks for parsing {@code project-imports} documents and for the
+ * queries that the import wizard makes on the resulting tree, run against
+ * synthetic catalogs of 100 to 100,000 projects (see {@link CatalogShape}).
+ * They measure:
+ *
+ * <ul>
+ * <li>{@link Importer#readSchema(java.io.InputStream,
+ * org.eclipse.core.runtime.IProgressMonitor)}, from the bytes of the
+ * document to the finished tree;</li>
+ * <li>{@link ImportTreeSnapshot#read(java.io.InputStream)}, which is how
+ * the wizard gets the same tree when it opens;</li>
+ * <li>{@link ImportNode#getLogicalChildren()} on every container, as when
+ * the whole tree is expanded in the wizard;</li>
+ * <li>the calls that the wizard's tree viewer makes on
+ * {@link ImporterContentProvider} to show the whole tree expanded, which
+ * asks each row whether it has children;</li>
+ * <li>{@link ImportNode#getNextAvailabilityChange(long)} on the root,
+ * which the wizard asks each time it shows a tree, to know when to look
+ * at it again;</li>
+ * <li>{@link ImportNode#getPreferences()} on every project;</li>
+ * <li>{@link ProjectNode#getNodeDependencies()} on every project;</li>
+ * <li>{@link RootImportNode#resolveDependencies()}, which is done once
+ * each time a tree is built;</li>
+ * <li>{@link RootImportNode#getTransitiveDependencies(ProjectNode)} on a
+ * hundred projects spread through the catalog, asked again and again as
+ * the wizard does while the selection changes;</li>
+ * <li>{@link ImportPlanner#plan(ImportNode)} on each top-level group or
+ * project, as if the user chose to import each of them in turn, which
+ * walks the dependencies of every project.</li>
+ * </ul>
+ *
+ * The items counted are tree nodes, or projects for the last five. Before
+ * the benchmarks, the heap retained by each parsed tree is printed, with
+ * the cost per node; it is measured by comparing the used heap after
+ * repeated garbage collections, so it is an estimate.
+ *
+ * Like {@link ZipUtilsBenchmarks}, this is an ordinary Java program; its
+ * arguments are substrings of the names of the benchmarks to run, and
+ * {@code footprint} selects the heap measurements.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportTreeBenchmarks
+{
+	//~ Instance/static variables .............................................
+
+	private static final int[] PROJECT_COUNTS = { 100, 1000, 10000, 100000 };
+
+	/* Pairs of group depth and dependency fan-out. */
+	private static final int[][] STRUCTURES = { { 0, 0 }, { 2, 2 }, { 5, 8 } };
+
+	/* The least number of projects parsed for each heap measurement. */
+	private static final int FOOTPRINT_PROJECTS = 100000;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Prevent instantiation.
+	 */
+	private ImportTreeBenchmarks()
+	{
+		// Do nothing.
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Generates the catalogs, prints their retained heap, and runs the
+	 * benchmarks.
+	 *
+	 * @param args substrings of the names of the benchmarks to run; with
+	 *     none, all of them are run
+	 * @throws Exception if a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		List<CatalogShape> shapes = new ArrayList<CatalogShape>();
+
+		for (int projectCount : PROJECT_COUNTS)
+		{
+			for (int[] structure : STRUCTURES)
+			{
+				shapes.add(new CatalogShape(
+						projectCount, structure[0], structure[1]));
+			}
+		}
+
+		if (BenchmarkRunner.matches("footprint", args))
+		{
+			printFootprints(shapes);
+		}
+
+		BenchmarkRunner.runFromCommandLine(args, createBenchmarks(shapes));
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates the benchmarks for the specified catalogs.
+	 *
+	 * @param shapes the shapes of the catalogs
+	 * @return the benchmarks
+	 */
+	public static List<Benchmark> createBenchmarks(List<CatalogShape> shapes)
+	{
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		for (final CatalogShape shape : shapes)
+		{
+			final String label = "[" + shape.getLabel() + "]";
+
+			benchmarks.add(new Benchmark("readSchema" + label) {
+				private byte[] document;
+				private int nodeCount;
+
+				@Override
+				public void setUp() throws Exception
+				{
+					document = shape.generate();
+					nodeCount = countNodes(parse(document));
+				}
+
+				@Override
+				public void run() throws Exception
+				{
+					parse(document);
+				}
+
+				@Override
+				public void tearDown()
+				{
+					document = null;
+				}
+
+				@Override
+				public long getBytesPerRun()
+				{
+					return document.length;
+				}
+
+				@Override
+				public int getItemsPerRun()
+				{
+					return nodeCount;
+				}
+			});
+
+			benchmarks.add(new Benchmark("readSnapshot" + label) {
+				private byte[] snapshot;
+				private int nodeCount;
+
+				@Override
+				public void setUp() throws Exception
+				{
+					RootImportNode root = parse(shape.generate());
+					ByteArrayOutputStream stream = new ByteArrayOutputStream();
+
+					new ImportTreeSnapshot("http://example.com/imports.xml",
+							"", root).write(stream);
+
+					snapshot = stream.toByteArray();
+					nodeCount = countNodes(root);
+				}
+
+				@Override
+				public void run() throws Exception
+				{
+					ImportTreeSnapshot.read(new ByteArrayInputStream(snapshot));
+				}
+
+				@Override
+				public void tearDown()
+				{
+					snapshot = null;
+				}
+
+				@Override
+				public long getBytesPerRun()
+				{
+					return snapshot.length;
+				}
+
+				@Override
+				public int getItemsPerRun()
+				{
+					return nodeCount;
+				}
+			});
+
+			benchmarks.add(new TreeBenchmark("getLogicalChildren" + label,
+					shape) {
+				private int nodeCount;
+
+				@Override
+				public void setUp() throws Exception
+				{
+					super.setUp();
+					nodeCount = expandAll(root);
+				}
+
+				@Override
+				public void run()
+				{
+					expandAll(root);
+				}
+
+				@Override
+				public int getItemsPerRun()
+				{
+					return nodeCount;
+				}
+			});
+
+			benchmarks.add(new TreeBenchmark("ImporterContentProvider" + label,
+					shape) {
+				private ImporterContentProvider provider;
+				private int nodeCount;
+
+				@Override
+				public void setUp() throws Exception
+				{
+					super.setUp();
+					provider = new ImporterContentProvider();
+					provider.inputChanged(null, null, root);
+					nodeCount = showAll(provider, root);
+				}
+
+				@Override
+				public void run()
+				{
+					showAll(provider, root);
+				}
+
+				@Override
+				public int getItemsPerRun()
+				{
+					return nodeCount;
+				}
+			});
+
+			benchmarks.add(new TreeBenchmark(
+					"getNextAvailabilityChange" + label, shape) {
+				private int nodeCount;
+
+				@Override
+				public void setUp() throws Exception
+				{
+					super.setUp();
+					nodeCount = countNodes(root);
+				}
+
+				@Override
+				public void run()
+				{
+					root.getNextAvailabilityChange(System.currentTimeMillis());
+				}
+
+				@Override
+				public int getItemsPerRun()
+				{
+					return nodeCount;
+				}
+			});
+
+			benchmarks.add(new TreeBenchmark("getPreferences" + label,
+					shape) {
+				@Override
+				public void run()
+				{
+					for (ProjectNode project : projects)
+					{
+						project.getPreferences();
+					}
+				}
+			});
+
+			benchmarks.add(new TreeBenchmark("getNodeDependencies" + label,
+					shape) {
+				@Override
+				public void run()
+				{
+					for (ProjectNode project : projects)
+					{
+						project.getNodeDependencies();
+					}
+				}
+			});
+
+			benchmarks.add(new TreeBenchmark("resolveDependencies" + label,
+					shape) {
+				@Override
+				public void run()
+				{
+					root.resolveDependencies();
+				}
+			});
+
+			benchmarks.add(new TreeBenchmark(
+					"getTransitiveDependencies" + label, shape) {
+				private List<ProjectNode> sample;
+
+				@Override
+				public void setUp() throws Exception
+				{
+					super.setUp();
+					sample = new ArrayList<ProjectNode>();
+
+					int step = Math.max(1, projects.size() / 100);
+
+					for (int i = 0; i < projects.size(); i += step)
+					{
+						sample.add(projects.get(i));
+					}
+				}
+
+				@Override
+				public void run()
+				{
+					for (ProjectNode project : sample)
+					{
+						root.getTransitiveDependencies(project);
+					}
+				}
+
+				@Override
+				public int getItemsPerRun()
+				{
+					return sample.size();
+				}
+			});
+
+			benchmarks.add(new TreeBenchmark("ImportPlanner.plan" + label,
+					shape) {
+				@Override
+				public void run()
+				{
+					for (ImportNode child : root.getChildren())
+					{
+						new ImportPlanner().plan(child);
+					}
+				}
+			});
+		}
+
+		return benchmarks;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Prints the heap retained by the tree parsed from each catalog.
+	 *
+	 * @param shapes the shapes of the catalogs
+	 * @throws Exception if a catalog could not be parsed
+	 */
+	public static void printFootprints(List<CatalogShape> shapes)
+			throws Exception
+	{
+		System.out.printf("%-56s %10s %14s %12s%n",
+				"Retained heap", "nodes", "bytes", "bytes/node");
+
+		for (CatalogShape shape : shapes)
+		{
+			byte[] document = shape.generate();
+
+			// Small trees are parsed several times over, so that they stand
+			// out from the noise in the heap measurements.
+			RootImportNode[] roots = new RootImportNode[Math.max(1,
+					FOOTPRINT_PROJECTS / shape.getProjectCount())];
+
+			long before = usedMemory();
+
+			for (int i = 0; i < roots.length; i++)
+			{
+				roots[i] = parse(document);
+			}
+
+			long retained = (usedMemory() - before) / roots.length;
+			int nodeCount = countNodes(roots[0]);
+
+			System.out.printf("%-56s %10d %14d %12d%n",
+					"footprint[" + shape.getLabel() + "]", nodeCount,
+					retained, retained / nodeCount);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Parses a document the way the import wizard does.
+	 */
+	private static RootImportNode parse(byte[] document) throws IOException
+	{
+		Importer importer = new Importer();
+
+		importer.readSchema(new ByteArrayInputStream(document),
+				new NullProgressMonitor());
+
+		return importer.getRoot();
+	}
+
+
+	// ----------------------------------------------------------
+	private static int countNodes(ImportNode node)
+	{
+		int count = 1;
+
+		for (ImportNode child : node.getChildren())
+		{
+			count += countNodes(child);
+		}
+
+		return count;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Asks every visible container for its logical children, as a tree
+	 * viewer does when everything is expanded.
+	 *
+	 * @return the number of nodes visited
+	 */
+	private static int expandAll(ImportNode node)
+	{
+		int count = 1;
+
+		if (node.isContainer())
+		{
+			for (ImportNode child : node.getLogicalChildren())
+			{
+				count += expandAll(child);
+			}
+		}
+
+		return count;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Makes the calls that a tree viewer makes on a content provider to show
+	 * every row expanded.
+	 *
+	 * @return the number of rows shown
+	 */
+	private static int showAll(ImporterContentProvider provider, Object node)
+	{
+		int count = 0;
+
+		for (Object child : provider.getChildren(node))
+		{
+			count++;
+
+			if (provider.hasChildren(child))
+			{
+				count += showAll(provider, child);
+			}
+		}
+
+		return count;
+	}
+
+
+	// ----------------------------------------------------------
+	private static void collectProjects(ImportNode node,
+			List<ProjectNode> projects)
+	{
+		if (node instanceof ProjectNode)
+		{
+			projects.add((ProjectNode) node);
+		}
+
+		for (ImportNode child : node.getChildren())
+		{
+			collectProjects(child, projects);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the used heap once the garbage collector has nothing more to
+	 * collect.
+	 */
+	private static long usedMemory() throws InterruptedException
+	{
+		Runtime runtime = Runtime.getRuntime();
+		long used = Long.MAX_VALUE;
+
+		for (int i = 0; i < 10; i++)
+		{
+			System.gc();
+			Thread.sleep(20);
+
+			long now = runtime.totalMemory() - runtime.freeMemory();
+
+			if (now >= used)
+			{
+				break;
+			}
+
+			used = now;
+		}
+
+		return used;
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * A benchmark that queries a tree parsed from a catalog before the
+	 * benchmark starts. Unless overridden, the items counted are the
+	 * projects.
+	 */
+	private abstract static class TreeBenchmark extends Benchmark
+	{
+		protected CatalogShape shape;
+		protected RootImportNode root;
+		protected List<ProjectNode> projects;
+
+
+		// ----------------------------------------------------------
+		public TreeBenchmark(String name, CatalogShape shape)
+		{
+			super(name);
+
+			this.shape = shape;
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public void setUp() throws Exception
+		{
+			root = parse(shape.generate());
+			projects = new ArrayList<ProjectNode>();
+			collectProjects(root, projects);
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public void tearDown()
+		{
+			root = null;
+			projects = null;
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public int getItemsPerRun()
+		{
+			return shape.getProjectCount();
+		}
+	}
+}
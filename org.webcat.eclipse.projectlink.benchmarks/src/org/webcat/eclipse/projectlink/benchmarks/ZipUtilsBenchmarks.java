@@ -0,0 +1,344 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.benchmarks;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import org.webcat.eclipse.projectlink.util.FileUtils;
+import org.webcat.eclipse.projectlink.util.StreamingUnpacker;
+import org.webcat.eclipse.projectlink.util.ZipArchiveIndex;
+import org.webcat.eclipse.projectlink.util.ZipUtils;
+
+//--------------------------------------------------------------------------
+/**
+ * Benchmarks for {@link ZipUtils} and for the two ways the importer unpacks
+ * a project: extracting a downloaded archive through a
+ * {@link ZipArchiveIndex}, and unpacking the download stream with a
+ * {@link StreamingUnpacker}. Each archive benchmark is run against every
+ * {@link ArchiveShape}, both with a single directory at the root of the
+ * archive and with a flat layout; the throughput in megabytes per second is
+ * based on the uncompressed size of the files, and the items counted are
+ * the files.
+ *
+ * This is an ordinary Java program; it needs nothing from Eclipse beyond
+ * the project link plug-in's classes, so it can be launched from the
+ * workbench as a Java application. For example, to run only the unpacking
+ * benchmarks with longer iterations:
+ *
+ * <pre>
+ * java -Dbenchmark.time=3000 ... ZipUtilsBenchmarks unpack
+ * </pre>
+ *
+ * @author Web-CAT Development Team
+ */
+public class ZipUtilsBenchmarks
+{
+	//~ Instance/static variables .............................................
+
+	/* The sizes of the buffers copied by the stream copying benchmarks. */
+	private static final int[] COPY_SIZES = {
+		4 * 1024, 256 * 1024, 16 * 1024 * 1024
+	};
+
+	private static final int THREAD_COUNT =
+			Runtime.getRuntime().availableProcessors();
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Prevent instantiation.
+	 */
+	private ZipUtilsBenchmarks()
+	{
+		// Do nothing.
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Generates the archives in a temporary directory, runs the benchmarks,
+	 * and deletes the directory.
+	 *
+	 * @param args substrings of the names of the benchmarks to run; with
+	 *     none, all of them are run
+	 * @throws Exception if a benchmark fails
+	 */
+	public static void main(String[] args) throws Exception
+	{
+		File workDir = FileUtils.createTempDirectory(
+				new File(System.getProperty("java.io.tmpdir")),
+				"webcat-benchmarks-");
+
+		try
+		{
+			List<GeneratedArchive> archives = new ArrayList<GeneratedArchive>();
+
+			for (ArchiveShape shape : ArchiveShape.values())
+			{
+				archives.add(shape.generate(workDir, true));
+				archives.add(shape.generate(workDir, false));
+			}
+
+			BenchmarkRunner.runFromCommandLine(args,
+					createBenchmarks(archives, workDir));
+		}
+		finally
+		{
+			FileUtils.deleteRecursively(workDir);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates the benchmarks for the specified archives.
+	 *
+	 * @param archives the generated archives
+	 * @param workDir a directory in which the benchmarks can write files
+	 * @return the benchmarks
+	 */
+	public static List<Benchmark> createBenchmarks(
+			List<GeneratedArchive> archives, File workDir)
+	{
+		List<Benchmark> benchmarks = new ArrayList<Benchmark>();
+
+		for (final GeneratedArchive archive : archives)
+		{
+			benchmarks.add(new ExtractionBenchmark(
+					"unpack[" + archive.getLabel() + "]", archive, workDir) {
+				@Override
+				public void run() throws Exception
+				{
+					ZipUtils.unpack(destDir, archive.getFile());
+				}
+			});
+
+			benchmarks.add(new ExtractionBenchmark(
+					"unpack[" + archive.getLabel() + ",threads="
+					+ THREAD_COUNT + "]", archive, workDir) {
+				@Override
+				public void run() throws Exception
+				{
+					ZipUtils.unpack(destDir, archive.getFile(), THREAD_COUNT);
+				}
+			});
+
+			benchmarks.add(new ExtractionBenchmark(
+					"ZipArchiveIndex.extractTo[" + archive.getLabel() + "]",
+					archive, workDir) {
+				@Override
+				public void run() throws Exception
+				{
+					ZipArchiveIndex index =
+							new ZipArchiveIndex(archive.getFile());
+
+					try
+					{
+						index.extractTo(destDir, THREAD_COUNT);
+					}
+					finally
+					{
+						index.close();
+					}
+				}
+			});
+
+			benchmarks.add(new ExtractionBenchmark(
+					"StreamingUnpacker.unpack[" + archive.getLabel() + "]",
+					archive, workDir) {
+				@Override
+				public void run() throws Exception
+				{
+					InputStream stream = new FileInputStream(archive.getFile());
+
+					try
+					{
+						new StreamingUnpacker(destDir).unpack(stream);
+					}
+					finally
+					{
+						stream.close();
+					}
+				}
+			});
+
+			benchmarks.add(new Benchmark(
+					"directoryAtArchiveRoot[" + archive.getLabel() + "]") {
+				@Override
+				public void run() throws Exception
+				{
+					ZipUtils.directoryAtArchiveRoot(archive.getFile());
+				}
+
+				@Override
+				public int getItemsPerRun()
+				{
+					return archive.getFileCount();
+				}
+			});
+		}
+
+		for (final int size : COPY_SIZES)
+		{
+			final byte[] data = new byte[size];
+			new Random(size).nextBytes(data);
+
+			benchmarks.add(new Benchmark("copyStream[" + size + "]") {
+				private OutputStream sink = new DiscardingOutputStream();
+
+				@Override
+				public void run() throws Exception
+				{
+					ZipUtils.copyStream(new ByteArrayInputStream(data), sink);
+				}
+
+				@Override
+				public long getBytesPerRun()
+				{
+					return size;
+				}
+			});
+
+			final File destFile = new File(workDir, "copy-" + size + ".bin");
+
+			benchmarks.add(new Benchmark("copyStreamToFile[" + size + "]") {
+				@Override
+				public void run() throws Exception
+				{
+					ZipUtils.copyStreamToFile(new ByteArrayInputStream(data),
+							destFile, 0);
+				}
+
+				@Override
+				public void afterRun()
+				{
+					destFile.delete();
+				}
+
+				@Override
+				public long getBytesPerRun()
+				{
+					return size;
+				}
+
+				@Override
+				public int getItemsPerRun()
+				{
+					return 1;
+				}
+			});
+		}
+
+		return benchmarks;
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * A benchmark that extracts an archive into a fresh directory each time
+	 * it runs. Creating and deleting the directory is not timed.
+	 */
+	private abstract static class ExtractionBenchmark extends Benchmark
+	{
+		protected GeneratedArchive archive;
+		protected File workDir;
+		protected File destDir;
+
+
+		// ----------------------------------------------------------
+		public ExtractionBenchmark(String name, GeneratedArchive archive,
+				File workDir)
+		{
+			super(name);
+
+			this.archive = archive;
+			this.workDir = workDir;
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public void beforeRun() throws Exception
+		{
+			destDir = FileUtils.createTempDirectory(workDir, "extract-");
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public void afterRun()
+		{
+			FileUtils.deleteRecursively(destDir);
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public long getBytesPerRun()
+		{
+			return archive.getTotalSize();
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public int getItemsPerRun()
+		{
+			return archive.getFileCount();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * An output stream that throws away everything written to it, so that
+	 * stream copying can be measured without any I/O.
+	 */
+	private static class DiscardingOutputStream extends OutputStream
+	{
+		// ----------------------------------------------------------
+		@Override
+		public void write(int b)
+		{
+			// Do nothing.
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public void write(byte[] b, int off, int len)
+		{
+			// Do nothing.
+		}
+	}
+}
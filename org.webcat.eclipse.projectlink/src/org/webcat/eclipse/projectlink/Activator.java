@@ -27,7 +27,10 @@ import org.eclipse.jface.preference.IPreferenceStore;
 import org.eclipse.jface.resource.ImageDescriptor;
 import org.eclipse.ui.plugin.AbstractUIPlugin;
 import org.osgi.framework.BundleContext;
+import org.webcat.eclipse.projectlink.importer.HistoryFlusher;
 import org.webcat.eclipse.projectlink.preferences.IPreferencesConstants;
+import org.webcat.eclipse.projectlink.util.DownloadCache;
+import org.webcat.eclipse.projectlink.util.ExtractedFileStore;
 
 //--------------------------------------------------------------------------
 /**
@@ -47,6 +50,8 @@ public class Activator extends AbstractUIPlugin
 	private String lastEnteredPartners = "";
 	private String lastEnteredPassword;
 	private String lastSubmittedAssignmentPath;
+	private DownloadCache downloadCache;
+	private ExtractedFileStore extractedFileStore;
 
 
 	// ----------------------------------------------------------
@@ -68,6 +73,17 @@ public class Activator extends AbstractUIPlugin
 	 */
 	public void stop(BundleContext context) throws Exception
 	{
+		// Save any history that the background flusher has not got to yet.
+		HistoryFlusher.flushAll();
+
+		synchronized (this)
+		{
+			if (downloadCache != null)
+			{
+				downloadCache.saveAccessTimes();
+			}
+		}
+
 		plugin = null;
 		super.stop(context);
 	}
@@ -173,6 +189,146 @@ public class Activator extends AbstractUIPlugin
 	}
 
 
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of projects that the importer should download and
+	 * unpack at the same time.
+	 *
+	 * @return the number of import worker threads
+	 */
+	public int getImportWorkerCount()
+	{
+		int count = getPreferenceStore().getInt(
+				IPreferencesConstants.IMPORT_WORKER_COUNT);
+
+		if (count <= 0)
+		{
+			return IPreferencesConstants.DEFAULT_IMPORT_WORKER_COUNT;
+		}
+		else
+		{
+			return Math.min(count,
+					IPreferencesConstants.MAX_IMPORT_WORKER_COUNT);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the maximum size of the download cache, in megabytes.
+	 *
+	 * @return the maximum size of the download cache
+	 */
+	public int getDownloadCacheSize()
+	{
+		int size = getPreferenceStore().getInt(
+				IPreferencesConstants.DOWNLOAD_CACHE_SIZE);
+
+		if (size <= 0)
+		{
+			return IPreferencesConstants.DEFAULT_DOWNLOAD_CACHE_SIZE;
+		}
+		else
+		{
+			return Math.min(size,
+					IPreferencesConstants.MAX_DOWNLOAD_CACHE_SIZE);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the cache that holds downloaded project archives, which lives in
+	 * the plug-in's state location.
+	 *
+	 * @return the download cache
+	 */
+	public synchronized DownloadCache getDownloadCache()
+	{
+		if (downloadCache == null)
+		{
+			downloadCache = new DownloadCache(
+					getStateLocation().append("downloads").toFile(),
+					getDownloadCacheSize() * 1024L * 1024L);
+		}
+
+		return downloadCache;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the store of files extracted from project archives, which lives
+	 * in the plug-in's state location. It is limited to the same size as
+	 * the download cache.
+	 *
+	 * @return the extracted file store
+	 */
+	public synchronized ExtractedFileStore getExtractedFileStore()
+	{
+		if (extractedFileStore == null)
+		{
+			extractedFileStore = new ExtractedFileStore(
+					getStateLocation().append("extracted").toFile(),
+					getDownloadCacheSize() * 1024L * 1024L);
+		}
+
+		return extractedFileStore;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Applies a changed download cache size to the cache and the extracted
+	 * file store, if they have already been opened.
+	 */
+	public synchronized void downloadCacheSizeChanged()
+	{
+		if (downloadCache != null)
+		{
+			downloadCache.setMaxSize(getDownloadCacheSize() * 1024L * 1024L);
+		}
+
+		if (extractedFileStore != null)
+		{
+			extractedFileStore.setMaxSize(
+					getDownloadCacheSize() * 1024L * 1024L);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the importer should unpack downloaded
+	 * projects while they are being received, rather than saving them to a
+	 * temporary file first.
+	 *
+	 * @return true to unpack downloads as they stream in; otherwise, false
+	 */
+	public boolean isStreamingImport()
+	{
+		return getPreferenceStore().getBoolean(
+				IPreferencesConstants.STREAMING_IMPORT);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the importer should create projects
+	 * straight from their archives on the server, fetching large files only
+	 * when they are first opened. Servers that cannot send parts of an
+	 * archive are imported as usual.
+	 *
+	 * @return true to fetch large files when they are opened; otherwise,
+	 *     false
+	 */
+	public boolean isLazyImport()
+	{
+		return getPreferenceStore().getBoolean(
+				IPreferencesConstants.LAZY_IMPORT);
+	}
+
+
 	// ----------------------------------------------------------
 	public String getStoredUsername()
 	{
@@ -0,0 +1,343 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.filesystem;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.URI;
+
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileInfo;
+import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.filesystem.provider.FileInfo;
+import org.eclipse.core.filesystem.provider.FileStore;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.webcat.eclipse.projectlink.Activator;
+import org.webcat.eclipse.projectlink.util.FileUtils;
+import org.webcat.eclipse.projectlink.util.RemoteZipArchive;
+
+//--------------------------------------------------------------------------
+/**
+ * A file or directory in a {@link LazyArchive}. Until a file is opened,
+ * its size and time come from the archive's central directory; opening it
+ * fetches it with a range request, and from then on it is read from and
+ * written to its local copy. Asking for a local file with
+ * {@link EFS#CACHE}, as the Java tools do for libraries, fetches the file,
+ * or everything in the directory.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ArchiveFileStore extends FileStore
+{
+	//~ Instance/static variables .............................................
+
+	private LazyArchive archive;
+
+	/* The path relative to the root of the archive, which is empty for the
+	   root itself. */
+	private String path;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a store for a file or directory in an archive.
+	 *
+	 * @param archive the archive
+	 * @param path the path of the file, relative to the root of the archive,
+	 *     or an empty string for the root
+	 */
+	public ArchiveFileStore(LazyArchive archive, String path)
+	{
+		this.archive = archive;
+		this.path = path;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	@Override
+	public String[] childNames(int options, IProgressMonitor monitor)
+	{
+		return archive.childNames(path);
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public IFileInfo fetchInfo(int options, IProgressMonitor monitor)
+	{
+		FileInfo info = new FileInfo(getName());
+		File file = archive.getLocalFile(path);
+		RemoteZipArchive.Entry entry;
+
+		if (file.exists())
+		{
+			info.setExists(true);
+			info.setDirectory(file.isDirectory());
+			info.setLength(file.length());
+			info.setLastModified(file.lastModified());
+			info.setAttribute(EFS.ATTRIBUTE_READ_ONLY, !file.canWrite());
+		}
+		else if (archive.isDirectory(path))
+		{
+			info.setExists(true);
+			info.setDirectory(true);
+		}
+		else if ((entry = archive.getEntry(path)) != null)
+		{
+			info.setExists(true);
+			info.setLength(entry.getSize());
+			info.setLastModified(entry.getTime());
+		}
+		else
+		{
+			info.setExists(false);
+		}
+
+		return info;
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public IFileStore getChild(String name)
+	{
+		return new ArchiveFileStore(archive,
+				(path.length() == 0) ? name : path + "/" + name);
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public String getName()
+	{
+		return path.substring(path.lastIndexOf('/') + 1);
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public IFileStore getParent()
+	{
+		if (path.length() == 0)
+		{
+			return null;
+		}
+
+		int slash = path.lastIndexOf('/');
+
+		return new ArchiveFileStore(archive,
+				(slash == -1) ? "" : path.substring(0, slash));
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public InputStream openInputStream(int options, IProgressMonitor monitor)
+		throws CoreException
+	{
+		try
+		{
+			return new FileInputStream(archive.fetch(path));
+		}
+		catch (IOException e)
+		{
+			throw failure("Could not read ", e);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public OutputStream openOutputStream(int options,
+			IProgressMonitor monitor) throws CoreException
+	{
+		try
+		{
+			return archive.openOutputStream(path,
+					(options & EFS.APPEND) != 0);
+		}
+		catch (IOException e)
+		{
+			throw failure("Could not write ", e);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public IFileStore mkdir(int options, IProgressMonitor monitor)
+		throws CoreException
+	{
+		try
+		{
+			archive.mkdir(path);
+			return this;
+		}
+		catch (IOException e)
+		{
+			throw failure("Could not create ", e);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Deletes the file or directory. Deleting the root, which happens when
+	 * a project is deleted along with its contents, removes the whole
+	 * archive from the plug-in's state location.
+	 */
+	@Override
+	public void delete(int options, IProgressMonitor monitor)
+		throws CoreException
+	{
+		if (path.length() == 0)
+		{
+			ArchiveFileSystem.removeArchive(archive);
+			return;
+		}
+
+		try
+		{
+			archive.delete(path);
+		}
+		catch (IOException e)
+		{
+			throw failure("Could not delete ", e);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public void putInfo(IFileInfo info, int options,
+			IProgressMonitor monitor) throws CoreException
+	{
+		if ((options & (EFS.SET_LAST_MODIFIED | EFS.SET_ATTRIBUTES)) == 0)
+		{
+			return;
+		}
+
+		File file;
+
+		try
+		{
+			if (archive.getLocalFile(path).exists()
+					|| archive.getEntry(path) == null)
+			{
+				file = archive.getLocalFile(path);
+			}
+			else
+			{
+				file = archive.fetch(path);
+			}
+		}
+		catch (IOException e)
+		{
+			throw failure("Could not change ", e);
+		}
+
+		if (!file.exists())
+		{
+			// Directories that are only in the archive have no attributes.
+			return;
+		}
+
+		if ((options & EFS.SET_LAST_MODIFIED) != 0)
+		{
+			file.setLastModified(info.getLastModified());
+		}
+
+		if ((options & EFS.SET_ATTRIBUTES) != 0)
+		{
+			// Java 5 cannot make a file writable again, so that is only
+			// done where the runtime allows it.
+			if (info.getAttribute(EFS.ATTRIBUTE_READ_ONLY))
+			{
+				file.setReadOnly();
+			}
+			else
+			{
+				FileUtils.makeWritable(file);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the local copy of the file or directory, but only when it is
+	 * asked for with {@link EFS#CACHE}, in which case it is fetched first;
+	 * otherwise the store is not treated as local.
+	 */
+	@Override
+	public File toLocalFile(int options, IProgressMonitor monitor)
+		throws CoreException
+	{
+		if ((options & EFS.CACHE) == 0)
+		{
+			return null;
+		}
+
+		try
+		{
+			if (archive.isDirectory(path))
+			{
+				archive.fetchAll(path, Long.MAX_VALUE);
+				archive.mkdir(path);
+				return archive.getLocalFile(path);
+			}
+			else
+			{
+				return archive.fetch(path);
+			}
+		}
+		catch (IOException e)
+		{
+			throw failure("Could not fetch ", e);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public URI toURI()
+	{
+		return archive.getURI(path);
+	}
+
+
+	// ----------------------------------------------------------
+	private CoreException failure(String action, IOException e)
+	{
+		return new CoreException(new Status(IStatus.ERROR,
+				Activator.PLUGIN_ID, action + toURI() + ": " + e.getMessage(),
+				e));
+	}
+}
@@ -0,0 +1,213 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.filesystem;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URI;
+import java.net.URL;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.eclipse.core.filesystem.EFS;
+import org.eclipse.core.filesystem.IFileStore;
+import org.eclipse.core.filesystem.provider.FileSystem;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Path;
+import org.eclipse.core.runtime.Status;
+import org.webcat.eclipse.projectlink.Activator;
+import org.webcat.eclipse.projectlink.util.FileUtils;
+
+//--------------------------------------------------------------------------
+/**
+ * The file system that projects imported from a {@link LazyArchive} live
+ * in, so that a project can be created as soon as its archive's central
+ * directory has been read, and its large files are only downloaded when
+ * they are opened. URIs in this file system have the form
+ * {@code webcat-archive:/<id>/<path>}, where the identifier names one of
+ * the archives kept in the plug-in's state location.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ArchiveFileSystem extends FileSystem
+{
+	//~ Instance/static variables .............................................
+
+	/** The scheme of URIs in this file system. */
+	public static final String SCHEME = "webcat-archive";
+
+	/* The archives that have been opened, keyed by their identifiers. */
+	private static ConcurrentHashMap<String, LazyArchive> archives =
+			new ConcurrentHashMap<String, LazyArchive>();
+
+	/* The directory in the state location that the archives are kept in. */
+	private static final String ARCHIVES_DIRECTORY = "lazy";
+
+	private static final String ARCHIVE_PREFIX = "archive-";
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates an archive in this file system from an archive on a web
+	 * server, reading only its central directory.
+	 *
+	 * @param url the URL of the archive
+	 * @return the archive, or null if the server cannot send parts of it
+	 * @throws IOException if the archive could not be read
+	 */
+	public static LazyArchive createArchive(URL url) throws IOException
+	{
+		File dir = FileUtils.createTempDirectory(
+				getArchivesDirectory(), ARCHIVE_PREFIX);
+		LazyArchive archive = null;
+
+		try
+		{
+			archive = LazyArchive.create(url, dir);
+		}
+		finally
+		{
+			if (archive == null)
+			{
+				FileUtils.deleteRecursively(dir);
+			}
+		}
+
+		if (archive != null)
+		{
+			archives.put(archive.getId(), archive);
+		}
+
+		return archive;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Removes an archive from this file system, deleting all of its files.
+	 *
+	 * @param archive the archive
+	 */
+	public static void removeArchive(LazyArchive archive)
+	{
+		archives.remove(archive.getId());
+		archive.destroy();
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public boolean canDelete()
+	{
+		return true;
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public boolean canWrite()
+	{
+		return true;
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public IFileStore getStore(URI uri)
+	{
+		String path = uri.getPath();
+
+		if (path == null)
+		{
+			path = "";
+		}
+
+		while (path.startsWith("/"))
+		{
+			path = path.substring(1);
+		}
+
+		while (path.endsWith("/"))
+		{
+			path = path.substring(0, path.length() - 1);
+		}
+
+		int slash = path.indexOf('/');
+		String id = (slash == -1) ? path : path.substring(0, slash);
+		LazyArchive archive = getArchive(id);
+
+		if (archive == null)
+		{
+			return EFS.getNullFileSystem().getStore(new Path(uri.getPath()));
+		}
+
+		return new ArchiveFileStore(archive,
+				(slash == -1) ? "" : path.substring(slash + 1));
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the archive with the specified identifier, opening it if it has
+	 * not been used since the plug-in started.
+	 *
+	 * @return the archive, or null if there is no such archive
+	 */
+	private static LazyArchive getArchive(String id)
+	{
+		LazyArchive archive = archives.get(id);
+
+		// Only names that createArchive could have made are looked up.
+		if (archive != null || !id.startsWith(ARCHIVE_PREFIX)
+				|| id.indexOf('.') != -1 || id.indexOf('\\') != -1)
+		{
+			return archive;
+		}
+
+		try
+		{
+			archive = LazyArchive.load(new File(getArchivesDirectory(), id));
+		}
+		catch (IOException e)
+		{
+			Activator.getDefault().getLog().log(new Status(IStatus.ERROR,
+					Activator.PLUGIN_ID, "The archive " + id
+					+ " could not be opened.", e));
+		}
+
+		if (archive == null)
+		{
+			return null;
+		}
+
+		LazyArchive existing = archives.putIfAbsent(id, archive);
+
+		return (existing != null) ? existing : archive;
+	}
+
+
+	// ----------------------------------------------------------
+	private static File getArchivesDirectory()
+	{
+		return Activator.getDefault().getStateLocation()
+				.append(ARCHIVES_DIRECTORY).toFile();
+	}
+}
@@ -0,0 +1,621 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.filesystem;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStream;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.net.URI;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+
+import org.webcat.eclipse.projectlink.util.FileUtils;
+import org.webcat.eclipse.projectlink.util.RemoteZipArchive;
+import org.webcat.eclipse.projectlink.util.ZipUtils;
+
+//--------------------------------------------------------------------------
+/**
+ * A project archive on a web server whose files are only downloaded when
+ * they are first opened, which is what {@link ArchiveFileStore} shows to
+ * the workspace. The archive's central directory is saved when it is
+ * created, so its tree is known without going back to the server; a file
+ * that has been fetched, written, or created is kept in a local directory
+ * that takes the place of the file in the archive from then on. Files in
+ * the archive that are deleted are remembered, so that they stay deleted.
+ *
+ * Each archive lives in a directory of its own, whose name is the
+ * archive's identifier:
+ * <pre>
+ *   index        the saved central directory
+ *   files/       the files that are local
+ *   deleted      the paths deleted from the archive, one per line
+ *   incoming/    files being fetched
+ * </pre>
+ * Instances are safe to use from several threads at once.
+ *
+ * @author Web-CAT Development Team
+ */
+public class LazyArchive
+{
+	//~ Instance/static variables .............................................
+
+	private File directory;
+	private File filesDir;
+	private File incomingDir;
+	private File deletedFile;
+	private RemoteZipArchive remote;
+
+	/* The names of the children of each directory in the archive, keyed by
+	   the path of the directory, which is empty for the root. */
+	private Map<String, Set<String>> tree = new HashMap<String, Set<String>>();
+
+	/* The paths of the files and directories deleted from the archive. */
+	private Set<String> deleted = new HashSet<String>();
+
+	/* Held while files are fetched, so each is only fetched once. */
+	private final Object fetchLock = new Object();
+
+	private static final String INDEX_FILE = "index";
+	private static final String FILES_DIRECTORY = "files";
+	private static final String INCOMING_DIRECTORY = "incoming";
+	private static final String DELETED_FILE = "deleted";
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	private LazyArchive(File directory, RemoteZipArchive remote)
+	{
+		this.directory = directory;
+		this.remote = remote;
+
+		filesDir = new File(directory, FILES_DIRECTORY);
+		incomingDir = new File(directory, INCOMING_DIRECTORY);
+		deletedFile = new File(directory, DELETED_FILE);
+
+		tree.put("", new TreeSet<String>());
+
+		for (String path : remote.getPaths())
+		{
+			if (path.endsWith("/"))
+			{
+				addToTree(path.substring(0, path.length() - 1));
+			}
+			else
+			{
+				addToTree(path);
+			}
+		}
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Reads the central directory of an archive on a web server and saves
+	 * it in the specified directory.
+	 *
+	 * @param url the URL of the archive
+	 * @param directory the empty directory to keep the archive in
+	 * @return the archive, or null if the server cannot send parts of it
+	 * @throws IOException if the archive could not be read
+	 */
+	public static LazyArchive create(URL url, File directory)
+		throws IOException
+	{
+		RemoteZipArchive remote = RemoteZipArchive.open(url);
+
+		if (remote == null)
+		{
+			return null;
+		}
+
+		remote.save(new File(directory, INDEX_FILE));
+
+		return new LazyArchive(directory, remote);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens an archive that was created earlier.
+	 *
+	 * @param directory the directory that the archive is kept in
+	 * @return the archive, or null if there is none in the directory
+	 * @throws IOException if the archive could not be read
+	 */
+	public static LazyArchive load(File directory) throws IOException
+	{
+		File indexFile = new File(directory, INDEX_FILE);
+
+		if (!indexFile.isFile())
+		{
+			return null;
+		}
+
+		LazyArchive archive =
+				new LazyArchive(directory, RemoteZipArchive.load(indexFile));
+		archive.readDeleted();
+
+		return archive;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the identifier of the archive, which is the name of the
+	 * directory that it is kept in.
+	 *
+	 * @return the identifier
+	 */
+	public String getId()
+	{
+		return directory.getName();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the archive on the server.
+	 *
+	 * @return the archive on the server
+	 */
+	public RemoteZipArchive getRemote()
+	{
+		return remote;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the URI of a file or directory in the archive.
+	 *
+	 * @param path the path of the file, relative to the root of the archive,
+	 *     or an empty string for the root
+	 * @return the URI
+	 */
+	public URI getURI(String path)
+	{
+		try
+		{
+			return new URI(ArchiveFileSystem.SCHEME, null,
+					"/" + getId() + "/" + path, null);
+		}
+		catch (URISyntaxException e)
+		{
+			throw new IllegalArgumentException(e.getMessage());
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the local copy of a file or directory, which may not exist.
+	 *
+	 * @param path the path of the file
+	 * @return the local copy
+	 */
+	public File getLocalFile(String path)
+	{
+		return (path.length() == 0) ? filesDir : new File(filesDir, path);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the archive has a directory with the
+	 * specified path that has not been deleted.
+	 *
+	 * @param path the path of the directory
+	 * @return true if the archive has the directory; otherwise, false
+	 */
+	public synchronized boolean isDirectory(String path)
+	{
+		return tree.containsKey(path) && !isDeleted(path);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the entry for a file in the archive that has not been deleted.
+	 *
+	 * @param path the path of the file
+	 * @return the entry, or null if the archive has no such file
+	 */
+	public synchronized RemoteZipArchive.Entry getEntry(String path)
+	{
+		// The root directory's own entry, if it has one, has an empty path.
+		return (path.length() == 0 || isDeleted(path))
+				? null : remote.getEntry(path);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the names of the files and directories in a directory, both the
+	 * local ones and the ones that are still only in the archive.
+	 *
+	 * @param path the path of the directory
+	 * @return the names of the children
+	 */
+	public synchronized String[] childNames(String path)
+	{
+		Set<String> names = new TreeSet<String>();
+		String[] localNames = getLocalFile(path).list();
+
+		if (localNames != null)
+		{
+			for (String name : localNames)
+			{
+				names.add(name);
+			}
+		}
+
+		if (isDirectory(path))
+		{
+			String prefix = (path.length() == 0) ? "" : path + "/";
+
+			for (String name : tree.get(path))
+			{
+				if (!deleted.contains(prefix + name))
+				{
+					names.add(name);
+				}
+			}
+		}
+
+		return names.toArray(new String[names.size()]);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the local copy of a file, fetching it from the archive if it has
+	 * not been fetched yet.
+	 *
+	 * @param path the path of the file
+	 * @return the local copy
+	 * @throws IOException if the file could not be fetched
+	 */
+	public File fetch(String path) throws IOException
+	{
+		File file = getLocalFile(path);
+
+		if (!file.exists())
+		{
+			List<String> paths = new ArrayList<String>();
+			paths.add(path);
+			fetchFiles(paths);
+
+			if (!file.exists())
+			{
+				throw new FileNotFoundException(getURI(path).toString());
+			}
+		}
+
+		return file;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Fetches every file under a directory that is no larger than the
+	 * specified size and has not been fetched yet. Files that lie close
+	 * together in the archive are fetched with one request.
+	 *
+	 * @param path the path of the directory
+	 * @param maxSize the size of the largest file to fetch, in bytes
+	 * @throws IOException if the files could not be fetched
+	 */
+	public void fetchAll(String path, long maxSize) throws IOException
+	{
+		String prefix = (path.length() == 0) ? "" : path + "/";
+		List<String> paths = new ArrayList<String>();
+
+		for (String entryPath : remote.getPaths())
+		{
+			if (entryPath.startsWith(prefix) && entryPath.length() > 0
+					&& !entryPath.endsWith("/")
+					&& remote.getEntry(entryPath).getSize() <= maxSize)
+			{
+				paths.add(entryPath);
+			}
+		}
+
+		fetchFiles(paths);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens a file for writing, creating its local copy. When appending, the
+	 * file is fetched from the archive first.
+	 *
+	 * @param path the path of the file
+	 * @param append true to add to the end of the file
+	 * @return the stream to write the file with
+	 * @throws IOException if the file could not be opened
+	 */
+	public OutputStream openOutputStream(String path, boolean append)
+		throws IOException
+	{
+		File file = getLocalFile(path);
+
+		if (append && !file.exists() && getEntry(path) != null)
+		{
+			fetch(path);
+		}
+
+		file.getParentFile().mkdirs();
+
+		return new FileOutputStream(file, append);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a directory, and any missing directories above it.
+	 *
+	 * @param path the path of the directory
+	 * @throws IOException if the directory could not be created
+	 */
+	public void mkdir(String path) throws IOException
+	{
+		File dir = getLocalFile(path);
+
+		if (!dir.mkdirs() && !dir.isDirectory())
+		{
+			throw new IOException("Could not create the directory "
+					+ getURI(path));
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Deletes a file or a directory and everything in it, both the local
+	 * copies and what is in the archive.
+	 *
+	 * @param path the path of the file or directory
+	 * @throws IOException if the deletion could not be saved
+	 */
+	public synchronized void delete(String path) throws IOException
+	{
+		FileUtils.deleteRecursively(getLocalFile(path));
+
+		if (isDirectory(path) || getEntry(path) != null)
+		{
+			deleted.add(path);
+			writeDeleted();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Deletes the archive's directory, with the saved central directory and
+	 * every local file.
+	 */
+	public void destroy()
+	{
+		synchronized (fetchLock)
+		{
+			FileUtils.deleteRecursively(directory);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Fetches the files that have not been fetched yet and moves them into
+	 * place. A file that was written while it was being fetched keeps what
+	 * was written. Each fetched file takes the time of its entry, so the
+	 * workspace does not see it change.
+	 */
+	private void fetchFiles(List<String> paths) throws IOException
+	{
+		synchronized (fetchLock)
+		{
+			Map<RemoteZipArchive.Entry, File> files =
+					new LinkedHashMap<RemoteZipArchive.Entry, File>();
+			Map<String, File> fetched = new LinkedHashMap<String, File>();
+
+			for (String path : paths)
+			{
+				RemoteZipArchive.Entry entry = getEntry(path);
+
+				if (entry != null && !getLocalFile(path).exists())
+				{
+					File file = ZipUtils.resolveEntry(incomingDir, path);
+					files.put(entry, file);
+					fetched.put(path, file);
+				}
+			}
+
+			if (files.isEmpty())
+			{
+				return;
+			}
+
+			try
+			{
+				remote.extract(files);
+
+				for (Map.Entry<String, File> item : fetched.entrySet())
+				{
+					File file = getLocalFile(item.getKey());
+
+					if (!file.exists())
+					{
+						file.getParentFile().mkdirs();
+
+						if (!item.getValue().renameTo(file))
+						{
+							throw new IOException("Could not move "
+									+ item.getValue().getPath() + " to "
+									+ file.getPath());
+						}
+
+						file.setLastModified(
+								remote.getEntry(item.getKey()).getTime());
+					}
+				}
+			}
+			finally
+			{
+				FileUtils.deleteRecursively(incomingDir);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Adds a path in the archive, and the directories above it, to the tree.
+	 */
+	private void addToTree(String path)
+	{
+		if (path.length() == 0)
+		{
+			return;
+		}
+
+		int slash = path.lastIndexOf('/');
+		String parent = (slash == -1) ? "" : path.substring(0, slash);
+
+		if (remote.getEntry(path) == null && !tree.containsKey(path))
+		{
+			tree.put(path, new TreeSet<String>());
+		}
+
+		Set<String> siblings = tree.get(parent);
+
+		if (siblings == null)
+		{
+			addToTree(parent);
+			siblings = tree.get(parent);
+		}
+
+		siblings.add(path.substring(slash + 1));
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether a path, or a directory above it, has
+	 * been deleted.
+	 */
+	private boolean isDeleted(String path)
+	{
+		if (deleted.isEmpty())
+		{
+			return false;
+		}
+
+		for (String prefix = path; prefix.length() > 0; )
+		{
+			if (deleted.contains(prefix))
+			{
+				return true;
+			}
+
+			int slash = prefix.lastIndexOf('/');
+			prefix = (slash == -1) ? "" : prefix.substring(0, slash);
+		}
+
+		return false;
+	}
+
+
+	// ----------------------------------------------------------
+	private void readDeleted() throws IOException
+	{
+		if (!deletedFile.isFile())
+		{
+			return;
+		}
+
+		BufferedReader reader = new BufferedReader(new InputStreamReader(
+				new FileInputStream(deletedFile), "UTF-8"));
+
+		try
+		{
+			String line;
+
+			while ((line = reader.readLine()) != null)
+			{
+				if (line.length() > 0)
+				{
+					deleted.add(line);
+				}
+			}
+		}
+		finally
+		{
+			reader.close();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void writeDeleted() throws IOException
+	{
+		File tempFile = new File(deletedFile.getPath() + ".tmp");
+		Writer writer = new OutputStreamWriter(
+				new FileOutputStream(tempFile), "UTF-8");
+
+		try
+		{
+			for (String path : deleted)
+			{
+				writer.write(path);
+				writer.write('\n');
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+
+		deletedFile.delete();
+
+		if (!tempFile.renameTo(deletedFile))
+		{
+			throw new IOException("The file " + deletedFile.getPath()
+					+ " could not be replaced.");
+		}
+	}
+}
@@ -60,6 +60,7 @@ public class Messages extends NLS
 	public static String AuthenticationDialog_Title;
 	public static String AuthenticationDialog_Username;
 	public static String ChooseProjectDialog_Title;
+	public static String DownloadAssignmentPage_Dependency_Problem;
 	public static String DownloadAssignmentPage_Description;
 	public static String DownloadAssignmentPage_Group_Has_No_Assignments;
 	public static String DownloadAssignmentPage_Projects_to_Download;
@@ -74,12 +75,25 @@ public class Messages extends NLS
 	public static String ExceptionDialog_General_Error;
 	public static String ExceptionDialog_Parse_Errors;
 	public static String ExceptionDialog_Title;
+	public static String Importer_Could_Not_Move_Project;
+	public static String Importer_Dependency_Cycle;
+	public static String Importer_Dependency_Failed;
+	public static String Importer_Imported_Elsewhere;
+	public static String Importer_Missing_Dependency;
+	public static String Importer_No_Project_Description;
 	public static String ProjectLinkPreferencePage_Description;
+	public static String ProjectLinkPreferencePage_Download_Cache_Size;
 	public static String ProjectLinkPreferencePage_Download_URL;
+	public static String ProjectLinkPreferencePage_Import_Workers;
+	public static String ProjectLinkPreferencePage_Lazy_Import;
+	public static String ProjectLinkPreferencePage_Streaming_Import;
 	public static String ProjectLinkPreferencePage_Submit_URL;
 	public static String ProjectLinkPreferencePage_Use_Separate_URLs;
 	public static String ProjectLinkPreferencePage_Use_WebCAT;
 	public static String ProjectLinkPreferencePage_WebCAT_URL;
+	public static String ResetProjectAction_Confirm;
+	public static String ResetProjectAction_Not_Imported;
+	public static String ResetProjectAction_Title;
 	public static String SubmitAssignmentPage_ChangeUsernamePassword;
 	public static String SubmitAssignmentPage_Enter_Partners;
 	public static String SubmitAssignmentPage_EnterPartnerNames;
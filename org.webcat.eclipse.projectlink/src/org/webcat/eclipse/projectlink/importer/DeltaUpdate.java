@@ -0,0 +1,398 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+
+import org.webcat.eclipse.projectlink.Activator;
+import org.webcat.eclipse.projectlink.importer.model.ProjectNode;
+import org.webcat.eclipse.projectlink.util.DownloadCache;
+import org.webcat.eclipse.projectlink.util.FileHashes;
+import org.webcat.eclipse.projectlink.util.RemoteZipArchive;
+import org.webcat.eclipse.projectlink.util.ZipArchiveIndex;
+import org.webcat.eclipse.projectlink.util.ZipUtils;
+
+//--------------------------------------------------------------------------
+/**
+ * Brings a project that is already in the workspace up to date with its
+ * archive, when the archive comes with a {@link FileHashes} listing: either
+ * a {@code .webcat-hashes} file at the root of the project in the archive,
+ * or a file served next to the archive and named by the project's
+ * {@code hashes} attribute. Projects without a listing are left alone, as
+ * they always have been; so that they cost nothing, the archive is only
+ * looked at if the project has a {@code hashes} attribute or a listing was
+ * saved in the project when it was imported.
+ *
+ * The listing is compared with the files in the project, and with the
+ * listing that was saved in the project the last time it was imported or
+ * updated, which tells which files the student has changed since. A file is
+ * fetched if it is new, or if the student has not changed it and the
+ * listing says that it has changed; a file that is no longer listed is
+ * deleted if the student has not changed it. Files that the student has
+ * changed or deleted are never touched.
+ *
+ * When the server accepts range requests only the entries that are needed
+ * are fetched from the archive, so an update costs about as much as what
+ * changed; otherwise the whole archive is downloaded through the
+ * {@link DownloadCache}, but still only the changed files are written.
+ *
+ * @author Web-CAT Development Team
+ */
+public class DeltaUpdate
+{
+	//~ Instance/static variables .............................................
+
+	private ProjectNode project;
+	private File projectDir;
+	private ItemStatistics statistics;
+
+	private URL url;
+	private FileHashes base;
+	private List<String> changedFiles;
+	private int deletedCount;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates an update of the specified project.
+	 *
+	 * @param project the project being imported
+	 * @param projectDir the project's directory in the workspace
+	 * @param statistics the statistics of the project's import, to which
+	 *     the download and the number of files updated are added
+	 */
+	public DeltaUpdate(ProjectNode project, File projectDir,
+			ItemStatistics statistics)
+	{
+		this.project = project;
+		this.projectDir = projectDir;
+		this.statistics = statistics;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Fetches the files that have changed and deletes the ones that have
+	 * been removed, and saves the new listing in the project.
+	 *
+	 * @return true if any files were written or deleted
+	 * @throws IOException if the archive or the listing could not be read,
+	 *     or a file could not be written
+	 */
+	public boolean run() throws IOException
+	{
+		url = new URL(project.getURI());
+		base = FileHashes.read(new File(projectDir, FileHashes.LISTING_FILE));
+
+		if (base == null && project.getHashesURI() == null)
+		{
+			return false;
+		}
+
+		long start = System.currentTimeMillis();
+		RemoteZipArchive remote = RemoteZipArchive.open(url);
+
+		if (remote != null)
+		{
+			try
+			{
+				return runRemote(remote);
+			}
+			finally
+			{
+				statistics.getDownload().setBytesReceived(
+						remote.getBytesReceived());
+				statistics.getDownload().setDownloadTime(
+						System.currentTimeMillis() - start);
+			}
+		}
+
+		DownloadCache cache = Activator.getDefault().getDownloadCache();
+		File archiveFile = cache.fetch(url, statistics.getDownload());
+
+		try
+		{
+			ZipArchiveIndex archive = new ZipArchiveIndex(archiveFile);
+
+			try
+			{
+				return runLocal(archive);
+			}
+			finally
+			{
+				archive.close();
+			}
+		}
+		finally
+		{
+			cache.release(archiveFile);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Saves the listing that is served next to a project's archive in the
+	 * project's directory, so that a later update knows what was imported.
+	 * A listing inside the archive is extracted along with the rest of it,
+	 * so nothing needs to be done for one. This should be called after the
+	 * project is first extracted; if the listing cannot be fetched, the
+	 * first update will just be more careful.
+	 *
+	 * @param project the project that was imported
+	 * @param projectDir the directory it was extracted to
+	 */
+	public static void saveListing(ProjectNode project, File projectDir)
+	{
+		if (project.getHashesURI() == null)
+		{
+			return;
+		}
+
+		try
+		{
+			FileHashes listing = fetchSidecar(project,
+					new URL(project.getURI()));
+
+			listing.write(new File(projectDir, FileHashes.LISTING_FILE));
+		}
+		catch (IOException e)
+		{
+			// Do nothing.
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private boolean runRemote(RemoteZipArchive archive) throws IOException
+	{
+		FileHashes listing;
+
+		if (project.getHashesURI() != null)
+		{
+			listing = fetchSidecar(project, url);
+		}
+		else
+		{
+			RemoteZipArchive.Entry entry =
+					archive.getEntry(FileHashes.LISTING_FILE);
+
+			if (entry == null)
+			{
+				return false;
+			}
+
+			listing = FileHashes.read(
+					new ByteArrayInputStream(archive.read(entry)));
+		}
+
+		findChanges(listing);
+
+		Map<RemoteZipArchive.Entry, File> files =
+				new LinkedHashMap<RemoteZipArchive.Entry, File>();
+
+		for (String path : changedFiles)
+		{
+			RemoteZipArchive.Entry entry = archive.getEntry(path);
+
+			if (entry != null)
+			{
+				files.put(entry, ZipUtils.resolveEntry(projectDir, path));
+			}
+		}
+
+		archive.extract(files);
+
+		return finish(listing, files.size());
+	}
+
+
+	// ----------------------------------------------------------
+	private boolean runLocal(ZipArchiveIndex archive) throws IOException
+	{
+		Map<String, ZipEntry> entries = new HashMap<String, ZipEntry>();
+
+		for (ZipEntry entry : archive.getEntries())
+		{
+			entries.put(archive.getRelativePath(entry), entry);
+		}
+
+		FileHashes listing;
+
+		if (project.getHashesURI() != null)
+		{
+			listing = fetchSidecar(project, url);
+		}
+		else
+		{
+			ZipEntry entry = entries.get(FileHashes.LISTING_FILE);
+
+			if (entry == null)
+			{
+				return false;
+			}
+
+			InputStream stream = archive.getInputStream(entry);
+
+			try
+			{
+				listing = FileHashes.read(stream);
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+
+		findChanges(listing);
+
+		int count = 0;
+
+		for (String path : changedFiles)
+		{
+			ZipEntry entry = entries.get(path);
+
+			if (entry != null)
+			{
+				File file = ZipUtils.resolveEntry(projectDir, path);
+				file.getParentFile().mkdirs();
+
+				InputStream stream = archive.getInputStream(entry);
+
+				try
+				{
+					ZipUtils.copyStreamToFile(stream, file, entry.getTime());
+				}
+				finally
+				{
+					stream.close();
+				}
+
+				count++;
+			}
+		}
+
+		return finish(listing, count);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Works out which files should be fetched, and deletes the ones that
+	 * are no longer listed and that the student has not changed.
+	 */
+	private void findChanges(FileHashes listing) throws IOException
+	{
+		changedFiles = new ArrayList<String>();
+		deletedCount = 0;
+
+		for (String path : listing.getPaths())
+		{
+			if (FileHashes.LISTING_FILE.equals(path))
+			{
+				continue;
+			}
+
+			String hash = listing.get(path);
+			String localHash =
+					FileHashes.hash(ZipUtils.resolveEntry(projectDir, path));
+
+			if (hash.equals(localHash))
+			{
+				continue;
+			}
+
+			String baseHash = (base != null) ? base.get(path) : null;
+
+			// A file that was imported before and is now missing or
+			// different was deleted or changed by the student.
+			if (localHash == null ? baseHash == null
+					: localHash.equals(baseHash))
+			{
+				changedFiles.add(path);
+			}
+		}
+
+		if (base != null)
+		{
+			for (String path : base.getPaths())
+			{
+				if (listing.get(path) == null
+						&& !FileHashes.LISTING_FILE.equals(path))
+				{
+					File file = ZipUtils.resolveEntry(projectDir, path);
+
+					if (base.get(path).equals(FileHashes.hash(file))
+							&& file.delete())
+					{
+						deletedCount++;
+					}
+				}
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Saves the new listing as the base of the next update, and records how
+	 * many files were written.
+	 */
+	private boolean finish(FileHashes listing, int writtenCount)
+		throws IOException
+	{
+		listing.write(new File(projectDir, FileHashes.LISTING_FILE));
+		statistics.setUpdatedFileCount(writtenCount + deletedCount);
+
+		return writtenCount + deletedCount > 0;
+	}
+
+
+	// ----------------------------------------------------------
+	private static FileHashes fetchSidecar(ProjectNode project, URL url)
+		throws IOException
+	{
+		InputStream stream =
+				new URL(url, project.getHashesURI()).openStream();
+
+		try
+		{
+			return FileHashes.read(stream);
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+}
@@ -21,18 +21,30 @@ package org.webcat.eclipse.projectlink.importer;
 
 import java.io.IOException;
 import java.lang.reflect.InvocationTargetException;
+import java.net.MalformedURLException;
 import java.net.URL;
 import java.text.MessageFormat;
+import java.util.ArrayList;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Set;
 
 import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.jobs.Job;
+import org.eclipse.jface.dialogs.IMessageProvider;
 import org.eclipse.jface.dialogs.MessageDialog;
 import org.eclipse.jface.operation.IRunnableContext;
 import org.eclipse.jface.operation.IRunnableWithProgress;
 import org.eclipse.jface.viewers.ISelectionChangedListener;
 import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.jface.viewers.ITreeViewerListener;
 import org.eclipse.jface.viewers.SelectionChangedEvent;
+import org.eclipse.jface.viewers.StructuredSelection;
+import org.eclipse.jface.viewers.TreeExpansionEvent;
 import org.eclipse.jface.viewers.TreeViewer;
 import org.eclipse.jface.wizard.WizardPage;
 import org.eclipse.swt.SWT;
@@ -44,9 +56,11 @@ import org.eclipse.swt.widgets.Label;
 import org.webcat.eclipse.projectlink.Activator;
 import org.webcat.eclipse.projectlink.dialogs.ExceptionDialog;
 import org.webcat.eclipse.projectlink.i18n.Messages;
+import org.webcat.eclipse.projectlink.importer.model.ImportGroupNode;
 import org.webcat.eclipse.projectlink.importer.model.ImportNode;
 import org.webcat.eclipse.projectlink.importer.model.ProjectGroupNode;
 import org.webcat.eclipse.projectlink.importer.model.ProjectNode;
+import org.webcat.eclipse.projectlink.importer.model.RootImportNode;
 import org.webcat.submitter.Submitter;
 
 //--------------------------------------------------------------------------
@@ -70,6 +84,25 @@ public class DownloadAssignmentPage extends WizardPage
 	private boolean initializationComplete = false;
 	private Label infoLabel;
 
+	/* Refreshes the parts of the tree whose availability has changed, once
+	   the next release date in the tree has passed. */
+	private Runnable availabilityTimer = new Runnable() {
+		public void run()
+		{
+			refreshAvailability();
+		}
+	};
+
+	/* The time by which the availability of the nodes shown in the tree
+	   was judged. */
+	private long availabilityCheckedAt;
+
+	/* The import groups being fetched, so that expanding a group while the
+	   tree is being revalidated does not fetch it twice. Only used on the
+	   display thread. */
+	private Set<ImportGroupNode> loadingGroups =
+			new HashSet<ImportGroupNode>();
+
 	
 	//~ Constructors ..........................................................
 
@@ -126,6 +159,17 @@ public class DownloadAssignmentPage extends WizardPage
 						assignmentTreeSelectionChanged();
 					}
 				});
+		assignmentTree.addTreeListener(new ITreeViewerListener() {
+			public void treeExpanded(TreeExpansionEvent e)
+			{
+				assignmentTreeExpanded((ImportNode) e.getElement());
+			}
+
+			public void treeCollapsed(TreeExpansionEvent e)
+			{
+				// Do nothing.
+			}
+		});
 
 		Display.getCurrent().asyncExec(new Runnable() {
 			public void run() {
@@ -150,6 +194,27 @@ public class DownloadAssignmentPage extends WizardPage
 			return;
 		}
 
+		final URL url;
+
+		try
+		{
+			url = new URL(Activator.getDefault().getDownloadURL());
+		}
+		catch (MalformedURLException e)
+		{
+			showErrorDialog(e);
+			return;
+		}
+
+		// The tree from the last time the wizard was opened can be shown
+		// straight away, while the manifest is checked in the background.
+		if (importer.readSnapshot(url))
+		{
+			showTree();
+			revalidateInBackground(url);
+			return;
+		}
+
 		try
 		{
 			getContainer().run(true, true, new IRunnableWithProgress() {
@@ -158,16 +223,19 @@ public class DownloadAssignmentPage extends WizardPage
 				{
 					try
 					{
-						URL url = new URL(Activator.getDefault().getDownloadURL());
 						importer.readSchema(url, monitor);
 	
 						Display.getDefault().syncExec(new Runnable() {
 							public void run()
 							{
-								assignmentTree.setInput(importer.getRoot());
-								expandAllLocalGroups(importer.getRoot(), getContainer());
+								showTree();
 							}
 						});
+
+						// Unnamed import groups are shown as part of their
+						// parent, so the ones at the top need to be there
+						// from the start.
+						loadImportGroups(importer.getRoot(), monitor);
 					}
 					catch (IOException e)
 					{
@@ -187,6 +255,395 @@ public class DownloadAssignmentPage extends WizardPage
 	}
 
 
+	// ----------------------------------------------------------
+	private void showTree()
+	{
+		availabilityCheckedAt = System.currentTimeMillis();
+
+		assignmentTree.setInput(importer.getRoot());
+		expandAllLocalGroups(importer.getRoot(), getContainer());
+
+		scheduleAvailabilityRefresh();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Sets the timer to go off when the availability of a node in the tree
+	 * next changes, such as when an assignment is released, replacing any
+	 * timer that was set before. Nothing is checked until then.
+	 */
+	private void scheduleAvailabilityRefresh()
+	{
+		Display display = assignmentTree.getControl().getDisplay();
+		display.timerExec(-1, availabilityTimer);
+
+		if (importer.getRoot() == null)
+		{
+			return;
+		}
+
+		long next = importer.getRoot().getNextAvailabilityChange(
+				availabilityCheckedAt);
+
+		if (next != Long.MAX_VALUE)
+		{
+			// A change that is further away than the timer can wait is
+			// simply looked for again when the timer goes off.
+			long delay = next - System.currentTimeMillis();
+			delay = Math.max(0, Math.min(delay, Integer.MAX_VALUE));
+
+			display.timerExec((int) delay, availabilityTimer);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Refreshes the nodes whose children have changed availability since
+	 * the tree was last brought up to date, and sets the timer again.
+	 */
+	private void refreshAvailability()
+	{
+		if (assignmentTree.getControl().isDisposed()
+				|| importer.getRoot() == null)
+		{
+			return;
+		}
+
+		long now = System.currentTimeMillis();
+		List<ImportNode> changed = new ArrayList<ImportNode>();
+		importer.getRoot().findAvailabilityChanges(
+				availabilityCheckedAt, now, changed);
+		availabilityCheckedAt = now;
+
+		Set<ImportNode> shownParents = new LinkedHashSet<ImportNode>();
+
+		for (ImportNode node : changed)
+		{
+			// Unnamed groups are shown as part of their parent, so it is
+			// the nearest named one that has to be refreshed.
+			ImportNode parent = node.parent();
+
+			while (parent != null && parent.parent() != null
+					&& !parent.isNested())
+			{
+				parent = parent.parent();
+			}
+
+			if (parent != null)
+			{
+				shownParents.add(parent);
+			}
+		}
+
+		for (ImportNode parent : shownParents)
+		{
+			assignmentTree.refresh(parent);
+		}
+
+		if (!changed.isEmpty())
+		{
+			updatePageComplete();
+		}
+
+		scheduleAvailabilityRefresh();
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public void dispose()
+	{
+		if (assignmentTree != null
+				&& !assignmentTree.getControl().isDisposed())
+		{
+			assignmentTree.getControl().getDisplay().timerExec(
+					-1, availabilityTimer);
+		}
+
+		super.dispose();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Checks whether the manifest has changed since the tree being shown
+	 * was saved, and if it has, replaces the tree, keeping the selected
+	 * project selected. This does not hold up the wizard; if the manifest
+	 * cannot be fetched, the saved tree is kept and the problem is logged.
+	 */
+	private void revalidateInBackground(final URL url)
+	{
+		final RootImportNode shownRoot = importer.getRoot();
+
+		// The manifest is parsed into a tree of its own, which is only
+		// handed to the importer, and only walked, on the display thread.
+		Job job = new Job("Refreshing the list of assignments") {
+			@Override
+			protected IStatus run(IProgressMonitor monitor)
+			{
+				try
+				{
+					final RootImportNode newRoot =
+							importer.fetchSchema(url, monitor);
+					final boolean[] shown = new boolean[1];
+
+					// The tree is left alone if the user has switched to
+					// another one in the meantime.
+					Display.getDefault().syncExec(new Runnable() {
+						public void run()
+						{
+							if (importer.getRoot() == shownRoot)
+							{
+								if (newRoot != shownRoot)
+								{
+									importer.setRoot(url, newRoot);
+									replaceTree();
+								}
+
+								shown[0] = true;
+							}
+						}
+					});
+
+					// Only a tree that is being shown needs its groups.
+					if (shown[0])
+					{
+						loadImportGroups(newRoot, monitor);
+					}
+				}
+				catch (Exception e)
+				{
+					logRevalidationFailure(e);
+				}
+
+				return Status.OK_STATUS;
+			}
+		};
+
+		job.setSystem(true);
+		job.schedule();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Shows the importer's current tree in place of the one in the viewer.
+	 */
+	private void replaceTree()
+	{
+		if (assignmentTree.getControl().isDisposed())
+		{
+			return;
+		}
+
+		ImportNode selected = getSelectedNode();
+		showTree();
+
+		if (selected instanceof ProjectNode)
+		{
+			ProjectNode project = importer.getRoot().getProjectNode(
+					((ProjectNode) selected).getID());
+
+			if (project != null)
+			{
+				assignmentTree.setSelection(
+						new StructuredSelection(project), true);
+			}
+		}
+
+		updatePageComplete();
+	}
+
+
+	// ----------------------------------------------------------
+	private void logRevalidationFailure(Exception e)
+	{
+		Activator.getDefault().getLog().log(new Status(IStatus.WARNING,
+				Activator.PLUGIN_ID, "The list of assignments could not be "
+				+ "refreshed; showing the saved copy instead.", e));
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Loads the import groups whose contents appear under the specified
+	 * node when it is expanded, in the background.
+	 */
+	private void assignmentTreeExpanded(final ImportNode node)
+	{
+		if (findUnloadedImportGroups(node).isEmpty())
+		{
+			return;
+		}
+
+		// Let the tree finish expanding before the wizard is busy.
+		Display.getCurrent().asyncExec(new Runnable() {
+			public void run()
+			{
+				try
+				{
+					getContainer().run(true, true, new IRunnableWithProgress() {
+						public void run(IProgressMonitor monitor)
+						{
+							try
+							{
+								loadImportGroups(node, monitor);
+							}
+							catch (IOException e)
+							{
+								showErrorDialog(e);
+							}
+						}
+					});
+				}
+				catch (InterruptedException e)
+				{
+					// Do nothing.
+				}
+				catch (InvocationTargetException e)
+				{
+					showErrorDialog(e);
+				}
+			}
+		});
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Fetches the contents of the unloaded import groups under the
+	 * specified node, including those nested in the groups it fetches, and
+	 * adds them to the tree. This is called from a background thread; the
+	 * tree is only read and changed on the display thread. Groups that are
+	 * already being fetched by another call are left to it.
+	 */
+	private void loadImportGroups(final ImportNode node,
+			IProgressMonitor monitor) throws IOException
+	{
+		List<ImportGroupNode> pending = claimUnloadedImportGroups(node);
+
+		try
+		{
+			while (!pending.isEmpty() && !monitor.isCanceled())
+			{
+				while (!pending.isEmpty())
+				{
+					final ImportGroupNode group = pending.get(0);
+					final RootImportNode catalog =
+							importer.readImportGroup(group, monitor);
+
+					pending.remove(0);
+
+					Display.getDefault().syncExec(new Runnable() {
+						public void run()
+						{
+							loadingGroups.remove(group);
+							group.attach(catalog);
+
+							if (!assignmentTree.getControl().isDisposed())
+							{
+								assignmentTree.refresh(node);
+								assignmentTree.setExpandedState(node, true);
+								updatePageComplete();
+								scheduleAvailabilityRefresh();
+							}
+						}
+					});
+				}
+
+				pending = claimUnloadedImportGroups(node);
+			}
+		}
+		finally
+		{
+			// Groups that were not fetched can be tried again later.
+			final List<ImportGroupNode> unfetched = pending;
+
+			if (!unfetched.isEmpty())
+			{
+				Display.getDefault().syncExec(new Runnable() {
+					public void run()
+					{
+						loadingGroups.removeAll(unfetched);
+					}
+				});
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Finds the unloaded import groups under the specified node that no one
+	 * is fetching yet, on the display thread, and marks them as being
+	 * fetched.
+	 */
+	private List<ImportGroupNode> claimUnloadedImportGroups(
+			final ImportNode node)
+	{
+		final List<ImportGroupNode> groups = new ArrayList<ImportGroupNode>();
+
+		Display.getDefault().syncExec(new Runnable() {
+			public void run()
+			{
+				for (ImportGroupNode group : findUnloadedImportGroups(node))
+				{
+					if (loadingGroups.add(group))
+					{
+						groups.add(group);
+					}
+				}
+			}
+		});
+
+		return groups;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Finds the unloaded import groups whose contents would be shown under
+	 * the specified node: the node itself, or those reached through
+	 * unnamed groups, whose children are shown as part of their parent.
+	 */
+	private static List<ImportGroupNode> findUnloadedImportGroups(
+			ImportNode node)
+	{
+		List<ImportGroupNode> groups = new ArrayList<ImportGroupNode>();
+
+		findUnloadedImportGroups(node, System.currentTimeMillis(), groups);
+
+		return groups;
+	}
+
+
+	// ----------------------------------------------------------
+	private static void findUnloadedImportGroups(ImportNode node, long now,
+			List<ImportGroupNode> groups)
+	{
+		if (!node.isLoaded())
+		{
+			if (node instanceof ImportGroupNode)
+			{
+				groups.add((ImportGroupNode) node);
+			}
+
+			return;
+		}
+
+		for (ImportNode child : node.getChildren())
+		{
+			if (child.getAvailability().isVisible(now)
+					&& child.isContainer() && !child.isNested())
+			{
+				findUnloadedImportGroups(child, now, groups);
+			}
+		}
+	}
+
+
 	// ----------------------------------------------------------
 	private void showErrorDialog(final Exception e)
 	{
@@ -212,7 +669,8 @@ public class DownloadAssignmentPage extends WizardPage
 				(IStructuredSelection) assignmentTree.getSelection();
 
 		if (sel.getFirstElement() instanceof ProjectNode
-				|| sel.getFirstElement() instanceof ProjectGroupNode)
+				|| sel.getFirstElement() instanceof ProjectGroupNode
+				|| sel.getFirstElement() instanceof ImportGroupNode)
 		{
 			return (ImportNode) sel.getFirstElement();
 		}
@@ -303,11 +761,12 @@ public class DownloadAssignmentPage extends WizardPage
 			return;
 		}
 
+		ImportPlan plan = null;
+
 		if (node != null)
 		{
-			HashSet<ProjectNode> depends = new HashSet<ProjectNode>();
-			importer.gatherProjects(depends, node);
-			importer.gatherDependencies(depends, node, true);
+			plan = new ImportPlanner().plan(node);
+			List<ProjectNode> depends = plan.getProjects();
 	
 			if (depends.size() > 0)
 			{
@@ -329,5 +788,20 @@ public class DownloadAssignmentPage extends WizardPage
 
 		setPageComplete(true);
 		setErrorMessage(null);
+
+		if (plan != null && !plan.getErrors().isEmpty())
+		{
+			// Problems in the manifest don't stop the rest from downloading.
+			ImportError error = plan.getErrors().get(0);
+
+			setMessage(MessageFormat.format(
+					Messages.DownloadAssignmentPage_Dependency_Problem,
+					error.getProject().getName(), error.getMessage()),
+					IMessageProvider.WARNING);
+		}
+		else
+		{
+			setMessage(null);
+		}
 	}
 }
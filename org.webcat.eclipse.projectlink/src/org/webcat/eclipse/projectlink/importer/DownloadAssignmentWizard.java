@@ -130,7 +130,8 @@ public class DownloadAssignmentWizard extends Wizard implements IImportWizard
 		ImporterManifest manifest = new ImporterManifest();
         manifest.setImportNode(selectedNode);
 
-        List<ImportError> errors = importer.importProjects(manifest, monitor);
+        List<ImportError> errors =
+        		importer.importProjects(manifest, monitor).getErrors();
         
         if (!errors.isEmpty())
         {
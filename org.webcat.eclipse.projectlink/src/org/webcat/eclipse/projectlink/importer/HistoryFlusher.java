@@ -0,0 +1,174 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.io.IOException;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.Status;
+import org.webcat.eclipse.projectlink.Activator;
+import org.webcat.eclipse.projectlink.util.HistoryStore;
+
+//--------------------------------------------------------------------------
+/**
+ * Saves the histories kept by {@link ProjectTracker} and
+ * {@link ImportedPreferences} on a background thread. Asking for a history
+ * to be saved only marks it; a daemon thread saves every marked history a
+ * moment later, so the requests made by imports that finish close together
+ * are coalesced into one write per history, and no import waits for the
+ * disk. The thread exits once there is nothing left to save, and
+ * {@link #flushAll()} saves anything still waiting when the plug-in stops.
+ *
+ * @author Web-CAT Development Team
+ */
+public class HistoryFlusher
+{
+	//~ Instance/static variables .............................................
+
+	/* The histories waiting to be saved, each with a description of its
+	   contents for the log. */
+	private static Map<HistoryStore, String> pending =
+			new LinkedHashMap<HistoryStore, String>();
+
+	/* The thread that saves them, or null if none is running. */
+	private static Thread thread;
+
+	/* How long to wait for more requests before saving, in milliseconds. */
+	private static final long DELAY = 1000;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	private HistoryFlusher()
+	{
+		// Static methods only.
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Asks for the changes made to a history to be saved shortly, starting
+	 * the background thread if it is not already running.
+	 *
+	 * @param history the history to save
+	 * @param description a description of what the history holds, such as
+	 *     "downloaded projects", used if it cannot be saved
+	 */
+	public static synchronized void flushLater(HistoryStore history,
+			String description)
+	{
+		pending.put(history, description);
+
+		if (thread == null)
+		{
+			thread = new Thread(new Runnable() {
+				public void run()
+				{
+					runFlusher();
+				}
+			}, "Web-CAT History Flusher");
+
+			thread.setDaemon(true);
+			thread.start();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Saves every history that is waiting to be saved, on the calling
+	 * thread.
+	 */
+	public static void flushAll()
+	{
+		flush(takePending());
+	}
+
+
+	// ----------------------------------------------------------
+	private static void runFlusher()
+	{
+		while (true)
+		{
+			try
+			{
+				Thread.sleep(DELAY);
+			}
+			catch (InterruptedException e)
+			{
+				// Save what is waiting now.
+			}
+
+			Map<HistoryStore, String> histories;
+
+			synchronized (HistoryFlusher.class)
+			{
+				if (pending.isEmpty())
+				{
+					thread = null;
+					return;
+				}
+
+				histories = takePending();
+			}
+
+			flush(histories);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static synchronized Map<HistoryStore, String> takePending()
+	{
+		Map<HistoryStore, String> histories = pending;
+		pending = new LinkedHashMap<HistoryStore, String>();
+		return histories;
+	}
+
+
+	// ----------------------------------------------------------
+	private static void flush(Map<HistoryStore, String> histories)
+	{
+		for (Map.Entry<HistoryStore, String> entry : histories.entrySet())
+		{
+			try
+			{
+				entry.getKey().flush();
+			}
+			catch (IOException e)
+			{
+				// The changes are kept, so the next flush tries again.
+				Activator plugin = Activator.getDefault();
+
+				if (plugin != null)
+				{
+					plugin.getLog().log(new Status(IStatus.WARNING,
+							Activator.PLUGIN_ID, "The history of "
+							+ entry.getValue() + " could not be saved.", e));
+				}
+			}
+		}
+	}
+}
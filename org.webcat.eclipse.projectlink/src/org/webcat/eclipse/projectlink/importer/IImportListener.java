@@ -0,0 +1,51 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+//--------------------------------------------------------------------------
+/**
+ * Receives the statistics of an import as it happens. Listeners are
+ * registered with {@link Importer#addImportListener(IImportListener)}.
+ *
+ * Methods may be called from worker threads, and never from the UI thread
+ * unless the import itself runs there.
+ *
+ * @author Web-CAT Development Team
+ */
+public interface IImportListener
+{
+	// ----------------------------------------------------------
+	/**
+	 * Called when a project or preference file has been imported, or has
+	 * failed.
+	 *
+	 * @param item the item's statistics
+	 */
+	void itemFinished(ItemStatistics item);
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Called when the whole import has finished.
+	 *
+	 * @param result the errors and statistics of the import
+	 */
+	void importFinished(ImportResult result);
+}
@@ -0,0 +1,136 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import org.webcat.eclipse.projectlink.importer.model.ProjectNode;
+
+//--------------------------------------------------------------------------
+/**
+ * The result of planning an import: the projects to import in an order in
+ * which every project comes after the projects it depends on, the
+ * dependency edges between them, and the problems that were found in the
+ * manifest along the way. Plans are created by {@link ImportPlanner} and
+ * cannot be modified.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportPlan
+{
+	//~ Instance/static variables .............................................
+
+	private List<ProjectNode> projects;
+	private Map<ProjectNode, List<ProjectNode>> dependencies;
+	private Map<ProjectNode, List<ProjectNode>> dependents;
+	private List<ImportError> errors;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new plan. The collections are not copied, so the planner
+	 * must not hold on to them.
+	 */
+	ImportPlan(List<ProjectNode> projects,
+			Map<ProjectNode, List<ProjectNode>> dependencies,
+			Map<ProjectNode, List<ProjectNode>> dependents,
+			List<ImportError> errors)
+	{
+		this.projects = Collections.unmodifiableList(projects);
+		this.dependencies = dependencies;
+		this.dependents = dependents;
+		this.errors = Collections.unmodifiableList(errors);
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the projects to import, each exactly once, in topological order:
+	 * every project comes after all of the projects that it depends on.
+	 *
+	 * @return an unmodifiable list of projects
+	 */
+	public List<ProjectNode> getProjects()
+	{
+		return projects;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the projects in this plan that the specified project depends on
+	 * directly.
+	 *
+	 * @param project the project
+	 * @return an unmodifiable list of projects, which may be empty
+	 */
+	public List<ProjectNode> getDependencies(ProjectNode project)
+	{
+		return listOrEmpty(dependencies.get(project));
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the projects in this plan that depend directly on the specified
+	 * project.
+	 *
+	 * @param project the project
+	 * @return an unmodifiable list of projects, which may be empty
+	 */
+	public List<ProjectNode> getDependents(ProjectNode project)
+	{
+		return listOrEmpty(dependents.get(project));
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the problems that were found while planning, such as dependency
+	 * cycles (whose projects are left out of the plan) and dependencies on
+	 * projects that are not in the manifest.
+	 *
+	 * @return an unmodifiable list of errors, which may be empty
+	 */
+	public List<ImportError> getErrors()
+	{
+		return errors;
+	}
+
+
+	// ----------------------------------------------------------
+	private static List<ProjectNode> listOrEmpty(List<ProjectNode> list)
+	{
+		if (list == null)
+		{
+			return Collections.emptyList();
+		}
+		else
+		{
+			return Collections.unmodifiableList(list);
+		}
+	}
+}
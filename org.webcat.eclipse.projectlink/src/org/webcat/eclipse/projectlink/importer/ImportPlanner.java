@@ -0,0 +1,290 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.text.MessageFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import org.webcat.eclipse.projectlink.i18n.Messages;
+import org.webcat.eclipse.projectlink.importer.model.ImportGroupNode;
+import org.webcat.eclipse.projectlink.importer.model.ImportNode;
+import org.webcat.eclipse.projectlink.importer.model.ProjectGroupNode;
+import org.webcat.eclipse.projectlink.importer.model.ProjectNode;
+import org.webcat.eclipse.projectlink.importer.model.RootImportNode;
+
+//--------------------------------------------------------------------------
+/**
+ * Works out which projects an import involves and the order in which they
+ * can be imported. The planner collects the downloadable projects under the
+ * selected node, then walks their dependencies a single time, visiting
+ * each project only once no matter how many projects share it.
+ * Dependencies on IDs that the manifest does not define are reported.
+ * Cycles are reported too, and the projects in a cycle (along with anything
+ * that depends on them) are left out of the plan instead of recursing
+ * forever.
+ *
+ * A planner is meant to be used for a single plan, and judges the
+ * availability of every project by the time at which the plan was begun.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportPlanner
+{
+	//~ Instance/static variables .............................................
+
+	private Map<ProjectNode, List<ProjectNode>> dependencies =
+			new HashMap<ProjectNode, List<ProjectNode>>();
+	private Map<ProjectNode, Boolean> visiting =
+			new HashMap<ProjectNode, Boolean>();
+	private List<ProjectNode> path = new ArrayList<ProjectNode>();
+	private List<ProjectNode> order = new ArrayList<ProjectNode>();
+	private Map<ProjectNode, String> cycles =
+			new HashMap<ProjectNode, String>();
+	private List<ImportError> errors = new ArrayList<ImportError>();
+
+	/* The time at which availability is judged, read once for the whole
+	   plan so that every project is judged by the same clock. */
+	private long now;
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Plans the import of the projects under the specified node (or the node
+	 * itself, if it is a project) and everything that they depend on.
+	 * Projects that are not currently downloadable are left out.
+	 *
+	 * @param selection the node that the user chose to import
+	 * @return the plan
+	 */
+	public ImportPlan plan(ImportNode selection)
+	{
+		now = System.currentTimeMillis();
+
+		Set<ProjectNode> selected = new LinkedHashSet<ProjectNode>();
+		gatherProjects(selected, selection);
+
+		for (ProjectNode project : selected)
+		{
+			if (!visiting.containsKey(project))
+			{
+				visit(project);
+			}
+		}
+
+		List<ProjectNode> projects = new ArrayList<ProjectNode>();
+		Map<ProjectNode, List<ProjectNode>> dependents =
+				new HashMap<ProjectNode, List<ProjectNode>>();
+		Set<ProjectNode> excluded = new HashSet<ProjectNode>();
+
+		// The visit order lists every project after its dependencies, except
+		// across the edges that close a cycle, so one pass is enough to find
+		// everything that depends on a cycle.
+		for (ProjectNode project : order)
+		{
+			if (cycles.containsKey(project))
+			{
+				excluded.add(project);
+				errors.add(new ImportError(project, MessageFormat.format(
+						Messages.Importer_Dependency_Cycle,
+						cycles.get(project))));
+				continue;
+			}
+
+			ProjectNode excludedDepend = null;
+
+			for (ProjectNode depend : dependencies.get(project))
+			{
+				if (excluded.contains(depend))
+				{
+					excludedDepend = depend;
+					break;
+				}
+			}
+
+			if (excludedDepend != null)
+			{
+				excluded.add(project);
+				errors.add(new ImportError(project, MessageFormat.format(
+						Messages.Importer_Dependency_Failed,
+						excludedDepend.getName())));
+				continue;
+			}
+
+			projects.add(project);
+
+			for (ProjectNode depend : dependencies.get(project))
+			{
+				List<ProjectNode> list = dependents.get(depend);
+
+				if (list == null)
+				{
+					list = new ArrayList<ProjectNode>();
+					dependents.put(depend, list);
+				}
+
+				list.add(project);
+			}
+		}
+
+		for (ProjectNode project : excluded)
+		{
+			dependencies.remove(project);
+		}
+
+		return new ImportPlan(projects, dependencies, dependents, errors);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Collects the downloadable projects under a node, in tree order.
+	 */
+	private void gatherProjects(Set<ProjectNode> projects, ImportNode node)
+	{
+		if (node instanceof ProjectGroupNode
+				|| node instanceof ImportGroupNode)
+		{
+			for (ImportNode child : node.getChildren())
+			{
+				gatherProjects(projects, child);
+			}
+		}
+		else if (node instanceof ProjectNode)
+		{
+			ProjectNode project = (ProjectNode) node;
+
+			if (project.getAvailability().isDownloadable(now))
+			{
+				projects.add(project);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Visits a project and, depth first, its dependencies, adding each
+	 * project to the visit order once all of its dependencies are in it.
+	 */
+	private void visit(ProjectNode project)
+	{
+		visiting.put(project, Boolean.TRUE);
+		path.add(project);
+
+		for (ProjectNode depend : resolve(project))
+		{
+			Boolean state = visiting.get(depend);
+
+			if (state == null)
+			{
+				visit(depend);
+			}
+			else if (state)
+			{
+				recordCycle(depend);
+			}
+		}
+
+		path.remove(path.size() - 1);
+		visiting.put(project, Boolean.FALSE);
+		order.add(project);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the downloadable projects that a project depends on, which were
+	 * resolved when the tree was built, reporting IDs that the manifest does
+	 * not define. The
+	 * result is remembered, so this is only done once per project.
+	 */
+	private List<ProjectNode> resolve(ProjectNode project)
+	{
+		List<ProjectNode> resolved = dependencies.get(project);
+
+		if (resolved != null)
+		{
+			return resolved;
+		}
+
+		resolved = new ArrayList<ProjectNode>();
+
+		RootImportNode root = project.getRoot();
+
+		if (root != null)
+		{
+			for (String id : root.getUnresolvedDependencies(project))
+			{
+				errors.add(new ImportError(project, MessageFormat.format(
+						Messages.Importer_Missing_Dependency, id)));
+			}
+		}
+
+		for (ProjectNode depend : project.getNodeDependencies())
+		{
+			if (depend != project && !resolved.contains(depend)
+					&& depend.getAvailability().isDownloadable(now))
+			{
+				resolved.add(depend);
+			}
+		}
+
+		dependencies.put(project, resolved);
+		return resolved;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Records the cycle that runs from the specified project, which is on
+	 * the current path, to the end of the path and back again.
+	 */
+	private void recordCycle(ProjectNode start)
+	{
+		List<ProjectNode> members =
+				path.subList(path.indexOf(start), path.size());
+
+		StringBuffer buffer = new StringBuffer();
+
+		for (ProjectNode member : members)
+		{
+			buffer.append(member.getName());
+			buffer.append(" -> ");
+		}
+
+		buffer.append(start.getName());
+
+		for (ProjectNode member : members)
+		{
+			if (!cycles.containsKey(member))
+			{
+				cycles.put(member, buffer.toString());
+			}
+		}
+	}
+}
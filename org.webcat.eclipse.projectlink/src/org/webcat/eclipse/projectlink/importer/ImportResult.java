@@ -0,0 +1,73 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.util.List;
+
+//--------------------------------------------------------------------------
+/**
+ * The outcome of an import: the errors that occurred, and the statistics of
+ * where the time went.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportResult
+{
+	//~ Instance/static variables .............................................
+
+	private List<ImportError> errors;
+	private ImportStatistics statistics;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	public ImportResult(List<ImportError> errors, ImportStatistics statistics)
+	{
+		this.errors = errors;
+		this.statistics = statistics;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the errors that occurred during the import.
+	 *
+	 * @return the list of errors, which is empty if the import succeeded
+	 */
+	public List<ImportError> getErrors()
+	{
+		return errors;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the statistics of the import.
+	 *
+	 * @return the statistics
+	 */
+	public ImportStatistics getStatistics()
+	{
+		return statistics;
+	}
+}
@@ -0,0 +1,369 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.text.MessageFormat;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletionService;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorCompletionService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.webcat.eclipse.projectlink.i18n.Messages;
+import org.webcat.eclipse.projectlink.importer.model.ProjectNode;
+
+//--------------------------------------------------------------------------
+/**
+ * Runs a task for each project in an {@link ImportPlan} on a bounded pool of
+ * worker threads, honoring the dependencies between the projects. A project
+ * is only started once all of its dependencies have finished successfully; if a
+ * project fails, every project that depends on it (directly or indirectly)
+ * is skipped without being started.
+ *
+ * The progress monitor is only ever touched from the thread that calls
+ * {@link #run}, so callers do not need to worry about its thread safety.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportScheduler
+{
+	//~ Instance/static variables .............................................
+
+	private int workerCount;
+
+	/* How often the scheduling thread wakes up to check for cancellation. */
+	private static final long CANCEL_POLL_MILLIS = 100;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new scheduler that runs at most the specified number of
+	 * projects at the same time.
+	 *
+	 * @param workerCount the maximum number of worker threads
+	 */
+	public ImportScheduler(int workerCount)
+	{
+		this.workerCount = Math.max(1, workerCount);
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Runs the task on each of the projects in a plan. Projects are started
+	 * in the plan's order as soon as their dependencies have finished. This
+	 * method blocks until every project has either finished, failed, or been
+	 * skipped, or until the monitor is canceled (in which case projects that
+	 * are already running are allowed to finish, but no new ones are
+	 * started). If the calling thread is interrupted, the running projects
+	 * are interrupted too, and this method returns once they have stopped.
+	 *
+	 * @param plan the plan that lists the projects and their dependencies
+	 * @param task the task to run for each project
+	 * @param monitor the progress monitor, which is advanced by one unit of
+	 *     work per project
+	 * @param errors a list to which any errors will be added
+	 */
+	public void run(ImportPlan plan, ProjectTask task,
+			IProgressMonitor monitor, List<ImportError> errors)
+	{
+		List<ProjectNode> projects = plan.getProjects();
+
+		if (projects.isEmpty())
+		{
+			return;
+		}
+
+		Map<ProjectNode, Integer> pendingCounts =
+				new HashMap<ProjectNode, Integer>();
+		LinkedList<ProjectNode> ready = new LinkedList<ProjectNode>();
+
+		for (ProjectNode project : projects)
+		{
+			int count = plan.getDependencies(project).size();
+			pendingCounts.put(project, count);
+
+			if (count == 0)
+			{
+				ready.add(project);
+			}
+		}
+
+		Set<ProjectNode> finished = new HashSet<ProjectNode>();
+
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.min(workerCount, projects.size()),
+				new WorkerThreadFactory());
+		CompletionService<Outcome> completions =
+				new ExecutorCompletionService<Outcome>(pool);
+
+		int inFlight = 0;
+
+		try
+		{
+			while (!ready.isEmpty() || inFlight > 0)
+			{
+				while (!ready.isEmpty() && !monitor.isCanceled())
+				{
+					ProjectNode project = ready.removeFirst();
+
+					monitor.subTask(project.getName());
+					completions.submit(new ProjectCallable(project, task));
+					inFlight++;
+				}
+
+				if (inFlight == 0)
+				{
+					break;
+				}
+
+				Future<Outcome> future = completions.poll(
+						CANCEL_POLL_MILLIS, TimeUnit.MILLISECONDS);
+
+				if (future == null)
+				{
+					continue;
+				}
+
+				inFlight--;
+
+				Outcome outcome = getOutcome(future);
+				ProjectNode project = outcome.project;
+				finished.add(project);
+				monitor.worked(1);
+
+				if (outcome.error == null)
+				{
+					for (ProjectNode dependent : plan.getDependents(project))
+					{
+						int count = pendingCounts.get(dependent) - 1;
+						pendingCounts.put(dependent, count);
+
+						if (count == 0)
+						{
+							ready.add(dependent);
+						}
+					}
+				}
+				else
+				{
+					// Some exceptions, such as NullPointerException, have no
+					// message of their own.
+					String message = outcome.error.getMessage();
+
+					if (message == null)
+					{
+						message = outcome.error.toString();
+					}
+
+					errors.add(new ImportError(project, message));
+
+					skipDependents(project, plan, finished, monitor, errors);
+				}
+			}
+		}
+		catch (InterruptedException e)
+		{
+			// The caller goes on to release what the workers were working
+			// on, so the ones that are still running are stopped, and waited
+			// for, before returning.
+			pool.shutdownNow();
+			awaitTermination(pool);
+			Thread.currentThread().interrupt();
+		}
+		finally
+		{
+			pool.shutdown();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Waits for every worker in the pool to stop, even if the waiting thread
+	 * is interrupted.
+	 */
+	private void awaitTermination(ExecutorService pool)
+	{
+		while (!pool.isTerminated())
+		{
+			try
+			{
+				pool.awaitTermination(CANCEL_POLL_MILLIS,
+						TimeUnit.MILLISECONDS);
+			}
+			catch (InterruptedException e)
+			{
+				// Keep waiting; the interrupt is restored by the caller.
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Marks every project that transitively depends on the failed project as
+	 * skipped.
+	 */
+	private void skipDependents(ProjectNode failed, ImportPlan plan,
+			Set<ProjectNode> finished, IProgressMonitor monitor,
+			List<ImportError> errors)
+	{
+		for (ProjectNode dependent : plan.getDependents(failed))
+		{
+			if (finished.add(dependent))
+			{
+				errors.add(new ImportError(dependent, MessageFormat.format(
+						Messages.Importer_Dependency_Failed,
+						failed.getName())));
+				monitor.worked(1);
+
+				skipDependents(dependent, plan, finished, monitor, errors);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private Outcome getOutcome(Future<Outcome> future)
+			throws InterruptedException
+	{
+		try
+		{
+			return future.get();
+		}
+		catch (ExecutionException e)
+		{
+			// ProjectCallable never throws, so this cannot happen.
+			throw new IllegalStateException(e.getCause());
+		}
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * The work to be performed for a single project.
+	 */
+	public interface ProjectTask
+	{
+		// ----------------------------------------------------------
+		/**
+		 * Performs the work for a single project. This method is called on a
+		 * worker thread.
+		 *
+		 * @param project the project
+		 * @throws Exception if the project could not be processed; projects
+		 *     that depend on it will be skipped
+		 */
+		void run(ProjectNode project) throws Exception;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * The result of running the task on a project.
+	 */
+	private static class Outcome
+	{
+		public ProjectNode project;
+		public Throwable error;
+
+
+		// ----------------------------------------------------------
+		public Outcome(ProjectNode project, Throwable error)
+		{
+			this.project = project;
+			this.error = error;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Runs the task on a project, capturing any exception in the outcome.
+	 */
+	private static class ProjectCallable implements Callable<Outcome>
+	{
+		private ProjectNode project;
+		private ProjectTask task;
+
+
+		// ----------------------------------------------------------
+		public ProjectCallable(ProjectNode project, ProjectTask task)
+		{
+			this.project = project;
+			this.task = task;
+		}
+
+
+		// ----------------------------------------------------------
+		public Outcome call()
+		{
+			try
+			{
+				task.run(project);
+				return new Outcome(project, null);
+			}
+			catch (Throwable e)
+			{
+				return new Outcome(project, e);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates named daemon threads so that a hung download cannot keep the
+	 * workbench from shutting down.
+	 */
+	private static class WorkerThreadFactory implements ThreadFactory
+	{
+		private AtomicInteger count = new AtomicInteger();
+
+
+		// ----------------------------------------------------------
+		public Thread newThread(Runnable runnable)
+		{
+			Thread thread = new Thread(runnable,
+					"Web-CAT Import Worker " + count.incrementAndGet());
+			thread.setDaemon(true);
+			return thread;
+		}
+	}
+}
@@ -0,0 +1,193 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+//--------------------------------------------------------------------------
+/**
+ * A summary of where the time went during an import: the statistics of each
+ * project and preference file, how long it took to apply the preferences
+ * and to create the projects in the workspace, and the total time. All
+ * times are in milliseconds.
+ *
+ * Items may be added from several threads at once.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportStatistics
+{
+	//~ Instance/static variables .............................................
+
+	private long startTime;
+	private long totalTime;
+	private long preferencesApplyTime;
+	private long workspaceTime;
+	private List<ItemStatistics> items;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new summary for an import that is starting now.
+	 */
+	public ImportStatistics()
+	{
+		startTime = System.currentTimeMillis();
+		items = Collections.synchronizedList(new ArrayList<ItemStatistics>());
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Adds the statistics of a project or preference file.
+	 *
+	 * @param item the item's statistics
+	 */
+	public void addItem(ItemStatistics item)
+	{
+		items.add(item);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the statistics of each project and preference file, in the order
+	 * in which they were added.
+	 *
+	 * @return a copy of the list of items
+	 */
+	public List<ItemStatistics> getItems()
+	{
+		synchronized (items)
+		{
+			return new ArrayList<ItemStatistics>(items);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the total number of bytes received from the network.
+	 *
+	 * @return the total number of bytes received
+	 */
+	public long getTotalBytesReceived()
+	{
+		long total = 0;
+
+		for (ItemStatistics item : getItems())
+		{
+			total += item.getDownload().getBytesReceived();
+		}
+
+		return total;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the time spent applying the merged preferences.
+	 *
+	 * @return the apply time
+	 */
+	public long getPreferencesApplyTime()
+	{
+		return preferencesApplyTime;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setPreferencesApplyTime(long preferencesApplyTime)
+	{
+		this.preferencesApplyTime = preferencesApplyTime;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the time spent in the workspace operation that creates the
+	 * projects, including the resource change notifications that follow it.
+	 *
+	 * @return the workspace time
+	 */
+	public long getWorkspaceTime()
+	{
+		return workspaceTime;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setWorkspaceTime(long workspaceTime)
+	{
+		this.workspaceTime = workspaceTime;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the total time taken by the import.
+	 *
+	 * @return the total time, which is zero until {@link #finish()} is
+	 *     called
+	 */
+	public long getTotalTime()
+	{
+		return totalTime;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Records that the import has finished.
+	 */
+	public void finish()
+	{
+		totalTime = System.currentTimeMillis() - startTime;
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public String toString()
+	{
+		List<ItemStatistics> snapshot = getItems();
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append("Imported ").append(snapshot.size());
+		buffer.append(" items (").append(getTotalBytesReceived());
+		buffer.append(" bytes downloaded) in ").append(totalTime);
+		buffer.append(" ms; preferences applied in ");
+		buffer.append(preferencesApplyTime).append(" ms; workspace ");
+		buffer.append(workspaceTime).append(" ms");
+
+		for (ItemStatistics item : snapshot)
+		{
+			buffer.append("\n  ").append(item);
+		}
+
+		return buffer.toString();
+	}
+}
@@ -21,55 +21,82 @@ package org.webcat.eclipse.projectlink.importer;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.StringWriter;
+import java.util.Collection;
 import java.util.Date;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.webcat.eclipse.projectlink.Activator;
 import org.webcat.eclipse.projectlink.preferences.IPreferencesConstants;
+import org.webcat.eclipse.projectlink.util.HistoryStore;
 
 //--------------------------------------------------------------------------
 /**
  * Keeps track of preferences that have been imported during an assignment
  * import process so that they aren't imported multiple times.
  * 
+ * Like {@link ProjectTracker}, the history is kept in a
+ * {@link HistoryStore} in the plug-in's state location, which is read the
+ * first time it is needed; the preference files applied by an import are
+ * appended to it together, in the background. Looking up a file takes no
+ * lock, and {@link #claimUri(String)} makes sure that only one import
+ * applies a given file at a time.
+ * 
  * @author Ellen Boyd, Tony Allevato
  */
 public class ImportedPreferences
 {
-	private static ImportedPreferences instance;
+	private static volatile ImportedPreferences instance;
+
+	private HistoryStore history;
+	private volatile boolean migrated;
 
-	private Properties history;
+	/* The URIs claimed by imports that are in progress. */
+	private ConcurrentHashMap<String, Boolean> claims =
+			new ConcurrentHashMap<String, Boolean>();
+
+	private static final String HISTORY_FILE = "imported-preferences.history";
 
 
 	// ----------------------------------------------------------
 	private ImportedPreferences()
 	{
-		history = new Properties();
-		loadPluginPreferences();
+		history = new HistoryStore(Activator.getDefault().getStateLocation()
+				.append(HISTORY_FILE).toFile());
 	}
 
 
 	// ----------------------------------------------------------
-	public synchronized static ImportedPreferences getInstance()
+	public static ImportedPreferences getInstance()
 	{
-		if (instance == null)
+		ImportedPreferences tracker = instance;
+
+		if (tracker == null)
 		{
-			instance = new ImportedPreferences();
+			synchronized (ImportedPreferences.class)
+			{
+				if (instance == null)
+				{
+					instance = new ImportedPreferences();
+				}
+
+				tracker = instance;
+			}
 		}
-		
-		return instance;
+
+		return tracker;
 	}
 	
 	
 	// ----------------------------------------------------------
 	public Date uriLastImported(String uri)
 	{
-		if (history.containsKey(uri))
+		String timestamp = getHistory().get(uri);
+
+		if (timestamp != null)
 		{
-			long timestamp = Long.parseLong(history.getProperty(uri));
-			return new Date(timestamp);
+			return new Date(Long.parseLong(timestamp));
 		}
 		else
 		{
@@ -81,13 +108,88 @@ public class ImportedPreferences
 	// ----------------------------------------------------------
 	public void trackUri(String uri)
 	{
-		history.setProperty(uri, Long.toString(new Date().getTime()));
-		updatePluginPreferences();
+		getHistory().put(uri, Long.toString(new Date().getTime()));
+		flush();
 	}
 	
 
 	// ----------------------------------------------------------
-	private void loadPluginPreferences()
+	public void trackUris(Collection<String> uris)
+	{
+		HistoryStore store = getHistory();
+		String now = Long.toString(new Date().getTime());
+
+		for (String uri : uris)
+		{
+			store.put(uri, now);
+		}
+
+		flush();
+	}
+
+
+	// ----------------------------------------------------------
+	private void flush()
+	{
+		HistoryFlusher.flushLater(getHistory(), "imported preferences");
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Claims the specified URI for an import, so that no other import
+	 * applies it at the same time. The claim is made atomically, so when
+	 * several imports ask for the same URI only one of them gets it; the
+	 * winner should check the history again after claiming, in case another
+	 * import finished with the URI just before. A claim only lasts until it
+	 * is released, and is not saved.
+	 *
+	 * @param uri the URI to claim
+	 * @return true if the URI was claimed; false if another import holds it
+	 */
+	public boolean claimUri(String uri)
+	{
+		return claims.putIfAbsent(uri, Boolean.TRUE) == null;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Releases a URI claimed by {@link #claimUri(String)}.
+	 *
+	 * @param uri the URI to release
+	 */
+	public void releaseUri(String uri)
+	{
+		claims.remove(uri);
+	}
+
+
+	// ----------------------------------------------------------
+	private HistoryStore getHistory()
+	{
+		if (!migrated)
+		{
+			synchronized (this)
+			{
+				if (!migrated)
+				{
+					if (!history.exists())
+					{
+						migratePluginPreferences();
+					}
+
+					migrated = true;
+				}
+			}
+		}
+
+		return history;
+	}
+
+
+	// ----------------------------------------------------------
+	private void migratePluginPreferences()
 	{
 		IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
 		
@@ -97,36 +199,36 @@ public class ImportedPreferences
 		if (historyString.length() > 0)
 		{
 			StringReader reader = new StringReader(historyString);
-			history = new Properties();
+			Properties properties = new Properties();
 			
 			try
 			{
-				history.load(reader);
+				properties.load(reader);
 			}
 			catch (IOException e)
 			{
 				// Do nothing.
 			}
-		}
-	}
-
 
-	// ----------------------------------------------------------
-	private void updatePluginPreferences()
-	{
-		IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
+			for (Object key : properties.keySet())
+			{
+				String uri = (String) key;
+				history.put(uri, properties.getProperty(uri));
+			}
 
-		try
-		{
-			StringWriter writer = new StringWriter();
-			history.store(writer, null);
+			try
+			{
+				history.flush();
+			}
+			catch (IOException e)
+			{
+				// Keep the preference, so the move is tried again next time.
+			}
 
-			prefs.setValue(IPreferencesConstants.IMPORTED_PREFERENCES,
-					writer.toString());
-		}
-		catch (IOException e)
-		{
-			// Do nothing.
+			if (history.exists())
+			{
+				prefs.setToDefault(IPreferencesConstants.IMPORTED_PREFERENCES);
+			}
 		}
 	}
 }
@@ -19,51 +19,71 @@
 
 package org.webcat.eclipse.projectlink.importer;
 
+import java.io.ByteArrayInputStream;
 import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.FilterInputStream;
 import java.io.IOException;
 import java.io.InputStream;
-import java.io.InputStreamReader;
+import java.io.OutputStream;
 import java.io.Reader;
 import java.net.URL;
+import java.text.MessageFormat;
 import java.util.ArrayList;
-import java.util.Date;
-import java.util.HashSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 
-import javax.xml.parsers.DocumentBuilder;
-import javax.xml.parsers.DocumentBuilderFactory;
 import javax.xml.parsers.ParserConfigurationException;
+import javax.xml.parsers.SAXParser;
+import javax.xml.parsers.SAXParserFactory;
 
 import org.eclipse.core.resources.IProject;
 import org.eclipse.core.resources.IProjectDescription;
+import org.eclipse.core.resources.IResource;
 import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
 import org.eclipse.core.resources.ResourcesPlugin;
 import org.eclipse.core.runtime.CoreException;
 import org.eclipse.core.runtime.IPath;
 import org.eclipse.core.runtime.IProgressMonitor;
-import org.eclipse.core.runtime.Platform;
-import org.eclipse.core.runtime.preferences.IExportedPreferences;
-import org.eclipse.core.runtime.preferences.IPreferenceFilter;
-import org.eclipse.core.runtime.preferences.IPreferencesService;
-import org.eclipse.swt.widgets.Display;
-import org.w3c.dom.Document;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.NullProgressMonitor;
+import org.eclipse.core.runtime.Status;
+import org.eclipse.core.runtime.SubMonitor;
+import org.webcat.eclipse.projectlink.Activator;
 import org.webcat.eclipse.projectlink.ProjectLinkException;
+import org.webcat.eclipse.projectlink.filesystem.ArchiveFileSystem;
+import org.webcat.eclipse.projectlink.filesystem.LazyArchive;
+import org.webcat.eclipse.projectlink.i18n.Messages;
+import org.webcat.eclipse.projectlink.importer.model.ImportGroupNode;
 import org.webcat.eclipse.projectlink.importer.model.ImportNode;
+import org.webcat.eclipse.projectlink.importer.model.ImportTreeBuilder;
+import org.webcat.eclipse.projectlink.importer.model.ImportTreeSnapshot;
 import org.webcat.eclipse.projectlink.importer.model.ImporterManifest;
 import org.webcat.eclipse.projectlink.importer.model.PreferencesNode;
-import org.webcat.eclipse.projectlink.importer.model.ProjectGroupNode;
 import org.webcat.eclipse.projectlink.importer.model.ProjectNode;
 import org.webcat.eclipse.projectlink.importer.model.RootImportNode;
-import org.webcat.eclipse.projectlink.util.ZipUtils;
+import org.webcat.eclipse.projectlink.util.DownloadCache;
+import org.webcat.eclipse.projectlink.util.DownloadStatistics;
+import org.webcat.eclipse.projectlink.util.ExtractedFileStore;
+import org.webcat.eclipse.projectlink.util.FileUtils;
+import org.webcat.eclipse.projectlink.util.RemoteZipArchive;
+import org.webcat.eclipse.projectlink.util.StreamingUnpacker;
+import org.webcat.eclipse.projectlink.util.ZipArchiveIndex;
 import org.webcat.submitter.SubmissionTargetException;
 import org.webcat.submitter.TargetParseError;
 import org.webcat.submitter.TargetParseException;
 import org.webcat.submitter.internal.SubmissionParserErrorHandler;
 import org.xml.sax.InputSource;
 import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
 // -------------------------------------------------------------------------
 /**
@@ -76,7 +96,44 @@ public class Importer
 {
 	//~ Instance/static variables .............................................
 
-    private RootImportNode root;
+    /* Written by whichever thread reads the tree, and read by the wizard
+       and the import, so kept volatile. */
+    private volatile RootImportNode root;
+
+    /* The URL that the tree was read from, against which the locations of
+       import groups are resolved. */
+    private volatile URL definitionsUrl;
+
+    private List<IImportListener> listeners =
+            new CopyOnWriteArrayList<IImportListener>();
+
+    /* The trees most recently parsed from each manifest URI, along with the
+       cached file they were parsed from. */
+    private static final Map<String, ParsedManifest> parsedManifests =
+            new HashMap<String, ParsedManifest>();
+
+    /* The file in the plug-in's state location that holds a snapshot of the
+       tree most recently parsed from a manifest. */
+    private static final String SNAPSHOT_FILE = "import-tree.snapshot";
+
+    /* The prefix of the staging directories used by streaming imports. */
+    private static final String STAGING_PREFIX = ".webcat-import-";
+
+    /* The size of the largest file that a lazy import fetches up front;
+       larger files are only fetched when they are opened. */
+    private static final long LAZY_FILE_SIZE = 256 * 1024;
+
+    private static final String PROJECT_FILE = ".project";
+
+    /* The factory for the parsers that read the import target definitions. */
+    private static final SAXParserFactory parserFactory =
+            SAXParserFactory.newInstance();
+
+    static
+    {
+        parserFactory.setNamespaceAware(true);
+        parserFactory.setValidating(false);
+    }
 
 
     //~ Methods ...............................................................
@@ -93,6 +150,69 @@ public class Importer
     }
 
 
+    // ----------------------------------------------------------
+    /**
+     * Gets the problems in the tree that were found when it was built: the
+     * dependencies of each project on IDs that the manifest (and the import
+     * groups loaded so far) do not define. These do not stop the rest of
+     * the tree from being used.
+     *
+     * @return the errors, which may be empty
+     */
+    public List<ImportError> getParseErrors()
+    {
+        return getParseErrors(root);
+    }
+
+
+    // ----------------------------------------------------------
+    private static List<ImportError> getParseErrors(RootImportNode root)
+    {
+        List<ImportError> errors = new ArrayList<ImportError>();
+
+        if (root == null)
+        {
+            return errors;
+        }
+
+        for (ProjectNode project : root.getProjectsWithUnresolvedDependencies())
+        {
+            for (String id : root.getUnresolvedDependencies(project))
+            {
+                errors.add(new ImportError(project, MessageFormat.format(
+                        Messages.Importer_Missing_Dependency, id)));
+            }
+        }
+
+        return errors;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds a listener that is told about each project and preference file
+     * as it is imported, and about the import as a whole when it finishes.
+     *
+     * @param listener the listener to add
+     */
+    public void addImportListener(IImportListener listener)
+    {
+        listeners.add(listener);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Removes a listener added by {@link #addImportListener}.
+     *
+     * @param listener the listener to remove
+     */
+    public void removeImportListener(IImportListener listener)
+    {
+        listeners.remove(listener);
+    }
+
+
     // ----------------------------------------------------------
     /**
      * Reads the submission target definitions from the specified URL.
@@ -105,364 +225,1287 @@ public class Importer
     public void readSchema(URL definitionsUrl, IProgressMonitor monitor)
     		throws IOException
     {
-        InputStream stream = null;
+        setRoot(definitionsUrl, fetchSchema(definitionsUrl, monitor));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Sets the tree that the importer works with, which was read from the
+     * specified URL by {@link #fetchSchema(URL, IProgressMonitor)}.
+     *
+     * @param definitionsUrl the URL that the tree was read from
+     * @param root the root of the tree
+     */
+    public void setRoot(URL definitionsUrl, RootImportNode root)
+    {
+        this.definitionsUrl = definitionsUrl;
+        this.root = root;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Reads the submission target definitions from the specified URL, like
+     * {@link #readSchema(URL, IProgressMonitor)}, but returns the tree
+     * instead of using it, so that the importer's current tree is not
+     * touched. If the manifest has not changed since it was last parsed,
+     * the same tree is returned again.
+     *
+     * @param definitionsUrl a URL that points to the submission target
+     *     definitions
+     * @param monitor the progress monitor
+     * @return the root of the tree
+     * @throws IOException if an I/O exception occurred
+     */
+    public RootImportNode fetchSchema(URL definitionsUrl,
+    		IProgressMonitor monitor) throws IOException
+    {
+        String uri = definitionsUrl.toExternalForm();
+        DownloadCache cache = Activator.getDefault().getDownloadCache();
+
+        // A 304 from the server hands back the same cached file as last time,
+        // in which case the tree parsed from it can be reused as is.
+        File file = cache.fetch(definitionsUrl);
 
         try
         {
-            stream = definitionsUrl.openStream();
-            readSchema(new InputStreamReader(stream), monitor);
-        }
-        finally
-        {
+            synchronized (parsedManifests)
+            {
+                ParsedManifest parsed = parsedManifests.get(uri);
+
+                if (parsed != null && parsed.file.equals(file))
+                {
+                    monitor.done();
+                    return parsed.root;
+                }
+            }
+
+            RootImportNode parsedRoot;
+            InputStream stream = new FileInputStream(file);
+
             try
             {
-                if (stream != null)
+                parsedRoot = parseSchema(new InputSource(stream), monitor);
+            }
+            catch (IOException e)
+            {
+                cache.invalidate(uri);
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                cache.invalidate(uri);
+                throw e;
+            }
+            finally
+            {
+                try
                 {
                     stream.close();
                 }
+                catch (IOException e)
+                {
+                    // Do nothing.
+                }
             }
-            catch (IOException e)
+
+            synchronized (parsedManifests)
             {
-                // Do nothing.
+                parsedManifests.put(uri, new ParsedManifest(file, parsedRoot));
             }
+
+            logParseErrors(uri, parsedRoot);
+            writeSnapshot(
+                    new ImportTreeSnapshot(uri, file.getPath(), parsedRoot));
+
+            return parsedRoot;
+        }
+        finally
+        {
+            cache.release(file);
         }
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Reads the import target definitions from the specified reader.
+     * Writes the problems found in a freshly parsed manifest to the
+     * plug-in's log, so that whoever maintains the manifest can find them
+     * without having to select each project.
+     */
+    private static void logParseErrors(String uri, RootImportNode root)
+    {
+        List<ImportError> errors = getParseErrors(root);
+
+        if (errors.isEmpty())
+        {
+            return;
+        }
+
+        StringBuffer buffer = new StringBuffer();
+        buffer.append("The manifest at ");
+        buffer.append(uri);
+        buffer.append(" has ");
+        buffer.append(errors.size());
+        buffer.append(" problem(s):");
+
+        for (ImportError error : errors)
+        {
+            buffer.append("\n");
+            buffer.append(error.getProject().getName());
+            buffer.append(": ");
+            buffer.append(error.getMessage());
+        }
+
+        Activator.getDefault().getLog().log(new Status(IStatus.WARNING,
+                Activator.PLUGIN_ID, buffer.toString()));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Reads the tree from the snapshot saved the last time the specified
+     * manifest was parsed, without going to the network. The tree may be
+     * out of date, so it should be checked by calling
+     * {@link #readSchema(URL, IProgressMonitor)} afterwards, which keeps
+     * the same tree if the manifest has not changed since.
      *
-     * @param reader
-     *            the Reader
-     * @throws IOException
-     *             if an I/O exception occurred.
+     * @param definitionsUrl the URL of the manifest
+     * @return true if a snapshot of the manifest was read; false if there
+     *     was none, in which case the tree is unchanged
      */
-    public void readSchema(Reader reader, IProgressMonitor monitor)
-    		throws IOException
+    public boolean readSnapshot(URL definitionsUrl)
     {
-        try
+        String uri = definitionsUrl.toExternalForm();
+
+        synchronized (parsedManifests)
         {
-			monitor.beginTask(
-					"Getting the list of assignments available for download...", 1);
-        	
-            DocumentBuilderFactory factory =
-                DocumentBuilderFactory.newInstance();
+            // A tree already parsed in this session is at least as recent,
+            // and has any import groups that were expanded.
+            ParsedManifest parsed = parsedManifests.get(uri);
+
+            if (parsed != null)
+            {
+                this.definitionsUrl = definitionsUrl;
+                root = parsed.root;
+                return true;
+            }
+        }
 
-            factory.setIgnoringComments(true);
-            factory.setCoalescing(false);
-            factory.setNamespaceAware(true);
-            factory.setValidating(false);
+        File file = getSnapshotFile();
 
-            SubmissionParserErrorHandler errorHandler =
-                new SubmissionParserErrorHandler();
+        if (!file.isFile())
+        {
+            return false;
+        }
 
-            DocumentBuilder builder = factory.newDocumentBuilder();
-            builder.setErrorHandler(errorHandler);
+        ImportTreeSnapshot snapshot;
 
-            Document document = builder.parse(new InputSource(reader));
-            TargetParseError[] errors = errorHandler.getErrors();
+        try
+        {
+            InputStream stream = new FileInputStream(file);
 
-            if (errors != null)
+            try
             {
-                throw new TargetParseException(errors);
+                snapshot = ImportTreeSnapshot.read(stream);
             }
-            else
+            finally
             {
-                root = new RootImportNode();
-                root.parse(document.getDocumentElement());
+                stream.close();
             }
-
         }
-        catch (ParserConfigurationException e)
+        catch (IOException e)
         {
-            throw new ProjectLinkException(e);
+            // Written by another version, or damaged; it will be replaced
+            // the next time the manifest is parsed.
+            file.delete();
+            return false;
         }
-        catch (SAXException e)
+
+        if (!snapshot.getURI().equals(uri))
         {
-            throw new ProjectLinkException(e);
+            return false;
         }
-        finally
+
+        this.definitionsUrl = definitionsUrl;
+
+        synchronized (parsedManifests)
         {
-        	monitor.done();
+            parsedManifests.put(uri, new ParsedManifest(
+                    new File(snapshot.getSource()), snapshot.getRoot()));
         }
+
+        root = snapshot.getRoot();
+
+        return true;
     }
 
 
     // ----------------------------------------------------------
-    public List<ImportError> importProjects(ImporterManifest manifest,
-    		IProgressMonitor monitor)
+    /**
+     * Saves a snapshot of a parsed tree to the plug-in's state location,
+     * replacing the previous one. A snapshot that cannot be saved is only
+     * logged, since it just makes the wizard slower to open next time.
+     */
+    private static void writeSnapshot(ImportTreeSnapshot snapshot)
     {
-    	HashSet<ProjectNode> projects = new HashSet<ProjectNode>();
-    	gatherProjects(projects, manifest.getImportNode());
-    	gatherDependencies(projects, manifest.getImportNode(), true);
+        File file = getSnapshotFile();
+        File tempFile = new File(file.getPath() + ".tmp");
 
-    	HashSet<PreferencesNode> preferences = new HashSet<PreferencesNode>();
-    	gatherPreferences(preferences, projects);
+        try
+        {
+            OutputStream stream = new FileOutputStream(tempFile);
 
-		monitor.beginTask("Downloading assignments...", projects.size());
+            try
+            {
+                snapshot.write(stream);
+            }
+            finally
+            {
+                stream.close();
+            }
 
-		ArrayList<ImportError> errors = new ArrayList<ImportError>();
+            file.delete();
 
-		for (PreferencesNode prefs : preferences)
-		{
-			importPreferences(prefs, monitor, errors);
-		}
+            if (!tempFile.renameTo(file))
+            {
+                throw new IOException("Could not rename " + tempFile
+                        + " to " + file + ".");
+            }
+        }
+        catch (IOException e)
+        {
+            tempFile.delete();
 
-		for (ProjectNode project : projects)
-		{
-			importProject(manifest, project, monitor, errors);
-		}
-    	
-    	monitor.done();
-    	
-    	return errors;
-    }
-    
-    
-    // ----------------------------------------------------------
-    private void gatherPreferences(Set<PreferencesNode> preferences,
-    		Set<ProjectNode> projects)
-    {
-    	for (ProjectNode project : projects)
-    	{
-    		preferences.addAll(project.getPreferences());
-    	}
+            Activator.getDefault().getLog().log(new Status(IStatus.WARNING,
+                    Activator.PLUGIN_ID, "The import tree snapshot could "
+                    + "not be saved.", e));
+        }
     }
 
 
     // ----------------------------------------------------------
-    public void gatherProjects(Set<ProjectNode> projects, ImportNode node)
+    private static File getSnapshotFile()
     {
-    	if (node instanceof ProjectGroupNode)
-    	{
-    		for (ImportNode child : ((ProjectGroupNode) node).getChildren())
-    		{
-    			gatherProjects(projects, child);
-    		}
-    	}
-    	else if (node instanceof ProjectNode)
-    	{
-    		ProjectNode project = (ProjectNode) node;
-    		
-    		if (project.getAvailability().isDownloadable())
-    		{
-    			projects.add(project);
-    		}
-    	}
+        return Activator.getDefault().getStateLocation()
+                .append(SNAPSHOT_FILE).toFile();
     }
 
 
     // ----------------------------------------------------------
-    public void gatherDependencies(
-    		Set<ProjectNode> depends, ImportNode node,
-    		boolean includeSelf)
+    /**
+     * Reads the import target definitions from the specified stream. The
+     * parser works out the document's encoding from its XML declaration or
+     * byte order mark.
+     *
+     * @param stream the stream
+     * @throws IOException
+     *             if an I/O exception occurred.
+     */
+    public void readSchema(InputStream stream, IProgressMonitor monitor)
+    		throws IOException
     {
-    	if (node instanceof ProjectGroupNode)
-    	{
-    		for (ImportNode child : ((ProjectGroupNode) node).getChildren())
-    		{
-    			gatherDependencies(depends, child, true);
-    		}
-    	}
-    	else if (node instanceof ProjectNode)
-    	{
-    		ProjectNode project = (ProjectNode) node;
-
-    		if (project.getAvailability().isDownloadable())
-    		{
-	    		if (includeSelf)
-	    		{
-	    			depends.add(project);
-	    		}
-	    		
-	    		for (ProjectNode depend : project.getNodeDependencies())
-	    		{
-	    			gatherDependencies(depends, depend, true);
-	    		}
-    		}
-    	}
+        root = parseSchema(new InputSource(stream), monitor);
     }
 
 
     // ----------------------------------------------------------
-    private void importProjects(
-    		ImporterManifest manifest, ImportNode node,
-    		IProgressMonitor monitor,
-    		List<ImportError> errors)
+    /**
+     * Reads the import target definitions from the specified reader.
+     *
+     * @param reader
+     *            the Reader
+     * @throws IOException
+     *             if an I/O exception occurred.
+     */
+    public void readSchema(Reader reader, IProgressMonitor monitor)
+    		throws IOException
     {
-    	if (node instanceof ProjectGroupNode)
-    	{
-    		for (ImportNode child : ((ProjectGroupNode) node).getChildren())
-    		{
-    			importProjects(manifest, child, monitor, errors);
-    		}
-    	}
-    	else if (node instanceof ProjectNode)
-    	{
-    		ProjectNode project = (ProjectNode) node;
-    		
-    		importProject(manifest, project, monitor, errors);
-    	}
+        root = parseSchema(new InputSource(reader), monitor);
     }
 
 
     // ----------------------------------------------------------
-    private void importPreferences(
-    		final PreferencesNode prefs,
-    		IProgressMonitor monitor,
-    		final List<ImportError> errors)
+    /**
+     * Fetches and parses the document that holds the contents of an import
+     * group. The document goes through the download cache, so a group that
+     * has not changed since it was last expanded costs a conditional
+     * request at most. The tree is left untouched; the catalog that is
+     * returned should be passed to {@link ImportGroupNode#attach} on the
+     * thread that displays the tree.
+     *
+     * @param group the import group
+     * @param monitor the progress monitor
+     * @return the catalog parsed from the group's document
+     * @throws IOException if the document could not be fetched or parsed
+     * @throws ImporterParseException if the group's document includes
+     *     itself
+     */
+    public RootImportNode readImportGroup(ImportGroupNode group,
+    		IProgressMonitor monitor) throws IOException
     {
-    	//monitor.subTask("Workspace preferences");
-
-    	final ImportedPreferences importedPrefs =
-    			ImportedPreferences.getInstance();
-
-    	Date importedAt = importedPrefs.uriLastImported(prefs.getURI());
-    	if (importedAt != null)
-    	{
-    		return;
-    	}
-
-    	try
-    	{
-	        URL url = new URL(prefs.getURI());
-	        final InputStream stream = url.openStream();
-
-	        Display.getDefault().syncExec(new Runnable() {
-				public void run()
-				{
-					try
-					{
-						IPreferencesService service =
-								Platform.getPreferencesService();
-						IExportedPreferences preferences =
-								service.readPreferences(stream);
-
-						IPreferenceFilter[] filters = new IPreferenceFilter[] {
-							new InstancePreferenceFilter()
-						};
-
-						service.applyPreferences(preferences, filters);
-						
-						importedPrefs.trackUri(prefs.getURI());
-					}
-					catch (CoreException e)
-					{
-			    		//FIXME
-			    		//errors.add(new ImportError(prefs, e.getMessage()));
-					}
-				}
-	        });
+        URL url = group.getURL(definitionsUrl);
 
-	        stream.close();
-    	}
-    	catch (Exception e)
-    	{
-    		//FIXME
-    		//errors.add(new ImportError(prefs, e.getMessage()));
-    	}
+        // A document that includes itself would otherwise be fetched
+        // forever, one level deeper each time.
+        for (ImportNode node = group.parent(); node != null;
+                node = node.parent())
+        {
+            URL outer = (node instanceof ImportGroupNode)
+                    ? ((ImportGroupNode) node).getURL(definitionsUrl)
+                    : (node.parent() == null ? definitionsUrl : null);
 
-    	//monitor.worked(1);
-    }
+            if (outer != null
+                    && outer.toExternalForm().equals(url.toExternalForm()))
+            {
+                throw new ImporterParseException("The import group \""
+                        + group.getHref() + "\" includes itself.");
+            }
+        }
 
+        DownloadCache cache = Activator.getDefault().getDownloadCache();
+        File file = cache.fetch(url);
 
-    // ----------------------------------------------------------
-    private void importProject(
-    		ImporterManifest manifest,
-    		ProjectNode project,
-    		IProgressMonitor monitor,
-    		List<ImportError> errors)
-    {
-    	ProjectTracker tracker = ProjectTracker.getInstance();
-    	String trackedName = tracker.projectNameForUri(project.getURI());
-    	
-    	IWorkspace workspace = ResourcesPlugin.getWorkspace();
+        try
+        {
+            InputStream stream = new FileInputStream(file);
 
-    	if (trackedName != null)
+            try
+            {
+                return parseSchema(new InputSource(stream), monitor);
+            }
+            catch (IOException e)
+            {
+                cache.invalidate(url.toExternalForm());
+                throw e;
+            }
+            catch (RuntimeException e)
+            {
+                cache.invalidate(url.toExternalForm());
+                throw e;
+            }
+            finally
+            {
+                try
+                {
+                    stream.close();
+                }
+                catch (IOException e)
+                {
+                    // Do nothing.
+                }
+            }
+        }
+        finally
+        {
+            cache.release(file);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Parses the import target definitions as a stream of SAX events,
+     * building the tree as the elements are read, without first building a
+     * DOM of the whole document.
+     */
+    private RootImportNode parseSchema(InputSource source,
+    		IProgressMonitor monitor) throws IOException
+    {
+        try
+        {
+			monitor.beginTask(
+					"Getting the list of assignments available for download...", 1);
+
+            SubmissionParserErrorHandler errorHandler =
+                new SubmissionParserErrorHandler();
+            ImportTreeBuilder builder = new ImportTreeBuilder();
+
+            XMLReader reader = newSAXParser().getXMLReader();
+            reader.setErrorHandler(errorHandler);
+            builder.parse(reader, source);
+
+            TargetParseError[] errors = errorHandler.getErrors();
+
+            if (errors != null)
+            {
+                throw new TargetParseException(errors);
+            }
+            else if (builder.getRoot() == null)
+            {
+            	throw new ImporterParseException("The data retrieved from "
+            			+ "the download URL is not valid.");
+            }
+            else
+            {
+                return builder.getRoot();
+            }
+        }
+        catch (ParserConfigurationException e)
+        {
+            throw new ProjectLinkException(e);
+        }
+        catch (SAXException e)
+        {
+            throw new ProjectLinkException(e);
+        }
+        finally
+        {
+        	monitor.done();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a parser from the shared factory. Factories are expensive to
+     * look up and are not guaranteed to be thread-safe, so there is one for
+     * the whole plug-in and it is only used while holding its lock.
+     */
+    private static SAXParser newSAXParser()
+    		throws ParserConfigurationException, SAXException
+    {
+        synchronized (parserFactory)
+        {
+            return parserFactory.newSAXParser();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Imports the projects selected in the specified manifest, along with
+     * their dependencies and preference files. A summary of the statistics
+     * of the import is written to the plug-in's log.
+     *
+     * @param manifest the manifest of the projects to import
+     * @param monitor the progress monitor
+     * @return the errors and statistics of the import
+     */
+    public ImportResult importProjects(ImporterManifest manifest,
+    		IProgressMonitor monitor)
+    {
+    	final ImportStatistics statistics = new ImportStatistics();
+
+    	ImportPlan plan = new ImportPlanner().plan(manifest.getImportNode());
+    	List<ProjectNode> projects = plan.getProjects();
+
+    	PreferencesImport preferences = new PreferencesImport(
+    			gatherPreferences(projects), statistics, listeners);
+
+		// One unit per project for downloading and extracting it, and one
+		// more for creating it in the workspace.
+		SubMonitor progress = SubMonitor.convert(monitor,
+				"Downloading assignments...", projects.size() * 2);
+
+		ArrayList<ImportError> errors =
+				new ArrayList<ImportError>(plan.getErrors());
+
+		// The preference files download alongside the projects, but are
+		// applied before any project is created.
+		int workerCount = Activator.getDefault().getImportWorkerCount();
+		preferences.start(workerCount);
+
+		// The workers only touch the file system; the projects they prepare
+		// are added to the workspace afterwards, all in one operation. Since
+		// a project only starts once its dependencies have finished, this
+		// list is in dependency order too.
+		final List<PreparedProject> prepared =
+				Collections.synchronizedList(new ArrayList<PreparedProject>());
+
+		// Each project's URI is claimed before it is downloaded, so that
+		// another import running at the same time leaves it alone; the
+		// claims are released once the projects are in the workspace.
+		final ProjectTracker tracker = ProjectTracker.getInstance();
+		final List<String> claimed =
+				Collections.synchronizedList(new ArrayList<String>());
+
+		ImportScheduler scheduler = new ImportScheduler(workerCount);
+
+		try
+		{
+			scheduler.run(plan, new ImportScheduler.ProjectTask() {
+				public void run(ProjectNode project) throws Exception
+				{
+					ItemStatistics item = new ItemStatistics(
+							project.getName(), project.getURI(), false);
+					PreparedProject result;
+
+					if (project.getURI() != null)
+					{
+						if (!tracker.claimUri(project.getURI()))
+						{
+							// Another import is downloading it already. The
+							// project is not there yet, so it counts as a
+							// failure and its dependents are skipped.
+							item.setError(
+									Messages.Importer_Imported_Elsewhere);
+							itemFinished(statistics, item);
+							throw new IllegalStateException(
+									Messages.Importer_Imported_Elsewhere);
+						}
+
+						claimed.add(project.getURI());
+					}
+
+					try
+					{
+						result = prepareProject(project, item);
+					}
+					catch (Exception e)
+					{
+						item.setError(e.getMessage());
+						itemFinished(statistics, item);
+						throw e;
+					}
+
+					if (result != null)
+					{
+						prepared.add(result);
+					}
+					else
+					{
+						itemFinished(statistics, item);
+					}
+				}
+			}, progress, errors);
+
+			preferences.finish(errors);
+
+			// Projects that were already extracted are created even if the
+			// import was canceled, so that their folders are not left
+			// behind.
+			if (!prepared.isEmpty())
+			{
+				long start = System.currentTimeMillis();
+
+				createProjects(prepared, progress.isCanceled()
+						? new NullProgressMonitor()
+						: progress.newChild(projects.size()),
+						errors);
+
+				statistics.setWorkspaceTime(
+						System.currentTimeMillis() - start);
+
+				for (PreparedProject project : prepared)
+				{
+					itemFinished(statistics, project.statistics);
+				}
+			}
+		}
+		finally
+		{
+			synchronized (claimed)
+			{
+				for (String uri : claimed)
+				{
+					tracker.releaseUri(uri);
+				}
+			}
+		}
+
+    	// The projects created by the import are saved to the history
+    	// together, in the background.
+    	tracker.flush();
+    	Activator.getDefault().getDownloadCache().saveAccessTimes();
+
+    	monitor.done();
+
+    	statistics.finish();
+
+    	Activator.getDefault().getLog().log(new Status(IStatus.INFO,
+    			Activator.PLUGIN_ID, statistics.toString()));
+
+    	ImportResult result = new ImportResult(errors, statistics);
+
+    	for (IImportListener listener : listeners)
+    	{
+    		listener.importFinished(result);
+    	}
+
+    	return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds the statistics of a finished project or preference file to the
+     * summary and tells the listeners about it.
+     */
+    private void itemFinished(ImportStatistics statistics,
+    		ItemStatistics item)
+    {
+    	statistics.addItem(item);
+
+    	for (IImportListener listener : listeners)
+    	{
+    		listener.itemFinished(item);
+    	}
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Creates and opens the prepared projects inside a single workspace
+     * operation, so that the workspace sends out one resource change event
+     * for the whole import and the auto-build (if it is enabled) runs once
+     * after the last project is open, rather than once per project while
+     * the others are still being created.
+     *
+     * @param prepared the projects whose contents are already in place
+     * @param monitor the progress monitor
+     * @param errors a list to which any errors will be added
+     */
+    private void createProjects(final List<PreparedProject> prepared,
+    		IProgressMonitor monitor, final List<ImportError> errors)
+    {
+    	IWorkspace workspace = ResourcesPlugin.getWorkspace();
+
+    	IWorkspaceRunnable runnable = new IWorkspaceRunnable() {
+			public void run(IProgressMonitor runMonitor)
+			{
+				SubMonitor progress = SubMonitor.convert(runMonitor,
+						"Creating projects...", prepared.size());
+
+				for (PreparedProject project : prepared)
+				{
+					progress.subTask(project.description.getName());
+
+					try
+					{
+						createProject(project, progress.newChild(1));
+					}
+					catch (CoreException e)
+					{
+						project.statistics.setError(e.getMessage());
+						errors.add(new ImportError(project.node,
+								e.getMessage()));
+					}
+
+				}
+
+				runMonitor.done();
+			}
+		};
+
+    	try
+    	{
+    		// Creating projects needs the whole workspace as its rule.
+    		workspace.run(runnable, workspace.getRoot(),
+    				IWorkspace.AVOID_UPDATE, monitor);
+    	}
+    	catch (CoreException e)
+    	{
+    		// The operation as a whole failed; blame every project that it
+    		// did not get to.
+    		for (PreparedProject project : prepared)
+    		{
+    			if (!workspace.getRoot().getProject(
+    					project.description.getName()).exists())
+    			{
+    				project.statistics.setError(e.getMessage());
+    				errors.add(new ImportError(project.node, e.getMessage()));
+    			}
+    		}
+    	}
+    }
+
+
+    // ----------------------------------------------------------
+    private void createProject(PreparedProject project,
+    		IProgressMonitor monitor) throws CoreException
+    {
+    	IProject workspaceProject = ResourcesPlugin.getWorkspace().getRoot()
+    			.getProject(project.description.getName());
+
+    	if (!workspaceProject.exists())
+    	{
+    		long start = System.currentTimeMillis();
+    		SubMonitor progress = SubMonitor.convert(monitor, 2);
+
+    		workspaceProject.create(project.description,
+    				progress.newChild(1));
+    		workspaceProject.open(progress.newChild(1));
+
+    		project.statistics.setCreateTime(
+    				System.currentTimeMillis() - start);
+    	}
+
+    	ProjectTracker.getInstance().setProjectNameForUri(
+    			project.node.getURI(), project.description.getName());
+    	ProjectReset.recordOriginal(workspaceProject, project.node.getURI(),
+    			project.archiveHash);
+    }
+    
+    
+    // ----------------------------------------------------------
+    /**
+     * Collects the preference files used by the specified projects, in the
+     * order of the projects, mapping each one to the first project that uses
+     * it.
+     */
+    private Map<PreferencesNode, ProjectNode> gatherPreferences(
+    		List<ProjectNode> projects)
+    {
+    	Map<PreferencesNode, ProjectNode> preferences =
+    			new LinkedHashMap<PreferencesNode, ProjectNode>();
+
+    	for (ProjectNode project : projects)
+    	{
+    		for (PreferencesNode prefs : project.getPreferences())
+    		{
+    			if (!preferences.containsKey(prefs))
+    			{
+    				preferences.put(prefs, project);
+    			}
+    		}
+    	}
+
+    	return preferences;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Downloads and unpacks a single project into the workspace folder. The
+     * project is created in the workspace later, by {@link #createProjects}.
+     * This is called on one of the scheduler's worker threads, after all of
+     * the project's dependencies have been prepared.
+     *
+     * @param project the project to import
+     * @param statistics the statistics of the project's import
+     * @return the prepared project, or null if it is already in the workspace
+     * @throws Exception if an error occurred
+     */
+    private PreparedProject prepareProject(ProjectNode project,
+    		ItemStatistics statistics) throws Exception
+    {
+    	ProjectTracker tracker = ProjectTracker.getInstance();
+    	String trackedName = tracker.projectNameForUri(project.getURI());
+    	
+    	IWorkspace workspace = ResourcesPlugin.getWorkspace();
+
+    	if (trackedName != null)
     	{
     		IProject trackedProject =
     				workspace.getRoot().getProject(trackedName);
     		
     		if (trackedProject.exists())
     		{
-    			return;
+    			updateProject(project, trackedProject, statistics);
+    			return null;
     		}
     	}
 
-    	ProjectNode[] depends = project.getNodeDependencies();
-    	
-        for (ProjectNode depend : depends)
+        if (Activator.getDefault().isLazyImport())
+        {
+        	long start = System.currentTimeMillis();
+        	LazyArchive archive = ArchiveFileSystem.createArchive(
+        			new URL(project.getURI()));
+
+        	if (archive != null)
+        	{
+        		return prepareProjectLazily(project, statistics, archive,
+        				workspace, start);
+        	}
+        }
+
+        IPath workspacePath = workspace.getRoot().getLocation();
+        File workspaceDir = workspacePath.toFile();
+
+        if (Activator.getDefault().isStreamingImport())
+        {
+        	return prepareProjectStreamed(project, statistics, workspace,
+        			workspaceDir);
+        }
+
+        URL url = new URL(project.getURI());
+        DownloadCache cache = Activator.getDefault().getDownloadCache();
+        File archiveFile = cache.fetch(url, statistics.getDownload());
+
+        try
+        {
+        	ZipArchiveIndex archive;
+
+        	try
+        	{
+        		archive = new ZipArchiveIndex(archiveFile);
+        	}
+        	catch (IOException e)
+        	{
+        		// Don't keep serving a damaged download.
+        		cache.invalidate(url.toExternalForm());
+        		throw e;
+        	}
+
+        	try
+        	{
+        		return prepareProjectFromArchive(project, statistics, archive,
+        				cache.getContentHash(archiveFile), workspace,
+        				workspaceDir);
+        	}
+        	finally
+        	{
+        		archive.close();
+        	}
+        }
+        finally
         {
-        	importProject(manifest, depend, monitor, errors);
+        	cache.release(archiveFile);
         }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Brings a project that is already in the workspace up to date, if its
+     * archive lists the hashes of its files; see {@link DeltaUpdate}. An
+     * update that fails is logged, and the project keeps the files it has.
+     *
+     * @param project the project being imported
+     * @param workspaceProject the project in the workspace
+     * @param statistics the statistics of the project's import
+     */
+    private void updateProject(ProjectNode project, IProject workspaceProject,
+    		ItemStatistics statistics)
+    {
+    	IPath location = workspaceProject.getLocation();
+
+    	if (location == null)
+    	{
+    		return;
+    	}
+
+    	try
+    	{
+    		DeltaUpdate update =
+    				new DeltaUpdate(project, location.toFile(), statistics);
+
+    		if (update.run() && workspaceProject.isOpen())
+    		{
+    			workspaceProject.refreshLocal(IResource.DEPTH_INFINITE, null);
+    		}
+    	}
+    	catch (IOException e)
+    	{
+    		logUpdateFailure(workspaceProject, e);
+    	}
+    	catch (CoreException e)
+    	{
+    		logUpdateFailure(workspaceProject, e);
+    	}
+    }
+
+
+    // ----------------------------------------------------------
+    private static void logUpdateFailure(IProject workspaceProject,
+    		Exception e)
+    {
+    	Activator.getDefault().getLog().log(new Status(IStatus.WARNING,
+    			Activator.PLUGIN_ID, "The project " + workspaceProject.getName()
+    			+ " could not be updated.", e));
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Prepares a project from an archive that has already been downloaded.
+     * If the archive was imported before, the project is put together from
+     * the {@link ExtractedFileStore}; otherwise the archive is extracted
+     * directly into the project's directory and added to the store.
+     *
+     * @param project the project being imported
+     * @param statistics the statistics of the project's import
+     * @param archive the index of the downloaded archive
+     * @param archiveHash the hash of the archive, or null if it is not known
+     * @param workspace the workspace
+     * @param workspaceDir the workspace folder
+     * @return the prepared project, or null if it already exists
+     * @throws Exception if an error occurred
+     */
+    private PreparedProject prepareProjectFromArchive(ProjectNode project,
+    		ItemStatistics statistics, ZipArchiveIndex archive,
+    		String archiveHash, IWorkspace workspace, File workspaceDir)
+    		throws Exception
+    {
+    	statistics.setEntryCount(archive.getEntryCount());
+
+    	ZipEntry descriptionEntry = archive.getProjectDescriptionEntry();
+
+    	if (descriptionEntry == null)
+    	{
+    		throw new FileNotFoundException(
+    				Messages.Importer_No_Project_Description);
+    	}
+
+    	IProjectDescription description;
+    	InputStream descriptionStream = archive.getInputStream(descriptionEntry);
+
+    	try
+    	{
+    		description = workspace.loadProjectDescription(descriptionStream);
+    	}
+    	finally
+    	{
+    		descriptionStream.close();
+    	}
 
-    	monitor.subTask(project.getName());
+    	IProject workspaceProject =
+    			workspace.getRoot().getProject(description.getName());
+
+    	if (!workspaceProject.exists())
+    	{
+    		File projectDir = new File(workspaceDir, description.getName());
+    		long start = System.currentTimeMillis();
+
+    		extractProject(archive, archiveHash, projectDir);
+
+    		statistics.setUnzipTime(System.currentTimeMillis() - start);
+
+    		DeltaUpdate.saveListing(project, projectDir);
+
+    		PreparedProject prepared =
+    				new PreparedProject(project, description, statistics);
+    		prepared.archiveHash = archiveHash;
+
+    		return prepared;
+    	}
+
+    	return null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Puts the contents of an archive in a project's directory, from the
+     * {@link ExtractedFileStore} if it holds them, and otherwise by
+     * extracting the archive and then adding its files to the store.
+     */
+    private void extractProject(ZipArchiveIndex archive, String archiveHash,
+    		File projectDir) throws IOException
+    {
+    	if (archiveHash == null)
+    	{
+    		archive.extractTo(projectDir,
+    				Runtime.getRuntime().availableProcessors());
+    		return;
+    	}
+
+    	ExtractedFileStore store =
+    			Activator.getDefault().getExtractedFileStore();
+
+    	try
+    	{
+    		if (store.materialize(archiveHash, projectDir))
+    		{
+    			return;
+    		}
+    	}
+    	catch (IOException e)
+    	{
+    		// Start over from the archive.
+    		FileUtils.deleteRecursively(projectDir);
+    	}
+
+    	archive.extractTo(projectDir,
+    			Runtime.getRuntime().availableProcessors());
 
     	try
-    	{	
-	        IPath workspacePath = workspace.getRoot().getLocation();
-	        File workspaceDir = workspacePath.toFile();
-	
-	        URL url = new URL(project.getURI());
-	        InputStream stream = url.openStream();
-	
-	        File tempFile = File.createTempFile("downloadedproject", ".zip");
-	        ZipUtils.copyStreamToFile(stream, tempFile, System.currentTimeMillis());
-	        stream.close();
-	
-	        String rootDir = ZipUtils.directoryAtArchiveRoot(tempFile);
-	
-	        ZipFile zipFile = new ZipFile(tempFile);
-	        InputStream descriptionStream;
-	        
-	        if (rootDir == null)
-	        {
-	        	ZipEntry entry = zipFile.getEntry(".project");
-	        	descriptionStream = zipFile.getInputStream(entry);
-	        }
-	        else
-	        {
-	        	ZipEntry entry = zipFile.getEntry(rootDir + "/.project");
-	        	descriptionStream = zipFile.getInputStream(entry);
-	        }
-	
-	        IProjectDescription description =
-	        		workspace.loadProjectDescription(descriptionStream);
-	
-	        IProject workspaceProject =
-	                workspace.getRoot().getProject(description.getName());
-	
-	        if (!workspaceProject.exists())
-	        {
-	            File projectDir = new File(workspaceDir, description.getName());
-	
-	        	if (rootDir == null)
-		        {
-		        	ZipUtils.unpack(projectDir, tempFile);
-		        }
-		        else
-		        {
-		        	ZipUtils.unpack(workspaceDir, tempFile);
-		        	File extractedDir = new File(workspaceDir, rootDir);
-	
-		        	extractedDir.renameTo(projectDir);
-		        }
-	
-		        workspaceProject.create(description, null);
-		        workspaceProject.open(null);
-		        
-		        tracker.setProjectNameForUri(project.getURI(),
-		        		description.getName());
-	        }
-	
-	        tempFile.delete();
+    	{
+    		store.add(archiveHash, projectDir);
     	}
-    	catch (Exception e)
+    	catch (IOException e)
     	{
-    		errors.add(new ImportError(project, e.getMessage()));
+    		// The project is in place; it just will not be in the store.
     	}
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Prepares a project whose files stay in its archive on the server until
+     * they are opened; see {@link ArchiveFileSystem}. Only the archive's
+     * central directory and its small files are fetched, so the project can
+     * be created right away, with its location in the archive's file system.
+     *
+     * @param project the project being imported
+     * @param statistics the statistics of the project's import
+     * @param archive the archive, whose central directory has been read
+     * @param workspace the workspace
+     * @param start the time that the import started
+     * @return the prepared project, or null if it already exists
+     * @throws Exception if an error occurred
+     */
+    private PreparedProject prepareProjectLazily(ProjectNode project,
+    		ItemStatistics statistics, LazyArchive archive,
+    		IWorkspace workspace, long start) throws Exception
+    {
+    	PreparedProject prepared = null;
 
-        monitor.worked(1);
+    	try
+    	{
+    		RemoteZipArchive remote = archive.getRemote();
+    		statistics.setEntryCount(remote.getEntryCount());
+
+    		if (remote.getEntry(PROJECT_FILE) == null)
+    		{
+    			throw new FileNotFoundException(
+    					Messages.Importer_No_Project_Description);
+    		}
+
+    		try
+    		{
+    			archive.fetchAll("", LAZY_FILE_SIZE);
+    		}
+    		finally
+    		{
+    			DownloadStatistics download = statistics.getDownload();
+    			download.setBytesReceived(remote.getBytesReceived());
+    			download.setDownloadTime(System.currentTimeMillis() - start);
+    		}
+
+    		IProjectDescription description;
+    		InputStream descriptionStream =
+    				new FileInputStream(archive.fetch(PROJECT_FILE));
+
+    		try
+    		{
+    			description =
+    					workspace.loadProjectDescription(descriptionStream);
+    		}
+    		finally
+    		{
+    			descriptionStream.close();
+    		}
+
+    		if (!workspace.getRoot().getProject(description.getName()).exists())
+    		{
+    			description.setLocationURI(archive.getURI(""));
+    			prepared =
+    					new PreparedProject(project, description, statistics);
+    		}
+
+    		return prepared;
+    	}
+    	finally
+    	{
+    		if (prepared == null)
+    		{
+    			ArchiveFileSystem.removeArchive(archive);
+    		}
+    	}
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Prepares a project by unpacking it straight from the network stream
+     * into a staging directory in the workspace folder, without writing the
+     * archive itself to disk. Once the project description is known, the
+     * staging directory is renamed to the project's directory; since both are
+     * in the workspace folder, the rename never crosses file systems. If the
+     * project's directory is already on disk, the files are moved into it.
+     *
+     * @param project the project to import
+     * @param statistics the statistics of the project's import
+     * @param workspace the workspace
+     * @param workspaceDir the workspace folder
+     * @return the prepared project, or null if it already exists
+     * @throws Exception if an error occurred
+     */
+    private PreparedProject prepareProjectStreamed(ProjectNode project,
+    		ItemStatistics statistics, IWorkspace workspace,
+    		File workspaceDir) throws Exception
+    {
+    	File stagingDir = FileUtils.createTempDirectory(
+    			workspaceDir, STAGING_PREFIX);
+
+    	try
+    	{
+    		StreamingUnpacker unpacker = new StreamingUnpacker(stagingDir);
+
+    		DownloadStatistics download = statistics.getDownload();
+    		long start = System.currentTimeMillis();
+
+    		URL url = new URL(project.getURI());
+    		CountingInputStream stream =
+    				new CountingInputStream(url.openStream());
+
+    		download.setTimeToFirstByte(System.currentTimeMillis() - start);
+
+    		try
+    		{
+    			unpacker.unpack(stream);
+    		}
+    		finally
+    		{
+    			stream.close();
+
+    			download.setBytesReceived(stream.getCount());
+    			download.setDownloadTime(System.currentTimeMillis() - start);
+    		}
+
+    		statistics.setEntryCount(unpacker.getEntryCount());
+
+    		byte[] descriptionBytes = unpacker.getProjectDescription();
+
+    		if (descriptionBytes == null)
+    		{
+    			throw new FileNotFoundException(
+    					Messages.Importer_No_Project_Description);
+    		}
+
+    		IProjectDescription description =
+    				workspace.loadProjectDescription(
+    						new ByteArrayInputStream(descriptionBytes));
+
+    		IProject workspaceProject =
+    				workspace.getRoot().getProject(description.getName());
+
+    		if (!workspaceProject.exists())
+    		{
+    			File projectDir = new File(workspaceDir, description.getName());
+    			String rootDir = unpacker.getRootDirectory();
+
+    			File extractedDir = (rootDir == null)
+    					? stagingDir : new File(stagingDir, rootDir);
+
+    			// A folder left behind by a project that was deleted from the
+    			// workspace but not from disk is unpacked into, as the other
+    			// import paths do.
+    			if (!extractedDir.renameTo(projectDir)
+    					&& !FileUtils.moveInto(extractedDir, projectDir))
+    			{
+    				throw new IOException(MessageFormat.format(
+    						Messages.Importer_Could_Not_Move_Project,
+    						projectDir.getPath()));
+    			}
+
+    			DeltaUpdate.saveListing(project, projectDir);
+
+    			return new PreparedProject(project, description, statistics);
+    		}
+
+    		return null;
+    	}
+    	finally
+    	{
+    		FileUtils.deleteRecursively(stagingDir);
+    	}
+    }
+
+
+    //~ Nested classes ........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * A project whose contents are in place in the workspace folder, waiting
+     * to be created in the workspace.
+     */
+    private static class PreparedProject
+    {
+        public ProjectNode node;
+        public IProjectDescription description;
+        public ItemStatistics statistics;
+
+        /* The hash of the archive that the project was extracted from, or
+           null if it was streamed. */
+        public String archiveHash;
+
+
+        // ----------------------------------------------------------
+        public PreparedProject(ProjectNode node,
+                IProjectDescription description, ItemStatistics statistics)
+        {
+            this.node = node;
+            this.description = description;
+            this.statistics = statistics;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Counts the bytes read from a stream, for the statistics of streaming
+     * imports, which bypass the download cache.
+     */
+    private static class CountingInputStream extends FilterInputStream
+    {
+        private long count;
+
+
+        // ----------------------------------------------------------
+        public CountingInputStream(InputStream stream)
+        {
+            super(stream);
+        }
+
+
+        // ----------------------------------------------------------
+        public long getCount()
+        {
+            return count;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public int read() throws IOException
+        {
+            int b = super.read();
+
+            if (b >= 0)
+            {
+                count++;
+            }
+
+            return b;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public int read(byte[] buffer, int offset, int length)
+                throws IOException
+        {
+            int read = super.read(buffer, offset, length);
+
+            if (read > 0)
+            {
+                count += read;
+            }
+
+            return read;
+        }
+
+
+        // ----------------------------------------------------------
+        @Override
+        public long skip(long n) throws IOException
+        {
+            long skipped = super.skip(n);
+            count += skipped;
+            return skipped;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * A parsed manifest and the cached file it came from.
+     */
+    private static class ParsedManifest
+    {
+        public File file;
+        public RootImportNode root;
+
+
+        // ----------------------------------------------------------
+        public ParsedManifest(File file, RootImportNode root)
+        {
+            this.file = file;
+            this.root = root;
+        }
     }
 }
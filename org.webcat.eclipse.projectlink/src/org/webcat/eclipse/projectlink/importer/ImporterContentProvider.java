@@ -19,11 +19,9 @@
 
 package org.webcat.eclipse.projectlink.importer;
 
-import java.util.ArrayList;
-import java.util.List;
-
 import org.eclipse.jface.viewers.ITreeContentProvider;
 import org.eclipse.jface.viewers.Viewer;
+import org.webcat.eclipse.projectlink.importer.model.ImportGroupNode;
 import org.webcat.eclipse.projectlink.importer.model.ImportNode;
 
 // -------------------------------------------------------------------------
@@ -94,42 +92,7 @@ public class ImporterContentProvider implements ITreeContentProvider
      */
     public Object[] getChildren(Object parentElement)
     {
-        ImportNode obj = (ImportNode)parentElement;
-        ArrayList<ImportNode> children = new ArrayList<ImportNode>();
-
-        computeChildren(obj, children);
-        return children.toArray();
-    }
-
-    
-    /**
-     * Computes the visible children of the specified node, displaying
-     * a message to the user if an error occurs.
-     */
-    private void computeChildren(ImportNode obj, ArrayList<ImportNode> list)
-    {
-        try
-        {
-            List<ImportNode> children = obj.getLogicalChildren();
-            for (ImportNode child : children)
-            {
-                if (child.getAvailability().isVisible())
-                {
-                    if (child.isContainer() && !child.isNested())
-                    {
-                        computeChildren(child, list);
-                    }
-                    else
-                    {
-                        list.add(child);
-                    }
-                }
-            }
-        }
-        catch (Throwable e)
-        {
-            //SubmissionParserErrorDialog dlg = new SubmissionParserErrorDialog(null, e);
-        }
+        return ((ImportNode) parentElement).getLogicalChildren().toArray();
     }
 
 
@@ -153,12 +116,19 @@ public class ImporterContentProvider implements ITreeContentProvider
      * Intended as an optimazation for when the viewer does not need the
      * actual children. Clients may be able to implement this more efficiently
      * than getChildren
+     *
+     * An import group that has not been loaded yet is assumed to have
+     * children, so that it can be expanded, which is what loads it.
      */
     public boolean hasChildren(Object element)
     {
-        ArrayList<ImportNode> children = new ArrayList<ImportNode>();
-        computeChildren((ImportNode)element, children);
-        return children.size() > 0;
+        if (element instanceof ImportGroupNode
+                && !((ImportGroupNode) element).isLoaded())
+        {
+            return true;
+        }
+
+        return ((ImportNode) element).hasLogicalChildren();
     }
 
 }
@@ -0,0 +1,246 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import org.webcat.eclipse.projectlink.util.DownloadStatistics;
+
+//--------------------------------------------------------------------------
+/**
+ * Measurements of the import of a single project or preference file. All
+ * times are in milliseconds; steps that did not happen (for example,
+ * unzipping a preference file, or creating a project that was already in
+ * the workspace) are left at zero.
+ *
+ * In streaming mode a project is unpacked while it downloads, so the whole
+ * transfer is counted as download time and the unzip time is zero.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ItemStatistics
+{
+	//~ Instance/static variables .............................................
+
+	private boolean preferences;
+	private String name;
+	private String uri;
+	private DownloadStatistics download;
+	private long unzipTime;
+	private int entryCount;
+	private long createTime;
+	private int updatedFileCount;
+	private String error;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates statistics for an item that has not been imported yet.
+	 *
+	 * @param name the name of the project or preference file
+	 * @param uri the URI that the item is downloaded from
+	 * @param preferences true if the item is a preference file; false if it
+	 *     is a project
+	 */
+	public ItemStatistics(String name, String uri, boolean preferences)
+	{
+		this.name = name;
+		this.uri = uri;
+		this.preferences = preferences;
+		this.download = new DownloadStatistics();
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	public String getName()
+	{
+		return name;
+	}
+
+
+	// ----------------------------------------------------------
+	public String getURI()
+	{
+		return uri;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the item is a preference file rather
+	 * than a project.
+	 *
+	 * @return true if the item is a preference file
+	 */
+	public boolean isPreferences()
+	{
+		return preferences;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the statistics of the item's download: bytes received, time to
+	 * first byte, download time, and whether the cache was used.
+	 *
+	 * @return the download statistics
+	 */
+	public DownloadStatistics getDownload()
+	{
+		return download;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the time spent extracting the project's archive.
+	 *
+	 * @return the unzip time
+	 */
+	public long getUnzipTime()
+	{
+		return unzipTime;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setUnzipTime(long unzipTime)
+	{
+		this.unzipTime = unzipTime;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of entries in the project's archive, or the number of
+	 * preferences in a preference file.
+	 *
+	 * @return the entry count
+	 */
+	public int getEntryCount()
+	{
+		return entryCount;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setEntryCount(int entryCount)
+	{
+		this.entryCount = entryCount;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the time spent creating and opening the project in the workspace.
+	 *
+	 * @return the create time
+	 */
+	public long getCreateTime()
+	{
+		return createTime;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setCreateTime(long createTime)
+	{
+		this.createTime = createTime;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of files that were written or deleted to bring a
+	 * project that was already in the workspace up to date.
+	 *
+	 * @return the number of files updated
+	 */
+	public int getUpdatedFileCount()
+	{
+		return updatedFileCount;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setUpdatedFileCount(int updatedFileCount)
+	{
+		this.updatedFileCount = updatedFileCount;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the message of the error that stopped the item from being
+	 * imported.
+	 *
+	 * @return the error message, or null if the item was imported
+	 */
+	public String getError()
+	{
+		return error;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setError(String error)
+	{
+		this.error = error;
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public String toString()
+	{
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append(preferences ? "Preferences " : "Project ");
+		buffer.append(name).append(" <").append(uri).append(">: ");
+		buffer.append(download);
+
+		if (!preferences)
+		{
+			buffer.append("; unzip ").append(unzipTime).append(" ms");
+		}
+
+		buffer.append("; ").append(entryCount).append(" entries");
+
+		if (!preferences)
+		{
+			buffer.append("; create ").append(createTime).append(" ms");
+		}
+
+		if (updatedFileCount > 0)
+		{
+			buffer.append("; ").append(updatedFileCount)
+					.append(" files updated");
+		}
+
+		if (error != null)
+		{
+			buffer.append("; failed: ").append(error);
+		}
+
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,406 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.Platform;
+import org.eclipse.core.runtime.preferences.IExportedPreferences;
+import org.eclipse.core.runtime.preferences.IPreferenceFilter;
+import org.eclipse.core.runtime.preferences.IPreferencesService;
+import org.eclipse.core.runtime.preferences.InstanceScope;
+import org.eclipse.swt.widgets.Display;
+import org.osgi.service.prefs.BackingStoreException;
+import org.webcat.eclipse.projectlink.Activator;
+import org.webcat.eclipse.projectlink.importer.model.PreferencesNode;
+import org.webcat.eclipse.projectlink.importer.model.ProjectNode;
+import org.webcat.eclipse.projectlink.util.DownloadCache;
+
+//--------------------------------------------------------------------------
+/**
+ * Imports the preference files of an import in one batch. The files that
+ * have not been imported before are downloaded and parsed in the background,
+ * several at a time, while the projects are being downloaded. They are then
+ * merged into a single preference tree (in order, so a file listed later
+ * overrides the ones before it), which is applied to the instance scope in a
+ * single pass on the UI thread and flushed to disk once.
+ *
+ * @author Web-CAT Development Team
+ */
+public class PreferencesImport
+{
+	//~ Instance/static variables .............................................
+
+	private Map<PreferencesNode, ProjectNode> owners;
+	private Map<PreferencesNode, Future<Properties>> downloads;
+	private Map<PreferencesNode, ItemStatistics> items;
+	private ImportStatistics statistics;
+	private List<IImportListener> listeners;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new batch for the specified preference files.
+	 *
+	 * @param owners the preference files to import, in the order in which
+	 *     they should be applied, each mapped to a project that uses it (to
+	 *     which errors concerning the file are attributed)
+	 * @param statistics the statistics of the import, to which the
+	 *     statistics of each file and the time taken to apply them are added
+	 * @param listeners the listeners to tell about each file as it finishes
+	 */
+	public PreferencesImport(Map<PreferencesNode, ProjectNode> owners,
+			ImportStatistics statistics, List<IImportListener> listeners)
+	{
+		this.owners = owners;
+		this.statistics = statistics;
+		this.listeners = listeners;
+		this.downloads =
+				new LinkedHashMap<PreferencesNode, Future<Properties>>();
+		this.items = new HashMap<PreferencesNode, ItemStatistics>();
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Starts downloading and parsing the preference files that have not been
+	 * imported before, and returns without waiting for them. Each file is
+	 * claimed until {@link #finish(List)} is called, so that an import
+	 * running at the same time does not apply it too.
+	 *
+	 * @param threadCount the maximum number of files to download at once
+	 */
+	public void start(int threadCount)
+	{
+		ImportedPreferences importedPrefs = ImportedPreferences.getInstance();
+		List<PreferencesNode> pending = new ArrayList<PreferencesNode>();
+
+		for (PreferencesNode prefs : owners.keySet())
+		{
+			// The history is checked again once the file is claimed, in case
+			// another import applied it in between.
+			if (importedPrefs.uriLastImported(prefs.getURI()) == null
+					&& importedPrefs.claimUri(prefs.getURI()))
+			{
+				if (importedPrefs.uriLastImported(prefs.getURI()) == null)
+				{
+					pending.add(prefs);
+				}
+				else
+				{
+					importedPrefs.releaseUri(prefs.getURI());
+				}
+			}
+		}
+
+		if (pending.isEmpty())
+		{
+			return;
+		}
+
+		ExecutorService pool = Executors.newFixedThreadPool(
+				Math.max(1, Math.min(threadCount, pending.size())),
+				new ThreadFactory() {
+					private AtomicInteger count = new AtomicInteger();
+
+					public Thread newThread(Runnable runnable)
+					{
+						Thread thread = new Thread(runnable,
+								"Web-CAT Preferences Worker "
+								+ count.incrementAndGet());
+						thread.setDaemon(true);
+						return thread;
+					}
+				});
+
+		for (final PreferencesNode prefs : pending)
+		{
+			// Preference nodes are usually unnamed, so use the file's name.
+			String uri = prefs.getURI();
+			String name = (prefs.getName() != null) ? prefs.getName()
+					: uri.substring(uri.lastIndexOf('/') + 1);
+
+			final ItemStatistics item = new ItemStatistics(name, uri, true);
+			items.put(prefs, item);
+
+			downloads.put(prefs, pool.submit(new Callable<Properties>() {
+				public Properties call() throws IOException
+				{
+					return download(prefs.getURI(), item);
+				}
+			}));
+		}
+
+		pool.shutdown();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Waits for the downloads to finish, and applies everything that was
+	 * downloaded successfully. Only applying the merged preferences is done
+	 * on the UI thread, since preference change listeners may update the
+	 * user interface. The files claimed by {@link #start(int)} are released
+	 * afterward.
+	 *
+	 * @param errors a list to which any errors will be added
+	 */
+	public void finish(List<ImportError> errors)
+	{
+		if (downloads.isEmpty())
+		{
+			return;
+		}
+
+		try
+		{
+			applyDownloads(errors);
+		}
+		finally
+		{
+			ImportedPreferences importedPrefs =
+					ImportedPreferences.getInstance();
+
+			for (PreferencesNode prefs : downloads.keySet())
+			{
+				importedPrefs.releaseUri(prefs.getURI());
+			}
+
+			Activator.getDefault().getDownloadCache().saveAccessTimes();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Waits for the downloads to finish and applies the ones that succeeded.
+	 */
+	private void applyDownloads(List<ImportError> errors)
+	{
+		Properties merged = new Properties();
+		List<PreferencesNode> applied = new ArrayList<PreferencesNode>();
+
+		for (Map.Entry<PreferencesNode, Future<Properties>> download
+				: downloads.entrySet())
+		{
+			PreferencesNode prefs = download.getKey();
+
+			try
+			{
+				merged.putAll(download.getValue().get());
+				applied.add(prefs);
+			}
+			catch (ExecutionException e)
+			{
+				addError(errors, prefs, e.getCause());
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				return;
+			}
+		}
+
+		if (!applied.isEmpty())
+		{
+			long start = System.currentTimeMillis();
+
+			apply(merged, applied, errors);
+
+			statistics.setPreferencesApplyTime(
+					System.currentTimeMillis() - start);
+		}
+
+		for (PreferencesNode prefs : downloads.keySet())
+		{
+			ItemStatistics item = items.get(prefs);
+			statistics.addItem(item);
+
+			for (IImportListener listener : listeners)
+			{
+				listener.itemFinished(item);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Applies the merged preferences and records the files they came from
+	 * as imported.
+	 */
+	private void apply(Properties merged, List<PreferencesNode> applied,
+			List<ImportError> errors)
+	{
+		final IPreferencesService service = Platform.getPreferencesService();
+
+		try
+		{
+			final IExportedPreferences preferences =
+					service.readPreferences(toStream(merged));
+			final CoreException[] applyError = new CoreException[1];
+
+			Display.getDefault().syncExec(new Runnable() {
+				public void run()
+				{
+					try
+					{
+						service.applyPreferences(preferences,
+								new IPreferenceFilter[] {
+									new InstancePreferenceFilter()
+								});
+					}
+					catch (CoreException e)
+					{
+						applyError[0] = e;
+					}
+				}
+			});
+
+			if (applyError[0] != null)
+			{
+				throw applyError[0];
+			}
+
+			service.getRootNode().node(InstanceScope.SCOPE).flush();
+		}
+		catch (CoreException e)
+		{
+			addErrors(errors, applied, e);
+			return;
+		}
+		catch (IOException e)
+		{
+			addErrors(errors, applied, e);
+			return;
+		}
+		catch (BackingStoreException e)
+		{
+			// The preferences are applied; they just might not survive a
+			// crash before the workbench saves them.
+		}
+
+		List<String> uris = new ArrayList<String>();
+
+		for (PreferencesNode prefs : applied)
+		{
+			uris.add(prefs.getURI());
+		}
+
+		ImportedPreferences.getInstance().trackUris(uris);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Downloads a preference file and parses it. This is called on a worker
+	 * thread.
+	 */
+	private static Properties download(String uri, ItemStatistics item)
+		throws IOException
+	{
+		DownloadCache cache = Activator.getDefault().getDownloadCache();
+		File file = cache.fetch(new URL(uri), item.getDownload());
+
+		try
+		{
+			Properties properties = new Properties();
+			InputStream stream = new FileInputStream(file);
+
+			try
+			{
+				properties.load(stream);
+			}
+			finally
+			{
+				stream.close();
+			}
+
+			item.setEntryCount(properties.size());
+
+			return properties;
+		}
+		finally
+		{
+			cache.release(file);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static InputStream toStream(Properties properties)
+		throws IOException
+	{
+		ByteArrayOutputStream buffer = new ByteArrayOutputStream();
+		properties.store(buffer, null);
+
+		return new ByteArrayInputStream(buffer.toByteArray());
+	}
+
+
+	// ----------------------------------------------------------
+	private void addError(List<ImportError> errors, PreferencesNode prefs,
+			Throwable e)
+	{
+		items.get(prefs).setError(e.getMessage());
+
+		ProjectNode owner = owners.get(prefs);
+
+		if (owner != null)
+		{
+			errors.add(new ImportError(owner, e.getMessage()));
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void addErrors(List<ImportError> errors,
+			List<PreferencesNode> applied, Throwable e)
+	{
+		for (PreferencesNode prefs : applied)
+		{
+			addError(errors, prefs, e);
+		}
+	}
+}
@@ -0,0 +1,355 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.io.File;
+import java.io.IOException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.resources.IResource;
+import org.eclipse.core.resources.IWorkspace;
+import org.eclipse.core.resources.IWorkspaceRunnable;
+import org.eclipse.core.resources.ResourcesPlugin;
+import org.eclipse.core.runtime.CoreException;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.core.runtime.IStatus;
+import org.eclipse.core.runtime.QualifiedName;
+import org.eclipse.core.runtime.Status;
+import org.webcat.eclipse.projectlink.Activator;
+import org.webcat.eclipse.projectlink.util.DownloadCache;
+import org.webcat.eclipse.projectlink.util.ExtractedFileStore;
+import org.webcat.eclipse.projectlink.util.FileUtils;
+import org.webcat.eclipse.projectlink.util.ZipArchiveIndex;
+
+//--------------------------------------------------------------------------
+/**
+ * Resets an imported project to the way it was when it was imported, by
+ * putting its original files back together from the
+ * {@link ExtractedFileStore}. If the store no longer holds them, the
+ * project's archive is fetched again through the {@link DownloadCache}.
+ * Everything in the project is replaced, including files that the student
+ * added.
+ *
+ * The importer records where each project came from in two persistent
+ * properties of the project, which is what the reset goes by.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ProjectReset
+{
+	//~ Instance/static variables .............................................
+
+	/** The property that holds the URI that the project was imported from. */
+	public static final QualifiedName ORIGINAL_URI =
+			new QualifiedName(Activator.PLUGIN_ID, "originalURI");
+
+	/** The property that holds the hash of the archive it came from. */
+	public static final QualifiedName ORIGINAL_ARCHIVE =
+			new QualifiedName(Activator.PLUGIN_ID, "originalArchive");
+
+	private static final String STAGING_PREFIX = ".webcat-reset-";
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	private ProjectReset()
+	{
+		// Static methods only.
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Records where a project that has just been imported came from.
+	 *
+	 * @param project the project
+	 * @param uri the URI it was imported from
+	 * @param archiveHash the hash of its archive, or null if it was not
+	 *     imported from the download cache
+	 * @throws CoreException if the properties could not be set
+	 */
+	public static void recordOriginal(IProject project, String uri,
+			String archiveHash) throws CoreException
+	{
+		project.setPersistentProperty(ORIGINAL_URI, uri);
+		project.setPersistentProperty(ORIGINAL_ARCHIVE, archiveHash);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether a project can be reset; that is,
+	 * whether it is open, was imported, and is on the local disk.
+	 *
+	 * @param project the project
+	 * @return true if the project can be reset
+	 */
+	public static boolean canReset(IProject project)
+	{
+		try
+		{
+			return project.isOpen() && project.getLocation() != null
+					&& project.getPersistentProperty(ORIGINAL_URI) != null;
+		}
+		catch (CoreException e)
+		{
+			return false;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Replaces the contents of a project with its original files. The
+	 * original files are put together in a staging directory next to the
+	 * project first, so the project is left alone if they cannot be had,
+	 * and the project's current files are only deleted once the original
+	 * files have all been moved in.
+	 *
+	 * @param project the project to reset
+	 * @param monitor the progress monitor
+	 * @throws CoreException if the workspace could not be updated
+	 * @throws IOException if the original files could not be fetched
+	 */
+	public static void reset(final IProject project, IProgressMonitor monitor)
+		throws CoreException, IOException
+	{
+		monitor.beginTask("Resetting " + project.getName() + "...", 2);
+
+		final File projectDir = project.getLocation().toFile();
+		File stagingDir = FileUtils.createTempDirectory(
+				projectDir.getParentFile(), STAGING_PREFIX);
+
+		try
+		{
+			String archiveHash =
+					project.getPersistentProperty(ORIGINAL_ARCHIVE);
+			ExtractedFileStore store =
+					Activator.getDefault().getExtractedFileStore();
+
+			if (archiveHash == null
+					|| !store.materialize(archiveHash, stagingDir))
+			{
+				archiveHash = fetchOriginal(
+						project.getPersistentProperty(ORIGINAL_URI),
+						stagingDir);
+			}
+
+			monitor.worked(1);
+
+			final File originalDir = stagingDir;
+			final String originalHash = archiveHash;
+			IWorkspace workspace = ResourcesPlugin.getWorkspace();
+
+			workspace.run(new IWorkspaceRunnable() {
+				public void run(IProgressMonitor runMonitor)
+					throws CoreException
+				{
+					try
+					{
+						replaceContents(projectDir, originalDir);
+					}
+					catch (IOException e)
+					{
+						throw new CoreException(new Status(IStatus.ERROR,
+								Activator.PLUGIN_ID, e.getMessage(), e));
+					}
+					finally
+					{
+						// Whatever happened, the workspace should see it.
+						project.refreshLocal(IResource.DEPTH_INFINITE,
+								runMonitor);
+					}
+
+					project.setPersistentProperty(ORIGINAL_ARCHIVE,
+							originalHash);
+				}
+			}, project, IWorkspace.AVOID_UPDATE, monitor);
+
+			monitor.worked(1);
+		}
+		finally
+		{
+			FileUtils.deleteRecursively(stagingDir);
+			monitor.done();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Extracts the project's archive from the download cache, fetching it
+	 * if necessary, and adds its files to the store for next time.
+	 *
+	 * @return the hash of the archive
+	 */
+	private static String fetchOriginal(String uri, File destDir)
+		throws IOException
+	{
+		URL url = new URL(uri);
+		DownloadCache cache = Activator.getDefault().getDownloadCache();
+		File archiveFile = cache.fetch(url);
+
+		try
+		{
+			ZipArchiveIndex archive = new ZipArchiveIndex(archiveFile);
+
+			try
+			{
+				archive.extractTo(destDir,
+						Runtime.getRuntime().availableProcessors());
+			}
+			finally
+			{
+				archive.close();
+			}
+
+			String archiveHash = cache.getContentHash(archiveFile);
+
+			if (archiveHash != null)
+			{
+				try
+				{
+					Activator.getDefault().getExtractedFileStore().add(
+							archiveHash, destDir);
+				}
+				catch (IOException e)
+				{
+					// The project is extracted; it just cannot be reset as
+					// quickly next time.
+				}
+			}
+
+			return archiveHash;
+		}
+		finally
+		{
+			cache.release(archiveFile);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Replaces the files in the project's directory with the original files.
+	 * The current files are moved aside into a directory next to the
+	 * project first, and are only deleted once the original files are all in
+	 * place; if any file cannot be moved, the current files are put back.
+	 * Everything is renamed rather than copied, since the directories are
+	 * all on the same file system.
+	 */
+	private static void replaceContents(File projectDir, File originalDir)
+		throws IOException
+	{
+		File[] originals = originalDir.listFiles();
+		File[] current = projectDir.listFiles();
+
+		if (originals == null || current == null)
+		{
+			throw new IOException("The files of the project could not be "
+					+ "read.");
+		}
+
+		File asideDir = FileUtils.createTempDirectory(
+				projectDir.getParentFile(), STAGING_PREFIX);
+		List<File> placed = new ArrayList<File>();
+
+		try
+		{
+			for (File file : current)
+			{
+				if (!file.renameTo(new File(asideDir, file.getName())))
+				{
+					throw new IOException("The file " + file.getPath()
+							+ " could not be replaced. It may be open in "
+							+ "another program.");
+				}
+			}
+
+			for (File original : originals)
+			{
+				File dest = new File(projectDir, original.getName());
+
+				if (!original.renameTo(dest))
+				{
+					throw new IOException("The file " + dest.getPath()
+							+ " could not be restored.");
+				}
+
+				placed.add(dest);
+			}
+		}
+		catch (IOException e)
+		{
+			if (!putBack(projectDir, asideDir, placed))
+			{
+				// Leave the student's files where they can be found.
+				throw new IOException(e.getMessage() + " The project's "
+						+ "files could not all be put back; the rest are in "
+						+ asideDir.getPath() + ".");
+			}
+
+			FileUtils.deleteRecursively(asideDir);
+			throw e;
+		}
+
+		FileUtils.deleteRecursively(asideDir);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Undoes a replacement that failed partway, by deleting the original
+	 * files that were placed in the project and moving the files that were
+	 * moved aside back.
+	 *
+	 * @return true if every file was moved back
+	 */
+	private static boolean putBack(File projectDir, File asideDir,
+			List<File> placed)
+	{
+		for (File file : placed)
+		{
+			FileUtils.deleteRecursively(file);
+		}
+
+		File[] aside = asideDir.listFiles();
+
+		if (aside == null)
+		{
+			return false;
+		}
+
+		boolean restored = true;
+
+		for (File file : aside)
+		{
+			restored &= file.renameTo(new File(projectDir, file.getName()));
+		}
+
+		return restored;
+	}
+}
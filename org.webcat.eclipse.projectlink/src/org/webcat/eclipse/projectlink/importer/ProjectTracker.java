@@ -21,64 +21,163 @@ package org.webcat.eclipse.projectlink.importer;
 
 import java.io.IOException;
 import java.io.StringReader;
-import java.io.StringWriter;
 import java.util.Properties;
+import java.util.concurrent.ConcurrentHashMap;
 
 import org.eclipse.jface.preference.IPreferenceStore;
 import org.webcat.eclipse.projectlink.Activator;
 import org.webcat.eclipse.projectlink.preferences.IPreferencesConstants;
+import org.webcat.eclipse.projectlink.util.HistoryStore;
 
 //--------------------------------------------------------------------------
 /**
  * Tracks the projects that have been downloaded (so they aren't redownloaded
  * if multiple projects have it as a dependency, for example).
  * 
+ * The history is kept in a {@link HistoryStore} in the plug-in's state
+ * location, which is read the first time it is needed and appended to in
+ * the background after {@link #flush()} is called at the end of an import.
+ * A history that was kept in the plug-in's preferences by earlier versions
+ * is moved there the first time.
+ * 
+ * The tracker may be used by several imports at once. Looking up a project
+ * takes no lock, and {@link #claimUri(String)} makes sure that only one
+ * import downloads a given project at a time.
+ * 
  * @author Ellen Boyd
  */
 public class ProjectTracker
 {
-	private static ProjectTracker instance;
+	private static volatile ProjectTracker instance;
+
+	private HistoryStore history;
+	private volatile boolean migrated;
+
+	/* The URIs claimed by imports that are in progress. */
+	private ConcurrentHashMap<String, Boolean> claims =
+			new ConcurrentHashMap<String, Boolean>();
 
-	private Properties history;
+	private static final String HISTORY_FILE = "downloaded-projects.history";
 
 
 	// ----------------------------------------------------------
 	private ProjectTracker()
 	{
-		history = new Properties();
-		loadPluginPreferences();
+		history = new HistoryStore(Activator.getDefault().getStateLocation()
+				.append(HISTORY_FILE).toFile());
 	}
 
 
 	// ----------------------------------------------------------
-	public synchronized static ProjectTracker getInstance()
+	public static ProjectTracker getInstance()
 	{
-		if (instance == null)
+		ProjectTracker tracker = instance;
+
+		if (tracker == null)
 		{
-			instance = new ProjectTracker();
+			synchronized (ProjectTracker.class)
+			{
+				if (instance == null)
+				{
+					instance = new ProjectTracker();
+				}
+
+				tracker = instance;
+			}
 		}
-		
-		return instance;
+
+		return tracker;
 	}
 	
 	
 	// ----------------------------------------------------------
 	public String projectNameForUri(String uri)
 	{
-		return history.getProperty(uri);
+		return getHistory().get(uri);
 	}
 	
 	
 	// ----------------------------------------------------------
+	/**
+	 * Records the name of the project downloaded from the specified URI.
+	 * The change is saved by the next call to {@link #flush()}.
+	 *
+	 * @param uri the URI of the project
+	 * @param projectName the name of the project in the workspace
+	 */
 	public void setProjectNameForUri(String uri, String projectName)
 	{
-		history.setProperty(uri, projectName);
-		updatePluginPreferences();
+		getHistory().put(uri, projectName);
 	}
-	
+
 
 	// ----------------------------------------------------------
-	private void loadPluginPreferences()
+	/**
+	 * Saves the projects recorded since the last flush. They are saved
+	 * shortly afterward on a background thread, together with anything
+	 * else recorded by then; see {@link HistoryFlusher}.
+	 */
+	public void flush()
+	{
+		HistoryFlusher.flushLater(getHistory(), "downloaded projects");
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Claims the specified URI for an import, so that no other import
+	 * downloads it at the same time. The claim is made atomically, so when
+	 * several imports ask for the same URI only one of them gets it; the
+	 * winner should check the history again after claiming, in case another
+	 * import finished with the URI just before. A claim only lasts until it
+	 * is released, and is not saved.
+	 *
+	 * @param uri the URI to claim
+	 * @return true if the URI was claimed; false if another import holds it
+	 */
+	public boolean claimUri(String uri)
+	{
+		return claims.putIfAbsent(uri, Boolean.TRUE) == null;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Releases a URI claimed by {@link #claimUri(String)}.
+	 *
+	 * @param uri the URI to release
+	 */
+	public void releaseUri(String uri)
+	{
+		claims.remove(uri);
+	}
+
+
+	// ----------------------------------------------------------
+	private HistoryStore getHistory()
+	{
+		if (!migrated)
+		{
+			synchronized (this)
+			{
+				if (!migrated)
+				{
+					if (!history.exists())
+					{
+						migratePluginPreferences();
+					}
+
+					migrated = true;
+				}
+			}
+		}
+
+		return history;
+	}
+
+
+	// ----------------------------------------------------------
+	private void migratePluginPreferences()
 	{
 		IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
 		
@@ -88,36 +187,36 @@ public class ProjectTracker
 		if (historyString.length() > 0)
 		{
 			StringReader reader = new StringReader(historyString);
-			history = new Properties();
+			Properties properties = new Properties();
 			
 			try
 			{
-				history.load(reader);
+				properties.load(reader);
 			}
 			catch (IOException e)
 			{
 				// Do nothing.
 			}
-		}
-	}
 
+			for (Object key : properties.keySet())
+			{
+				String uri = (String) key;
+				history.put(uri, properties.getProperty(uri));
+			}
 
-	// ----------------------------------------------------------
-	private void updatePluginPreferences()
-	{
-		IPreferenceStore prefs = Activator.getDefault().getPreferenceStore();
-
-		try
-		{
-			StringWriter writer = new StringWriter();
-			history.store(writer, null);
+			try
+			{
+				history.flush();
+			}
+			catch (IOException e)
+			{
+				// Keep the preference, so the move is tried again next time.
+			}
 
-			prefs.setValue(IPreferencesConstants.DOWNLOADED_PROJECTS,
-					writer.toString());
-		}
-		catch (IOException e)
-		{
-			// Do nothing.
+			if (history.exists())
+			{
+				prefs.setToDefault(IPreferencesConstants.DOWNLOADED_PROJECTS);
+			}
 		}
 	}
 }
@@ -0,0 +1,140 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer;
+
+import java.lang.reflect.InvocationTargetException;
+import java.text.MessageFormat;
+
+import org.eclipse.core.resources.IProject;
+import org.eclipse.core.runtime.IAdaptable;
+import org.eclipse.core.runtime.IProgressMonitor;
+import org.eclipse.jface.action.IAction;
+import org.eclipse.jface.dialogs.MessageDialog;
+import org.eclipse.jface.dialogs.ProgressMonitorDialog;
+import org.eclipse.jface.operation.IRunnableWithProgress;
+import org.eclipse.jface.viewers.ISelection;
+import org.eclipse.jface.viewers.IStructuredSelection;
+import org.eclipse.ui.IWorkbenchWindow;
+import org.eclipse.ui.IWorkbenchWindowActionDelegate;
+import org.webcat.eclipse.projectlink.dialogs.ExceptionDialog;
+import org.webcat.eclipse.projectlink.i18n.Messages;
+
+//--------------------------------------------------------------------------
+/**
+ * The action that resets the selected project to the way it was when it was
+ * downloaded, after asking the user to confirm; see {@link ProjectReset}.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ResetProjectAction
+	implements IWorkbenchWindowActionDelegate
+{
+	//~ Static/instance variables .............................................
+
+	/* The workbench window to which this action belongs. */
+	private IWorkbenchWindow window;
+
+	/* The project that is currently selected in the workbench. */
+	private IProject selectedProject;
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	public void run(IAction action)
+	{
+		final IProject project = selectedProject;
+
+		if (project == null || !ProjectReset.canReset(project))
+		{
+			MessageDialog.openInformation(window.getShell(),
+					Messages.ResetProjectAction_Title,
+					Messages.ResetProjectAction_Not_Imported);
+			return;
+		}
+
+		if (!MessageDialog.openConfirm(window.getShell(),
+				Messages.ResetProjectAction_Title,
+				MessageFormat.format(Messages.ResetProjectAction_Confirm,
+						project.getName())))
+		{
+			return;
+		}
+
+		try
+		{
+			new ProgressMonitorDialog(window.getShell()).run(true, false,
+					new IRunnableWithProgress() {
+				public void run(IProgressMonitor monitor)
+					throws InvocationTargetException
+				{
+					try
+					{
+						ProjectReset.reset(project, monitor);
+					}
+					catch (Exception e)
+					{
+						throw new InvocationTargetException(e);
+					}
+				}
+			});
+		}
+		catch (InvocationTargetException e)
+		{
+			new ExceptionDialog(window.getShell(), e.getCause()).open();
+		}
+		catch (InterruptedException e)
+		{
+			// Do nothing.
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	public void selectionChanged(IAction action, ISelection selection)
+	{
+		selectedProject = null;
+
+		if (selection instanceof IStructuredSelection)
+		{
+			Object obj = ((IStructuredSelection) selection).getFirstElement();
+
+			if (obj instanceof IAdaptable)
+			{
+				selectedProject = ((IAdaptable) obj)
+						.getAdapter(IProject.class);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	public void dispose()
+	{
+		// Do nothing.
+	}
+
+
+	// ----------------------------------------------------------
+	public void init(IWorkbenchWindow aWindow)
+	{
+		this.window = aWindow;
+	}
+}
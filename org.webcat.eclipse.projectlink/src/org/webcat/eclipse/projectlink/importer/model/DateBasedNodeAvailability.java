@@ -32,11 +32,15 @@ public class DateBasedNodeAvailability
 {
 	private Date date;
 
+	/* The date, as it is compared with the clock. */
+	private long time;
+
 
 	// ----------------------------------------------------------
 	public DateBasedNodeAvailability(Date date)
 	{
 		this.date = date;
+		this.time = date.getTime();
 	}
 
 
@@ -59,6 +63,30 @@ public class DateBasedNodeAvailability
 	@Override
 	public boolean isDownloadable()
 	{
-		return new Date().after(date);
+		return isDownloadable(System.currentTimeMillis());
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public boolean isVisible(long now)
+	{
+		return isDownloadable(now);
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public boolean isDownloadable(long now)
+	{
+		return now > time;
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public long getNextChange(long now)
+	{
+		return (now > time) ? Long.MAX_VALUE : time + 1;
 	}
 }
@@ -0,0 +1,290 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer.model;
+
+import java.io.IOException;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.webcat.eclipse.projectlink.util.IndentingWriter;
+import org.xml.sax.Attributes;
+
+// -------------------------------------------------------------------------
+/**
+ * Represents a group whose contents are published in a separate
+ * {@code project-imports} document, so that each course or semester can
+ * keep its own manifest. The document is only fetched when the group is
+ * first needed, typically when it is expanded in the wizard; until then the
+ * group has no children and {@link #isLoaded()} returns false.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportGroupNode extends ImportNode
+{
+	//~ Constructors ..........................................................
+
+    // ----------------------------------------------------------
+    /**
+     * Creates a new import group node with the specified parent.
+     *
+     * @param parent the node assigned parent of new node
+     */
+    public ImportGroupNode(ImportNode parent)
+    {
+        super(parent);
+    }
+
+
+    //~ Methods ...............................................................
+
+    // ----------------------------------------------------------
+    @Override
+    public boolean isContainer()
+    {
+        return true;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public boolean isNested()
+    {
+        return (getName() != null);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * An import group can only be downloaded once its contents are known,
+     * and only while its availability allows it.
+     */
+    @Override
+    public boolean isDownloadable()
+    {
+        return isLoaded() && getAvailability().isDownloadable(
+                System.currentTimeMillis());
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public boolean isLoaded()
+    {
+        return loaded;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the location of the document that holds the group's contents,
+     * as it was written in the manifest.
+     *
+     * @return the location, which may be relative
+     */
+    public String getHref()
+    {
+        return href;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Sets the location of the document that holds the group's contents.
+     *
+     * @param href the location, which may be relative to the document that
+     *     contains this group
+     */
+    public void setHref(String href)
+    {
+        this.href = href;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the URL of the document that holds the group's contents. A
+     * relative location is resolved against the document that contains the
+     * group, which is either the enclosing import group's document or the
+     * top-level manifest.
+     *
+     * @param manifestUrl the URL of the top-level manifest, or null if it
+     *     is not known
+     * @return the URL of the group's document
+     * @throws MalformedURLException if the location is not a valid URL
+     */
+    public URL getURL(URL manifestUrl) throws MalformedURLException
+    {
+        URL context = manifestUrl;
+
+        for (ImportNode node = parent(); node != null; node = node.parent())
+        {
+            if (node instanceof ImportGroupNode)
+            {
+                context = ((ImportGroupNode) node).getURL(manifestUrl);
+                break;
+            }
+        }
+
+        return (context != null) ? new URL(context, href) : new URL(href);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Moves the contents of a catalog parsed from this group's document
+     * into the group, and marks the group as loaded. The projects in the
+     * catalog become available as dependencies to the rest of the tree.
+     * Since the tree is not thread-safe, this should be called on the same
+     * thread that displays it. If the group has already been loaded, as
+     * when it was fetched twice, the catalog is ignored.
+     *
+     * @param catalog the catalog parsed from {@link #getURL(URL)}
+     */
+    public void attach(RootImportNode catalog)
+    {
+        if (loaded)
+        {
+            return;
+        }
+
+        List<ImportNode> children =
+                new ArrayList<ImportNode>(catalog.getChildren());
+
+        for (ImportNode child : children)
+        {
+            child.addToParent(this);
+        }
+
+        catalog.removeAllChildren();
+
+        RootImportNode root = getRoot();
+        registerProjects(root, this);
+
+        if (root != null)
+        {
+            root.resolveDependencies(this);
+        }
+
+        loaded = true;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void parse(Attributes attributes)
+    {
+        parseCommonAttributes(attributes);
+
+        setHref(intern(attributes.getValue(Xml.Attributes.HREF)));
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    protected boolean isTypedAttribute(String attribute)
+    {
+        return super.isTypedAttribute(attribute)
+                || Xml.Attributes.HREF.equals(attribute);
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    protected String getTypedAttribute(String attribute)
+    {
+        return Xml.Attributes.HREF.equals(attribute)
+                ? getHref() : super.getTypedAttribute(attribute);
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    protected void setTypedAttribute(String attribute, String value)
+    {
+        if (Xml.Attributes.HREF.equals(attribute))
+        {
+            setHref(value);
+        }
+        else
+        {
+            super.setTypedAttribute(attribute, value);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Adds the projects under the specified node to the project table of
+     * the root, so that dependencies on them can be resolved.
+     */
+    private static void registerProjects(RootImportNode root, ImportNode node)
+    {
+        if (root == null)
+        {
+            return;
+        }
+
+        for (ImportNode child : node.getChildren())
+        {
+            if (child instanceof ProjectNode)
+            {
+                root.addProjectNode((ProjectNode) child);
+            }
+            else
+            {
+                registerProjects(root, child);
+            }
+        }
+    }
+
+
+    // ----------------------------------------------------------
+	@Override
+	protected void writeIndented(IndentingWriter writer) throws IOException
+	{
+		writer.write("<import-group");
+
+		if (getName() != null)
+		{
+			writer.write(" name=\"");
+			writer.writeEscaped(getName());
+			writer.write("\"");
+		}
+
+		writer.write(" href=\"");
+		writer.writeEscaped(getHref());
+		writer.write("\"");
+
+		writeAvailability(writer);
+
+		writer.write("/>\n");
+	}
+
+
+	//~ Instance/static variables .............................................
+
+    /* The location of the document that holds the group's contents. */
+    private String href;
+
+    /* Indicates whether the group's contents have been attached. */
+    private volatile boolean loaded;
+}
@@ -24,14 +24,16 @@ import java.io.Writer;
 import java.text.DateFormat;
 import java.text.ParseException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.Date;
+import java.util.HashMap;
 import java.util.HashSet;
-import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
-import org.w3c.dom.Node;
 import org.webcat.eclipse.projectlink.util.IndentingWriter;
+import org.xml.sax.Attributes;
 
 // -------------------------------------------------------------------------
 /**
@@ -55,17 +57,18 @@ public abstract class ImportNode
     {
         this.parent = parent;
         
-        if (parent != null)
-        {
-        	parent.children.add(this);
-        }
-        
         name = null;
         availability = NodeAvailability.AVAILABLE;
 
-        otherAttributes = new LinkedHashMap<String, String>();
-        
-        children = new ArrayList<ImportNode>();
+        attributes = NO_ATTRIBUTES;
+
+        children = NO_CHILDREN;
+
+        if (parent != null)
+        {
+        	parent.mutableChildren().add(this);
+        	parent.childrenChanged();
+        }
     }
 
     
@@ -176,6 +179,12 @@ public abstract class ImportNode
     public void setName(String name)
     {
         this.name = name;
+
+        // Whether a container is nested can depend on its name.
+        if (parent != null)
+        {
+            parent.childrenChanged();
+        }
     }
 
 
@@ -201,6 +210,11 @@ public abstract class ImportNode
     public void setAvailability(NodeAvailability value)
     {
         availability = value;
+
+        if (parent != null)
+        {
+            parent.childrenChanged();
+        }
     }
 
 
@@ -237,6 +251,9 @@ public abstract class ImportNode
      * Gets the value of an attribute for import targets at this level in
      * the tree. This function does not walk up the tree to find an inherited
      * attribute--it returns the attribute specified for this node only.
+     * Attributes that the node keeps in fields of their own, such as the
+     * name, are answered from those fields. The availability is kept as it
+     * was written as well as parsed, so it is answered as it was written.
      *
      * @param attribute the name of the attribute
      * @return a String containing the value of the attribute or null
@@ -244,27 +261,184 @@ public abstract class ImportNode
      */
     public String getLocalAttribute(String attribute)
     {
-        return otherAttributes.get(attribute);
+        if (isTypedAttribute(attribute))
+        {
+            return getTypedAttribute(attribute);
+        }
+
+        int index = indexOfAttribute(attributes, attribute);
+
+        return (index >= 0) ? attributes[index + 1] : null;
     }
 
-    
+
     // ----------------------------------------------------------
     /**
-     * Sets an attribute for this node.
+     * Sets an attribute for this node. Attributes that the node keeps in
+     * fields of their own are parsed as they are when the tree is read and
+     * passed to their setters. The availability is also parsed into the
+     * node's {@link #getAvailability() availability}.
      *
      * @param attribute the name of the attribute
-     * @param value the value for the attribute
+     * @param value the value for the attribute, or null to remove it
      */
     public void setAttribute(String attribute, String value)
     {
-        if (value != null)
+        if (isTypedAttribute(attribute))
         {
-            otherAttributes.put(attribute, value);
+            setTypedAttribute(attribute, value);
+            return;
         }
-        else
+
+        if (Xml.Attributes.AVAILABILITY.equals(attribute))
+        {
+            setAvailability(parseAvailability(value));
+        }
+
+        int index = indexOfAttribute(attributes, attribute);
+
+        if (index >= 0 && value != null)
+        {
+            attributes = attributes.clone();
+            attributes[index + 1] = intern(value);
+        }
+        else if (index >= 0)
+        {
+            String[] newAttributes = new String[attributes.length - 2];
+            System.arraycopy(attributes, 0, newAttributes, 0, index);
+            System.arraycopy(attributes, index + 2, newAttributes, index,
+                    attributes.length - index - 2);
+            attributes = (newAttributes.length > 0)
+                    ? newAttributes : NO_ATTRIBUTES;
+        }
+        else if (value != null)
+        {
+            int insert = -index - 1;
+            String[] newAttributes = new String[attributes.length + 2];
+            System.arraycopy(attributes, 0, newAttributes, 0, insert);
+            newAttributes[insert] = intern(attribute);
+            newAttributes[insert + 1] = intern(value);
+            System.arraycopy(attributes, insert, newAttributes, insert + 2,
+                    attributes.length - insert);
+            attributes = newAttributes;
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the attributes of this node other than those kept in fields of
+     * their own, as names and values in alternate elements, sorted by name.
+     *
+     * @return the attributes, which must not be modified
+     */
+    String[] getAttributePairs()
+    {
+        return attributes;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets a value indicating whether the specified attribute is kept in a
+     * field of its own rather than with the node's other attributes.
+     * Subclasses that keep more attributes in fields override this along
+     * with {@link #getTypedAttribute(String)} and
+     * {@link #setTypedAttribute(String, String)}.
+     *
+     * @param attribute the name of the attribute
+     * @return true if the attribute has a field of its own
+     */
+    protected boolean isTypedAttribute(String attribute)
+    {
+        return Xml.Attributes.NAME.equals(attribute);
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the value of an attribute that is kept in a field of its own.
+     *
+     * @param attribute the name of the attribute
+     * @return the value of the attribute, or null if it is not set
+     */
+    protected String getTypedAttribute(String attribute)
+    {
+        return Xml.Attributes.NAME.equals(attribute) ? getName() : null;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Sets an attribute that is kept in a field of its own.
+     *
+     * @param attribute the name of the attribute
+     * @param value the value of the attribute, or null to remove it
+     */
+    protected void setTypedAttribute(String attribute, String value)
+    {
+        if (Xml.Attributes.NAME.equals(attribute))
+        {
+            setName(value);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the value of an attribute of an XML element, or if the element
+     * does not have it, the value inherited from this node's ancestors.
+     *
+     * @param attributes the attributes of the XML element
+     * @param attribute the name of the attribute
+     * @return the value of the attribute, or null if neither the element
+     *     nor any ancestor has it
+     */
+    protected String getAttribute(Attributes attributes, String attribute)
+    {
+        String value = attributes.getValue(attribute);
+
+        if (value == null && parent != null)
         {
-            otherAttributes.remove(attribute);
+            value = parent.getAttribute(attribute);
         }
+
+        return value;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Finds an attribute in an array of sorted names and values.
+     *
+     * @return the index of the attribute's name, or if it is not there,
+     *     -(i + 1) where i is the index at which it would be inserted
+     */
+    private static int indexOfAttribute(String[] attributes, String name)
+    {
+        int low = 0;
+        int high = attributes.length / 2 - 1;
+
+        while (low <= high)
+        {
+            int middle = (low + high) >>> 1;
+            int comparison = attributes[middle * 2].compareTo(name);
+
+            if (comparison < 0)
+            {
+                low = middle + 1;
+            }
+            else if (comparison > 0)
+            {
+                high = middle - 1;
+            }
+            else
+            {
+                return middle * 2;
+            }
+        }
+
+        return -(low * 2 + 1);
     }
 
 
@@ -272,14 +446,16 @@ public abstract class ImportNode
     /**
      * Gets the children of this node. This function only considers the
      * link structure of the target tree, not the nested state of any
-     * of the nodes
+     * of the nodes. The list cannot be changed directly; use
+     * {@link #addToParent}, {@link #remove} and the like, which keep
+     * {@link #getLogicalChildren()} up to date.
      *
-     * @return an array of ImportTargets representing the children of the
-     *      node
+     * @return an unmodifiable list of ImportTargets representing the
+     *      children of the node
      */
     public List<ImportNode> getChildren()
     {
-        return children;
+        return Collections.unmodifiableList(children);
     }
     
 
@@ -291,7 +467,8 @@ public abstract class ImportNode
     	if (index != -1)
     	{
     		this.parent = before.parent;
-    		this.parent.children.add(index, this);
+    		this.parent.mutableChildren().add(index, this);
+    		this.parent.childrenChanged();
     	}
     }
 
@@ -304,7 +481,8 @@ public abstract class ImportNode
     	if (index != -1)
     	{
     		this.parent = after.parent;
-    		this.parent.children.add(index + 1, this);
+    		this.parent.mutableChildren().add(index + 1, this);
+    		this.parent.childrenChanged();
     	}
     }
 
@@ -313,7 +491,8 @@ public abstract class ImportNode
     public void addToParent(ImportNode newParent)
     {
 		this.parent = newParent;
-		newParent.children.add(this);
+		newParent.mutableChildren().add(this);
+		newParent.childrenChanged();
     }
 
 
@@ -324,16 +503,217 @@ public abstract class ImportNode
      * into the parent). This method is appropriate for determining the
      * children of a node as they should be displayed in a user interface.
      *
-     * @return an array of ImportTargets that represent the logical
-     *     children of the node
+     * The list is computed once and kept until the children below this
+     * node change, or until a child with a date-based availability becomes
+     * visible, so a tree viewer can ask for it as often as it likes.
+     *
+     * @return an unmodifiable list of ImportTargets that represent the
+     *     logical children of the node
      */
     public List<ImportNode> getLogicalChildren()
     {
-       List<ImportNode> childList = new ArrayList<ImportNode>();
+        long now = System.currentTimeMillis();
 
-       computeLogicalChildren(this, childList);
+        if (logicalChildren == null || now >= logicalChildrenValidUntil)
+        {
+            List<ImportNode> childList = new ArrayList<ImportNode>();
+
+            logicalChildrenValidUntil =
+                    computeLogicalChildren(this, childList, now);
+            if (childList.isEmpty())
+            {
+                logicalChildren = NO_CHILDREN;
+            }
+            else if (childList.equals(children))
+            {
+                // Nothing was hidden or pushed up, so there is no need to
+                // keep a copy.
+                logicalChildren = Collections.unmodifiableList(children);
+            }
+            else
+            {
+                childList = new ArrayList<ImportNode>(childList);
+                logicalChildren = Collections.unmodifiableList(childList);
+            }
+        }
 
-       return childList;
+        return logicalChildren;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets a value indicating whether {@link #getLogicalChildren()} is not
+     * empty. The logical children are worked out if they are not already
+     * known, and kept for the next time they are asked for.
+     *
+     * @return true if the node has logical children; otherwise, false
+     */
+    public boolean hasLogicalChildren()
+    {
+        return !getLogicalChildren().isEmpty();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the first time after the specified one at which the
+     * availability of this node or any node below it changes, so that
+     * whatever shows the tree knows when to look at it again rather than
+     * checking it over and over.
+     *
+     * @param now the time, in milliseconds since the epoch
+     * @return the time of the change, or Long.MAX_VALUE if there is none
+     */
+    public long getNextAvailabilityChange(long now)
+    {
+        long next = getAvailability().getNextChange(now);
+
+        for (ImportNode child : children)
+        {
+            next = Math.min(next, child.getNextAvailabilityChange(now));
+        }
+
+        return next;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Finds the nodes at or below this one whose availability is different
+     * at one time than it was at an earlier time.
+     *
+     * @param since the earlier time, in milliseconds since the epoch
+     * @param now the later time, in milliseconds since the epoch
+     * @param changed the list to which the nodes are added
+     */
+    public void findAvailabilityChanges(long since, long now,
+            List<ImportNode> changed)
+    {
+        NodeAvailability nodeAvailability = getAvailability();
+
+        if (nodeAvailability.isVisible(since) != nodeAvailability.isVisible(now)
+                || nodeAvailability.isDownloadable(since)
+                        != nodeAvailability.isDownloadable(now))
+        {
+            changed.add(this);
+        }
+
+        for (ImportNode child : children)
+        {
+            child.findAvailabilityChanges(since, now, changed);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the list of children that can be added to, replacing the shared
+     * empty list that a node starts with.
+     */
+    private List<ImportNode> mutableChildren()
+    {
+        if (children == NO_CHILDREN)
+        {
+            children = new ArrayList<ImportNode>(4);
+        }
+
+        return children;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Removes all of this node's children at once, as when they have been
+     * moved to another node, keeping {@link #getLogicalChildren()} up to
+     * date.
+     */
+    void removeAllChildren()
+    {
+        children = NO_CHILDREN;
+        childrenChanged();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Releases the room that was set aside for more children. This is
+     * called once all of a node's children have been read.
+     */
+    void trimChildren()
+    {
+        if (children instanceof ArrayList<?>)
+        {
+            ((ArrayList<ImportNode>) children).trimToSize();
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Starts sharing equal strings among the nodes that the current thread
+     * creates, until {@link #endInterning()} is called. Catalogs repeat the
+     * same attribute names on every element, and the same project IDs in
+     * many dependency lists.
+     */
+    static void beginInterning()
+    {
+        stringPool.set(new HashMap<String, String>());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Stops sharing strings on the current thread and releases the strings
+     * collected since {@link #beginInterning()}.
+     */
+    static void endInterning()
+    {
+        stringPool.remove();
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the string equal to the specified one that was first seen since
+     * {@link #beginInterning()}, or the string itself if strings are not
+     * being shared.
+     *
+     * @param value the string, which may be null
+     * @return the shared string
+     */
+    protected static String intern(String value)
+    {
+        Map<String, String> pool = stringPool.get();
+
+        if (value == null || pool == null)
+        {
+            return value;
+        }
+
+        String shared = pool.get(value);
+
+        if (shared == null)
+        {
+            pool.put(value, value);
+            shared = value;
+        }
+
+        return shared;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Discards the logical children of this node and its ancestors, whose
+     * logical children may include this node's.
+     */
+    private void childrenChanged()
+    {
+        for (ImportNode node = this; node != null; node = node.parent)
+        {
+            node.logicalChildren = null;
+        }
     }
 
 
@@ -343,6 +723,7 @@ public abstract class ImportNode
     	if (parent != null)
     	{
     		parent.children.remove(this);
+    		parent.childrenChanged();
     	}
     }
 
@@ -376,19 +757,30 @@ public abstract class ImportNode
      *
      * @param target the target whose children should be computed
      * @param list a list that will hold the children upon returning
+     * @param now the current time
+     * @return the time at which a child that is not visible yet becomes
+     *     visible, or Long.MAX_VALUE if there is none
      */
-    private static void computeLogicalChildren(ImportNode target,
-            List<ImportNode> list)
+    private static long computeLogicalChildren(ImportNode target,
+            List<ImportNode> list, long now)
     {
         List<ImportNode> children = target.getChildren();
+        long validUntil = Long.MAX_VALUE;
 
         for (ImportNode child : children)
         {
-            if (child.getAvailability().isVisible())
+            NodeAvailability childAvailability = child.getAvailability();
+
+            validUntil = Math.min(validUntil,
+                    childAvailability.getNextChange(now));
+
+            if (childAvailability.isVisible(now))
             {
                 if (child.isContainer() && !child.isNested())
                 {
-                    computeLogicalChildren(child, list);
+                    list.addAll(child.getLogicalChildren());
+                    validUntil = Math.min(validUntil,
+                            child.logicalChildrenValidUntil);
                 }
                 else
                 {
@@ -396,85 +788,154 @@ public abstract class ImportNode
                 }
             }
         }
+
+        return validUntil;
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Parses the specified xml node and builds a subtree from the data.
+     * Sets up the node from the attributes of its XML element. The node's
+     * children are added by {@link ImportTreeBuilder} as it reads the
+     * elements inside this one.
      *
-     * @param node the XML document Node to parese from
+     * @param attributes the attributes of the XML element
      */
-    public abstract void parse(Node node);
+    public abstract void parse(Attributes attributes);
 
 
     // ----------------------------------------------------------
     /**
-     * Parses the common attributes for the specified XML node and adds them to
-     * the target.
+     * Parses the common attributes of an XML element and adds them to the
+     * target.
      *
-     * @param node the XML document node to parse from.
+     * @param attributes the attributes of the XML element
      */
-    protected void parseCommonAttributes(Node node)
+    protected void parseCommonAttributes(Attributes attributes)
     {
-        Node nameNode = node.getAttributes().getNamedItem(Xml.Attributes.NAME);
-        Node availabilityNode = node.getAttributes().getNamedItem(
-        		Xml.Attributes.AVAILABILITY);
+        String nameValue = attributes.getValue(Xml.Attributes.NAME);
+        String availabilityString =
+        		attributes.getValue(Xml.Attributes.AVAILABILITY);
 
-        String availabilityString = null;
-
-        if (nameNode != null)
+        if (nameValue != null)
         {
-            setName(nameNode.getNodeValue());
+            setName(intern(nameValue));
         }
 
-        if (availabilityNode != null)
-        {
-        	availabilityString = availabilityNode.getNodeValue();
-        }
-        else
-        {
-        	availabilityString = "available";
-        }
+        setAvailability(parseAvailability(availabilityString));
+
+        setAttributes(attributes);
+    }
+
 
-        if ("hidden".equals(availabilityString))
+    // ----------------------------------------------------------
+    /**
+     * Parses the value of an availability attribute. A missing or
+     * unrecognized value makes the node available.
+     *
+     * @param availabilityString the value of the attribute, or null
+     * @return the availability
+     */
+    private static NodeAvailability parseAvailability(
+    		String availabilityString)
+    {
+        if (availabilityString == null
+        		|| "available".equals(availabilityString))
         {
-        	setAvailability(NodeAvailability.HIDDEN);
+        	return NodeAvailability.AVAILABLE;
         }
-        else if ("none".equals(availabilityString))
+        else if ("hidden".equals(availabilityString))
         {
-        	setAvailability(NodeAvailability.NONE);
+        	return NodeAvailability.HIDDEN;
         }
-        else if ("available".equals(availabilityString))
+        else if ("none".equals(availabilityString))
         {
-        	setAvailability(NodeAvailability.AVAILABLE);
+        	return NodeAvailability.NONE;
         }
         else
         {
-        	DateFormat format = DateFormat.getDateTimeInstance(
-        			DateFormat.SHORT, DateFormat.SHORT);
-
         	try
         	{
-        		Date date = format.parse(availabilityString);
-        		setAvailability(NodeAvailability.after(date));
+        		Date date = availabilityFormat.get().parse(availabilityString);
+        		return NodeAvailability.after(date);
         	}
         	catch (ParseException e)
         	{
-        		setAvailability(NodeAvailability.AVAILABLE);
+        		return NodeAvailability.AVAILABLE;
         	}
         }
+    }
 
-        for (int i = 0; i < node.getAttributes().getLength(); i ++)
+
+    // ----------------------------------------------------------
+    /**
+     * Replaces the node's attributes with those of an XML element, other
+     * than the ones that the node keeps in fields of their own.
+     *
+     * @param attributes the attributes of the XML element
+     */
+    private void setAttributes(Attributes attributes)
+    {
+        int count = 0;
+
+        for (int i = 0; i < attributes.getLength(); i++)
         {
-            Node attribute = node.getAttributes().item(i);
-            String attributeName = attribute.getNodeName();
+            if (!isTypedAttribute(attributes.getQName(i)))
+            {
+                count++;
+            }
+        }
 
-            String value = attribute.getNodeValue();
-            otherAttributes.put(attributeName, value);
+        if (count == 0)
+        {
+            this.attributes = NO_ATTRIBUTES;
+            return;
         }
+
+        String[] pairs = new String[count * 2];
+        int size = 0;
+
+        for (int i = 0; i < attributes.getLength(); i++)
+        {
+            String attribute = attributes.getQName(i);
+
+            if (isTypedAttribute(attribute))
+            {
+                continue;
+            }
+
+            // Insertion sort, since elements only have a few attributes,
+            // and XML does not allow any of them to be repeated.
+            int index = size;
+
+            while (index > 0 && pairs[index - 2].compareTo(attribute) > 0)
+            {
+                pairs[index] = pairs[index - 2];
+                pairs[index + 1] = pairs[index - 1];
+                index -= 2;
+            }
+
+            pairs[index] = intern(attribute);
+            pairs[index + 1] = intern(attributes.getValue(i));
+            size += 2;
+        }
+
+        this.attributes = pairs;
     }
-    
+
+
+    // ----------------------------------------------------------
+    /**
+     * Replaces the node's attributes with names and values in alternate
+     * elements, sorted by name, as returned by {@link #getAttributePairs()}.
+     *
+     * @param pairs the names and values
+     */
+    void setAttributePairs(String[] pairs)
+    {
+        this.attributes = (pairs.length > 0) ? pairs : NO_ATTRIBUTES;
+    }
+
 
     // ----------------------------------------------------------
     public final void write(Writer writer) throws IOException
@@ -518,6 +979,18 @@ public abstract class ImportNode
     
     //~ Instance/static variables .............................................
 
+    /* The format of date-based availability attributes. DateFormat is not
+       thread-safe, so each thread that parses a tree gets its own. */
+    private static final ThreadLocal<DateFormat> availabilityFormat =
+    		new ThreadLocal<DateFormat>() {
+    	@Override
+    	protected DateFormat initialValue()
+    	{
+    		return DateFormat.getDateTimeInstance(
+    				DateFormat.SHORT, DateFormat.SHORT);
+    	}
+    };
+
     /* The parent object to this object in the tree. */
     private ImportNode parent;
 
@@ -530,6 +1003,27 @@ public abstract class ImportNode
     /* The list of child nodes to this node in the import target tree. */
     private List<ImportNode> children;
 
-    /* Other attributes associated with an import target*/
-    private LinkedHashMap<String, String> otherAttributes;
+    /* The logical children of this node, or null if they have changed
+       since they were last computed. */
+    private List<ImportNode> logicalChildren;
+
+    /* The time after which the logical children must be computed again,
+       because a child with a date-based availability has become visible. */
+    private long logicalChildrenValidUntil;
+
+    /* Other attributes associated with an import target, as names and
+       values in alternate elements, sorted by name. */
+    private String[] attributes;
+
+    /* The attributes of a node that has none. */
+    private static final String[] NO_ATTRIBUTES = new String[0];
+
+    /* The children of every node that has none. */
+    private static final List<ImportNode> NO_CHILDREN =
+            Collections.emptyList();
+
+    /* The strings shared by the nodes that the current thread is creating,
+       or null if strings are not being shared. */
+    private static final ThreadLocal<Map<String, String>> stringPool =
+            new ThreadLocal<Map<String, String>>();
 }
@@ -0,0 +1,177 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.webcat.eclipse.projectlink.importer.ImporterParseException;
+import org.xml.sax.Attributes;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
+import org.xml.sax.helpers.DefaultHandler;
+
+//--------------------------------------------------------------------------
+/**
+ * Builds an import tree from the SAX events of a {@code project-imports}
+ * document, creating each node as soon as its start tag is read. Only the
+ * chain of open elements is kept while parsing, so memory use beyond the
+ * tree itself depends on the depth of the document, not its size.
+ *
+ * Elements are treated as they always have been: groups may contain groups,
+ * import groups, projects and preferences; anything else, and anything
+ * inside an import group, project or preferences element, is skipped along
+ * with its contents. Once the whole document has been read, the projects'
+ * dependencies are resolved.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportTreeBuilder extends DefaultHandler
+{
+	//~ Instance/static variables .............................................
+
+	private RootImportNode root;
+
+	/* The containers whose elements are open, innermost last. */
+	private List<ImportNode> containers = new ArrayList<ImportNode>();
+
+	/* The depth of the element being skipped, or zero if none is. */
+	private int skipDepth;
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the tree that was built.
+	 *
+	 * @return the root of the tree, or null if the document had no root
+	 *     element
+	 */
+	public RootImportNode getRoot()
+	{
+		return root;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Parses a document with the specified reader, using this builder to
+	 * handle its content. Equal strings in the document are shared among
+	 * the nodes, so large catalogs take much less memory.
+	 *
+	 * @param reader the reader, whose other handlers are already set
+	 * @param source the document
+	 * @throws IOException if the document could not be read
+	 * @throws SAXException if the document could not be parsed
+	 */
+	public void parse(XMLReader reader, InputSource source)
+			throws IOException, SAXException
+	{
+		reader.setContentHandler(this);
+		ImportNode.beginInterning();
+
+		try
+		{
+			reader.parse(source);
+		}
+		finally
+		{
+			ImportNode.endInterning();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public void startElement(String uri, String localName, String qName,
+			Attributes attributes)
+	{
+		if (skipDepth > 0)
+		{
+			skipDepth++;
+			return;
+		}
+
+		if (root == null)
+		{
+			if (!Xml.Elements.IMPORT_TARGETS.equals(localName))
+			{
+				throw new ImporterParseException("The data retrieved from "
+						+ "the download URL is not valid.");
+			}
+
+			root = new RootImportNode();
+			root.parse(attributes);
+			containers.add(root);
+			return;
+		}
+
+		ImportNode parent = containers.get(containers.size() - 1);
+
+		if (Xml.Elements.PROJECT_GROUP.equals(localName))
+		{
+			ProjectGroupNode group = new ProjectGroupNode(parent);
+			group.parse(attributes);
+			containers.add(group);
+		}
+		else
+		{
+			if (Xml.Elements.PROJECT.equals(localName))
+			{
+				new ProjectNode(parent).parse(attributes);
+			}
+			else if (Xml.Elements.PREFERENCES.equals(localName))
+			{
+				new PreferencesNode(parent).parse(attributes);
+			}
+			else if (Xml.Elements.IMPORT_GROUP.equals(localName))
+			{
+				new ImportGroupNode(parent).parse(attributes);
+			}
+
+			skipDepth = 1;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public void endElement(String uri, String localName, String qName)
+	{
+		if (skipDepth > 0)
+		{
+			skipDepth--;
+		}
+		else
+		{
+			containers.remove(containers.size() - 1).trimChildren();
+
+			if (containers.isEmpty())
+			{
+				// Every project is known now, so dependencies can be
+				// resolved to the projects themselves.
+				root.resolveDependencies();
+			}
+		}
+	}
+}
@@ -0,0 +1,489 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.importer.model;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+//--------------------------------------------------------------------------
+/**
+ * A parsed import tree saved in a compact binary form, along with the
+ * manifest it was parsed from, so that the download wizard can show the
+ * tree as soon as it opens and check whether it is stale in the background.
+ * Reading a snapshot only creates the nodes; there is no XML to parse and
+ * no date strings to interpret.
+ *
+ * The format starts with a magic number and a version, and a snapshot
+ * written in any other version is rejected rather than converted, since it
+ * can always be rebuilt from the manifest. Each distinct string is written
+ * once and referred to by number after that, since attribute names and
+ * many values repeat from node to node; this also means that the nodes
+ * read from a snapshot share those strings. Import groups are saved without
+ * their contents, so they are fetched again when they are expanded.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ImportTreeSnapshot
+{
+	//~ Instance/static variables .............................................
+
+	private static final int MAGIC = 0x57434954;
+	private static final int VERSION = 4;
+
+	private static final byte ROOT = 0;
+	private static final byte PROJECT_GROUP = 1;
+	private static final byte IMPORT_GROUP = 2;
+	private static final byte PROJECT = 3;
+	private static final byte PREFERENCES = 4;
+
+	private static final byte AVAILABLE = 0;
+	private static final byte HIDDEN = 1;
+	private static final byte NONE = 2;
+	private static final byte AFTER_DATE = 3;
+
+	private String uri;
+	private String source;
+	private RootImportNode root;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new snapshot.
+	 *
+	 * @param uri the URI of the manifest that the tree was parsed from
+	 * @param source an identifier of the content that the tree was parsed
+	 *     from, such as the path of the cached copy of the manifest, which
+	 *     tells whether a later download of the manifest has changed
+	 * @param root the root of the tree
+	 */
+	public ImportTreeSnapshot(String uri, String source, RootImportNode root)
+	{
+		this.uri = uri;
+		this.source = source;
+		this.root = root;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	public String getURI()
+	{
+		return uri;
+	}
+
+
+	// ----------------------------------------------------------
+	public String getSource()
+	{
+		return source;
+	}
+
+
+	// ----------------------------------------------------------
+	public RootImportNode getRoot()
+	{
+		return root;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Writes the snapshot to a stream.
+	 *
+	 * @param stream the stream, which is flushed but not closed
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void write(OutputStream stream) throws IOException
+	{
+		SnapshotWriter out = new SnapshotWriter(
+				new BufferedOutputStream(stream));
+
+		out.writeInt(MAGIC);
+		out.writeInt(VERSION);
+		out.writeString(uri);
+		out.writeString(source);
+		writeNode(out, root);
+		out.flush();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Reads a snapshot from a stream.
+	 *
+	 * @param stream the stream, which is not closed
+	 * @return the snapshot
+	 * @throws IOException if the stream does not hold a snapshot in the
+	 *     current format, or an I/O error occurs
+	 */
+	public static ImportTreeSnapshot read(InputStream stream)
+		throws IOException
+	{
+		SnapshotReader in = new SnapshotReader(
+				new BufferedInputStream(stream));
+
+		if (in.readInt() != MAGIC)
+		{
+			throw new IOException("The file is not an import tree snapshot.");
+		}
+
+		int version = in.readInt();
+
+		if (version != VERSION)
+		{
+			throw new IOException("The import tree snapshot has version "
+					+ version + ", but only version " + VERSION
+					+ " can be read.");
+		}
+
+		String uri = in.readString();
+		String source = in.readString();
+		ImportNode root = readNode(in, null);
+
+		if (!(root instanceof RootImportNode))
+		{
+			throw new IOException("The import tree snapshot is corrupt.");
+		}
+
+		((RootImportNode) root).resolveDependencies();
+
+		return new ImportTreeSnapshot(uri, source, (RootImportNode) root);
+	}
+
+
+	// ----------------------------------------------------------
+	private static void writeNode(SnapshotWriter out, ImportNode node)
+		throws IOException
+	{
+		boolean writeChildren = true;
+
+		if (node instanceof RootImportNode)
+		{
+			out.writeByte(ROOT);
+		}
+		else if (node instanceof ProjectGroupNode)
+		{
+			out.writeByte(PROJECT_GROUP);
+		}
+		else if (node instanceof ImportGroupNode)
+		{
+			out.writeByte(IMPORT_GROUP);
+			out.writeString(((ImportGroupNode) node).getHref());
+			writeChildren = false;
+		}
+		else if (node instanceof ProjectNode)
+		{
+			ProjectNode project = (ProjectNode) node;
+
+			out.writeByte(PROJECT);
+			out.writeString(project.getID());
+			out.writeString(project.getURI());
+			out.writeStrings(project.getDependencies());
+		}
+		else if (node instanceof PreferencesNode)
+		{
+			out.writeByte(PREFERENCES);
+			out.writeString(((PreferencesNode) node).getURI());
+		}
+		else
+		{
+			throw new IOException("Nodes of type "
+					+ node.getClass().getName() + " cannot be saved.");
+		}
+
+		out.writeString(node.getName());
+		writeAvailability(out, node.getAvailability());
+
+		String[] attributes = node.getAttributePairs();
+		out.writeInt(attributes.length);
+
+		for (String attribute : attributes)
+		{
+			out.writeString(attribute);
+		}
+
+		if (writeChildren)
+		{
+			out.writeInt(node.getChildren().size());
+
+			for (ImportNode child : node.getChildren())
+			{
+				writeNode(out, child);
+			}
+		}
+		else
+		{
+			out.writeInt(0);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static ImportNode readNode(SnapshotReader in, ImportNode parent)
+		throws IOException
+	{
+		byte type = in.readByte();
+		ImportNode node;
+
+		if (type == ROOT && parent == null)
+		{
+			node = new RootImportNode();
+		}
+		else if (type == PROJECT_GROUP && parent != null)
+		{
+			node = new ProjectGroupNode(parent);
+		}
+		else if (type == IMPORT_GROUP && parent != null)
+		{
+			ImportGroupNode group = new ImportGroupNode(parent);
+			group.setHref(in.readString());
+			node = group;
+		}
+		else if (type == PROJECT && parent != null)
+		{
+			ProjectNode project = new ProjectNode(parent);
+			project.setID(in.readString());
+			project.setURI(in.readString());
+			project.setDependencies(in.readStrings());
+			node = project;
+		}
+		else if (type == PREFERENCES && parent != null)
+		{
+			PreferencesNode preferences = new PreferencesNode(parent);
+			preferences.setURI(in.readString());
+			node = preferences;
+		}
+		else
+		{
+			throw new IOException("The import tree snapshot is corrupt.");
+		}
+
+		node.setName(in.readString());
+		node.setAvailability(readAvailability(in));
+
+		node.setAttributePairs(in.readStrings());
+
+		if (node instanceof ProjectNode)
+		{
+			node.getRoot().addProjectNode((ProjectNode) node);
+		}
+
+		int childCount = in.readInt();
+
+		for (int i = 0; i < childCount; i++)
+		{
+			readNode(in, node);
+		}
+
+		node.trimChildren();
+
+		return node;
+	}
+
+
+	// ----------------------------------------------------------
+	private static void writeAvailability(SnapshotWriter out,
+		NodeAvailability availability) throws IOException
+	{
+		if (availability == NodeAvailability.HIDDEN)
+		{
+			out.writeByte(HIDDEN);
+		}
+		else if (availability == NodeAvailability.NONE)
+		{
+			out.writeByte(NONE);
+		}
+		else if (availability instanceof DateBasedNodeAvailability)
+		{
+			out.writeByte(AFTER_DATE);
+			out.writeLong(((DateBasedNodeAvailability) availability)
+					.getDate().getTime());
+		}
+		else
+		{
+			out.writeByte(AVAILABLE);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static NodeAvailability readAvailability(SnapshotReader in)
+		throws IOException
+	{
+		switch (in.readByte())
+		{
+			case AVAILABLE:
+				return NodeAvailability.AVAILABLE;
+
+			case HIDDEN:
+				return NodeAvailability.HIDDEN;
+
+			case NONE:
+				return NodeAvailability.NONE;
+
+			case AFTER_DATE:
+				return NodeAvailability.after(new Date(in.readLong()));
+
+			default:
+				throw new IOException("The import tree snapshot is corrupt.");
+		}
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Writes the primitive values of a snapshot, replacing each string
+	 * after its first occurrence with its number.
+	 */
+	private static class SnapshotWriter extends DataOutputStream
+	{
+		private Map<String, Integer> strings = new HashMap<String, Integer>();
+
+
+		// ----------------------------------------------------------
+		public SnapshotWriter(OutputStream stream)
+		{
+			super(stream);
+		}
+
+
+		// ----------------------------------------------------------
+		/**
+		 * Writes a string, which may be null, as -1 for null, the number of
+		 * a string already written, or the next number followed by the
+		 * string itself.
+		 */
+		public void writeString(String value) throws IOException
+		{
+			if (value == null)
+			{
+				writeInt(-1);
+				return;
+			}
+
+			Integer index = strings.get(value);
+
+			if (index != null)
+			{
+				writeInt(index);
+			}
+			else
+			{
+				writeInt(strings.size());
+				writeUTF(value);
+				strings.put(value, strings.size());
+			}
+		}
+
+
+		// ----------------------------------------------------------
+		public void writeStrings(String[] values) throws IOException
+		{
+			writeInt((values != null) ? values.length : -1);
+
+			if (values != null)
+			{
+				for (String value : values)
+				{
+					writeString(value);
+				}
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Reads the primitive values written by {@link SnapshotWriter}.
+	 */
+	private static class SnapshotReader extends DataInputStream
+	{
+		private List<String> strings = new ArrayList<String>();
+
+
+		// ----------------------------------------------------------
+		public SnapshotReader(InputStream stream)
+		{
+			super(stream);
+		}
+
+
+		// ----------------------------------------------------------
+		public String readString() throws IOException
+		{
+			int index = readInt();
+
+			if (index == -1)
+			{
+				return null;
+			}
+			else if (index < strings.size() && index >= 0)
+			{
+				return strings.get(index);
+			}
+			else if (index == strings.size())
+			{
+				String value = readUTF();
+				strings.add(value);
+				return value;
+			}
+			else
+			{
+				throw new IOException("The import tree snapshot is corrupt.");
+			}
+		}
+
+
+		// ----------------------------------------------------------
+		public String[] readStrings() throws IOException
+		{
+			int length = readInt();
+
+			if (length < 0)
+			{
+				return null;
+			}
+
+			String[] values = new String[length];
+
+			for (int i = 0; i < length; i++)
+			{
+				values[i] = readString();
+			}
+
+			return values;
+		}
+	}
+}
@@ -36,7 +36,50 @@ public abstract class NodeAvailability
 	
 	// ----------------------------------------------------------
 	public abstract boolean isDownloadable();
-	
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the node is visible at the specified
+	 * time. A traversal of the tree should read the clock once and pass the
+	 * same time to every node, so that the nodes agree with each other.
+	 *
+	 * @param now the time, in milliseconds since the epoch
+	 * @return true if the node is visible at that time
+	 */
+	public boolean isVisible(long now)
+	{
+		return isVisible();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the node can be downloaded at the
+	 * specified time.
+	 *
+	 * @param now the time, in milliseconds since the epoch
+	 * @return true if the node can be downloaded at that time
+	 */
+	public boolean isDownloadable(long now)
+	{
+		return isDownloadable();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the first time after the specified one at which this
+	 * availability changes.
+	 *
+	 * @param now the time, in milliseconds since the epoch
+	 * @return the time of the change, or Long.MAX_VALUE if it never changes
+	 */
+	public long getNextChange(long now)
+	{
+		return Long.MAX_VALUE;
+	}
+
 	
 	// ----------------------------------------------------------
 	public static final NodeAvailability NONE = new NodeAvailability() {
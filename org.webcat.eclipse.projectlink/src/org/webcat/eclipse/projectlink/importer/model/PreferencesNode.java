@@ -21,8 +21,8 @@ package org.webcat.eclipse.projectlink.importer.model;
 
 import java.io.IOException;
 
-import org.w3c.dom.Node;
 import org.webcat.eclipse.projectlink.util.IndentingWriter;
+import org.xml.sax.Attributes;
 
 //--------------------------------------------------------------------------
 /**
@@ -101,13 +101,13 @@ public class PreferencesNode extends ImportNode
 
 	// ----------------------------------------------------------
 	@Override
-	public void parse(Node node)
+	public void parse(Attributes attributes)
 	{
-        Node uriNode = node.getAttributes().getNamedItem(Xml.Attributes.URI);
+        String uriValue = attributes.getValue(Xml.Attributes.URI);
 
-        if (uriNode != null)
+        if (uriValue != null)
         {
-            setURI(uriNode.getNodeValue());
+            setURI(intern(uriValue));
         }
 	}
 
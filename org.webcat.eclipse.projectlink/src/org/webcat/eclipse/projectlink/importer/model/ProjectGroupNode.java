@@ -20,11 +20,9 @@
 package org.webcat.eclipse.projectlink.importer.model;
 
 import java.io.IOException;
-import java.util.ArrayList;
-import java.util.List;
 
-import org.w3c.dom.Node;
 import org.webcat.eclipse.projectlink.util.IndentingWriter;
+import org.xml.sax.Attributes;
 
 // -------------------------------------------------------------------------
 /**
@@ -87,78 +85,9 @@ public class ProjectGroupNode extends ImportNode
 
     // ----------------------------------------------------------
     @Override
-    public void parse(Node parentNode)
+    public void parse(Attributes attributes)
     {
-        parseCommonAttributes(parentNode);
-        Node node = parentNode.getFirstChild();
-
-        while (node != null)
-        {
-            String nodeName = node.getLocalName();
-
-            if (Xml.Elements.PROJECT_GROUP.equals(nodeName))
-            {
-                parseProjectGroup(node);
-            }
-            else if (Xml.Elements.PROJECT.equals(nodeName))
-            {
-                parseProject(node);
-            }
-            else if (Xml.Elements.PREFERENCES.equals(nodeName))
-            {
-            	parsePreferences(node);
-            }
-
-            node = node.getNextSibling();
-        }
-    }
-
-
-    // ----------------------------------------------------------
-    /**
-     * Called if node represents a project group to create the new
-     * group and parse it.
-     *
-     * @param node the project-group node to parse
-     * @return the new project-group
-     */
-    private ImportNode parseProjectGroup(Node node)
-    {
-        ProjectGroupNode group = new ProjectGroupNode(this);
-        group.parse(node);
-        return group;
-    }
-
-    
-    // ----------------------------------------------------------
-    /**
-     * Called if node represents a project to create the new assignment and
-     * parse it.
-     *
-     * @param node the project node to parse
-     * @return the new project
-     */
-    private ImportNode parseProject(Node node)
-    {
-        ProjectNode project = new ProjectNode(this);
-        project.parse(node);
-        return project;
-    }
-
-
-    // ----------------------------------------------------------
-    /**
-     * Called if node represents a preferences node to create the new
-     * node and parse it.
-     *
-     * @param node the node to parse
-     * @return the new node
-     */
-    private ImportNode parsePreferences(Node node)
-    {
-        PreferencesNode prefs = new PreferencesNode(this);
-        prefs.parse(node);
-        return prefs;
+        parseCommonAttributes(attributes);
     }
 
 
@@ -21,8 +21,8 @@ package org.webcat.eclipse.projectlink.importer.model;
 
 import java.io.IOException;
 
-import org.w3c.dom.Node;
 import org.webcat.eclipse.projectlink.util.IndentingWriter;
+import org.xml.sax.Attributes;
 
 // -------------------------------------------------------------------------
 /**
@@ -105,6 +105,21 @@ public class ProjectNode extends ImportNode
         this.uri = uri;
     }
 
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the location of the listing of the hashes of the project's
+     * files, if it is served next to the project's archive rather than
+     * inside it. A relative location is resolved against the project's URI.
+     *
+     * @return the location of the listing, or null if there is none
+     */
+    public String getHashesURI()
+    {
+        return getLocalAttribute(Xml.Attributes.HASHES);
+    }
+
     
     // ----------------------------------------------------------
     /**
@@ -151,58 +166,174 @@ public class ProjectNode extends ImportNode
     public void setDependencies(String[] depends)
     {
        this.depends = depends;
+       dependenciesChanged();
     }
 
 
     // ----------------------------------------------------------
     /**
-     * Gets the project dependencies.
+     * Gets the projects that this project depends on. These are resolved
+     * from the dependency IDs when the tree is built, and again only if the
+     * dependencies change; IDs that do not refer to any project are left
+     * out, and can be found with
+     * {@link RootImportNode#getUnresolvedDependencies(ProjectNode)}.
      * 
-     * @return a String containing the project's depend
+     * @return the projects, which must not be modified
      */
     public ProjectNode[] getNodeDependencies()
     {
-    	String[] ids = getDependencies();    	
-    	ProjectNode[] nodes = new ProjectNode[ids.length];
-    	
-    	for (int i = 0; i < ids.length; i++)
+    	if (nodeDepends == null)
     	{
-    		nodes[i] = getRoot().getProjectNode(ids[i]);
+    		RootImportNode root = getRoot();
+
+    		if (root == null)
+    		{
+    			return NO_NODES;
+    		}
+
+    		root.resolveDependencies(this);
     	}
 
-        return nodes;
+        return nodeDepends;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Sets the projects that this project depends on, as resolved by the
+     * root of the tree.
+     */
+    void setNodeDependencies(ProjectNode[] nodes)
+    {
+    	nodeDepends = (nodes.length > 0) ? nodes : NO_NODES;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Forgets the resolved dependencies of this project, so that they are
+     * resolved again when they are next needed.
+     */
+    void dependenciesChanged()
+    {
+    	nodeDepends = null;
+
+    	RootImportNode root = getRoot();
+
+    	if (root != null)
+    	{
+    		root.dependenciesChanged();
+    	}
     }
 
     
     // ----------------------------------------------------------
     @Override
-    public void parse(Node parentNode)
+    protected boolean isTypedAttribute(String attribute)
     {
-        parseCommonAttributes(parentNode);
+        return super.isTypedAttribute(attribute)
+                || Xml.Attributes.ID.equals(attribute)
+                || Xml.Attributes.URI.equals(attribute)
+                || Xml.Attributes.DEPENDS.equals(attribute);
+    }
 
-        String uriValue = getAttribute(Xml.Attributes.URI);
-        String idValue = getAttribute(Xml.Attributes.ID);
-        String dependsValue = getAttribute(Xml.Attributes.DEPENDS);
 
-        if (uriValue != null)
+    // ----------------------------------------------------------
+    @Override
+    protected String getTypedAttribute(String attribute)
+    {
+        if (Xml.Attributes.ID.equals(attribute))
         {
-            setURI(uriValue);
+            return getID();
         }
-
-        if (idValue != null)
+        else if (Xml.Attributes.URI.equals(attribute))
+        {
+            return getURI();
+        }
+        else if (Xml.Attributes.DEPENDS.equals(attribute))
+        {
+            return (depends != null && depends.length > 0)
+                    ? join(depends) : null;
+        }
+        else
         {
-            setID(idValue);
+            return super.getTypedAttribute(attribute);
         }
+    }
+
 
-        if (dependsValue != null)
+    // ----------------------------------------------------------
+    @Override
+    protected void setTypedAttribute(String attribute, String value)
+    {
+        if (Xml.Attributes.ID.equals(attribute))
         {
-        	setDependencies(dependsValue.split("\\s*,\\s*"));
+            setID(value);
+        }
+        else if (Xml.Attributes.URI.equals(attribute))
+        {
+            setURI(value);
+        }
+        else if (Xml.Attributes.DEPENDS.equals(attribute))
+        {
+            setDependencies(parseDependencies(value));
         }
         else
         {
-        	setDependencies(new String[0]);
+            super.setTypedAttribute(attribute, value);
+        }
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Splits the value of a depends attribute into project IDs.
+     *
+     * @param dependsValue the value of the attribute, or null
+     * @return the IDs, or an empty array if there are none
+     */
+    private String[] parseDependencies(String dependsValue)
+    {
+        if (dependsValue == null)
+        {
+        	return NO_DEPENDENCIES;
         }
 
+    	String[] ids = dependsValue.split("\\s*,\\s*");
+
+    	for (int i = 0; i < ids.length; i++)
+    	{
+    		ids[i] = intern(ids[i]);
+    	}
+
+    	return ids;
+    }
+
+
+    // ----------------------------------------------------------
+    @Override
+    public void parse(Attributes attributes)
+    {
+        parseCommonAttributes(attributes);
+
+        // These are inherited, so they are looked up once here rather than
+        // each time they are needed.
+        String uriValue = getAttribute(attributes, Xml.Attributes.URI);
+        String idValue = getAttribute(attributes, Xml.Attributes.ID);
+        String dependsValue = getAttribute(attributes, Xml.Attributes.DEPENDS);
+
+        if (uriValue != null)
+        {
+            setURI(intern(uriValue));
+        }
+
+        if (idValue != null)
+        {
+            setID(intern(idValue));
+        }
+
+        setDependencies(parseDependencies(dependsValue));
+
         getRoot().addProjectNode(this);
     }
 	
@@ -264,6 +395,10 @@ public class ProjectNode extends ImportNode
 
 	//~ Instance/static variables .............................................
 
+    /* The dependencies of every project that has none. */
+    private static final String[] NO_DEPENDENCIES = new String[0];
+    private static final ProjectNode[] NO_NODES = new ProjectNode[0];
+
     /* Unique id number for the given project */
     private String id;
 
@@ -272,4 +407,8 @@ public class ProjectNode extends ImportNode
 
     /* Array of dependencies */
     private String[] depends;
+
+    /* The projects that the dependencies refer to, or null if they have
+       not been resolved since the dependencies last changed */
+    private ProjectNode[] nodeDepends;
 }
@@ -21,18 +21,26 @@ package org.webcat.eclipse.projectlink.importer.model;
 
 import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.Set;
 
-import org.w3c.dom.Node;
-import org.webcat.eclipse.projectlink.importer.ImporterParseException;
 import org.webcat.eclipse.projectlink.util.IndentingWriter;
+import org.xml.sax.Attributes;
 
 // -------------------------------------------------------------------------
 /**
  *  Represents the root of the import definition tree. The root
  *  contains settings that are inherited down throughout the entire
- *  tree.
+ *  tree, and the table of its projects by ID. Dependency IDs are resolved
+ *  into direct references to the projects once the tree is built, and the
+ *  IDs that do not refer to any project are kept so that they can be
+ *  reported.
  *
  *  @author Ellen Boyd
  *  @version Jan 22, 2012
@@ -42,6 +50,22 @@ public class RootImportNode
 {
 	private HashMap<String, ProjectNode> projectTable;
 
+	/* The dependency IDs of each project that do not refer to a project. */
+	private Map<ProjectNode, String[]> unresolvedDependencies;
+
+	/* The transitive dependencies of the projects asked about most
+	   recently, least recent first. */
+	private Map<ProjectNode, List<ProjectNode>> transitiveDependencies;
+
+	/* The number of projects in all of the transitive dependencies that
+	   are remembered. */
+	private int transitiveDependencyCount;
+
+	/* The most projects to remember in transitive dependencies. In a large
+	   catalog, remembering them for every project would take memory that
+	   grows with the square of the number of projects. */
+	private static final int MAX_TRANSITIVE_DEPENDENCY_COUNT = 1 << 20;
+
 
     // ----------------------------------------------------------
     /**
@@ -52,6 +76,9 @@ public class RootImportNode
         super(null);
 
         projectTable = new HashMap<String, ProjectNode>();
+        unresolvedDependencies = new LinkedHashMap<ProjectNode, String[]>();
+        transitiveDependencies =
+        		new LinkedHashMap<ProjectNode, List<ProjectNode>>(16, 0.75f, true);
     }
 
 
@@ -64,6 +91,14 @@ public class RootImportNode
     public void addProjectNode(ProjectNode project)
     {
     	projectTable.put(project.getID(), project);
+
+    	// The new project may be the one that an unresolved ID refers to.
+    	for (ProjectNode unresolved : unresolvedDependencies.keySet())
+    	{
+    		unresolved.dependenciesChanged();
+    	}
+
+    	clearTransitiveDependencies();
     }
     
     
@@ -82,147 +117,286 @@ public class RootImportNode
 
     // ----------------------------------------------------------
     /**
-     * See ImportTarget {@link #isContainer()}
+     * Resolves the dependency IDs of every project in the tree into the
+     * projects that they refer to. This is done once the tree has been
+     * built, so that {@link ProjectNode#getNodeDependencies()} does not
+     * look anything up.
      */
-    @Override
-    public boolean isContainer()
+    public void resolveDependencies()
     {
-        return true;
+    	unresolvedDependencies.clear();
+    	resolveDependencies(this);
     }
 
-    
+
     // ----------------------------------------------------------
     /**
-     * See ImportTarget {@link #isNested()}
+     * Resolves the dependency IDs of the projects under the specified node,
+     * such as an import group whose contents have just been attached.
+     *
+     * @param node the node
      */
-    @Override
-    public boolean isNested()
+    public void resolveDependencies(ImportNode node)
     {
-        return false;
+    	if (node instanceof ProjectNode)
+    	{
+    		resolveDependencies((ProjectNode) node);
+    	}
+    	else
+    	{
+    		for (ImportNode child : node.getChildren())
+    		{
+    			resolveDependencies(child);
+    		}
+    	}
     }
 
-    
+
     // ----------------------------------------------------------
     /**
-     * See ImportTarget {@link #isDownloadable()}
+     * Resolves the dependency IDs of a single project, remembering any that
+     * do not refer to a project.
+     *
+     * @param project the project
+     * @return the projects that the project depends on
      */
-    @Override
-    public boolean isDownloadable()
+    ProjectNode[] resolveDependencies(ProjectNode project)
     {
-        return false;
+    	String[] ids = project.getDependencies();
+
+    	if (ids == null)
+    	{
+    		ids = new String[0];
+    	}
+
+    	List<ProjectNode> nodes = new ArrayList<ProjectNode>(ids.length);
+    	List<String> missing = null;
+
+    	for (String id : ids)
+    	{
+    		ProjectNode node = projectTable.get(id);
+
+    		if (node != null)
+    		{
+    			nodes.add(node);
+    		}
+    		else
+    		{
+    			if (missing == null)
+    			{
+    				missing = new ArrayList<String>(1);
+    			}
+
+    			missing.add(id);
+    		}
+    	}
+
+    	if (missing != null)
+    	{
+    		unresolvedDependencies.put(project,
+    				missing.toArray(new String[missing.size()]));
+    	}
+    	else
+    	{
+    		unresolvedDependencies.remove(project);
+    	}
+
+    	clearTransitiveDependencies();
+
+    	ProjectNode[] resolved = nodes.toArray(new ProjectNode[nodes.size()]);
+    	project.setNodeDependencies(resolved);
+    	return resolved;
     }
 
-    
+
     // ----------------------------------------------------------
     /**
-     * See ImportTarget {@link #isLoaded()}
+     * Forgets the transitive dependencies that have been worked out, after
+     * a project's dependencies have changed.
      */
-    @Override
-    public boolean isLoaded()
+    void dependenciesChanged()
     {
-        return true;
+    	clearTransitiveDependencies();
     }
 
-    
+
     // ----------------------------------------------------------
     /**
-     * See ImportTarget {@link #parse(Node node)}
+     * Removes all of the root's children, and forgets their projects along
+     * with the dependencies worked out between them.
      */
     @Override
-    public void parse(Node node)
+    void removeAllChildren()
     {
-        String nodeName = node.getLocalName();
+    	super.removeAllChildren();
 
-        if (Xml.Elements.IMPORT_TARGETS.equals(nodeName))
-        {
-            parseImportTargets(node);
-        }
-        else
-        {
-        	throw new ImporterParseException("The data retrieved from the "
-        			+ "download URL is not valid.");
-        }
+    	projectTable.clear();
+    	unresolvedDependencies.clear();
+    	clearTransitiveDependencies();
     }
 
-    
+
+    // ----------------------------------------------------------
+    private void clearTransitiveDependencies()
+    {
+    	transitiveDependencies.clear();
+    	transitiveDependencyCount = 0;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets the dependency IDs of the specified project that do not refer to
+     * any project in the tree.
+     *
+     * @param project the project
+     * @return the IDs, which may be empty
+     */
+    public String[] getUnresolvedDependencies(ProjectNode project)
+    {
+    	// Resolving the project's dependencies, if they are not already,
+    	// brings the table up to date.
+    	project.getNodeDependencies();
+
+    	String[] ids = unresolvedDependencies.get(project);
+    	return (ids != null) ? ids : new String[0];
+    }
+
+
     // ----------------------------------------------------------
     /**
-     * Parses the children of a import-target root node.
+     * Gets the projects in the tree that have dependency IDs that do not
+     * refer to any project, in the order in which they were resolved.
      *
-     * @param parentNode the node to parse.
+     * @return an unmodifiable set of projects, which may be empty
      */
-    private void parseImportTargets(Node parentNode)
+    public Set<ProjectNode> getProjectsWithUnresolvedDependencies()
     {
-        parseCommonAttributes(parentNode);
-        Node node = parentNode.getFirstChild();
+    	return Collections.unmodifiableSet(unresolvedDependencies.keySet());
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * Gets every project that the specified project depends on, directly
+     * or through other projects, whether or not they are currently
+     * available. The project itself is only included if it is part of a
+     * dependency cycle. The result is remembered until the dependencies in
+     * the tree change, so asking again (for instance, to tell the user how
+     * many other projects a selection will download) costs nothing; only
+     * the most recently asked are remembered in a very large catalog.
+     *
+     * @param project the project
+     * @return an unmodifiable list of projects, nearest first
+     */
+    public List<ProjectNode> getTransitiveDependencies(ProjectNode project)
+    {
+    	List<ProjectNode> result = transitiveDependencies.get(project);
+
+    	if (result != null)
+    	{
+    		return result;
+    	}
 
-        while (node != null)
-        {
-            String nodeName = node.getLocalName();
+    	Set<ProjectNode> found = new LinkedHashSet<ProjectNode>();
+    	List<ProjectNode> queue = new ArrayList<ProjectNode>();
+    	queue.add(project);
 
-            if (Xml.Elements.PROJECT_GROUP.equals(nodeName))
-            {
-                parseProjectGroup(node);
-            }
-            else if (Xml.Elements.PROJECT.equals(nodeName))
-            {
-                parseProject(node);
-            }
-            else if (Xml.Elements.PREFERENCES.equals(nodeName))
-            {
-            	parsePreferences(node);
-            }
+    	for (int i = 0; i < queue.size(); i++)
+    	{
+    		for (ProjectNode depend : queue.get(i).getNodeDependencies())
+    		{
+    			if (!found.add(depend))
+    			{
+    				continue;
+    			}
 
-            node = node.getNextSibling();
-        }
+    			List<ProjectNode> known = transitiveDependencies.get(depend);
+
+    			if (known != null)
+    			{
+    				// Everything beyond this project has been worked out
+    				// already.
+    				found.addAll(known);
+    			}
+    			else
+    			{
+    				queue.add(depend);
+    			}
+    		}
+    	}
+
+    	result = Collections.unmodifiableList(
+    			new ArrayList<ProjectNode>(found));
+    	transitiveDependencies.put(project, result);
+    	transitiveDependencyCount += result.size();
+
+    	Iterator<List<ProjectNode>> eldest =
+    			transitiveDependencies.values().iterator();
+
+    	while (transitiveDependencyCount > MAX_TRANSITIVE_DEPENDENCY_COUNT
+    			&& transitiveDependencies.size() > 1)
+    	{
+    		transitiveDependencyCount -= eldest.next().size();
+    		eldest.remove();
+    	}
+
+    	return result;
+    }
+
+
+    // ----------------------------------------------------------
+    /**
+     * See ImportTarget {@link #isContainer()}
+     */
+    @Override
+    public boolean isContainer()
+    {
+        return true;
     }
 
     
     // ----------------------------------------------------------
     /**
-     * Called if node represents a project group to create the new
-     * group and parse it.
-     *
-     * @param node the project-group node to parse
-     * @return the new project group
+     * See ImportTarget {@link #isNested()}
      */
-    private ImportNode parseProjectGroup(Node node)
+    @Override
+    public boolean isNested()
     {
-        ProjectGroupNode group = new ProjectGroupNode(this);
-        group.parse(node);
-        return group;
+        return false;
     }
 
     
     // ----------------------------------------------------------
     /**
-     * Called if node represents a project group to create the new
-     * group and parse it.
-     *
-     * @param node the project node to parse
-     * @return the new project
+     * See ImportTarget {@link #isDownloadable()}
      */
-    private ImportNode parseProject(Node node)
+    @Override
+    public boolean isDownloadable()
     {
-        ProjectNode project = new ProjectNode(this);
-        project.parse(node);
-        return project;
+        return false;
     }
 
+    
+    // ----------------------------------------------------------
+    /**
+     * See ImportTarget {@link #isLoaded()}
+     */
+    @Override
+    public boolean isLoaded()
+    {
+        return true;
+    }
 
+    
     // ----------------------------------------------------------
     /**
-     * Called if node represents a preferences node to create the new
-     * node and parse it.
-     *
-     * @param node the node to parse
-     * @return the new node
+     * See ImportTarget {@link #parse(Attributes attributes)}
      */
-    private ImportNode parsePreferences(Node node)
+    @Override
+    public void parse(Attributes attributes)
     {
-        PreferencesNode prefs = new PreferencesNode(this);
-        prefs.parse(node);
-        return prefs;
+        parseCommonAttributes(attributes);
     }
 
 
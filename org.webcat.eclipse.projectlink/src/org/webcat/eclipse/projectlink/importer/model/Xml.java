@@ -38,6 +38,7 @@ public class Xml
         public static final String PROJECT_GROUP = "project-group";
         public static final String PROJECT = "project";
         public static final String PREFERENCES = "preferences";
+        public static final String IMPORT_GROUP = "import-group";
     }
 
 
@@ -52,5 +53,7 @@ public class Xml
         public static final String URI = "uri";
         public static final String AVAILABILITY = "availability";
         public static final String DEPENDS = "depends";
+        public static final String HREF = "href";
+        public static final String HASHES = "hashes";
     }
 }
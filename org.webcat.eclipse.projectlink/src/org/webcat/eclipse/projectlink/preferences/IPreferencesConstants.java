@@ -74,10 +74,68 @@ public interface IPreferencesConstants
 			+ ".preferences.username";
 
 
+	// ----------------------------------------------------------
+	/**
+	 * Preferences store keys under which earlier versions kept the import
+	 * histories. They are only read now, to move the histories to their own
+	 * files in the plug-in's state location.
+	 */
 	public static final String IMPORTED_PREFERENCES = Activator.PLUGIN_ID
 			+ ".preferences.imported_preferences";
 
 
 	public static final String DOWNLOADED_PROJECTS = Activator.PLUGIN_ID
 			+ ".preferences.downloaded_projects";
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Preferences store key for storing the number of projects that are
+	 * downloaded and unpacked at the same time.
+	 */
+	public static final String IMPORT_WORKER_COUNT = Activator.PLUGIN_ID
+			+ ".preferences.importWorkerCount";
+
+
+	// ----------------------------------------------------------
+	public static final int DEFAULT_IMPORT_WORKER_COUNT = 4;
+
+
+	// ----------------------------------------------------------
+	public static final int MAX_IMPORT_WORKER_COUNT = 16;
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Preferences store key for storing whether downloaded projects are
+	 * unpacked straight from the network instead of from a temporary file.
+	 */
+	public static final String STREAMING_IMPORT = Activator.PLUGIN_ID
+			+ ".preferences.streamingImport";
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Preferences store key for storing whether the large files of
+	 * downloaded projects are only fetched when they are first opened.
+	 */
+	public static final String LAZY_IMPORT = Activator.PLUGIN_ID
+			+ ".preferences.lazyImport";
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Preferences store key for storing the maximum size of the download
+	 * cache, in megabytes.
+	 */
+	public static final String DOWNLOAD_CACHE_SIZE = Activator.PLUGIN_ID
+			+ ".preferences.downloadCacheSize";
+
+
+	// ----------------------------------------------------------
+	public static final int DEFAULT_DOWNLOAD_CACHE_SIZE = 256;
+
+
+	// ----------------------------------------------------------
+	public static final int MAX_DOWNLOAD_CACHE_SIZE = 16384;
 }
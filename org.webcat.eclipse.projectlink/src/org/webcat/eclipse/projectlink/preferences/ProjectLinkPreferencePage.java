@@ -27,9 +27,11 @@ import org.eclipse.swt.SWT;
 import org.eclipse.swt.layout.FormAttachment;
 import org.eclipse.swt.layout.FormData;
 import org.eclipse.swt.layout.FormLayout;
+import org.eclipse.swt.widgets.Button;
 import org.eclipse.swt.widgets.Composite;
 import org.eclipse.swt.widgets.Control;
 import org.eclipse.swt.widgets.Label;
+import org.eclipse.swt.widgets.Spinner;
 import org.eclipse.swt.widgets.Text;
 import org.eclipse.ui.IWorkbench;
 import org.eclipse.ui.IWorkbenchPreferencePage;
@@ -48,6 +50,10 @@ public class ProjectLinkPreferencePage extends PreferencePage
 {
 	private Text downloadURL;
 	private Text submitURL;
+	private Spinner importWorkers;
+	private Button streamingImport;
+	private Button lazyImport;
+	private Spinner downloadCacheSize;
 
 
 	//~ Constructors ..........................................................
@@ -106,10 +112,74 @@ public class ProjectLinkPreferencePage extends PreferencePage
 		fd_submitURL.left = new FormAttachment(downloadURL, 0, SWT.LEFT);
 		fd_submitURL.right = new FormAttachment(100, -10);
 		submitURL.setLayoutData(fd_submitURL);
+
+		Label lblImportWorkers = new Label(composite, SWT.NONE);
+		lblImportWorkers.setText(
+				Messages.ProjectLinkPreferencePage_Import_Workers);
+		FormData fd_lblImportWorkers = new FormData();
+		fd_lblImportWorkers.left =
+				new FormAttachment(lblDownloadUrl, 0, SWT.LEFT);
+		lblImportWorkers.setLayoutData(fd_lblImportWorkers);
+
+		importWorkers = new Spinner(composite, SWT.BORDER);
+		importWorkers.setMinimum(1);
+		importWorkers.setMaximum(
+				IPreferencesConstants.MAX_IMPORT_WORKER_COUNT);
+		fd_lblImportWorkers.top =
+				new FormAttachment(importWorkers, 3, SWT.TOP);
+		FormData fd_importWorkers = new FormData();
+		fd_importWorkers.top = new FormAttachment(submitURL, 12);
+		fd_importWorkers.left = new FormAttachment(lblImportWorkers, 14);
+		importWorkers.setLayoutData(fd_importWorkers);
+
+		streamingImport = new Button(composite, SWT.CHECK);
+		streamingImport.setText(
+				Messages.ProjectLinkPreferencePage_Streaming_Import);
+		FormData fd_streamingImport = new FormData();
+		fd_streamingImport.top = new FormAttachment(importWorkers, 6);
+		fd_streamingImport.left =
+				new FormAttachment(lblDownloadUrl, 0, SWT.LEFT);
+		streamingImport.setLayoutData(fd_streamingImport);
+
+		lazyImport = new Button(composite, SWT.CHECK);
+		lazyImport.setText(Messages.ProjectLinkPreferencePage_Lazy_Import);
+		FormData fd_lazyImport = new FormData();
+		fd_lazyImport.top = new FormAttachment(streamingImport, 6);
+		fd_lazyImport.left = new FormAttachment(lblDownloadUrl, 0, SWT.LEFT);
+		lazyImport.setLayoutData(fd_lazyImport);
+
+		Label lblDownloadCacheSize = new Label(composite, SWT.NONE);
+		lblDownloadCacheSize.setText(
+				Messages.ProjectLinkPreferencePage_Download_Cache_Size);
+		FormData fd_lblDownloadCacheSize = new FormData();
+		fd_lblDownloadCacheSize.left =
+				new FormAttachment(lblDownloadUrl, 0, SWT.LEFT);
+		lblDownloadCacheSize.setLayoutData(fd_lblDownloadCacheSize);
+
+		downloadCacheSize = new Spinner(composite, SWT.BORDER);
+		downloadCacheSize.setMinimum(1);
+		downloadCacheSize.setMaximum(
+				IPreferencesConstants.MAX_DOWNLOAD_CACHE_SIZE);
+		downloadCacheSize.setIncrement(16);
+		fd_lblDownloadCacheSize.top =
+				new FormAttachment(downloadCacheSize, 3, SWT.TOP);
+		FormData fd_downloadCacheSize = new FormData();
+		fd_downloadCacheSize.top = new FormAttachment(lazyImport, 6);
+		fd_downloadCacheSize.left =
+				new FormAttachment(lblDownloadCacheSize, 14);
+		downloadCacheSize.setLayoutData(fd_downloadCacheSize);
+
 		setText(downloadURL, getPreferenceStore().getString(
 				IPreferencesConstants.DOWNLOAD_URL));
 		setText(submitURL, getPreferenceStore().getString(
 				IPreferencesConstants.SUBMIT_URL));
+		importWorkers.setSelection(
+				Activator.getDefault().getImportWorkerCount());
+		streamingImport.setSelection(
+				Activator.getDefault().isStreamingImport());
+		lazyImport.setSelection(Activator.getDefault().isLazyImport());
+		downloadCacheSize.setSelection(
+				Activator.getDefault().getDownloadCacheSize());
 
 		//String urlType = getPreferenceStore().getString(
 		//		IPreferencesConstants.URL_TYPE);
@@ -137,6 +207,19 @@ public class ProjectLinkPreferencePage extends PreferencePage
 				getText(downloadURL));
 		getPreferenceStore().setValue(IPreferencesConstants.SUBMIT_URL,
 				getText(submitURL));
+		getPreferenceStore().setValue(
+				IPreferencesConstants.IMPORT_WORKER_COUNT,
+				importWorkers.getSelection());
+		getPreferenceStore().setValue(
+				IPreferencesConstants.STREAMING_IMPORT,
+				streamingImport.getSelection());
+		getPreferenceStore().setValue(
+				IPreferencesConstants.LAZY_IMPORT,
+				lazyImport.getSelection());
+		getPreferenceStore().setValue(
+				IPreferencesConstants.DOWNLOAD_CACHE_SIZE,
+				downloadCacheSize.getSelection());
+		Activator.getDefault().downloadCacheSizeChanged();
 
 		//if (useSeparateURLs.getSelection())
 		{
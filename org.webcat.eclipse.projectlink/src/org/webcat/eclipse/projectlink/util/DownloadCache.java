@@ -0,0 +1,864 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Properties;
+import java.util.Set;
+
+//--------------------------------------------------------------------------
+/**
+ * A persistent, size-limited cache of downloaded files. Each download is
+ * stored once under the SHA-1 hash of its contents, so identical files that
+ * are published under several URIs share one copy, and each URI maps to the
+ * hash of the content it last served along with the validators (ETag and
+ * Last-Modified) that the server sent with it, which are used to make later
+ * requests for the same URI conditional. When the cache grows past its
+ * limit, the least recently used entries are evicted.
+ *
+ * All temporary files used while downloading are created inside the cache's
+ * own directory, so any that are left behind by a crash are reclaimed the
+ * next time the cache is opened.
+ *
+ * Instances are safe to use from several threads at once. Files returned by
+ * {@link #fetch(URL)} are protected from eviction until they are passed to
+ * {@link #release(File)}.
+ *
+ * @author Web-CAT Development Team
+ */
+public class DownloadCache
+{
+	//~ Instance/static variables .............................................
+
+	private File objectsDir;
+	private File tempDir;
+	private File partialDir;
+	private File indexFile;
+	private long maxSize;
+
+	private Map<String, Entry> entries;
+	private Map<File, Integer> pinned;
+	private Set<String> downloading;
+
+	/* Indicates that entries have been used since the index was saved, so
+	   their access times on disk are out of date. */
+	private boolean accessTimesChanged;
+
+	private static final String INDEX_FILE = "index.properties";
+	private static final String OBJECT_SUFFIX = ".bin";
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens (or creates) a download cache in the specified directory. Any
+	 * temporary files left over from an earlier session are deleted.
+	 *
+	 * @param directory the directory that holds the cache
+	 * @param maxSize the maximum total size of the cached files, in bytes
+	 */
+	public DownloadCache(File directory, long maxSize)
+	{
+		this.maxSize = maxSize;
+
+		objectsDir = new File(directory, "objects");
+		tempDir = new File(directory, "tmp");
+		partialDir = new File(directory, "partial");
+		indexFile = new File(directory, INDEX_FILE);
+
+		objectsDir.mkdirs();
+		FileUtils.deleteRecursively(tempDir);
+		tempDir.mkdirs();
+		PartialDownload.deleteStaleFiles(partialDir);
+
+		entries = new HashMap<String, Entry>();
+		pinned = new HashMap<File, Integer>();
+		downloading = new HashSet<String>();
+
+		loadIndex();
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Sets the maximum total size of the cached files, evicting entries if
+	 * the cache is now too large.
+	 *
+	 * @param maxSize the maximum size, in bytes
+	 */
+	public synchronized void setMaxSize(long maxSize)
+	{
+		this.maxSize = maxSize;
+		evict();
+		saveIndex();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a local copy of the file at the specified URL. If the cache holds
+	 * a copy, the request is made conditional on the validators (ETag and
+	 * Last-Modified) that the server sent with it, so an unchanged file costs
+	 * a single round trip with no body. The cached copy is also used if the
+	 * server cannot be reached or answers with a server error (5xx).
+	 * Otherwise the file is downloaded and added to the cache.
+	 *
+	 * The caller must pass the returned file to {@link #release(File)} when
+	 * it is done with it, and must not modify or delete it.
+	 *
+	 * @param url the URL of the file
+	 * @return the local copy of the file
+	 * @throws IOException if the file could not be downloaded
+	 */
+	public File fetch(URL url) throws IOException
+	{
+		return fetch(url, new DownloadStatistics());
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a local copy of the file at the specified URL, like
+	 * {@link #fetch(URL)}, and records how the download went.
+	 *
+	 * @param url the URL of the file
+	 * @param statistics the object in which to record the download's
+	 *     statistics
+	 * @return the local copy of the file
+	 * @throws IOException if the file could not be downloaded
+	 */
+	public File fetch(URL url, DownloadStatistics statistics)
+		throws IOException
+	{
+		String uri = url.toExternalForm();
+		long start = System.currentTimeMillis();
+
+		beginDownload(uri);
+
+		try
+		{
+			File file = fetchExclusively(url, uri, start, statistics);
+			statistics.setDownloadTime(System.currentTimeMillis() - start);
+
+			return file;
+		}
+		finally
+		{
+			endDownload(uri);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Does the work of {@link #fetch(URL)} while holding the URI's download
+	 * lock.
+	 */
+	private File fetchExclusively(URL url, String uri, long start,
+			DownloadStatistics statistics) throws IOException
+	{
+		Entry entry = getEntry(uri);
+		PartialDownload partial = new PartialDownload(partialDir, uri);
+		URLConnection connection;
+
+		try
+		{
+			connection = url.openConnection();
+
+			if (connection instanceof HttpURLConnection)
+			{
+				HttpURLConnection http = (HttpURLConnection) connection;
+
+				if (entry != null)
+				{
+					addValidators(http, entry);
+				}
+
+				partial.addResumeHeaders(http);
+
+				int status = http.getResponseCode();
+				statistics.setTimeToFirstByte(
+						System.currentTimeMillis() - start);
+
+				if (status == HttpURLConnection.HTTP_NOT_MODIFIED)
+				{
+					http.disconnect();
+
+					File file = (entry != null) ? pin(uri, entry) : null;
+
+					if (file != null)
+					{
+						statistics.setCacheHit(true);
+						return file;
+					}
+
+					// The cached copy vanished; ask again without validators.
+					connection = url.openConnection();
+					partial.addResumeHeaders((HttpURLConnection) connection);
+				}
+				else if (status >= 500 && entry != null)
+				{
+					// The server is up but failing, which is no better than
+					// being offline.
+					File file = pin(uri, entry);
+
+					if (file != null)
+					{
+						http.disconnect();
+						statistics.setCacheHit(true);
+						return file;
+					}
+				}
+			}
+		}
+		catch (IOException e)
+		{
+			// Offline; the cached copy is the best we can do.
+			File file = (entry != null) ? pin(uri, entry) : null;
+
+			if (file != null)
+			{
+				statistics.setCacheHit(true);
+				return file;
+			}
+
+			throw e;
+		}
+
+		File file = download(uri, url, connection, partial);
+
+		statistics.setBytesReceived(partial.getBytesReceived());
+		statistics.setResumed(partial.isResumed());
+
+		if (statistics.getTimeToFirstByte() < 0)
+		{
+			// Not HTTP, so the response only arrived with the content.
+			statistics.setTimeToFirstByte(System.currentTimeMillis() - start);
+		}
+
+		return file;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Adds the conditional request headers for a cached entry.
+	 */
+	private static void addValidators(HttpURLConnection http, Entry entry)
+	{
+		if (entry.etag != null)
+		{
+			http.setRequestProperty("If-None-Match", entry.etag);
+		}
+
+		if (entry.lastModified != null)
+		{
+			http.setRequestProperty("If-Modified-Since", entry.lastModified);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Releases a file returned by {@link #fetch(URL)} so that it can be
+	 * evicted again.
+	 *
+	 * @param file the file
+	 */
+	public synchronized void release(File file)
+	{
+		Integer count = pinned.get(file);
+
+		if (count != null)
+		{
+			if (count <= 1)
+			{
+				pinned.remove(file);
+			}
+			else
+			{
+				pinned.put(file, count - 1);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the SHA-1 hash of the contents of a file returned by
+	 * {@link #fetch(URL)}, which the cache already knows, since it stores
+	 * each file under its hash.
+	 *
+	 * @param file the file
+	 * @return the hash in lowercase hexadecimal, or null if the file is not
+	 *     in the cache
+	 */
+	public String getContentHash(File file)
+	{
+		String name = file.getName();
+
+		if (objectsDir.equals(file.getParentFile())
+				&& name.endsWith(OBJECT_SUFFIX))
+		{
+			return name.substring(0, name.length() - OBJECT_SUFFIX.length());
+		}
+		else
+		{
+			return null;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Forgets the cached copy of the specified URI; for example, because it
+	 * turned out to be corrupt.
+	 *
+	 * @param uri the URI
+	 */
+	public synchronized void invalidate(String uri)
+	{
+		Entry entry = entries.remove(uri);
+
+		if (entry != null)
+		{
+			deleteObjectIfUnused(entry.hash);
+			saveIndex();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a temporary file inside the cache's directory. Callers should
+	 * delete the file when they are done with it; if they do not, it will be
+	 * deleted the next time the cache is opened.
+	 *
+	 * @param prefix the prefix of the file name
+	 * @param suffix the suffix of the file name
+	 * @return the new temporary file
+	 * @throws IOException if the file could not be created
+	 */
+	public File createTempFile(String prefix, String suffix)
+		throws IOException
+	{
+		tempDir.mkdirs();
+		return File.createTempFile(prefix, suffix, tempDir);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the total size of the files currently in the cache.
+	 *
+	 * @return the total size, in bytes
+	 */
+	public synchronized long getSize()
+	{
+		long size = 0;
+
+		for (String hash : getLiveHashes())
+		{
+			size += objectFile(hash).length();
+		}
+
+		return size;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Saves the times at which entries were last used, if any have been
+	 * used since the index was last saved. This should be called once a
+	 * batch of downloads is done, so that the least recently used entries
+	 * are still evicted first after a restart.
+	 */
+	public synchronized void saveAccessTimes()
+	{
+		if (accessTimesChanged)
+		{
+			saveIndex();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private synchronized Entry getEntry(String uri)
+	{
+		return entries.get(uri);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Marks an entry as used and pins its file, or returns null if the file
+	 * has disappeared from the disk.
+	 */
+	private synchronized File pin(String uri, Entry entry)
+	{
+		File file = objectFile(entry.hash);
+
+		if (!file.isFile())
+		{
+			entries.remove(uri);
+			saveIndex();
+			return null;
+		}
+
+		// The access time is saved with the next change to the index, or by
+		// saveAccessTimes, rather than rewriting the index on every hit.
+		entry.lastAccess = System.currentTimeMillis();
+		accessTimesChanged = true;
+
+		Integer count = pinned.get(file);
+		pinned.put(file, (count == null) ? 1 : count + 1);
+
+		return file;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Waits until no other thread is downloading the specified URI, and then
+	 * claims it. A thread that had to wait will usually find the file in the
+	 * cache once it gets its turn.
+	 */
+	private synchronized void beginDownload(String uri) throws IOException
+	{
+		while (downloading.contains(uri))
+		{
+			try
+			{
+				wait();
+			}
+			catch (InterruptedException e)
+			{
+				Thread.currentThread().interrupt();
+				throw new InterruptedIOException();
+			}
+		}
+
+		downloading.add(uri);
+	}
+
+
+	// ----------------------------------------------------------
+	private synchronized void endDownload(String uri)
+	{
+		downloading.remove(uri);
+		notifyAll();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Downloads a file into the cache, resuming an earlier attempt if
+	 * possible, and pins it.
+	 */
+	private File download(String uri, URL url, URLConnection connection,
+			PartialDownload partial) throws IOException
+	{
+		partial.transfer(url, connection);
+
+		File tempFile = createTempFile("download", OBJECT_SUFFIX);
+
+		try
+		{
+			partial.assemble(tempFile);
+
+			Entry entry = new Entry();
+			entry.hash = hashFile(tempFile);
+			entry.etag = partial.getEtag();
+			entry.lastModified = partial.getLastModified();
+			entry.lastAccess = System.currentTimeMillis();
+
+			File file = store(uri, entry, tempFile);
+			partial.discard();
+
+			return file;
+		}
+		finally
+		{
+			tempFile.delete();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static String hashFile(File file) throws IOException
+	{
+		MessageDigest digest = newDigest();
+		InputStream stream = new FileInputStream(file);
+
+		try
+		{
+			byte[] buffer = new byte[65536];
+			int count;
+
+			while ((count = stream.read(buffer)) != -1)
+			{
+				digest.update(buffer, 0, count);
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		return toHex(digest.digest());
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Moves a downloaded file into the object store (unless an identical one
+	 * is already there), records the entry, and pins the file.
+	 */
+	private synchronized File store(String uri, Entry entry, File tempFile)
+		throws IOException
+	{
+		File file = objectFile(entry.hash);
+
+		if (!file.isFile() && !tempFile.renameTo(file))
+		{
+			throw new IOException("Could not add " + uri
+					+ " to the download cache");
+		}
+
+		Entry old = entries.put(uri, entry);
+
+		if (old != null && !old.hash.equals(entry.hash))
+		{
+			deleteObjectIfUnused(old.hash);
+		}
+
+		Integer count = pinned.get(file);
+		pinned.put(file, (count == null) ? 1 : count + 1);
+
+		evict();
+		saveIndex();
+
+		return file;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Evicts the least recently used entries until the cache fits within its
+	 * maximum size. Pinned files are never evicted.
+	 */
+	private void evict()
+	{
+		long size = getSize();
+
+		if (size <= maxSize)
+		{
+			return;
+		}
+
+		List<Map.Entry<String, Entry>> lru =
+				new ArrayList<Map.Entry<String, Entry>>(entries.entrySet());
+
+		Collections.sort(lru, new Comparator<Map.Entry<String, Entry>>() {
+			public int compare(Map.Entry<String, Entry> a,
+					Map.Entry<String, Entry> b)
+			{
+				long diff = a.getValue().lastAccess - b.getValue().lastAccess;
+				return (diff < 0) ? -1 : ((diff > 0) ? 1 : 0);
+			}
+		});
+
+		for (Map.Entry<String, Entry> candidate : lru)
+		{
+			if (size <= maxSize)
+			{
+				break;
+			}
+
+			File file = objectFile(candidate.getValue().hash);
+
+			if (pinned.containsKey(file))
+			{
+				continue;
+			}
+
+			entries.remove(candidate.getKey());
+
+			long length = file.length();
+
+			if (deleteObjectIfUnused(candidate.getValue().hash))
+			{
+				size -= length;
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Deletes the object with the specified hash if no entry refers to it
+	 * any longer and nobody is using it.
+	 *
+	 * @return true if the object was deleted
+	 */
+	private boolean deleteObjectIfUnused(String hash)
+	{
+		if (getLiveHashes().contains(hash))
+		{
+			return false;
+		}
+
+		File file = objectFile(hash);
+
+		if (pinned.containsKey(file))
+		{
+			return false;
+		}
+
+		return file.delete();
+	}
+
+
+	// ----------------------------------------------------------
+	private Set<String> getLiveHashes()
+	{
+		Set<String> hashes = new HashSet<String>();
+
+		for (Entry entry : entries.values())
+		{
+			hashes.add(entry.hash);
+		}
+
+		return hashes;
+	}
+
+
+	// ----------------------------------------------------------
+	private File objectFile(String hash)
+	{
+		return new File(objectsDir, hash + OBJECT_SUFFIX);
+	}
+
+
+	// ----------------------------------------------------------
+	private void loadIndex()
+	{
+		if (!indexFile.isFile())
+		{
+			return;
+		}
+
+		Properties index = new Properties();
+
+		try
+		{
+			InputStream stream = new FileInputStream(indexFile);
+
+			try
+			{
+				index.load(stream);
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		catch (IOException e)
+		{
+			// A damaged index just means an empty cache.
+			return;
+		}
+
+		for (Object key : index.keySet())
+		{
+			String uri = (String) key;
+			Entry entry = Entry.parse(index.getProperty(uri));
+
+			if (entry != null && objectFile(entry.hash).isFile())
+			{
+				entries.put(uri, entry);
+			}
+		}
+
+		// Remove objects that no entry refers to any more.
+		File[] objects = objectsDir.listFiles();
+		Set<String> live = getLiveHashes();
+
+		if (objects != null)
+		{
+			for (File object : objects)
+			{
+				String name = object.getName();
+				String hash = name.endsWith(OBJECT_SUFFIX)
+						? name.substring(0,
+								name.length() - OBJECT_SUFFIX.length())
+						: name;
+
+				if (!live.contains(hash))
+				{
+					object.delete();
+				}
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void saveIndex()
+	{
+		accessTimesChanged = false;
+
+		Properties index = new Properties();
+
+		for (Map.Entry<String, Entry> entry : entries.entrySet())
+		{
+			index.setProperty(entry.getKey(), entry.getValue().toString());
+		}
+
+		try
+		{
+			File tempFile = createTempFile("index", ".properties");
+			OutputStream stream = new FileOutputStream(tempFile);
+
+			try
+			{
+				index.store(stream, null);
+			}
+			finally
+			{
+				stream.close();
+			}
+
+			indexFile.delete();
+
+			if (!tempFile.renameTo(indexFile))
+			{
+				tempFile.delete();
+			}
+		}
+		catch (IOException e)
+		{
+			// Do nothing; the cache will just be colder next time.
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	static MessageDigest newDigest()
+	{
+		try
+		{
+			return MessageDigest.getInstance("SHA-1");
+		}
+		catch (NoSuchAlgorithmException e)
+		{
+			// Every Java platform is required to support SHA-1.
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	static String toHex(byte[] bytes)
+	{
+		StringBuffer buffer = new StringBuffer(bytes.length * 2);
+
+		for (byte b : bytes)
+		{
+			buffer.append(Character.forDigit((b >> 4) & 0xF, 16));
+			buffer.append(Character.forDigit(b & 0xF, 16));
+		}
+
+		return buffer.toString();
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * What the cache knows about a single URI.
+	 */
+	private static class Entry
+	{
+		public String hash;
+		public String etag;
+		public String lastModified;
+		public long lastAccess;
+
+
+		// ----------------------------------------------------------
+		public static Entry parse(String value)
+		{
+			String[] fields = value.split("\t", -1);
+
+			if (fields.length != 4)
+			{
+				return null;
+			}
+
+			try
+			{
+				Entry entry = new Entry();
+				entry.hash = fields[0];
+				entry.lastAccess = Long.parseLong(fields[1]);
+				entry.etag = (fields[2].length() > 0) ? fields[2] : null;
+				entry.lastModified =
+						(fields[3].length() > 0) ? fields[3] : null;
+				return entry;
+			}
+			catch (NumberFormatException e)
+			{
+				return null;
+			}
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public String toString()
+		{
+			return hash + "\t" + lastAccess
+					+ "\t" + ((etag != null) ? etag : "")
+					+ "\t" + ((lastModified != null) ? lastModified : "");
+		}
+	}
+}
@@ -0,0 +1,171 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+//--------------------------------------------------------------------------
+/**
+ * Measurements of a single download: how long the server took to respond,
+ * how long the whole transfer took, how many bytes actually came over the
+ * network, and whether the download cache was able to avoid some or all of
+ * the transfer. All times are in milliseconds.
+ *
+ * @author Web-CAT Development Team
+ */
+public class DownloadStatistics
+{
+	//~ Instance/static variables .............................................
+
+	private long timeToFirstByte = -1;
+	private long downloadTime;
+	private long bytesReceived;
+	private boolean cacheHit;
+	private boolean resumed;
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the time from the start of the request until the server's
+	 * response arrived.
+	 *
+	 * @return the time to first byte, or -1 if no response arrived
+	 */
+	public long getTimeToFirstByte()
+	{
+		return timeToFirstByte;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setTimeToFirstByte(long timeToFirstByte)
+	{
+		this.timeToFirstByte = timeToFirstByte;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the time from the start of the request until the file was
+	 * available locally.
+	 *
+	 * @return the download time
+	 */
+	public long getDownloadTime()
+	{
+		return downloadTime;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setDownloadTime(long downloadTime)
+	{
+		this.downloadTime = downloadTime;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of bytes of content that were received from the
+	 * network, which is zero if the cached copy was used.
+	 *
+	 * @return the number of bytes received
+	 */
+	public long getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setBytesReceived(long bytesReceived)
+	{
+		this.bytesReceived = bytesReceived;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the cached copy of the file was used,
+	 * either because the server said it was still current or because the
+	 * server could not be reached.
+	 *
+	 * @return true if the cached copy was used; otherwise, false
+	 */
+	public boolean isCacheHit()
+	{
+		return cacheHit;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setCacheHit(boolean cacheHit)
+	{
+		this.cacheHit = cacheHit;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the download picked up where an
+	 * earlier, interrupted attempt left off.
+	 *
+	 * @return true if the download was resumed; otherwise, false
+	 */
+	public boolean isResumed()
+	{
+		return resumed;
+	}
+
+
+	// ----------------------------------------------------------
+	public void setResumed(boolean resumed)
+	{
+		this.resumed = resumed;
+	}
+
+
+	// ----------------------------------------------------------
+	@Override
+	public String toString()
+	{
+		StringBuffer buffer = new StringBuffer();
+
+		buffer.append(bytesReceived).append(" bytes in ");
+		buffer.append(downloadTime).append(" ms");
+
+		if (timeToFirstByte >= 0)
+		{
+			buffer.append(" (first byte ");
+			buffer.append(timeToFirstByte).append(" ms)");
+		}
+
+		if (cacheHit)
+		{
+			buffer.append(", cached");
+		}
+		else if (resumed)
+		{
+			buffer.append(", resumed");
+		}
+
+		return buffer.toString();
+	}
+}
@@ -0,0 +1,641 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.locks.ReadWriteLock;
+import java.util.concurrent.locks.ReentrantReadWriteLock;
+
+//--------------------------------------------------------------------------
+/**
+ * A store of the files extracted from project archives, kept under the
+ * SHA-1 hash of their contents so that a file shipped in many archives is
+ * stored once. For each archive the store keeps a manifest, a
+ * {@link FileHashes} listing of the archive's directories and files, under
+ * the hash of the archive itself; a project can then be put back together
+ * from the store in a fraction of the time it takes to extract it, which is
+ * what makes importing a project again, or resetting it to the way it was
+ * imported, nearly instant.
+ *
+ * Where the file system allows it, files that are not normally edited in
+ * place, such as libraries and class files, are hard links to the stored
+ * copy, so projects that ship the same library share its disk blocks. Those
+ * files are made read-only, since Eclipse writes changes into the existing
+ * file, which would change every project that shares it. Everything else,
+ * and everything on file systems that do not support hard links, is copied.
+ * Hard links are made through {@code java.nio.file.Files} when the platform
+ * has it, which is looked up by reflection since this plug-in also runs on
+ * older platforms.
+ *
+ * When the stored files grow past the store's limit, the manifests that
+ * were used least recently are dropped along with the files that only they
+ * referred to. Dropping a file never affects a project linked to it.
+ *
+ * Instances are safe to use from several threads at once.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ExtractedFileStore
+{
+	//~ Instance/static variables .............................................
+
+	private File objectsDir;
+	private File manifestsDir;
+	private File tempDir;
+	private long maxSize;
+
+	/* Adding and materializing share the lock; trimming takes it alone, so
+	   that it never deletes a file that is being linked or copied. */
+	private ReadWriteLock lock = new ReentrantReadWriteLock();
+
+	/* Cleared the first time a hard link cannot be made. */
+	private volatile boolean linking;
+
+	private static Method toPath;
+	private static Method createLink;
+
+	private static final String MANIFEST_SUFFIX = ".files";
+
+	/* The hash that marks a directory in a manifest. */
+	private static final String DIRECTORY_HASH = "-";
+
+	/* The kinds of files that are hard-linked rather than copied. */
+	private static final String[] LINKED_EXTENSIONS = {
+		".jar", ".zip", ".class", ".png", ".gif", ".jpg", ".jpeg", ".pdf"
+	};
+
+	static
+	{
+		try
+		{
+			Class<?> pathClass = Class.forName("java.nio.file.Path");
+			Class<?> filesClass = Class.forName("java.nio.file.Files");
+
+			toPath = File.class.getMethod("toPath");
+			createLink = filesClass.getMethod("createLink",
+					pathClass, pathClass);
+		}
+		catch (Exception e)
+		{
+			toPath = null;
+			createLink = null;
+		}
+	}
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens (or creates) a store in the specified directory. Any temporary
+	 * files left over from an earlier session are deleted.
+	 *
+	 * @param directory the directory that holds the store
+	 * @param maxSize the maximum total size of the stored files, in bytes
+	 */
+	public ExtractedFileStore(File directory, long maxSize)
+	{
+		this.maxSize = maxSize;
+
+		objectsDir = new File(directory, "objects");
+		manifestsDir = new File(directory, "manifests");
+		tempDir = new File(directory, "tmp");
+
+		objectsDir.mkdirs();
+		manifestsDir.mkdirs();
+		FileUtils.deleteRecursively(tempDir);
+		tempDir.mkdirs();
+
+		linking = (createLink != null);
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Sets the maximum total size of the stored files, dropping manifests
+	 * if the store is now too large.
+	 *
+	 * @param maxSize the maximum size, in bytes
+	 */
+	public void setMaxSize(long maxSize)
+	{
+		this.maxSize = maxSize;
+		trim();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the store holds the contents of the
+	 * specified archive.
+	 *
+	 * @param archiveHash the hash of the archive
+	 * @return true if the store has a manifest for the archive
+	 */
+	public boolean contains(String archiveHash)
+	{
+		return manifestFile(archiveHash).isFile();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Puts the contents of an archive into a directory from the store,
+	 * with the archive's root directory already stripped. Nothing is written
+	 * unless every file of the archive is in the store.
+	 *
+	 * @param archiveHash the hash of the archive
+	 * @param destDir the directory to put the contents in
+	 * @return true if the contents were put in the directory; false if the
+	 *     store does not hold all of them
+	 * @throws IOException if a file could not be linked or copied
+	 */
+	public boolean materialize(String archiveHash, File destDir)
+		throws IOException
+	{
+		lock.readLock().lock();
+
+		try
+		{
+			File manifestFile = manifestFile(archiveHash);
+			FileHashes manifest = FileHashes.read(manifestFile);
+
+			if (manifest == null)
+			{
+				return false;
+			}
+
+			for (String path : manifest.getPaths())
+			{
+				String hash = manifest.get(path);
+
+				if (!DIRECTORY_HASH.equals(hash) && !isIntact(hash))
+				{
+					return false;
+				}
+			}
+
+			destDir.mkdirs();
+
+			for (String path : manifest.getPaths())
+			{
+				String hash = manifest.get(path);
+				File file = ZipUtils.resolveEntry(destDir, path);
+
+				if (DIRECTORY_HASH.equals(hash))
+				{
+					file.mkdirs();
+				}
+				else
+				{
+					file.getParentFile().mkdirs();
+					place(objectFile(hash), file, isLinked(path));
+				}
+			}
+
+			// The manifests that were used least recently go first.
+			manifestFile.setLastModified(System.currentTimeMillis());
+			return true;
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Adds the contents of an archive, which has just been extracted into a
+	 * directory, to the store. Files in the directory that are hard-linked
+	 * to the store are replaced with links to the stored copy.
+	 *
+	 * @param archiveHash the hash of the archive
+	 * @param projectDir the directory that the archive was extracted to
+	 * @throws IOException if a file could not be read or stored
+	 */
+	public void add(String archiveHash, File projectDir) throws IOException
+	{
+		lock.readLock().lock();
+
+		try
+		{
+			FileHashes manifest = new FileHashes();
+			addDirectory(projectDir, "", manifest);
+
+			File tempFile = File.createTempFile("manifest", null, tempDir);
+			manifest.write(tempFile);
+
+			File manifestFile = manifestFile(archiveHash);
+			manifestFile.delete();
+
+			if (!tempFile.renameTo(manifestFile))
+			{
+				tempFile.delete();
+				throw new IOException("The manifest " + manifestFile.getPath()
+						+ " could not be written.");
+			}
+		}
+		finally
+		{
+			lock.readLock().unlock();
+		}
+
+		trim();
+	}
+
+
+	// ----------------------------------------------------------
+	private void addDirectory(File dir, String prefix, FileHashes manifest)
+		throws IOException
+	{
+		File[] children = dir.listFiles();
+
+		if (children == null)
+		{
+			throw new IOException("The directory " + dir.getPath()
+					+ " could not be read.");
+		}
+
+		for (File child : children)
+		{
+			String path = prefix + child.getName();
+
+			if (FileUtils.isSymbolicLink(child))
+			{
+				continue;
+			}
+			else if (child.isDirectory())
+			{
+				manifest.put(path + "/", DIRECTORY_HASH);
+				addDirectory(child, path + "/", manifest);
+			}
+			else
+			{
+				manifest.put(path, addFile(child, isLinked(path)));
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Adds a file to the store, unless the store already has a file with the
+	 * same contents, and links the file to the stored copy if it is of a
+	 * kind that is linked.
+	 *
+	 * @return the hash of the file
+	 */
+	private String addFile(File file, boolean linked) throws IOException
+	{
+		String hash = FileHashes.hash(file);
+		File object = objectFile(hash);
+
+		if (!isIntact(hash))
+		{
+			// Taking the file's own blocks costs nothing; otherwise copy it
+			// in under a temporary name, so the object is never partial.
+			if (!(linked && link(object, file)))
+			{
+				File tempFile = File.createTempFile("object", null, tempDir);
+				copy(file, tempFile);
+
+				if (!tempFile.renameTo(object) && !object.isFile())
+				{
+					tempFile.delete();
+					throw new IOException("The file " + object.getPath()
+							+ " could not be stored.");
+				}
+
+				tempFile.delete();
+			}
+
+			object.setReadOnly();
+		}
+		else if (linked)
+		{
+			// Replace the file with a link to the copy that is already
+			// stored, so that the two share their blocks.
+			File linkFile = new File(file.getPath() + ".webcat-link");
+
+			if (link(linkFile, object))
+			{
+				file.delete();
+
+				if (!linkFile.renameTo(file))
+				{
+					linkFile.delete();
+					copy(object, file);
+				}
+			}
+		}
+
+		return hash;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Puts a stored file at the specified location, by linking it if it is
+	 * of a kind that is linked and the file system allows it, and otherwise
+	 * by copying it.
+	 */
+	private void place(File object, File file, boolean linked)
+		throws IOException
+	{
+		file.delete();
+
+		if (!(linked && link(file, object)))
+		{
+			copy(object, file);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Makes a hard link to an existing file.
+	 *
+	 * @return true if the link was made; false if the file system does not
+	 *     support hard links, or it failed for some other reason
+	 */
+	private boolean link(File link, File existing)
+	{
+		if (!linking)
+		{
+			return false;
+		}
+
+		try
+		{
+			createLink.invoke(null,
+					toPath.invoke(link), toPath.invoke(existing));
+			return true;
+		}
+		catch (InvocationTargetException e)
+		{
+			// A file system without hard links will never have them, so
+			// stop trying; other failures are left to the copy.
+			if (e.getCause() instanceof UnsupportedOperationException)
+			{
+				linking = false;
+			}
+
+			return false;
+		}
+		catch (Exception e)
+		{
+			linking = false;
+			return false;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static void copy(File source, File dest) throws IOException
+	{
+		InputStream stream = new FileInputStream(source);
+
+		try
+		{
+			ZipUtils.copyStreamToFile(stream, dest, source.lastModified());
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		// The stored copies are read-only, but copies of them are not.
+		FileUtils.makeWritable(dest);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the stored copy of a file exists and
+	 * still has the contents it was stored with. A stored copy that has
+	 * been made writable may have been changed through a project linked to
+	 * it, so it is checked again, and deleted if it has changed.
+	 */
+	private boolean isIntact(String hash) throws IOException
+	{
+		File object = objectFile(hash);
+
+		if (!object.isFile())
+		{
+			return false;
+		}
+		else if (!object.canWrite())
+		{
+			return true;
+		}
+		else if (hash.equals(FileHashes.hash(object)))
+		{
+			object.setReadOnly();
+			return true;
+		}
+		else
+		{
+			object.delete();
+			return false;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Drops the manifests that were used least recently, and the files that
+	 * only they referred to, until the store fits in its limit. Stored files
+	 * that no manifest refers to are deleted as well.
+	 */
+	private void trim()
+	{
+		lock.writeLock().lock();
+
+		try
+		{
+			File[] manifestFiles = manifestsDir.listFiles();
+
+			if (manifestFiles == null)
+			{
+				return;
+			}
+
+			Arrays.sort(manifestFiles, new Comparator<File>() {
+				public int compare(File a, File b)
+				{
+					long difference = a.lastModified() - b.lastModified();
+					return (difference < 0) ? -1 : ((difference > 0) ? 1 : 0);
+				}
+			});
+
+			Map<String, Integer> references = new HashMap<String, Integer>();
+			List<FileHashes> manifests = new ArrayList<FileHashes>();
+			long size = 0;
+
+			for (File manifestFile : manifestFiles)
+			{
+				FileHashes manifest = readQuietly(manifestFile);
+				manifests.add(manifest);
+
+				for (String hash : getObjectHashes(manifest))
+				{
+					Integer count = references.get(hash);
+
+					if (count == null)
+					{
+						size += objectFile(hash).length();
+					}
+
+					references.put(hash, (count == null) ? 1 : count + 1);
+				}
+			}
+
+			for (int i = 0; i < manifestFiles.length && size > maxSize; i++)
+			{
+				manifestFiles[i].delete();
+
+				for (String hash : getObjectHashes(manifests.get(i)))
+				{
+					int count = references.get(hash);
+
+					if (count == 1)
+					{
+						references.remove(hash);
+						size -= objectFile(hash).length();
+					}
+					else
+					{
+						references.put(hash, count - 1);
+					}
+				}
+			}
+
+			File[] objects = objectsDir.listFiles();
+
+			if (objects != null)
+			{
+				for (File object : objects)
+				{
+					if (!references.containsKey(object.getName()))
+					{
+						FileUtils.makeWritable(object);
+						object.delete();
+					}
+				}
+			}
+		}
+		finally
+		{
+			lock.writeLock().unlock();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the hashes of the stored files that a manifest refers to, each
+	 * one once.
+	 */
+	private static List<String> getObjectHashes(FileHashes manifest)
+	{
+		List<String> hashes = new ArrayList<String>();
+
+		if (manifest != null)
+		{
+			Map<String, Boolean> seen = new HashMap<String, Boolean>();
+
+			for (String path : manifest.getPaths())
+			{
+				String hash = manifest.get(path);
+
+				if (!DIRECTORY_HASH.equals(hash)
+						&& seen.put(hash, Boolean.TRUE) == null)
+				{
+					hashes.add(hash);
+				}
+			}
+		}
+
+		return hashes;
+	}
+
+
+	// ----------------------------------------------------------
+	private static FileHashes readQuietly(File manifestFile)
+	{
+		try
+		{
+			return FileHashes.read(manifestFile);
+		}
+		catch (IOException e)
+		{
+			return null;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether files with the specified path are
+	 * hard-linked to the store rather than copied.
+	 */
+	private static boolean isLinked(String path)
+	{
+		String lowerPath = path.toLowerCase();
+
+		for (String extension : LINKED_EXTENSIONS)
+		{
+			if (lowerPath.endsWith(extension))
+			{
+				return true;
+			}
+		}
+
+		return false;
+	}
+
+
+	// ----------------------------------------------------------
+	private File objectFile(String hash)
+	{
+		return new File(objectsDir, hash);
+	}
+
+
+	// ----------------------------------------------------------
+	private File manifestFile(String archiveHash)
+	{
+		return new File(manifestsDir, archiveHash + MANIFEST_SUFFIX);
+	}
+}
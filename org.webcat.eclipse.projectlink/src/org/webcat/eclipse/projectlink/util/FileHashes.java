@@ -0,0 +1,254 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.BufferedReader;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileNotFoundException;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.security.MessageDigest;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Set;
+
+//--------------------------------------------------------------------------
+/**
+ * A listing of the files in a project and the SHA-1 hash of each one, which
+ * lets an update tell which files have changed without downloading them.
+ * The listing is a text file in the format written by {@code sha1sum}: one
+ * line per file, holding the hash in hexadecimal, white space, and the
+ * path of the file relative to the project, with "/" between the names.
+ * Blank lines and lines starting with "#" are ignored.
+ *
+ * @author Web-CAT Development Team
+ */
+public class FileHashes
+{
+	//~ Instance/static variables .............................................
+
+	/* The hashes, keyed by path, in the order of the listing. */
+	private Map<String, String> hashes = new LinkedHashMap<String, String>();
+
+	/**
+	 * The name of the listing when it is kept in the project itself, either
+	 * in the archive or in the workspace.
+	 */
+	public static final String LISTING_FILE = ".webcat-hashes";
+
+	private static final String ENCODING = "UTF-8";
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Reads a listing from a stream, which is left open.
+	 *
+	 * @param stream the stream
+	 * @return the listing
+	 * @throws IOException if the stream could not be read
+	 */
+	public static FileHashes read(InputStream stream) throws IOException
+	{
+		FileHashes listing = new FileHashes();
+		BufferedReader reader = new BufferedReader(
+				new InputStreamReader(stream, ENCODING));
+
+		String line;
+		while ((line = reader.readLine()) != null)
+		{
+			line = line.trim();
+
+			if (line.length() == 0 || line.startsWith("#"))
+			{
+				continue;
+			}
+
+			int space = 0;
+			while (space < line.length()
+					&& !Character.isWhitespace(line.charAt(space)))
+			{
+				space++;
+			}
+
+			String path = line.substring(space).trim();
+
+			// sha1sum marks files that it read in binary mode with a "*".
+			if (path.startsWith("*"))
+			{
+				path = path.substring(1);
+			}
+
+			if (path.length() > 0)
+			{
+				listing.hashes.put(path,
+						line.substring(0, space).toLowerCase());
+			}
+		}
+
+		return listing;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Reads a listing from a file.
+	 *
+	 * @param file the file
+	 * @return the listing, or null if the file does not exist
+	 * @throws IOException if the file could not be read
+	 */
+	public static FileHashes read(File file) throws IOException
+	{
+		InputStream stream;
+
+		try
+		{
+			stream = new FileInputStream(file);
+		}
+		catch (FileNotFoundException e)
+		{
+			return null;
+		}
+
+		try
+		{
+			return read(stream);
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Writes the listing to a file, replacing anything that was there.
+	 *
+	 * @param file the file
+	 * @throws IOException if the file could not be written
+	 */
+	public void write(File file) throws IOException
+	{
+		Writer writer = new OutputStreamWriter(
+				new FileOutputStream(file), ENCODING);
+
+		try
+		{
+			for (Map.Entry<String, String> entry : hashes.entrySet())
+			{
+				writer.write(entry.getValue());
+				writer.write("  ");
+				writer.write(entry.getKey());
+				writer.write('\n');
+			}
+		}
+		finally
+		{
+			writer.close();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the hash of the file with the specified path.
+	 *
+	 * @param path the path of the file, relative to the project
+	 * @return the hash in lowercase hexadecimal, or null if the file is not
+	 *     in the listing
+	 */
+	public String get(String path)
+	{
+		return hashes.get(path);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Sets the hash of the file with the specified path, adding it to the
+	 * end of the listing if it is not already there.
+	 *
+	 * @param path the path of the file, relative to the project
+	 * @param hash the hash in lowercase hexadecimal
+	 */
+	public void put(String path, String hash)
+	{
+		hashes.put(path, hash);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the paths of the files in the listing.
+	 *
+	 * @return the paths, in the order of the listing
+	 */
+	public Set<String> getPaths()
+	{
+		return Collections.unmodifiableSet(hashes.keySet());
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Computes the hash of a file in the same form as a listing holds it.
+	 *
+	 * @param file the file
+	 * @return the hash in lowercase hexadecimal, or null if the file does
+	 *     not exist
+	 * @throws IOException if the file could not be read
+	 */
+	public static String hash(File file) throws IOException
+	{
+		if (!file.isFile())
+		{
+			return null;
+		}
+
+		MessageDigest digest = DownloadCache.newDigest();
+		InputStream stream = new FileInputStream(file);
+
+		try
+		{
+			byte[] buffer = new byte[ZipUtils.BUFFER_SIZE];
+			int count;
+
+			while ((count = stream.read(buffer)) != -1)
+			{
+				digest.update(buffer, 0, count);
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		return DownloadCache.toHex(digest.digest());
+	}
+}
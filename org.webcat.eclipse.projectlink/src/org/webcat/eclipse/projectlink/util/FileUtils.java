@@ -0,0 +1,225 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.lang.reflect.Method;
+
+//--------------------------------------------------------------------------
+/**
+ * Utility methods for working with files and directories on the local file
+ * system.
+ *
+ * @author Web-CAT Development Team
+ */
+public class FileUtils
+{
+	//~ Instance/static variables .............................................
+
+	/* File.setWritable(boolean), which is only there on Java 6 and later. */
+	private static Method setWritable;
+
+	static
+	{
+		try
+		{
+			setWritable = File.class.getMethod("setWritable", boolean.class);
+		}
+		catch (Exception e)
+		{
+			setWritable = null;
+		}
+	}
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Prevent instantiation.
+	 */
+	private FileUtils()
+	{
+		// Do nothing.
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new, empty, uniquely named directory inside the specified
+	 * parent directory.
+	 *
+	 * @param parent the directory in which to create the new directory
+	 * @param prefix the prefix of the new directory's name
+	 * @return the new directory
+	 * @throws IOException if the directory could not be created
+	 */
+	public static File createTempDirectory(File parent, String prefix)
+		throws IOException
+	{
+		parent.mkdirs();
+
+		File dir = File.createTempFile(prefix, "", parent);
+
+		if (!dir.delete() || !dir.mkdir())
+		{
+			throw new IOException("Could not create the directory "
+					+ dir.getPath());
+		}
+
+		return dir;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Deletes the specified file, or the specified directory and everything
+	 * in it. Symbolic links are deleted but not followed. A read-only file
+	 * (such as one linked to the extracted file store) is made writable if
+	 * that is what keeps it from being deleted, as it is on Windows.
+	 * Failures are ignored.
+	 *
+	 * @param file the file or directory to delete
+	 */
+	public static void deleteRecursively(File file)
+	{
+		File[] children = isSymbolicLink(file) ? null : file.listFiles();
+
+		if (children != null)
+		{
+			for (File child : children)
+			{
+				deleteRecursively(child);
+			}
+		}
+
+		if (!file.delete() && file.exists() && !file.canWrite())
+		{
+			makeWritable(file);
+			file.delete();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Makes a read-only file writable again. Java 5 can only make a file
+	 * read-only, so on Java 5 the file is left as it is.
+	 *
+	 * @param file the file to make writable
+	 * @return true if the file was made writable; otherwise, false
+	 */
+	public static boolean makeWritable(File file)
+	{
+		if (setWritable == null)
+		{
+			return false;
+		}
+
+		try
+		{
+			return (Boolean) setWritable.invoke(file, true);
+		}
+		catch (Exception e)
+		{
+			return false;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Moves the contents of a directory into another directory that may
+	 * already hold files, as unpacking into it would: files that are in
+	 * both are replaced, and directories that are in both are merged.
+	 *
+	 * @param source the directory whose contents are moved
+	 * @param dest the directory to move them into, which is created if it
+	 *     does not exist
+	 * @return true if everything was moved; otherwise, false
+	 */
+	public static boolean moveInto(File source, File dest)
+	{
+		dest.mkdirs();
+
+		File[] children = source.listFiles();
+
+		if (children == null || !dest.isDirectory())
+		{
+			return false;
+		}
+
+		boolean moved = true;
+
+		for (File child : children)
+		{
+			File target = new File(dest, child.getName());
+
+			if (child.isDirectory() && !isSymbolicLink(child)
+					&& target.isDirectory() && !isSymbolicLink(target))
+			{
+				moved &= moveInto(child, target);
+			}
+			else
+			{
+				deleteRecursively(target);
+				moved &= child.renameTo(target);
+			}
+		}
+
+		return moved;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the specified file is a symbolic link.
+	 * If this cannot be determined, the file is assumed to be a link so that
+	 * callers err on the side of not following it.
+	 *
+	 * @param file the file
+	 * @return true if the file is a symbolic link; otherwise, false
+	 */
+	public static boolean isSymbolicLink(File file)
+	{
+		try
+		{
+			File parent = file.getAbsoluteFile().getParentFile();
+
+			if (parent == null)
+			{
+				return false;
+			}
+
+			File inCanonicalParent =
+					new File(parent.getCanonicalFile(), file.getName());
+
+			return !inCanonicalParent.getCanonicalFile().equals(
+					inCanonicalParent.getAbsoluteFile());
+		}
+		catch (IOException e)
+		{
+			return true;
+		}
+	}
+}
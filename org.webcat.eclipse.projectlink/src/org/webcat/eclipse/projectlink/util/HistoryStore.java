@@ -0,0 +1,420 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+//--------------------------------------------------------------------------
+/**
+ * A persistent map of strings kept in a log file that is only ever appended
+ * to. Each change is held in memory until {@link #flush()} is called, which
+ * appends all of the changes since the last flush in one write, so the cost
+ * of saving depends on how much changed rather than on how much history
+ * has built up. When the log holds many more records than there are
+ * entries, because the same keys have been written over and over, it is
+ * compacted by writing the entries to a new file that replaces it. Where
+ * the file system cannot rename over an existing file, the old log is
+ * deleted first. If that is interrupted, the new file is picked up the
+ * next time the store is read.
+ *
+ * The file is not read until the store is first used, so creating a store
+ * costs nothing; the first use should be made off the UI thread. If the
+ * last records of the log were cut short, for instance by a crash, the
+ * records before them are kept and the log is compacted on the next flush.
+ *
+ * Instances are safe to use from several threads at once. Once the file
+ * has been read, looking up a key takes no lock, so readers are never held
+ * up by writers or by a flush; changes are made one at a time, so that the
+ * order in which they reach the log is the order in which they were made.
+ *
+ * @author Web-CAT Development Team
+ */
+public class HistoryStore
+{
+	//~ Instance/static variables .............................................
+
+	private File file;
+
+	/* The entries, or null if the file has not been read yet. */
+	private volatile Map<String, String> entries;
+
+	/* The changes that have not been written, as keys and values in
+	   alternate elements; a null value removes the key. */
+	private List<String> pending = new ArrayList<String>();
+
+	/* The number of records in the log file. */
+	private int recordCount;
+
+	/* Indicates that the log file is damaged or missing, so it must be
+	   written from scratch rather than appended to. */
+	private boolean rewrite;
+
+	private static final int MAGIC = 0x57434853;
+	private static final int VERSION = 1;
+
+	private static final byte PUT = 1;
+	private static final byte REMOVE = 2;
+
+	/* The smallest log that is worth compacting. */
+	private static final int MIN_COMPACTION_RECORDS = 256;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a store kept in the specified file, which is created the first
+	 * time the store is flushed.
+	 *
+	 * @param file the log file
+	 */
+	public HistoryStore(File file)
+	{
+		this.file = file;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the store's file exists.
+	 *
+	 * @return true if the file exists; otherwise, false
+	 */
+	public boolean exists()
+	{
+		recoverCompactedFile();
+		return file.isFile();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the value of the specified key.
+	 *
+	 * @param key the key
+	 * @return the value, or null if the key is not in the store or is null
+	 */
+	public String get(String key)
+	{
+		return (key != null) ? getEntries().get(key) : null;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Sets the value of the specified key. The change is saved by the next
+	 * call to {@link #flush()}.
+	 *
+	 * @param key the key
+	 * @param value the value, or null to remove the key
+	 */
+	public synchronized void put(String key, String value)
+	{
+		String oldValue = (value != null)
+				? getEntries().put(key, value) : getEntries().remove(key);
+
+		if (value == null ? oldValue != null : !value.equals(oldValue))
+		{
+			pending.add(key);
+			pending.add(value);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of keys in the store.
+	 *
+	 * @return the number of keys
+	 */
+	public int size()
+	{
+		return getEntries().size();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Saves the changes made since the last flush, by appending them to the
+	 * log, or by compacting the log if it has grown too large.
+	 *
+	 * @throws IOException if the log could not be written; the changes are
+	 *     kept, and written by the next flush
+	 */
+	public synchronized void flush() throws IOException
+	{
+		if (pending.isEmpty() && !rewrite)
+		{
+			return;
+		}
+
+		int records = recordCount + pending.size() / 2;
+
+		if (rewrite || (records >= MIN_COMPACTION_RECORDS
+				&& records > 2 * getEntries().size()))
+		{
+			compact();
+			return;
+		}
+
+		DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file, true)));
+
+		try
+		{
+			for (int i = 0; i < pending.size(); i += 2)
+			{
+				writeRecord(stream, pending.get(i), pending.get(i + 1));
+			}
+
+			stream.close();
+		}
+		catch (IOException e)
+		{
+			// Part of a record may have been written, so anything appended
+			// after it would be lost.
+			rewrite = true;
+
+			try
+			{
+				stream.close();
+			}
+			catch (IOException e2)
+			{
+				// Do nothing.
+			}
+
+			throw e;
+		}
+
+		recordCount = records;
+		pending.clear();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Replaces the log with one that holds a single record for each key,
+	 * which also saves any changes that have not been flushed.
+	 *
+	 * @throws IOException if the log could not be written
+	 */
+	public synchronized void compact() throws IOException
+	{
+		Map<String, String> current = getEntries();
+
+		file.getParentFile().mkdirs();
+		File tempFile = getCompactedFile();
+
+		DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(tempFile)));
+
+		try
+		{
+			stream.writeInt(MAGIC);
+			stream.writeInt(VERSION);
+
+			for (Map.Entry<String, String> entry : current.entrySet())
+			{
+				writeRecord(stream, entry.getKey(), entry.getValue());
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+
+		// Renaming over the old log replaces it in one step where the file
+		// system allows it (not on Windows); otherwise it is deleted first.
+		if (!tempFile.renameTo(file) && !(file.delete()
+				&& tempFile.renameTo(file)))
+		{
+			tempFile.delete();
+			rewrite = true;
+			throw new IOException("The history file " + file.getPath()
+					+ " could not be replaced.");
+		}
+
+		recordCount = current.size();
+		rewrite = false;
+		pending.clear();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the file that a compacted log is written to before it replaces
+	 * the log.
+	 */
+	private File getCompactedFile()
+	{
+		return new File(file.getPath() + ".tmp");
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Finishes a compaction that was interrupted after the old log was
+	 * deleted but before the new one took its place. The old log is only
+	 * deleted once the new file has been written; a new file that was cut
+	 * short anyway is read like any other damaged log.
+	 */
+	private void recoverCompactedFile()
+	{
+		File tempFile = getCompactedFile();
+
+		if (!file.isFile() && tempFile.isFile())
+		{
+			tempFile.renameTo(file);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the entries, reading them from the log the first time.
+	 */
+	private Map<String, String> getEntries()
+	{
+		Map<String, String> current = entries;
+
+		if (current == null)
+		{
+			synchronized (this)
+			{
+				current = entries;
+
+				if (current == null)
+				{
+					current = new ConcurrentHashMap<String, String>();
+					read(current);
+					entries = current;
+				}
+			}
+		}
+
+		return current;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Replays the records in the log, stopping at the first one that is
+	 * damaged or cut short.
+	 */
+	private void read(Map<String, String> current)
+	{
+		recordCount = 0;
+		recoverCompactedFile();
+
+		if (!file.isFile())
+		{
+			rewrite = true;
+			return;
+		}
+
+		try
+		{
+			DataInputStream stream = new DataInputStream(
+					new BufferedInputStream(new FileInputStream(file)));
+
+			try
+			{
+				if (stream.readInt() != MAGIC || stream.readInt() != VERSION)
+				{
+					rewrite = true;
+					return;
+				}
+
+				while (true)
+				{
+					int op = stream.read();
+
+					if (op == -1)
+					{
+						break;
+					}
+					else if (op == PUT)
+					{
+						String key = stream.readUTF();
+						current.put(key, stream.readUTF());
+					}
+					else if (op == REMOVE)
+					{
+						current.remove(stream.readUTF());
+					}
+					else
+					{
+						rewrite = true;
+						break;
+					}
+
+					recordCount++;
+				}
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		catch (EOFException e)
+		{
+			// The last record was cut short; keep the ones before it.
+			rewrite = true;
+		}
+		catch (IOException e)
+		{
+			// Keep whatever was read before the error.
+			rewrite = true;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static void writeRecord(DataOutputStream stream, String key,
+			String value) throws IOException
+	{
+		if (value != null)
+		{
+			stream.writeByte(PUT);
+			stream.writeUTF(key);
+			stream.writeUTF(value);
+		}
+		else
+		{
+			stream.writeByte(REMOVE);
+			stream.writeUTF(key);
+		}
+	}
+}
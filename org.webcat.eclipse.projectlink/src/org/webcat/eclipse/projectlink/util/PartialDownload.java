@@ -0,0 +1,927 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.atomic.AtomicLong;
+
+//--------------------------------------------------------------------------
+/**
+ * A download that can be interrupted and resumed later with HTTP range
+ * requests. The bytes received so far are kept in part files inside the
+ * download cache, along with the validator (a strong ETag, or failing that
+ * the Last-Modified date) of the file they came from. A resumed request is
+ * sent with If-Range, so if the file has changed on the server in the
+ * meantime the server sends the whole new file instead, and the old part
+ * files are thrown away rather than spliced onto it.
+ *
+ * Large files on servers that accept range requests are split into several
+ * segments that are downloaded at the same time, each into its own part
+ * file, and joined once they are all complete.
+ *
+ * This class is used by {@link DownloadCache}, which makes sure that only
+ * one thread at a time works on the download of a given URI.
+ *
+ * @author Web-CAT Development Team
+ */
+class PartialDownload
+{
+	//~ Instance/static variables .............................................
+
+	private File directory;
+	private String key;
+	private File stateFile;
+
+	private String etag;
+	private String lastModified;
+	private long length;
+	private List<Segment> segments;
+
+	private volatile boolean aborted;
+	private boolean resumed;
+	private AtomicLong bytesReceived = new AtomicLong();
+
+	/* Files smaller than this are never split into segments. */
+	private static final long SEGMENT_THRESHOLD = 16L * 1024 * 1024;
+
+	/* The number of segments that large files are split into. */
+	private static final int SEGMENT_COUNT = 4;
+
+	/* Part files that have not been touched for this long are deleted. */
+	private static final long STALE_MILLIS = 7L * 24 * 60 * 60 * 1000;
+
+	private static final String STATE_SUFFIX = ".properties";
+	private static final String PART_SUFFIX = ".part";
+	private static final int BUFFER_SIZE = 65536;
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens the partial download of the specified URI, picking up whatever
+	 * an earlier, interrupted attempt left behind.
+	 *
+	 * @param directory the directory that holds the part files
+	 * @param uri the URI being downloaded
+	 */
+	public PartialDownload(File directory, String uri)
+	{
+		this.directory = directory;
+
+		key = DownloadCache.toHex(
+				DownloadCache.newDigest().digest(toBytes(uri)));
+		stateFile = new File(directory, key + STATE_SUFFIX);
+		segments = new ArrayList<Segment>();
+
+		directory.mkdirs();
+		loadState();
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Deletes the part files of downloads that have not been resumed for a
+	 * long time.
+	 *
+	 * @param directory the directory that holds the part files
+	 */
+	public static void deleteStaleFiles(File directory)
+	{
+		File[] files = directory.listFiles();
+
+		if (files == null)
+		{
+			return;
+		}
+
+		long cutoff = System.currentTimeMillis() - STALE_MILLIS;
+
+		for (File file : files)
+		{
+			if (file.lastModified() < cutoff)
+			{
+				file.delete();
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Adds the headers that ask the server to resume this download to a
+	 * request that has not been sent yet. Nothing is added if there is
+	 * nothing to resume.
+	 *
+	 * @param http the request
+	 */
+	public void addResumeHeaders(HttpURLConnection http)
+	{
+		Segment lead = getFirstIncompleteSegment();
+
+		if (lead == null || lead.getReceived() == 0)
+		{
+			return;
+		}
+
+		http.setRequestProperty("Range", lead.getRangeHeader());
+		http.setRequestProperty("If-Range", getValidator());
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Receives the rest of the file. The connection must be the one that was
+	 * passed to {@link #addResumeHeaders(HttpURLConnection)}; if the server
+	 * honored the range request, the download picks up where it left off,
+	 * and otherwise it starts over. If this method fails, the bytes received
+	 * so far are kept so that the next attempt can resume them, unless the
+	 * server does not support that.
+	 *
+	 * @param url the URL being downloaded
+	 * @param connection the connection for the first request
+	 * @throws IOException if the download fails
+	 */
+	public void transfer(URL url, URLConnection connection) throws IOException
+	{
+		aborted = false;
+		resumed = true;
+
+		try
+		{
+			Segment lead = getFirstIncompleteSegment();
+
+			if (lead == null || !isResumeAccepted(connection, lead))
+			{
+				restart(connection);
+				resumed = false;
+				lead = segments.get(0);
+			}
+
+			transferAll(url, connection, lead);
+		}
+		catch (ChangedException e)
+		{
+			discard();
+			throw e;
+		}
+		catch (IOException e)
+		{
+			if (getValidator() == null)
+			{
+				discard();
+			}
+
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			discard();
+			throw e;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Joins the completed segments into a single file.
+	 *
+	 * @param destFile the file to write, which is replaced if it exists
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void assemble(File destFile) throws IOException
+	{
+		destFile.delete();
+
+		if (segments.size() == 1
+				&& segments.get(0).partFile.renameTo(destFile))
+		{
+			return;
+		}
+
+		OutputStream out = new FileOutputStream(destFile);
+
+		try
+		{
+			for (Segment segment : segments)
+			{
+				InputStream in = new FileInputStream(segment.partFile);
+
+				try
+				{
+					ZipUtils.copyStream(in, out);
+				}
+				finally
+				{
+					in.close();
+				}
+			}
+		}
+		finally
+		{
+			out.close();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Deletes the part files and the saved state of this download.
+	 */
+	public void discard()
+	{
+		for (Segment segment : segments)
+		{
+			segment.partFile.delete();
+		}
+
+		segments.clear();
+		stateFile.delete();
+
+		etag = null;
+		lastModified = null;
+		length = -1;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of bytes that were received from the network by the
+	 * last call to {@link #transfer(URL, URLConnection)}.
+	 *
+	 * @return the number of bytes received
+	 */
+	public long getBytesReceived()
+	{
+		return bytesReceived.get();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the last call to
+	 * {@link #transfer(URL, URLConnection)} picked up where an earlier
+	 * attempt left off.
+	 *
+	 * @return true if the download was resumed; otherwise, false
+	 */
+	public boolean isResumed()
+	{
+		return resumed;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the ETag of the file being downloaded.
+	 *
+	 * @return the ETag, or null if the server did not send one
+	 */
+	public String getEtag()
+	{
+		return etag;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the Last-Modified date of the file being downloaded.
+	 *
+	 * @return the Last-Modified date, or null if the server did not send one
+	 */
+	public String getLastModified()
+	{
+		return lastModified;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the validator that is sent with If-Range. Weak ETags are not
+	 * allowed there, so the Last-Modified date is used instead.
+	 */
+	private String getValidator()
+	{
+		if (etag != null && !etag.startsWith("W/"))
+		{
+			return etag;
+		}
+		else
+		{
+			return lastModified;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private Segment getFirstIncompleteSegment()
+	{
+		for (Segment segment : segments)
+		{
+			if (!segment.isComplete())
+			{
+				return segment;
+			}
+		}
+
+		return null;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the server answered a resume request
+	 * with the missing part of the segment.
+	 */
+	private boolean isResumeAccepted(URLConnection connection,
+			Segment segment)
+		throws IOException
+	{
+		if (!(connection instanceof HttpURLConnection)
+				|| segment.getReceived() == 0)
+		{
+			return false;
+		}
+
+		HttpURLConnection http = (HttpURLConnection) connection;
+
+		return http.getResponseCode() == HttpURLConnection.HTTP_PARTIAL
+				&& getContentRangeStart(http) == segment.getNextByte();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Throws away whatever was received before and plans the download again
+	 * from the response to a plain request. Nothing is thrown away unless
+	 * the response holds the whole file, so an error from the server leaves
+	 * the parts in place for the next attempt.
+	 */
+	private void restart(URLConnection connection) throws IOException
+	{
+		// Fails here if the server sent an error instead of the file.
+		connection.getInputStream();
+
+		if (connection instanceof HttpURLConnection)
+		{
+			int status = ((HttpURLConnection) connection).getResponseCode();
+
+			if (status != HttpURLConnection.HTTP_OK)
+			{
+				throw new IOException("The server answered "
+						+ connection.getURL() + " with status " + status
+						+ " instead of the file");
+			}
+		}
+
+		discard();
+
+		etag = connection.getHeaderField("ETag");
+		lastModified = connection.getHeaderField("Last-Modified");
+		length = getContentLength(connection);
+
+		boolean splittable = getValidator() != null
+				&& length >= SEGMENT_THRESHOLD
+				&& "bytes".equalsIgnoreCase(
+						connection.getHeaderField("Accept-Ranges"));
+
+		if (splittable)
+		{
+			long segmentSize = length / SEGMENT_COUNT;
+
+			for (int i = 0; i < SEGMENT_COUNT; i++)
+			{
+				long start = i * segmentSize;
+				long end = (i == SEGMENT_COUNT - 1)
+						? length - 1 : start + segmentSize - 1;
+
+				segments.add(new Segment(i, start, end));
+			}
+		}
+		else
+		{
+			segments.add(new Segment(0, 0,
+					(length >= 0) ? length - 1 : -1));
+		}
+
+		for (Segment segment : segments)
+		{
+			// Part files are appended to, so leftovers must not survive.
+			segment.partFile.delete();
+		}
+
+		if (getValidator() != null)
+		{
+			saveState();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Receives the lead segment from the first connection on this thread,
+	 * and every other incomplete segment on a thread of its own.
+	 */
+	private void transferAll(final URL url, URLConnection connection,
+			Segment lead)
+		throws IOException
+	{
+		List<Thread> threads = new ArrayList<Thread>();
+		final List<IOException> errors =
+				Collections.synchronizedList(new ArrayList<IOException>());
+
+		for (final Segment segment : segments)
+		{
+			if (segment == lead || segment.isComplete())
+			{
+				continue;
+			}
+
+			Thread thread = new Thread("Web-CAT Download Segment "
+					+ segment.index) {
+				@Override
+				public void run()
+				{
+					try
+					{
+						transferSegment(url, segment);
+					}
+					catch (IOException e)
+					{
+						aborted = true;
+						errors.add(e);
+					}
+				}
+			};
+
+			thread.setDaemon(true);
+			threads.add(thread);
+			thread.start();
+		}
+
+		try
+		{
+			receive(connection, lead);
+		}
+		catch (IOException e)
+		{
+			aborted = true;
+			errors.add(e);
+		}
+		finally
+		{
+			for (Thread thread : threads)
+			{
+				joinUninterruptibly(thread);
+			}
+		}
+
+		if (!errors.isEmpty())
+		{
+			throw chooseError(errors);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Picks the error to report when segments fail. A change on the server
+	 * takes precedence, since it means the part files are worthless; after
+	 * that, the first real failure is more useful than the segments that
+	 * were stopped because of it.
+	 */
+	private static IOException chooseError(List<IOException> errors)
+	{
+		for (IOException e : errors)
+		{
+			if (e instanceof ChangedException)
+			{
+				return e;
+			}
+		}
+
+		for (IOException e : errors)
+		{
+			if (!(e instanceof StoppedException))
+			{
+				return e;
+			}
+		}
+
+		return errors.get(0);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Requests the missing part of a segment and receives it.
+	 */
+	private void transferSegment(URL url, Segment segment) throws IOException
+	{
+		HttpURLConnection http = (HttpURLConnection) url.openConnection();
+
+		try
+		{
+			http.setRequestProperty("Range", segment.getRangeHeader());
+			http.setRequestProperty("If-Range", getValidator());
+
+			if (http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+					|| getContentRangeStart(http) != segment.getNextByte())
+			{
+				throw new ChangedException(url);
+			}
+
+			receive(http, segment);
+		}
+		finally
+		{
+			http.disconnect();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Appends the body of a response to a segment's part file, stopping at
+	 * the end of the segment.
+	 */
+	private void receive(URLConnection connection, Segment segment)
+		throws IOException
+	{
+		InputStream in = connection.getInputStream();
+
+		try
+		{
+			OutputStream out = new FileOutputStream(segment.partFile, true);
+
+			try
+			{
+				byte[] buffer = new byte[BUFFER_SIZE];
+				long remaining = segment.getRemaining();
+
+				while (remaining != 0 && !aborted)
+				{
+					int wanted = (remaining < 0 || remaining > buffer.length)
+							? buffer.length : (int) remaining;
+					int count = in.read(buffer, 0, wanted);
+
+					if (count == -1)
+					{
+						break;
+					}
+
+					out.write(buffer, 0, count);
+					bytesReceived.addAndGet(count);
+
+					if (remaining > 0)
+					{
+						remaining -= count;
+					}
+				}
+			}
+			finally
+			{
+				out.close();
+			}
+		}
+		finally
+		{
+			in.close();
+
+			if (connection instanceof HttpURLConnection)
+			{
+				((HttpURLConnection) connection).disconnect();
+			}
+		}
+
+		if (aborted && !segment.isComplete())
+		{
+			throw new StoppedException();
+		}
+
+		if (segment.getRemaining() > 0)
+		{
+			throw new IOException("The connection was closed before the "
+					+ "download finished");
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void loadState()
+	{
+		if (!stateFile.isFile())
+		{
+			return;
+		}
+
+		Properties state = new Properties();
+
+		try
+		{
+			InputStream stream = new FileInputStream(stateFile);
+
+			try
+			{
+				state.load(stream);
+			}
+			finally
+			{
+				stream.close();
+			}
+
+			// Keeps a download that is being resumed from looking stale.
+			stateFile.setLastModified(System.currentTimeMillis());
+
+			etag = state.getProperty("etag");
+			lastModified = state.getProperty("lastModified");
+			length = Long.parseLong(state.getProperty("length", "-1"));
+
+			String[] ranges = state.getProperty("segments", "").split(",");
+
+			for (int i = 0; i < ranges.length; i++)
+			{
+				String[] range = ranges[i].split(":");
+
+				segments.add(new Segment(i, Long.parseLong(range[0]),
+						Long.parseLong(range[1])));
+			}
+		}
+		catch (IOException e)
+		{
+			discard();
+		}
+		catch (RuntimeException e)
+		{
+			// Damaged state; start over.
+			discard();
+		}
+
+		if (getValidator() == null || getFirstIncompleteSegment() == null)
+		{
+			// Nothing that can be resumed (a download that finished but was
+			// never joined is rare enough to just fetch again).
+			discard();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void saveState() throws IOException
+	{
+		Properties state = new Properties();
+
+		if (etag != null)
+		{
+			state.setProperty("etag", etag);
+		}
+
+		if (lastModified != null)
+		{
+			state.setProperty("lastModified", lastModified);
+		}
+
+		state.setProperty("length", Long.toString(length));
+
+		StringBuffer ranges = new StringBuffer();
+
+		for (Segment segment : segments)
+		{
+			if (ranges.length() > 0)
+			{
+				ranges.append(',');
+			}
+
+			ranges.append(segment.start).append(':').append(segment.end);
+		}
+
+		state.setProperty("segments", ranges.toString());
+
+		OutputStream stream = new FileOutputStream(stateFile);
+
+		try
+		{
+			state.store(stream, null);
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static long getContentLength(URLConnection connection)
+	{
+		String value = connection.getHeaderField("Content-Length");
+
+		try
+		{
+			return (value != null) ? Long.parseLong(value.trim()) : -1;
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the first byte of a partial response from its Content-Range
+	 * header, which looks like "bytes 100-199/1000".
+	 */
+	private static long getContentRangeStart(HttpURLConnection http)
+	{
+		String value = http.getHeaderField("Content-Range");
+
+		if (value == null || !value.startsWith("bytes "))
+		{
+			return -1;
+		}
+
+		int dash = value.indexOf('-');
+
+		try
+		{
+			return Long.parseLong(value.substring(6, dash).trim());
+		}
+		catch (RuntimeException e)
+		{
+			return -1;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static void joinUninterruptibly(Thread thread)
+	{
+		boolean interrupted = false;
+
+		while (thread.isAlive())
+		{
+			try
+			{
+				thread.join();
+			}
+			catch (InterruptedException e)
+			{
+				interrupted = true;
+			}
+		}
+
+		if (interrupted)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static byte[] toBytes(String value)
+	{
+		try
+		{
+			return value.getBytes("UTF-8");
+		}
+		catch (IOException e)
+		{
+			// Every Java platform is required to support UTF-8.
+			throw new IllegalStateException(e);
+		}
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * A byte range of the file and the part file that it is received into.
+	 * How much of the segment has been received is simply the length of the
+	 * part file, so progress never needs to be saved separately.
+	 */
+	private class Segment
+	{
+		public int index;
+		public long start;
+		public long end;
+		public File partFile;
+
+
+		// ----------------------------------------------------------
+		public Segment(int index, long start, long end)
+		{
+			this.index = index;
+			this.start = start;
+			this.end = end;
+
+			partFile = new File(directory, key + "." + index + PART_SUFFIX);
+		}
+
+
+		// ----------------------------------------------------------
+		public long getReceived()
+		{
+			return partFile.length();
+		}
+
+
+		// ----------------------------------------------------------
+		public long getNextByte()
+		{
+			return start + getReceived();
+		}
+
+
+		// ----------------------------------------------------------
+		/**
+		 * Gets the number of bytes still to be received, or -1 if the length
+		 * of the file is not known.
+		 */
+		public long getRemaining()
+		{
+			return (end < 0) ? -1 : Math.max(0, end + 1 - getNextByte());
+		}
+
+
+		// ----------------------------------------------------------
+		public boolean isComplete()
+		{
+			return getRemaining() == 0;
+		}
+
+
+		// ----------------------------------------------------------
+		public String getRangeHeader()
+		{
+			return "bytes=" + getNextByte() + "-" + ((end < 0) ? "" : end);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Thrown when the server no longer has the version of the file that the
+	 * part files came from.
+	 */
+	private static class ChangedException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+
+		// ----------------------------------------------------------
+		public ChangedException(URL url)
+		{
+			super(url + " changed on the server while it was being "
+					+ "downloaded");
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Thrown by a segment that was stopped because another one failed.
+	 */
+	private static class StoppedException extends IOException
+	{
+		private static final long serialVersionUID = 1L;
+
+
+		// ----------------------------------------------------------
+		public StoppedException()
+		{
+			super("The download was stopped");
+		}
+	}
+}
@@ -0,0 +1,1091 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.URL;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+import java.util.zip.DataFormatException;
+import java.util.zip.Inflater;
+import java.util.zip.ZipException;
+
+//--------------------------------------------------------------------------
+/**
+ * A zip archive on a web server that is read in pieces with HTTP range
+ * requests, so that single entries can be taken from it without downloading
+ * the whole archive. Opening the archive fetches its central directory from
+ * the end of the file; entries are then fetched only when they are asked
+ * for, and entries that lie close together in the archive are fetched with
+ * a single request.
+ *
+ * Every request after the first is sent with If-Range, so if the archive
+ * changes on the server while it is being read the server sends the whole
+ * new file, and reading fails rather than mixing the two versions. The
+ * central directory can be saved with {@link #save(File)}, so that the
+ * same version of the archive can be read again later without fetching it.
+ *
+ * Like {@link ZipArchiveIndex}, a single directory at the root of the
+ * archive is stripped from the entry names. Archives that need the Zip64
+ * extensions are not supported.
+ *
+ * @author Web-CAT Development Team
+ */
+public class RemoteZipArchive
+{
+	//~ Instance/static variables .............................................
+
+	private URL url;
+	private String validator;
+	private List<Entry> entries;
+	private Map<String, Entry> entriesByPath;
+	private String rootDirectory;
+	private long bytesReceived;
+
+	/* Identifies a saved central directory. */
+	private static final int INDEX_MAGIC = 0x5743525a;
+	private static final int INDEX_VERSION = 1;
+
+	private static final int EOCD_SIGNATURE = 0x06054b50;
+	private static final int CENTRAL_SIGNATURE = 0x02014b50;
+	private static final int LOCAL_SIGNATURE = 0x04034b50;
+
+	private static final int EOCD_SIZE = 22;
+	private static final int CENTRAL_HEADER_SIZE = 46;
+	private static final int LOCAL_HEADER_SIZE = 30;
+	private static final int MAX_COMMENT_SIZE = 65535;
+
+	/* How much of the end of the archive to ask for at first, which holds
+	   the whole central directory of most projects. More is only asked for
+	   if the end of the central directory is not in it. */
+	private static final int INITIAL_TAIL_SIZE = 16 * 1024;
+
+	private static final int STORED = 0;
+	private static final int DEFLATED = 8;
+
+	/* Entries that are closer together than this are fetched with one
+	   request, since skipping the bytes between them costs less than
+	   another round trip. */
+	private static final long MAX_GAP = 64 * 1024;
+
+	private static final Comparator<Entry> BY_OFFSET =
+			new Comparator<Entry>() {
+				public int compare(Entry a, Entry b)
+				{
+					return (a.offset < b.offset) ? -1
+							: ((a.offset == b.offset) ? 0 : 1);
+				}
+			};
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	private RemoteZipArchive(URL url, String validator)
+	{
+		this.url = url;
+		this.validator = validator;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens an archive on a web server and reads its central directory.
+	 *
+	 * @param url the URL of the archive
+	 * @return the archive, or null if it cannot be read in pieces: the URL
+	 *     is not an HTTP URL, the server does not accept range requests or
+	 *     does not identify the version of the file, or the archive uses
+	 *     Zip64
+	 * @throws IOException if the archive could not be read or is not a zip
+	 *     archive
+	 */
+	public static RemoteZipArchive open(URL url) throws IOException
+	{
+		if (!"http".equals(url.getProtocol())
+				&& !"https".equals(url.getProtocol()))
+		{
+			return null;
+		}
+
+		HttpURLConnection http = (HttpURLConnection) url.openConnection();
+		RemoteZipArchive archive;
+		byte[] tail;
+		long tailStart;
+		long length;
+
+		try
+		{
+			http.setRequestProperty("Range", "bytes=-" + INITIAL_TAIL_SIZE);
+
+			if (http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL)
+			{
+				return null;
+			}
+
+			tailStart = getContentRangeStart(http);
+			length = getContentRangeLength(http);
+
+			// Weak ETags are not allowed in If-Range.
+			String etag = http.getHeaderField("ETag");
+			String validator = (etag != null && !etag.startsWith("W/"))
+					? etag : http.getHeaderField("Last-Modified");
+
+			if (tailStart < 0 || length < 0 || validator == null)
+			{
+				return null;
+			}
+
+			archive = new RemoteZipArchive(url, validator);
+
+			InputStream stream = http.getInputStream();
+
+			try
+			{
+				tail = archive.readAll(stream);
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		finally
+		{
+			http.disconnect();
+		}
+
+		// A long archive comment can push the end of the central directory
+		// out of the first request.
+		if (archive.findEndOfDirectory(tail) == -1 && tailStart > 0)
+		{
+			long start = Math.max(0, length - EOCD_SIZE - MAX_COMMENT_SIZE);
+			byte[] before = archive.fetchRange(start, tailStart - start);
+			byte[] longTail = new byte[before.length + tail.length];
+
+			System.arraycopy(before, 0, longTail, 0, before.length);
+			System.arraycopy(tail, 0, longTail, before.length, tail.length);
+
+			tail = longTail;
+			tailStart = start;
+		}
+
+		return archive.index(tail, tailStart) ? archive : null;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens an archive from a central directory that was saved with
+	 * {@link #save(File)}. Nothing is fetched from the server until an
+	 * entry is read, and entries are only read if the archive is still the
+	 * version that was saved.
+	 *
+	 * @param file the file that holds the saved directory
+	 * @return the archive
+	 * @throws IOException if the file could not be read or is damaged
+	 */
+	public static RemoteZipArchive load(File file) throws IOException
+	{
+		DataInputStream stream = new DataInputStream(
+				new BufferedInputStream(new FileInputStream(file)));
+
+		try
+		{
+			if (stream.readInt() != INDEX_MAGIC
+					|| stream.readInt() != INDEX_VERSION)
+			{
+				throw new IOException("The archive index " + file.getPath()
+						+ " is damaged");
+			}
+
+			RemoteZipArchive archive = new RemoteZipArchive(
+					new URL(stream.readUTF()), stream.readUTF());
+
+			int count = stream.readInt();
+			List<Entry> entries = new ArrayList<Entry>(count);
+
+			for (int i = 0; i < count; i++)
+			{
+				Entry entry = new Entry();
+				entry.name = stream.readUTF();
+				entry.method = stream.readShort();
+				entry.crc = stream.readLong();
+				entry.compressedSize = stream.readLong();
+				entry.size = stream.readLong();
+				entry.offset = stream.readLong();
+				entry.end = stream.readLong();
+				entry.time = stream.readLong();
+
+				entries.add(entry);
+			}
+
+			archive.indexEntries(entries);
+			return archive;
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Saves the archive's central directory, along with its URL and the
+	 * version of the file on the server, so that it can be opened again
+	 * with {@link #load(File)}.
+	 *
+	 * @param file the file to save the directory in
+	 * @throws IOException if the file could not be written
+	 */
+	public void save(File file) throws IOException
+	{
+		DataOutputStream stream = new DataOutputStream(
+				new BufferedOutputStream(new FileOutputStream(file)));
+
+		try
+		{
+			stream.writeInt(INDEX_MAGIC);
+			stream.writeInt(INDEX_VERSION);
+			stream.writeUTF(url.toExternalForm());
+			stream.writeUTF(validator);
+			stream.writeInt(entries.size());
+
+			for (Entry entry : entries)
+			{
+				stream.writeUTF(entry.name);
+				stream.writeShort(entry.method);
+				stream.writeLong(entry.crc);
+				stream.writeLong(entry.compressedSize);
+				stream.writeLong(entry.size);
+				stream.writeLong(entry.offset);
+				stream.writeLong(entry.end);
+				stream.writeLong(entry.time);
+			}
+		}
+		finally
+		{
+			stream.close();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the name of the single directory at the root of the archive.
+	 *
+	 * @return the name of the root directory, or null if the archive has
+	 *     more than one item at its root
+	 */
+	public String getRootDirectory()
+	{
+		return rootDirectory;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of entries in the archive, not counting operating
+	 * system clutter.
+	 *
+	 * @return the number of entries
+	 */
+	public int getEntryCount()
+	{
+		return entriesByPath.size();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the paths of the entries in the archive, relative to the root
+	 * directory. The paths of directory entries end with a slash.
+	 *
+	 * @return the paths of the entries
+	 */
+	public Collection<String> getPaths()
+	{
+		return Collections.unmodifiableSet(entriesByPath.keySet());
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the entry with the specified path.
+	 *
+	 * @param path the path of the entry, relative to the root directory
+	 * @return the entry, or null if the archive has no such file
+	 */
+	public Entry getEntry(String path)
+	{
+		return entriesByPath.get(path);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of bytes received from the server so far, including
+	 * the central directory and the parts of the archive that were skipped
+	 * between the entries that were fetched.
+	 *
+	 * @return the number of bytes received
+	 */
+	public synchronized long getBytesReceived()
+	{
+		return bytesReceived;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Fetches the contents of a single entry.
+	 *
+	 * @param entry the entry
+	 * @return the uncompressed contents of the entry
+	 * @throws IOException if the entry could not be fetched
+	 */
+	public byte[] read(Entry entry) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		fetch(Collections.singletonList(entry),
+				Collections.<Entry, File>emptyMap(), out);
+
+		return out.toByteArray();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Fetches the specified entries and writes each one to a file. Each
+	 * file is written under a temporary name and then renamed, so a file
+	 * that is being replaced is never left half written.
+	 *
+	 * @param files the entries to fetch, each mapped to its file
+	 * @throws IOException if an entry could not be fetched or written
+	 */
+	public void extract(Map<Entry, File> files) throws IOException
+	{
+		List<Entry> wanted = new ArrayList<Entry>(files.keySet());
+		Collections.sort(wanted, BY_OFFSET);
+
+		int start = 0;
+
+		while (start < wanted.size())
+		{
+			int end = start + 1;
+
+			while (end < wanted.size() && wanted.get(end).offset
+					- wanted.get(end - 1).end <= MAX_GAP)
+			{
+				end++;
+			}
+
+			fetch(wanted.subList(start, end), files, null);
+			start = end;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Reads the central directory, which starts in the tail of the archive
+	 * or before it.
+	 *
+	 * @return false if the archive uses Zip64
+	 */
+	private boolean index(byte[] tail, long tailStart) throws IOException
+	{
+		int eocd = findEndOfDirectory(tail);
+
+		if (eocd == -1)
+		{
+			throw new ZipException(url + " is not a zip archive");
+		}
+
+		int count = getShort(tail, eocd + 10);
+		long size = getUnsignedInt(tail, eocd + 12);
+		long offset = getUnsignedInt(tail, eocd + 16);
+
+		if (count == 0xFFFF || size == 0xFFFFFFFFL || offset == 0xFFFFFFFFL)
+		{
+			return false;
+		}
+
+		byte[] directory;
+
+		if (offset >= tailStart && offset + size <= tailStart + eocd)
+		{
+			directory = new byte[(int) size];
+			System.arraycopy(tail, (int) (offset - tailStart),
+					directory, 0, directory.length);
+		}
+		else
+		{
+			directory = fetchRange(offset, size);
+		}
+
+		readDirectory(directory, count, offset);
+		return true;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Finds the end of central directory record in the tail of the archive.
+	 *
+	 * @return the offset of the record in the tail, or -1 if it is not there
+	 */
+	private int findEndOfDirectory(byte[] tail)
+	{
+		for (int i = tail.length - EOCD_SIZE; i >= 0; i--)
+		{
+			if (getInt(tail, i) == EOCD_SIGNATURE
+					&& i + EOCD_SIZE + getShort(tail, i + 20) == tail.length)
+			{
+				return i;
+			}
+		}
+
+		return -1;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Builds the entries from the central directory.
+	 */
+	private void readDirectory(byte[] directory, int count,
+			long directoryOffset) throws IOException
+	{
+		entries = new ArrayList<Entry>(count);
+
+		int position = 0;
+
+		for (int i = 0; i < count; i++)
+		{
+			if (position + CENTRAL_HEADER_SIZE > directory.length
+					|| getInt(directory, position) != CENTRAL_SIGNATURE)
+			{
+				throw new ZipException("The central directory of " + url
+						+ " is damaged");
+			}
+
+			int nameLength = getShort(directory, position + 28);
+			int extraLength = getShort(directory, position + 30);
+			int commentLength = getShort(directory, position + 32);
+
+			Entry entry = new Entry();
+			entry.method = getShort(directory, position + 10);
+			entry.time = toJavaTime(getInt(directory, position + 12));
+			entry.crc = getUnsignedInt(directory, position + 16);
+			entry.compressedSize = getUnsignedInt(directory, position + 20);
+			entry.size = getUnsignedInt(directory, position + 24);
+			entry.offset = getUnsignedInt(directory, position + 42);
+			entry.name = new String(directory,
+					position + CENTRAL_HEADER_SIZE, nameLength, "UTF-8");
+
+			entries.add(entry);
+
+			position += CENTRAL_HEADER_SIZE + nameLength + extraLength
+					+ commentLength;
+		}
+
+		// Each entry's data ends, at the latest, where the next one starts;
+		// this also covers any data descriptor that follows it.
+		Collections.sort(entries, BY_OFFSET);
+
+		for (int i = 0; i < entries.size(); i++)
+		{
+			entries.get(i).end = (i + 1 < entries.size())
+					? entries.get(i + 1).offset : directoryOffset;
+		}
+
+		indexEntries(entries);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Takes the entries, in the order of their offsets, as the contents of
+	 * the archive, finding the root directory the same way
+	 * {@link ZipArchiveIndex} does.
+	 */
+	private void indexEntries(List<Entry> allEntries)
+	{
+		entries = allEntries;
+
+		String prefix = null;
+		boolean singleRoot = true;
+
+		for (Entry entry : entries)
+		{
+			if (ZipUtils.isIgnoredEntry(entry.name))
+			{
+				continue;
+			}
+
+			int slash = entry.name.indexOf('/');
+
+			if (slash == -1)
+			{
+				singleRoot = false;
+				break;
+			}
+			else if (prefix == null)
+			{
+				prefix = entry.name.substring(0, slash + 1);
+			}
+			else if (!entry.name.startsWith(prefix))
+			{
+				singleRoot = false;
+				break;
+			}
+		}
+
+		rootDirectory = (singleRoot && prefix != null)
+				? prefix.substring(0, prefix.length() - 1) : null;
+
+		entriesByPath = new HashMap<String, Entry>();
+
+		for (Entry entry : entries)
+		{
+			if (!ZipUtils.isIgnoredEntry(entry.name))
+			{
+				String path = (rootDirectory != null)
+						? entry.name.substring(rootDirectory.length() + 1)
+						: entry.name;
+
+				entriesByPath.put(path, entry);
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Fetches a run of entries, in the order of their offsets, with a
+	 * single request. Each entry is written to its file in the map, or to
+	 * the stream if it has none.
+	 */
+	private void fetch(List<Entry> run, Map<Entry, File> files,
+			OutputStream out) throws IOException
+	{
+		long start = run.get(0).offset;
+		long end = run.get(run.size() - 1).end;
+
+		HttpURLConnection http = openRange(start, end - start);
+
+		try
+		{
+			InputStream stream = http.getInputStream();
+
+			try
+			{
+				long position = start;
+				byte[] header = new byte[LOCAL_HEADER_SIZE];
+
+				for (Entry entry : run)
+				{
+					skip(stream, entry.offset - position);
+					readFully(stream, header, LOCAL_HEADER_SIZE);
+
+					if (getInt(header, 0) != LOCAL_SIGNATURE)
+					{
+						throw new ZipException("The entry " + entry.name
+								+ " in " + url + " is damaged");
+					}
+
+					int extra = getShort(header, 26) + getShort(header, 28);
+					skip(stream, extra);
+
+					File file = files.get(entry);
+
+					if (file != null)
+					{
+						extractEntry(stream, entry, file);
+					}
+					else
+					{
+						copyEntry(stream, entry, out);
+					}
+
+					position = entry.offset + LOCAL_HEADER_SIZE + extra
+							+ entry.compressedSize;
+				}
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		finally
+		{
+			http.disconnect();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Writes an entry to a temporary file next to its destination, and
+	 * then puts it in place.
+	 */
+	private void extractEntry(InputStream stream, Entry entry, File file)
+		throws IOException
+	{
+		File parent = file.getAbsoluteFile().getParentFile();
+		parent.mkdirs();
+
+		File tempFile = File.createTempFile(".webcat", ".tmp", parent);
+
+		try
+		{
+			OutputStream out = new FileOutputStream(tempFile);
+
+			try
+			{
+				copyEntry(stream, entry, out);
+			}
+			finally
+			{
+				out.close();
+			}
+
+			file.delete();
+
+			if (!tempFile.renameTo(file))
+			{
+				throw new IOException("The file " + file.getPath()
+						+ " could not be replaced.");
+			}
+		}
+		finally
+		{
+			tempFile.delete();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Reads the data of an entry from the stream, uncompresses it, and
+	 * checks it against the size and CRC in the central directory.
+	 */
+	private void copyEntry(InputStream stream, Entry entry,
+			OutputStream out) throws IOException
+	{
+		CRC32 crc = new CRC32();
+		byte[] buffer = new byte[ZipUtils.BUFFER_SIZE];
+		long written = 0;
+
+		if (entry.method == STORED)
+		{
+			long remaining = entry.compressedSize;
+
+			while (remaining > 0)
+			{
+				int count = read(stream, buffer,
+						(int) Math.min(buffer.length, remaining));
+
+				crc.update(buffer, 0, count);
+				out.write(buffer, 0, count);
+				remaining -= count;
+				written += count;
+			}
+		}
+		else if (entry.method == DEFLATED)
+		{
+			Inflater inflater = new Inflater(true);
+			byte[] input = new byte[ZipUtils.BUFFER_SIZE];
+			long remaining = entry.compressedSize;
+			boolean padded = false;
+
+			try
+			{
+				while (!inflater.finished())
+				{
+					if (inflater.needsInput())
+					{
+						if (remaining > 0)
+						{
+							int count = read(stream, input,
+									(int) Math.min(input.length, remaining));
+
+							inflater.setInput(input, 0, count);
+							remaining -= count;
+						}
+						else if (!padded)
+						{
+							// Without the zlib header, the inflater may
+							// want one more byte to see the end.
+							inflater.setInput(new byte[1]);
+							padded = true;
+						}
+						else
+						{
+							throw new ZipException("The entry " + entry.name
+									+ " in " + url + " is cut short");
+						}
+					}
+
+					int count = inflater.inflate(buffer);
+
+					if (count == 0 && inflater.needsDictionary())
+					{
+						throw new ZipException("The entry " + entry.name
+								+ " in " + url + " is damaged");
+					}
+
+					crc.update(buffer, 0, count);
+					out.write(buffer, 0, count);
+					written += count;
+				}
+			}
+			catch (DataFormatException e)
+			{
+				throw new ZipException("The entry " + entry.name + " in "
+						+ url + " is damaged: " + e.getMessage());
+			}
+			finally
+			{
+				inflater.end();
+			}
+
+			skip(stream, remaining);
+		}
+		else
+		{
+			throw new ZipException("The entry " + entry.name + " in " + url
+					+ " uses an unsupported compression method");
+		}
+
+		if (written != entry.size || crc.getValue() != entry.crc)
+		{
+			throw new ZipException("The entry " + entry.name + " in " + url
+					+ " is damaged");
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Fetches a range of bytes from the archive.
+	 */
+	private byte[] fetchRange(long start, long length) throws IOException
+	{
+		HttpURLConnection http = openRange(start, length);
+
+		try
+		{
+			InputStream stream = http.getInputStream();
+
+			try
+			{
+				byte[] bytes = new byte[(int) length];
+				readFully(stream, bytes, bytes.length);
+				return bytes;
+			}
+			finally
+			{
+				stream.close();
+			}
+		}
+		finally
+		{
+			http.disconnect();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Sends a request for a range of bytes from the version of the archive
+	 * that was opened.
+	 */
+	private HttpURLConnection openRange(long start, long length)
+		throws IOException
+	{
+		HttpURLConnection http = (HttpURLConnection) url.openConnection();
+
+		http.setRequestProperty("Range",
+				"bytes=" + start + "-" + (start + length - 1));
+		http.setRequestProperty("If-Range", validator);
+
+		if (http.getResponseCode() != HttpURLConnection.HTTP_PARTIAL
+				|| getContentRangeStart(http) != start)
+		{
+			http.disconnect();
+			throw new IOException(url + " changed on the server while it "
+					+ "was being read");
+		}
+
+		return http;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the first byte of the range in a partial response.
+	 *
+	 * @return the first byte, or -1 if the response has no valid
+	 *     Content-Range header
+	 */
+	private static long getContentRangeStart(HttpURLConnection http)
+	{
+		String range = http.getHeaderField("Content-Range");
+
+		if (range == null || !range.startsWith("bytes "))
+		{
+			return -1;
+		}
+
+		int dash = range.indexOf('-');
+
+		try
+		{
+			return Long.parseLong(range.substring(6, dash).trim());
+		}
+		catch (RuntimeException e)
+		{
+			return -1;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the length of the whole file from a partial response.
+	 *
+	 * @return the length, or -1 if the response has no valid Content-Range
+	 *     header or the length is not known
+	 */
+	private static long getContentRangeLength(HttpURLConnection http)
+	{
+		String range = http.getHeaderField("Content-Range");
+		int slash = (range != null) ? range.indexOf('/') : -1;
+
+		try
+		{
+			return (slash != -1)
+					? Long.parseLong(range.substring(slash + 1).trim()) : -1;
+		}
+		catch (NumberFormatException e)
+		{
+			return -1;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private byte[] readAll(InputStream stream) throws IOException
+	{
+		ByteArrayOutputStream out = new ByteArrayOutputStream();
+		byte[] buffer = new byte[ZipUtils.BUFFER_SIZE];
+		int count;
+
+		while ((count = stream.read(buffer)) != -1)
+		{
+			out.write(buffer, 0, count);
+			received(count);
+		}
+
+		return out.toByteArray();
+	}
+
+
+	// ----------------------------------------------------------
+	private int read(InputStream stream, byte[] buffer, int length)
+		throws IOException
+	{
+		int count = stream.read(buffer, 0, length);
+
+		if (count == -1)
+		{
+			throw new EOFException("The connection to " + url
+					+ " was closed early");
+		}
+
+		received(count);
+		return count;
+	}
+
+
+	// ----------------------------------------------------------
+	private void readFully(InputStream stream, byte[] buffer, int length)
+		throws IOException
+	{
+		int offset = 0;
+
+		while (offset < length)
+		{
+			int count = stream.read(buffer, offset, length - offset);
+
+			if (count == -1)
+			{
+				throw new EOFException("The connection to " + url
+						+ " was closed early");
+			}
+
+			received(count);
+			offset += count;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void skip(InputStream stream, long length) throws IOException
+	{
+		byte[] buffer = new byte[(int) Math.min(length, ZipUtils.BUFFER_SIZE)];
+		long remaining = length;
+
+		while (remaining > 0)
+		{
+			remaining -= read(stream, buffer,
+					(int) Math.min(buffer.length, remaining));
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private synchronized void received(int count)
+	{
+		bytesReceived += count;
+	}
+
+
+	// ----------------------------------------------------------
+	private static int getShort(byte[] bytes, int offset)
+	{
+		return (bytes[offset] & 0xFF) | ((bytes[offset + 1] & 0xFF) << 8);
+	}
+
+
+	// ----------------------------------------------------------
+	private static int getInt(byte[] bytes, int offset)
+	{
+		return getShort(bytes, offset) | (getShort(bytes, offset + 2) << 16);
+	}
+
+
+	// ----------------------------------------------------------
+	private static long getUnsignedInt(byte[] bytes, int offset)
+	{
+		return getInt(bytes, offset) & 0xFFFFFFFFL;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Converts an MS-DOS date and time, in local time, to a Java time, the
+	 * way {@link java.util.zip.ZipEntry#getTime()} does.
+	 */
+	private static long toJavaTime(int dosTime)
+	{
+		Calendar calendar = Calendar.getInstance();
+		calendar.clear();
+		calendar.set(((dosTime >> 25) & 0x7f) + 1980,
+				((dosTime >> 21) & 0x0f) - 1,
+				(dosTime >> 16) & 0x1f,
+				(dosTime >> 11) & 0x1f,
+				(dosTime >> 5) & 0x3f,
+				(dosTime << 1) & 0x3e);
+
+		return calendar.getTimeInMillis();
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * An entry in the archive's central directory.
+	 */
+	public static class Entry
+	{
+		private String name;
+		private int method;
+		private long crc;
+		private long compressedSize;
+		private long size;
+		private long offset;
+		private long time;
+
+		/* Where the entry's data ends at the latest. */
+		private long end;
+
+
+		// ----------------------------------------------------------
+		/**
+		 * Gets the full name of the entry, including the root directory.
+		 *
+		 * @return the name
+		 */
+		public String getName()
+		{
+			return name;
+		}
+
+
+		// ----------------------------------------------------------
+		/**
+		 * Gets the uncompressed size of the entry.
+		 *
+		 * @return the size in bytes
+		 */
+		public long getSize()
+		{
+			return size;
+		}
+
+
+		// ----------------------------------------------------------
+		/**
+		 * Gets the modification time of the entry.
+		 *
+		 * @return the modification time, in milliseconds since the epoch
+		 */
+		public long getTime()
+		{
+			return time;
+		}
+	}
+
+}
@@ -0,0 +1,743 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipInputStream;
+
+//--------------------------------------------------------------------------
+/**
+ * Unpacks a zip archive directly from a (network) stream without first
+ * copying it to a temporary file. The work is split into three stages that
+ * run at the same time and are linked by bounded queues:
+ *
+ * <ol>
+ * <li>a reader thread that pulls raw bytes off the input stream;</li>
+ * <li>the calling thread, which inflates the entries; and</li>
+ * <li>a writer thread that writes the inflated data to disk.</li>
+ * </ol>
+ *
+ * While the entries go by, the unpacker also works out whether the archive
+ * has a single directory at its root and keeps the contents of the Eclipse
+ * project description, so the archive only has to be read once.
+ *
+ * @author Web-CAT Development Team
+ */
+public class StreamingUnpacker
+{
+	//~ Instance/static variables .............................................
+
+	private File destDir;
+
+	private String rootPrefix;
+	private boolean sawRootEntry;
+	private byte[] rootDescription;
+	private Map<String, byte[]> prefixedDescriptions;
+	private int entryCount;
+
+	private BlockingQueue<Chunk> rawQueue;
+	private BlockingQueue<WriteOp> writeQueue;
+	private BlockingQueue<byte[]> freeBuffers;
+	private BlockingQueue<byte[]> freeRawBuffers;
+
+	private volatile Throwable readerError;
+	private volatile Throwable writerError;
+
+	private static final int CHUNK_SIZE = 65536;
+	private static final int QUEUE_CAPACITY = 16;
+	private static final String PROJECT_FILE = ".project";
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates a new unpacker that will write the archive's contents into the
+	 * specified directory.
+	 *
+	 * @param destDir the directory to unpack into
+	 */
+	public StreamingUnpacker(File destDir)
+	{
+		this.destDir = destDir;
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Unpacks the archive read from the specified stream. The stream is read
+	 * to the end but is not closed.
+	 *
+	 * @param stream the stream containing the zip archive
+	 * @throws IOException if an I/O error occurs in any of the stages
+	 */
+	public void unpack(InputStream stream) throws IOException
+	{
+		rootPrefix = null;
+		sawRootEntry = false;
+		rootDescription = null;
+		prefixedDescriptions = new HashMap<String, byte[]>();
+		entryCount = 0;
+
+		rawQueue = new ArrayBlockingQueue<Chunk>(QUEUE_CAPACITY);
+		writeQueue = new ArrayBlockingQueue<WriteOp>(QUEUE_CAPACITY);
+		freeBuffers = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY + 2);
+		freeRawBuffers = new ArrayBlockingQueue<byte[]>(QUEUE_CAPACITY + 2);
+
+		Thread reader = new Thread(new Reader(stream),
+				"Web-CAT Unpacker Reader");
+		Thread writer = new Thread(new Writer(),
+				"Web-CAT Unpacker Writer");
+		reader.setDaemon(true);
+		writer.setDaemon(true);
+
+		reader.start();
+		writer.start();
+
+		boolean finished = false;
+
+		try
+		{
+			inflate();
+			finished = true;
+		}
+		finally
+		{
+			stopWriter(writer);
+
+			if (finished)
+			{
+				join(reader);
+			}
+			else
+			{
+				// Unblock the reader if it is waiting on a full queue. If it is
+				// blocked on the network instead, it stops when the caller
+				// closes the stream.
+				reader.interrupt();
+			}
+		}
+
+		rethrow(readerError);
+		rethrow(writerError);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the name of the single directory at the root of the archive, if
+	 * there is one.
+	 *
+	 * @return the name of the root directory, or null if the archive has
+	 *     more than one item at its root
+	 */
+	public String getRootDirectory()
+	{
+		if (rootPrefix != null && !sawRootEntry)
+		{
+			return rootPrefix;
+		}
+		else
+		{
+			return null;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the contents of the Eclipse project description file in the
+	 * archive, either at its root or in its single root directory.
+	 *
+	 * @return the contents of the .project file, or null if there was none
+	 */
+	public byte[] getProjectDescription()
+	{
+		String root = getRootDirectory();
+
+		if (root == null)
+		{
+			return rootDescription;
+		}
+		else
+		{
+			return prefixedDescriptions.get(root);
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of entries that were written to disk.
+	 *
+	 * @return the number of entries unpacked
+	 */
+	public int getEntryCount()
+	{
+		return entryCount;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * The inflate stage, run on the calling thread.
+	 */
+	private void inflate() throws IOException
+	{
+		QueueInputStream rawStream = new QueueInputStream();
+		ZipInputStream zipStream = new ZipInputStream(rawStream);
+
+		ZipEntry zipEntry = zipStream.getNextEntry();
+		while (zipEntry != null)
+		{
+			String name = zipEntry.getName();
+
+			if (!ZipUtils.isIgnoredEntry(name))
+			{
+				trackRoot(name);
+
+				File destFile = ZipUtils.resolveEntry(destDir, name);
+
+				if (zipEntry.isDirectory())
+				{
+					putWriteOp(new WriteOp(destFile, true));
+				}
+				else
+				{
+					inflateEntry(zipStream, name, destFile,
+							zipEntry.getTime());
+				}
+
+				entryCount++;
+			}
+
+			zipStream.closeEntry();
+			zipEntry = zipStream.getNextEntry();
+		}
+
+		// Drain the central directory and anything after it so that the
+		// reader can finish.
+		byte[] buffer = new byte[CHUNK_SIZE];
+		while (rawStream.read(buffer, 0, buffer.length) > -1)
+		{
+			// Do nothing.
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void inflateEntry(ZipInputStream zipStream, String name,
+			File destFile, long time) throws IOException
+	{
+		ByteArrayOutputStream description = null;
+
+		if (isProjectDescription(name))
+		{
+			description = new ByteArrayOutputStream();
+		}
+
+		putWriteOp(new WriteOp(destFile, false));
+
+		byte[] buffer = takeBuffer();
+		int count = zipStream.read(buffer);
+
+		while (count > -1)
+		{
+			if (count > 0)
+			{
+				if (description != null)
+				{
+					description.write(buffer, 0, count);
+				}
+
+				putWriteOp(new WriteOp(buffer, count));
+				buffer = takeBuffer();
+			}
+
+			count = zipStream.read(buffer);
+		}
+
+		freeBuffers.offer(buffer);
+		putWriteOp(new WriteOp(time));
+
+		if (description != null)
+		{
+			int slash = name.indexOf('/');
+
+			if (slash == -1)
+			{
+				rootDescription = description.toByteArray();
+			}
+			else
+			{
+				prefixedDescriptions.put(name.substring(0, slash),
+						description.toByteArray());
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private void trackRoot(String name)
+	{
+		int slash = name.indexOf('/');
+
+		if (slash == -1)
+		{
+			sawRootEntry = true;
+		}
+		else
+		{
+			String prefix = name.substring(0, slash);
+
+			if (rootPrefix == null)
+			{
+				rootPrefix = prefix;
+			}
+			else if (!rootPrefix.equals(prefix))
+			{
+				sawRootEntry = true;
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static boolean isProjectDescription(String name)
+	{
+		if (PROJECT_FILE.equals(name))
+		{
+			return true;
+		}
+
+		int slash = name.indexOf('/');
+		return slash != -1 && name.indexOf('/', slash + 1) == -1
+				&& name.endsWith("/" + PROJECT_FILE);
+	}
+
+
+	// ----------------------------------------------------------
+	private byte[] takeBuffer()
+	{
+		byte[] buffer = freeBuffers.poll();
+		return (buffer != null) ? buffer : new byte[CHUNK_SIZE];
+	}
+
+
+	// ----------------------------------------------------------
+	private byte[] takeRawBuffer()
+	{
+		byte[] buffer = freeRawBuffers.poll();
+		return (buffer != null) ? buffer : new byte[CHUNK_SIZE];
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Hands an operation to the writer, failing fast if the writer has
+	 * already run into an error. The writer keeps draining the queue after an
+	 * error, so this never blocks forever.
+	 */
+	private void putWriteOp(WriteOp op) throws IOException
+	{
+		try
+		{
+			writeQueue.put(op);
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+			throw new InterruptedIOException();
+		}
+
+		rethrow(writerError);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Tells the writer to finish and waits for it.
+	 */
+	private void stopWriter(Thread writer)
+	{
+		try
+		{
+			writeQueue.put(WriteOp.END);
+		}
+		catch (InterruptedException e)
+		{
+			writer.interrupt();
+			Thread.currentThread().interrupt();
+		}
+
+		join(writer);
+	}
+
+
+	// ----------------------------------------------------------
+	private static void join(Thread thread)
+	{
+		try
+		{
+			thread.join();
+		}
+		catch (InterruptedException e)
+		{
+			Thread.currentThread().interrupt();
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	private static void rethrow(Throwable error) throws IOException
+	{
+		if (error instanceof IOException)
+		{
+			throw (IOException) error;
+		}
+		else if (error instanceof RuntimeException)
+		{
+			throw (RuntimeException) error;
+		}
+		else if (error instanceof Error)
+		{
+			throw (Error) error;
+		}
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * A block of raw bytes read from the network. A chunk with a negative
+	 * length marks the end of the stream.
+	 */
+	private static class Chunk
+	{
+		public byte[] data;
+		public int length;
+
+
+		// ----------------------------------------------------------
+		public Chunk(byte[] data, int length)
+		{
+			this.data = data;
+			this.length = length;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * An operation for the writer stage: start a file or directory, write a
+	 * block of data to the current file, finish the current file, or stop.
+	 */
+	private static class WriteOp
+	{
+		public static final WriteOp END = new WriteOp(-1L);
+
+		public File file;
+		public boolean directory;
+		public byte[] data;
+		public int length;
+		public long time;
+
+
+		// ----------------------------------------------------------
+		public WriteOp(File file, boolean directory)
+		{
+			this.file = file;
+			this.directory = directory;
+		}
+
+
+		// ----------------------------------------------------------
+		public WriteOp(byte[] data, int length)
+		{
+			this.data = data;
+			this.length = length;
+		}
+
+
+		// ----------------------------------------------------------
+		public WriteOp(long time)
+		{
+			this.time = time;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * The reader stage, which copies the raw stream into the queue.
+	 */
+	private class Reader implements Runnable
+	{
+		private InputStream stream;
+
+
+		// ----------------------------------------------------------
+		public Reader(InputStream stream)
+		{
+			this.stream = stream;
+		}
+
+
+		// ----------------------------------------------------------
+		public void run()
+		{
+			try
+			{
+				try
+				{
+					byte[] buffer = takeRawBuffer();
+					int count = stream.read(buffer);
+
+					while (count > -1)
+					{
+						if (count > 0)
+						{
+							rawQueue.put(new Chunk(buffer, count));
+							buffer = takeRawBuffer();
+						}
+
+						count = stream.read(buffer);
+					}
+				}
+				catch (IOException e)
+				{
+					readerError = e;
+				}
+				catch (RuntimeException e)
+				{
+					readerError = e;
+				}
+
+				rawQueue.put(new Chunk(null, -1));
+			}
+			catch (InterruptedException e)
+			{
+				// The inflater gave up; nobody is listening any more.
+			}
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Presents the chunks in the raw queue as an input stream for the
+	 * inflater.
+	 */
+	private class QueueInputStream extends InputStream
+	{
+		private Chunk current;
+		private int position;
+		private boolean eof;
+
+
+		// ----------------------------------------------------------
+		@Override
+		public int read() throws IOException
+		{
+			byte[] one = new byte[1];
+			int count = read(one, 0, 1);
+			return (count == -1) ? -1 : (one[0] & 0xFF);
+		}
+
+
+		// ----------------------------------------------------------
+		@Override
+		public int read(byte[] b, int off, int len) throws IOException
+		{
+			if (!fill())
+			{
+				rethrow(readerError);
+				return -1;
+			}
+
+			int count = Math.min(len, current.length - position);
+			System.arraycopy(current.data, position, b, off, count);
+			position += count;
+
+			return count;
+		}
+
+
+		// ----------------------------------------------------------
+		private boolean fill() throws IOException
+		{
+			if (eof)
+			{
+				return false;
+			}
+
+			while (current == null || position >= current.length)
+			{
+				if (current != null)
+				{
+					freeRawBuffers.offer(current.data);
+				}
+
+				try
+				{
+					current = rawQueue.take();
+					position = 0;
+				}
+				catch (InterruptedException e)
+				{
+					Thread.currentThread().interrupt();
+					throw new InterruptedIOException();
+				}
+
+				if (current.length < 0)
+				{
+					eof = true;
+					return false;
+				}
+			}
+
+			return true;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * The writer stage, which creates the files and directories.
+	 */
+	private class Writer implements Runnable
+	{
+		private OutputStream out;
+		private File file;
+
+
+		// ----------------------------------------------------------
+		public void run()
+		{
+			boolean failed = false;
+
+			while (true)
+			{
+				WriteOp op;
+
+				try
+				{
+					op = writeQueue.take();
+				}
+				catch (InterruptedException e)
+				{
+					break;
+				}
+
+				if (op == WriteOp.END)
+				{
+					break;
+				}
+				else if (failed)
+				{
+					// Keep draining so the inflater never blocks.
+					continue;
+				}
+
+				try
+				{
+					apply(op);
+				}
+				catch (Throwable e)
+				{
+					writerError = e;
+					failed = true;
+					closeQuietly();
+				}
+			}
+
+			closeQuietly();
+		}
+
+
+		// ----------------------------------------------------------
+		private void apply(WriteOp op) throws IOException
+		{
+			if (op.file != null)
+			{
+				if (op.directory)
+				{
+					op.file.mkdirs();
+				}
+				else
+				{
+					File parent = op.file.getParentFile();
+
+					if (parent != null && !parent.exists())
+					{
+						parent.mkdirs();
+					}
+
+					file = op.file;
+					out = new FileOutputStream(file);
+				}
+			}
+			else if (op.data != null)
+			{
+				out.write(op.data, 0, op.length);
+				freeBuffers.offer(op.data);
+			}
+			else
+			{
+				out.close();
+				out = null;
+				file.setLastModified(op.time);
+			}
+		}
+
+
+		// ----------------------------------------------------------
+		private void closeQuietly()
+		{
+			if (out != null)
+			{
+				try
+				{
+					out.close();
+				}
+				catch (IOException e)
+				{
+					// Do nothing.
+				}
+
+				out = null;
+			}
+		}
+	}
+}
@@ -0,0 +1,634 @@
+/*==========================================================================*\
+ |  Copyright (C) 2012 Virginia Tech
+ |
+ |  This file is part of Web-CAT Eclipse Plugins.
+ |
+ |  Web-CAT is free software; you can redistribute it and/or modify
+ |  it under the terms of the GNU General Public License as published by
+ |  the Free Software Foundation; either version 2 of the License, or
+ |  (at your option) any later version.
+ |
+ |  Web-CAT is distributed in the hope that it will be useful,
+ |  but WITHOUT ANY WARRANTY; without even the implied warranty of
+ |  MERCHANTABILITY or FITNESS FOR A PARTICULAR PURPOSE.  See the
+ |  GNU General Public License for more details.
+ |
+ |  You should have received a copy of the GNU General Public License along
+ |  with Web-CAT; if not, see <http://www.gnu.org/licenses/>.
+\*==========================================================================*/
+
+package org.webcat.eclipse.projectlink.util;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Enumeration;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.SynchronousQueue;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+//--------------------------------------------------------------------------
+/**
+ * An index of the contents of a zip archive, built by reading the archive's
+ * central directory a single time. The index knows whether the archive has a
+ * single directory at its root, where the Eclipse project description is,
+ * and how much data the archive holds, and it can extract the archive into a
+ * directory while stripping the root directory from the entry names.
+ *
+ * The index keeps the archive open until {@link #close()} is called.
+ *
+ * @author Web-CAT Development Team
+ */
+public class ZipArchiveIndex
+{
+	//~ Instance/static variables .............................................
+
+	private ZipFile zipFile;
+	private List<ZipEntry> entries;
+	private String rootDirectory;
+	private ZipEntry projectDescription;
+	private long totalSize;
+
+	private static ExecutorService helperPool;
+
+	/* Each copy thread keeps its own buffer for every file it extracts. */
+	private static final ThreadLocal<byte[]> buffers =
+			new ThreadLocal<byte[]>() {
+				@Override
+				protected byte[] initialValue()
+				{
+					return new byte[ZipUtils.BUFFER_SIZE];
+				}
+			};
+
+	/* Archives with fewer files than this per thread are not worth
+	   splitting up any further. */
+	private static final int MIN_FILES_PER_THREAD = 16;
+
+	private static final long HELPER_KEEP_ALIVE_SECONDS = 30;
+	private static final String PROJECT_FILE = ".project";
+
+
+	//~ Constructors ..........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens the specified archive and indexes its contents.
+	 *
+	 * @param file the zip file
+	 * @throws IOException if the archive could not be read
+	 */
+	public ZipArchiveIndex(File file) throws IOException
+	{
+		zipFile = new ZipFile(file);
+
+		try
+		{
+			index();
+		}
+		catch (IOException e)
+		{
+			close();
+			throw e;
+		}
+		catch (RuntimeException e)
+		{
+			close();
+			throw e;
+		}
+	}
+
+
+	//~ Methods ...............................................................
+
+	// ----------------------------------------------------------
+	private void index() throws IOException
+	{
+		entries = new ArrayList<ZipEntry>();
+
+		String prefix = null;
+		boolean singleRoot = true;
+
+		Enumeration<? extends ZipEntry> e = zipFile.entries();
+		while (e.hasMoreElements())
+		{
+			ZipEntry entry = e.nextElement();
+			String name = entry.getName();
+
+			if (ZipUtils.isIgnoredEntry(name))
+			{
+				continue;
+			}
+
+			entries.add(entry);
+
+			if (entry.getSize() > 0)
+			{
+				totalSize += entry.getSize();
+			}
+
+			if (singleRoot)
+			{
+				int slash = name.indexOf('/');
+
+				if (slash == -1)
+				{
+					singleRoot = false;
+				}
+				else
+				{
+					String thisPrefix = name.substring(0, slash + 1);
+
+					if (prefix == null)
+					{
+						prefix = thisPrefix;
+					}
+					else if (!prefix.equals(thisPrefix))
+					{
+						singleRoot = false;
+					}
+				}
+			}
+		}
+
+		if (singleRoot && prefix != null)
+		{
+			rootDirectory = prefix.substring(0, prefix.length() - 1);
+			projectDescription = zipFile.getEntry(prefix + PROJECT_FILE);
+		}
+		else
+		{
+			rootDirectory = null;
+			projectDescription = zipFile.getEntry(PROJECT_FILE);
+		}
+
+		entries = Collections.unmodifiableList(entries);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the name of the single directory at the root of the archive.
+	 * Operating system clutter such as "__MACOSX" is not taken into account.
+	 *
+	 * @return the name of the root directory, or null if the archive has
+	 *     more than one item at its root
+	 */
+	public String getRootDirectory()
+	{
+		return rootDirectory;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the entry for the Eclipse project description, which is looked
+	 * for inside the root directory if the archive has one, or at the top
+	 * level otherwise.
+	 *
+	 * @return the entry for the .project file, or null if there is none
+	 */
+	public ZipEntry getProjectDescriptionEntry()
+	{
+		return projectDescription;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the entries in the archive, in central directory order, excluding
+	 * operating system clutter.
+	 *
+	 * @return an unmodifiable list of entries
+	 */
+	public List<ZipEntry> getEntries()
+	{
+		return entries;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the number of entries in the archive, excluding operating system
+	 * clutter.
+	 *
+	 * @return the number of entries
+	 */
+	public int getEntryCount()
+	{
+		return entries.size();
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the total uncompressed size of the entries in the archive.
+	 *
+	 * @return the total uncompressed size, in bytes
+	 */
+	public long getTotalSize()
+	{
+		return totalSize;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the underlying zip file.
+	 *
+	 * @return the zip file
+	 */
+	public ZipFile getZipFile()
+	{
+		return zipFile;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Opens a stream to read the contents of an entry in the archive.
+	 *
+	 * @param entry the entry
+	 * @return a stream for the entry's contents
+	 * @throws IOException if an I/O error occurs
+	 */
+	public InputStream getInputStream(ZipEntry entry) throws IOException
+	{
+		return zipFile.getInputStream(entry);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the path of an entry relative to the archive's root directory; that
+	 * is, with the root directory (if any) stripped from the front.
+	 *
+	 * @param entry the entry
+	 * @return the relative path of the entry, which is empty for the root
+	 *     directory itself
+	 */
+	public String getRelativePath(ZipEntry entry)
+	{
+		String name = entry.getName();
+
+		if (rootDirectory != null)
+		{
+			return name.substring(rootDirectory.length() + 1);
+		}
+		else
+		{
+			return name;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the file that an entry should be extracted to inside the
+	 * specified directory, with the root directory stripped.
+	 *
+	 * @param destDir the directory being extracted into
+	 * @param entry the entry
+	 * @return the destination file
+	 * @throws IOException if the entry's name would place it outside of the
+	 *     destination directory
+	 */
+	public File getDestinationFile(File destDir, ZipEntry entry)
+		throws IOException
+	{
+		return ZipUtils.resolveEntry(destDir, getRelativePath(entry));
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Extracts the contents of the archive into the specified directory,
+	 * stripping the root directory (if any) from the entry names so that no
+	 * rename is needed afterwards.
+	 *
+	 * @param destDir the directory to extract into
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void extractTo(File destDir) throws IOException
+	{
+		extractTo(destDir, 1);
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Extracts the contents of the archive into the specified directory like
+	 * {@link #extractTo(File)}, using up to the specified number of threads.
+	 * The directory tree is created up front; the files are then claimed one
+	 * at a time by the calling thread and by helpers from a shared pool, so
+	 * a few large files do not hold up the rest. Helpers that are busy with
+	 * other archives simply leave more of the work to the calling thread.
+	 * Timestamps are set once every file has been written.
+	 *
+	 * @param destDir the directory to extract into
+	 * @param threadCount the maximum number of threads to use, including the
+	 *     calling thread
+	 * @throws IOException if an I/O error occurs
+	 */
+	public void extractTo(File destDir, int threadCount) throws IOException
+	{
+		List<FileToExtract> files = prepareExtraction(destDir);
+		Extraction extraction = new Extraction(files);
+
+		int helperCount = Math.min(threadCount,
+				files.size() / MIN_FILES_PER_THREAD) - 1;
+
+		for (int i = 0; i < helperCount; i++)
+		{
+			getHelperPool().execute(extraction);
+		}
+
+		extraction.work();
+		extraction.finish();
+
+		for (FileToExtract file : files)
+		{
+			file.destFile.setLastModified(file.entry.getTime());
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Creates every directory that the archive needs, checking each one only
+	 * once, and works out where each file goes. If the archive contains the
+	 * same name twice, only the last one is kept, as it would be when
+	 * extracting sequentially.
+	 */
+	private List<FileToExtract> prepareExtraction(File destDir)
+		throws IOException
+	{
+		Set<File> dirs = new HashSet<File>();
+		Map<File, FileToExtract> files =
+				new LinkedHashMap<File, FileToExtract>();
+
+		dirs.add(destDir);
+
+		for (ZipEntry entry : entries)
+		{
+			File destFile = getDestinationFile(destDir, entry);
+
+			if (entry.isDirectory())
+			{
+				dirs.add(destFile);
+			}
+			else
+			{
+				File destParent = destFile.getParentFile();
+
+				if (destParent != null)
+				{
+					dirs.add(destParent);
+				}
+
+				files.remove(destFile);
+				files.put(destFile, new FileToExtract(entry, destFile));
+			}
+		}
+
+		List<File> sortedDirs = new ArrayList<File>(dirs);
+		Collections.sort(sortedDirs);
+
+		for (File dir : sortedDirs)
+		{
+			if (!dir.isDirectory())
+			{
+				dir.mkdirs();
+			}
+		}
+
+		return new ArrayList<FileToExtract>(files.values());
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the pool of helper threads shared by all extractions, creating it
+	 * if necessary. The pool has no core threads, so idle helpers time out
+	 * and it costs nothing between imports. Work is handed straight to a
+	 * helper rather than queued; when every helper is busy the work is
+	 * dropped, which leaves it to the calling thread.
+	 */
+	private static synchronized ExecutorService getHelperPool()
+	{
+		if (helperPool == null)
+		{
+			int size = Runtime.getRuntime().availableProcessors();
+
+			helperPool = new ThreadPoolExecutor(0, size,
+					HELPER_KEEP_ALIVE_SECONDS, TimeUnit.SECONDS,
+					new SynchronousQueue<Runnable>(),
+					new ThreadFactory() {
+						private AtomicInteger count = new AtomicInteger();
+
+						public Thread newThread(Runnable runnable)
+						{
+							Thread thread = new Thread(runnable,
+									"Web-CAT Extraction Worker "
+									+ count.incrementAndGet());
+							thread.setDaemon(true);
+							return thread;
+						}
+					},
+					new ThreadPoolExecutor.DiscardPolicy());
+		}
+
+		return helperPool;
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Closes the archive.
+	 */
+	public void close()
+	{
+		try
+		{
+			zipFile.close();
+		}
+		catch (IOException e)
+		{
+			// Do nothing.
+		}
+	}
+
+
+	//~ Nested classes ........................................................
+
+	// ----------------------------------------------------------
+	/**
+	 * An archive entry and the file it is extracted to.
+	 */
+	private static class FileToExtract
+	{
+		public ZipEntry entry;
+		public File destFile;
+
+
+		// ----------------------------------------------------------
+		public FileToExtract(ZipEntry entry, File destFile)
+		{
+			this.entry = entry;
+			this.destFile = destFile;
+		}
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * The files of one extraction, which the calling thread and any helpers
+	 * claim one at a time until they are all written or one of them fails.
+	 */
+	private class Extraction implements Runnable
+	{
+		private List<FileToExtract> files;
+		private AtomicInteger nextFile = new AtomicInteger();
+		private volatile IOException error;
+
+		private int activeHelpers;
+		private boolean finished;
+
+
+		// ----------------------------------------------------------
+		public Extraction(List<FileToExtract> files)
+		{
+			this.files = files;
+		}
+
+
+		// ----------------------------------------------------------
+		/**
+		 * Runs on a helper thread. A helper that only gets to run after the
+		 * calling thread has finished has nothing left to do.
+		 */
+		public void run()
+		{
+			synchronized (this)
+			{
+				if (finished)
+				{
+					return;
+				}
+
+				activeHelpers++;
+			}
+
+			try
+			{
+				work();
+			}
+			finally
+			{
+				synchronized (this)
+				{
+					activeHelpers--;
+					notifyAll();
+				}
+			}
+		}
+
+
+		// ----------------------------------------------------------
+		/**
+		 * Writes files until there are none left to claim.
+		 */
+		public void work()
+		{
+			byte[] buffer = buffers.get();
+			int index;
+
+			while (error == null
+					&& (index = nextFile.getAndIncrement()) < files.size())
+			{
+				try
+				{
+					extract(files.get(index), buffer);
+				}
+				catch (IOException e)
+				{
+					error = e;
+				}
+			}
+		}
+
+
+		// ----------------------------------------------------------
+		/**
+		 * Waits for the helpers that are still writing files, and then
+		 * rethrows the first failure, if any.
+		 */
+		public void finish() throws IOException
+		{
+			synchronized (this)
+			{
+				finished = true;
+
+				while (activeHelpers > 0)
+				{
+					try
+					{
+						wait();
+					}
+					catch (InterruptedException e)
+					{
+						Thread.currentThread().interrupt();
+						error = new InterruptedIOException();
+						break;
+					}
+				}
+			}
+
+			if (error != null)
+			{
+				throw error;
+			}
+		}
+
+
+		// ----------------------------------------------------------
+		private void extract(FileToExtract file, byte[] buffer)
+			throws IOException
+		{
+			InputStream in = zipFile.getInputStream(file.entry);
+
+			try
+			{
+				OutputStream out = new FileOutputStream(file.destFile);
+
+				try
+				{
+					ZipUtils.copyStream(in, out, buffer);
+				}
+				finally
+				{
+					out.close();
+				}
+			}
+			finally
+			{
+				in.close();
+			}
+		}
+	}
+}
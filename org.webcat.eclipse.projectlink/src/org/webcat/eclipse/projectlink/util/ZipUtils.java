@@ -19,9 +19,7 @@
 
 package org.webcat.eclipse.projectlink.util;
 
-import java.util.Enumeration;
 import java.util.zip.ZipEntry;
-import java.util.zip.ZipFile;
 import java.util.zip.ZipInputStream;
 import java.io.FileInputStream;
 import java.io.FileOutputStream;
@@ -40,6 +38,12 @@ import java.io.InputStream;
  */
 public class ZipUtils
 {
+	//~ Instance/static variables .............................................
+
+	/* The size of the buffers used to copy streams. */
+	public static final int BUFFER_SIZE = 65536;
+
+
 	//~ Constructors ..........................................................
 
     // ----------------------------------------------------------
@@ -65,42 +69,61 @@ public class ZipUtils
 	 */
 	public static String directoryAtArchiveRoot(File file) throws IOException
 	{
-		ZipFile zipFile = new ZipFile(file);
+		ZipArchiveIndex index = new ZipArchiveIndex(file);
 
-		String lastPrefix = null;
-
-		Enumeration<? extends ZipEntry> entries = zipFile.entries();
-		while (entries.hasMoreElements())
+		try
 		{
-			ZipEntry entry = entries.nextElement();
-			
-			int slash = entry.getName().indexOf('/');
-
-			if (slash != -1)
-			{
-				String thisPrefix = entry.getName().substring(0, slash + 1);
-				
-				if (lastPrefix != null && !thisPrefix.equals(lastPrefix))
-				{
-					return null;
-				}
-				
-				lastPrefix = thisPrefix;
-			}
-			else
-			{
-				return null;
-			}
+			return index.getRootDirectory();
 		}
-
-		if (lastPrefix != null)
+		finally
 		{
-			return lastPrefix.substring(0, lastPrefix.length() - 1);
+			index.close();
 		}
-		else
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets a value indicating whether the specified archive entry is
+	 * operating system clutter (such as the Mac OS X resource fork folder or
+	 * Finder metadata) that should not be unpacked.
+	 *
+	 * @param name the name of the archive entry
+	 * @return true if the entry should be skipped; otherwise, false
+	 */
+	public static boolean isIgnoredEntry(String name)
+	{
+		return name == null
+				|| name.equals(".DS_Store")
+				|| name.equals("__MACOSX")
+				|| name.startsWith("__MACOSX/")
+				|| name.endsWith("/.DS_Store");
+	}
+
+
+	// ----------------------------------------------------------
+	/**
+	 * Gets the file that an archive entry should be unpacked to, refusing
+	 * entries whose names would place them outside of the destination
+	 * directory.
+	 *
+	 * @param destDir the directory being unpacked into
+	 * @param name the name of the entry
+	 * @return the destination file
+	 * @throws IOException if the entry name is absolute or contains ".."
+	 */
+	public static File resolveEntry(File destDir, String name)
+		throws IOException
+	{
+		String path = name.replace('\\', '/');
+
+		if (path.startsWith("/") || ("/" + path + "/").contains("/../"))
 		{
-			return null;
+			throw new IOException("The archive entry \"" + name
+					+ "\" refers to a location outside of the project.");
 		}
+
+		return (path.length() == 0) ? destDir : new File(destDir, path);
 	}
 
 
@@ -124,24 +147,22 @@ public class ZipUtils
 	    {
 	        String name = zipEntry.getName();
 
-	        if (zipEntry.isDirectory())
+	        if (isIgnoredEntry(name))
 	        {
-	            if (!"__MACOSX".equals(name))
-	            {
-	                File destDir = new File(destPath, name);
+	            // Skip it.
+	        }
+	        else if (zipEntry.isDirectory())
+	        {
+	            File destDir = resolveEntry(destPath, name);
 	
-	                if (!destDir.exists())
-	                {
-	                    destDir.mkdirs();
-	                }
+	            if (!destDir.exists())
+	            {
+	                destDir.mkdirs();
 	            }
 	        }
-	        else if (name != null
-	                  && !(name.equals(".DS_Store")
-	                       || name.startsWith("__MACOSX/")
-	                       || name.endsWith("/.DS_Store")))
+	        else
 	        {
-	            File destFile = new File(destPath, name);
+	            File destFile = resolveEntry(destPath, name);
 	            File destParent = destFile.getParentFile();
 	
 	            if (destParent != null  &&  !destParent.exists())
@@ -159,6 +180,39 @@ public class ZipUtils
 	    stream.close();
 	}
 
+
+	// ----------------------------------------------------------
+    /**
+     * Extracts the contents of the zip file into the given location, using up
+     * to the specified number of threads to decompress and write entries at
+     * the same time. The result is identical to that of
+     * {@link #unpack(File, File)}.
+     *
+     * @param destPath the directory to extract into
+     * @param zipFile the zip file
+     * @param threadCount the maximum number of threads to use
+     * @throws IOException if an I/O error occurs
+     */
+    public static void unpack(File destPath, File zipFile, int threadCount)
+        throws IOException
+    {
+        ZipArchiveIndex index = new ZipArchiveIndex(zipFile);
+
+        try
+        {
+            // The index strips the root directory, so put it back.
+            String root = index.getRootDirectory();
+            File destDir = (root != null)
+                    ? resolveEntry(destPath, root) : destPath;
+
+            index.extractTo(destDir, threadCount);
+        }
+        finally
+        {
+            index.close();
+        }
+    }
+
     
     // ----------------------------------------------------------
     public static void copyStreamToFile(InputStream stream, File destFile,
@@ -177,10 +231,23 @@ public class ZipUtils
     public static void copyStream(InputStream in, OutputStream out)
         throws IOException
     {
-        final int BUFFER_SIZE = 65536;
+        copyStream(in, out, new byte[BUFFER_SIZE]);
+    }
+
 
-        // read in increments of BUFFER_SIZE
-        byte[] b = new byte[BUFFER_SIZE];
+    // ----------------------------------------------------------
+    /**
+     * Copies a stream using a buffer supplied by the caller, so that callers
+     * copying many small files can reuse one buffer for all of them.
+     *
+     * @param in the stream to read from
+     * @param out the stream to write to
+     * @param b the buffer to use
+     * @throws IOException if an I/O error occurs
+     */
+    public static void copyStream(InputStream in, OutputStream out, byte[] b)
+        throws IOException
+    {
         int count = in.read(b);
         while (count > -1)
         {